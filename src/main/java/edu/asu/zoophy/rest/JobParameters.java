@@ -3,6 +3,7 @@ package edu.asu.zoophy.rest;
 import java.util.List;
 import java.util.Map;
 
+import edu.asu.zoophy.rest.pipeline.SubsampleParameters;
 import edu.asu.zoophy.rest.pipeline.XMLParameters;
 import edu.asu.zoophy.rest.pipeline.glm.Predictor;
 
@@ -18,6 +19,7 @@ public class JobParameters {
 	private boolean useGLM = false;
 	private Map<String, List<Predictor>> predictors = null;
 	private XMLParameters xmlOptions = XMLParameters.getDefault();
+	private SubsampleParameters subsampling = null;
 	
 	public JobParameters() {
 		
@@ -70,5 +72,13 @@ public class JobParameters {
 	public void setXmlOptions(XMLParameters xmlOptions) {
 		this.xmlOptions = xmlOptions;
 	}
+
+	public SubsampleParameters getSubsampling() {
+		return subsampling;
+	}
+
+	public void setSubsampling(SubsampleParameters subsampling) {
+		this.subsampling = subsampling;
+	}
 	
 }
@@ -0,0 +1,62 @@
+package edu.asu.zoophy.rest;
+
+/**
+ * ZooPhy Job queue details
+ * @author devdemetri
+ */
+public class JobQueueStatus {
+	
+	private String jobID;
+	private int position;
+	private int queueLength;
+	private int runningJobs;
+	private int slots;
+	
+	public JobQueueStatus() {
+		
+	}
+
+	public String getJobID() {
+		return jobID;
+	}
+
+	public void setJobID(String jobID) {
+		this.jobID = jobID;
+	}
+
+	/**
+	 * @return 0 if the job is running, its 1-based queue position if it is waiting, or -1 if the job is not scheduled
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	public void setPosition(int position) {
+		this.position = position;
+	}
+
+	public int getQueueLength() {
+		return queueLength;
+	}
+
+	public void setQueueLength(int queueLength) {
+		this.queueLength = queueLength;
+	}
+
+	public int getRunningJobs() {
+		return runningJobs;
+	}
+
+	public void setRunningJobs(int runningJobs) {
+		this.runningJobs = runningJobs;
+	}
+
+	public int getSlots() {
+		return slots;
+	}
+
+	public void setSlots(int slots) {
+		this.slots = slots;
+	}
+	
+}
@@ -1,7 +1,9 @@
 package edu.asu.zoophy.rest;
 
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * ZooPhy Job Validation Details
@@ -12,11 +14,15 @@ public class ValidationResults {
 	private String error;
 	private List<String> accessionsUsed;
 	private List<String> accessionsRemoved;
+	private List<String> accessionsSubsampled;
+	private Map<String, String> accessionsCollapsed;
 	
 	public ValidationResults() {
 		error = null;
 		accessionsUsed = new LinkedList<String>();
 		accessionsRemoved = new LinkedList<String>();
+		accessionsSubsampled = new LinkedList<String>();
+		accessionsCollapsed = new LinkedHashMap<String, String>();
 	}
 
 	public String getError() {
@@ -43,4 +49,26 @@ public class ValidationResults {
 		this.accessionsRemoved = accessionsRemoved;
 	}
 
+	/**
+	 * @return accessions dropped by subsampling, not included in accessionsRemoved
+	 */
+	public List<String> getAccessionsSubsampled() {
+		return accessionsSubsampled;
+	}
+
+	public void setAccessionsSubsampled(List<String> accessionsSubsampled) {
+		this.accessionsSubsampled = accessionsSubsampled;
+	}
+
+	/**
+	 * @return accessions collapsed into an identical sequence from the same location and date, each with the accession kept for it, not included in accessionsRemoved
+	 */
+	public Map<String, String> getAccessionsCollapsed() {
+		return accessionsCollapsed;
+	}
+
+	public void setAccessionsCollapsed(Map<String, String> accessionsCollapsed) {
+		this.accessionsCollapsed = accessionsCollapsed;
+	}
+
 }
@@ -1,22 +1,32 @@
 package edu.asu.zoophy.rest;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import edu.asu.zoophy.rest.database.DaoException;
 import edu.asu.zoophy.rest.database.GenBankRecordNotFoundException;
@@ -24,11 +34,22 @@ import edu.asu.zoophy.rest.database.ZooPhyDAO;
 import edu.asu.zoophy.rest.genbank.GenBankRecord;
 import edu.asu.zoophy.rest.genbank.Location;
 import edu.asu.zoophy.rest.genbank.PossibleLocation;
+import edu.asu.zoophy.rest.index.IndexStatistics;
 import edu.asu.zoophy.rest.index.InvalidLuceneQueryException;
 import edu.asu.zoophy.rest.index.LuceneSearcher;
 import edu.asu.zoophy.rest.index.LuceneSearcherException;
+import edu.asu.zoophy.rest.pipeline.AlignmentCache;
+import edu.asu.zoophy.rest.pipeline.AlignmentCacheStatistics;
+import edu.asu.zoophy.rest.pipeline.JobEvent;
+import edu.asu.zoophy.rest.pipeline.JobMetrics;
+import edu.asu.zoophy.rest.pipeline.JobResultStatistics;
+import edu.asu.zoophy.rest.pipeline.JobResultStore;
+import edu.asu.zoophy.rest.pipeline.JobScheduler;
+import edu.asu.zoophy.rest.pipeline.JobTimeline;
 import edu.asu.zoophy.rest.pipeline.PipelineException;
 import edu.asu.zoophy.rest.pipeline.PipelineManager;
+import edu.asu.zoophy.rest.pipeline.StageHistograms;
+import edu.asu.zoophy.rest.pipeline.StageMetrics;
 import edu.asu.zoophy.rest.pipeline.ZooPhyRunner;
 import edu.asu.zoophy.rest.pipeline.glm.GLMException;
 import edu.asu.zoophy.rest.pipeline.glm.PredictorTemplateGenerator;
@@ -64,6 +85,9 @@ public class ZooPhyController {
 	@Value("${query.max.records}")
 	private Integer QUERY_MAX_RECORDS;
 	
+	@Value("${download.max.records:100000}")
+	private Integer DOWNLOAD_MAX_RECORDS;
+	
 	@Autowired
 	private DownloadFormatter formatter;
 	
@@ -184,11 +208,10 @@ public class ZooPhyController {
      * @return list of index GenBankRecords for the given accessions
      * @throws ParameterException
      * @throws LuceneSearcherException
-     * @throws InvalidLuceneQueryException
      */
     @RequestMapping(value="/search/accessions", method=RequestMethod.POST)
     @ResponseStatus(value=HttpStatus.OK)
-    public List<GenBankRecord> queryAccessions(@RequestBody List<String> accessions) throws ParameterException, LuceneSearcherException, InvalidLuceneQueryException {
+    public List<GenBankRecord> queryAccessions(@RequestBody List<String> accessions) throws ParameterException, LuceneSearcherException {
     	List<GenBankRecord> records = null;
     	log.info("Searching accession list...");
     	if (accessions != null && accessions.size() > 0) {
@@ -206,24 +229,8 @@ public class ZooPhyController {
     				throw new ParameterException(accession);
     			}
     		}
-    		List<String> usableAccessions = new LinkedList<String>(uniqueAccessions);
+    		records = indexSearcher.getRecords(uniqueAccessions);
     		uniqueAccessions.clear();
-    		records = new LinkedList<GenBankRecord>();
-    		final int INDIVIDUAL_QUERY_LIMIT = 1024;
-    		int current;
-    		while (!usableAccessions.isEmpty()) {
-    			current = 0;
-	    		StringBuilder queryBuilder = new StringBuilder("Accession: (");
-	    		queryBuilder.append(usableAccessions.remove(0));
-	    		current++;
-	    		while (!usableAccessions.isEmpty() && current < INDIVIDUAL_QUERY_LIMIT) {
-	    			queryBuilder.append(" OR ");
-	    			queryBuilder.append(usableAccessions.remove(0));
-	    			current++;
-	    		}
-	    		queryBuilder.append(")");
-	    		records.addAll(indexSearcher.searchIndex(queryBuilder.toString(), INDIVIDUAL_QUERY_LIMIT));
-    		}
     		log.info("Successfully searched accession list.");
     	}
     	else {
@@ -233,6 +240,46 @@ public class ZooPhyController {
     	return records;
     }
     
+    /**
+     * Reports reader open counts and searcher acquire latency for the shared Lucene IndexSearcher
+     * @return current Index usage statistics
+     */
+    @RequestMapping(value="/index/stats", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public IndexStatistics getIndexStatistics() {
+    	return indexSearcher.getStatistics();
+    }
+    
+    /**
+     * Reports usage of the MAFFT alignment cache
+     * @return alignment cache statistics
+     * @throws PipelineException
+     */
+    @RequestMapping(value="/alignment/cache", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public AlignmentCacheStatistics getAlignmentCacheStatistics() throws PipelineException {
+    	return AlignmentCache.getInstance().getStatistics();
+    }
+    
+    /**
+     * Picks up changes to the Lucene Index on disk without waiting for the scheduled refresh
+     * @return whether a new IndexReader was opened
+     * @throws LuceneSearcherException
+     */
+    @RequestMapping(value="/index/refresh", method=RequestMethod.POST)
+    @ResponseStatus(value=HttpStatus.OK)
+    public String refreshIndex() throws LuceneSearcherException {
+    	log.info("Refreshing Lucene Index...");
+    	if (indexSearcher.refresh()) {
+    		log.info("Lucene Index refreshed.");
+    		return "Lucene Index refreshed.";
+    	}
+    	else {
+    		log.info("Lucene Index unchanged.");
+    		return "Lucene Index unchanged.";
+    	}
+    }
+    
     /**
      * Run ZooPhy Job
      * @param parameters
@@ -259,7 +306,15 @@ public class ZooPhyController {
     			log.warning("Bad XML Parameters: "+pe.getMessage());
     			throw pe;
     		}
+    		try {
+    			security.verifySubsampleOptions(parameters.getSubsampling());
+    		}
+    		catch (ParameterException pe) {
+    			log.warning("Bad Subsampling Parameters: "+pe.getMessage());
+    			throw pe;
+    		}
 	    	zoophy = new ZooPhyRunner(parameters.getReplyEmail(), parameters.getJobName(), parameters.isUsingGLM(), parameters.getPredictors(), parameters.getXmlOptions());
+	    	zoophy.setSubsampling(parameters.getSubsampling());
 	    	Set<String> jobAccessions = new LinkedHashSet<String>(parameters.getAccessions().size());
 	    	for(String accession : parameters.getAccessions()) {
 	    		if  (security.checkParameter(accession, Parameter.ACCESSION)) {
@@ -274,7 +329,8 @@ public class ZooPhyController {
 	    		log.warning("Job accession list is too long.");
 	    		throw new ParameterException("accessions list is too long");
 	    	}
-	    	manager.startZooPhyPipeline(zoophy, new ArrayList<String>(jobAccessions));
+	    	parameters.setAccessions(new ArrayList<String>(jobAccessions));
+	    	manager.startZooPhyPipeline(zoophy, parameters);
 	    	log.info("Job successfully started: "+zoophy.getJobID());
 	    	return zoophy.getJobID();
     	}
@@ -284,6 +340,88 @@ public class ZooPhyController {
     	}
     }
     
+    /**
+     * Reports where a ZooPhy Job is in the job queue
+     * @param jobID - ID of Job to check
+     * @return queue status of the job
+     * @throws ParameterException
+     */
+    @RequestMapping(value="/queue", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public JobQueueStatus getQueueStatus(@RequestParam(value="id") String jobID) throws ParameterException {
+    	if (security.checkParameter(jobID, Parameter.JOB_ID)) {
+    		JobScheduler scheduler = manager.getScheduler();
+    		JobQueueStatus status = new JobQueueStatus();
+    		status.setJobID(jobID);
+    		status.setPosition(scheduler.getQueuePosition(jobID));
+    		status.setQueueLength(scheduler.getQueueLength());
+    		status.setRunningJobs(scheduler.getRunningCount());
+    		status.setSlots(scheduler.getSlotCount());
+    		return status;
+    	}
+    	else {
+    		log.warning("Bad Job ID parameter: "+jobID);
+    		throw new ParameterException(jobID);
+    	}
+    }
+    
+    /**
+     * Reports the recorded events of a ZooPhy Job, such as status changes, BEAST checkpoints, restarts, and errors
+     * @param jobID - ID of Job to check
+     * @return the job's events in the order they happened
+     * @throws ParameterException
+     */
+    @RequestMapping(value="/timeline", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public List<JobEvent> getJobTimeline(@RequestParam(value="id") String jobID) throws ParameterException {
+    	if (security.checkParameter(jobID, Parameter.JOB_ID)) {
+    		return JobTimeline.getEvents(jobID);
+    	}
+    	else {
+    		log.warning("Bad Job ID parameter: "+jobID);
+    		throw new ParameterException(jobID);
+    	}
+    }
+    
+    /**
+     * Reports histograms of each pipeline stage's wall time, CPU time, peak memory, and bytes written across the jobs run since startup
+     * @return histograms for each stage
+     */
+    @RequestMapping(value="/metrics", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public List<StageHistograms> getStageMetrics() {
+    	return JobMetrics.getHistograms();
+    }
+    
+    /**
+     * Reports how often submitted jobs were identical to a finished, queued, or running job and did not have to run
+     * @return job result store statistics
+     * @throws PipelineException
+     */
+    @RequestMapping(value="/metrics/results", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public JobResultStatistics getJobResultStatistics() throws PipelineException {
+    	return JobResultStore.getInstance().getStatistics();
+    }
+    
+    /**
+     * Reports the timing and resource use of each stage of a ZooPhy Job
+     * @param jobID - ID of Job to check
+     * @return the job's stage metrics
+     * @throws ParameterException
+     */
+    @RequestMapping(value="/metrics/job", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public List<StageMetrics> getJobMetrics(@RequestParam(value="id") String jobID) throws ParameterException {
+    	if (security.checkParameter(jobID, Parameter.JOB_ID)) {
+    		return JobMetrics.getStages(jobID);
+    	}
+    	else {
+    		log.warning("Bad Job ID parameter: "+jobID);
+    		throw new ParameterException(jobID);
+    	}
+    }
+    
     /**
      * Stop a running ZooPhyJob by the Job ID
      * @param jobID - ID of Job to be stopped
@@ -366,6 +504,87 @@ public class ZooPhyController {
     	}
     }
     
+    /**
+     * Streams GenBankRecords download in the specified format as the records are fetched, instead of building the whole download in memory.
+     * The response is gzip encoded if the client accepts gzip.
+     * @param format - CSV or FASTA
+     * @param acceptEncoding - client Accept-Encoding header
+     * @param accessions
+     * @return streamed download
+     * @throws ParameterException
+     */
+    @RequestMapping(value="/download/stream", method=RequestMethod.POST)
+    public ResponseEntity<StreamingResponseBody> streamDownload(@RequestParam(value="format") String format, @RequestHeader(value="Accept-Encoding", required=false) String acceptEncoding, @RequestBody List<String> accessions) throws ParameterException {
+    	log.info("Setting up streaming download...");
+    	final DownloadFormat downloadFormat;
+    	if (format != null && format.equalsIgnoreCase("CSV")) {
+    		downloadFormat = DownloadFormat.CSV;
+    	}
+    	else if (format != null && format.equalsIgnoreCase("FASTA")) {
+    		downloadFormat = DownloadFormat.FASTA;
+    	}
+    	else {
+    		log.warning("Bad format parameter: "+format);
+    		throw new ParameterException(format);
+    	}
+    	if (accessions == null || accessions.size() == 0) {
+    		log.warning("Empty accession list.");
+    		throw new ParameterException("accessions list is empty");
+    	}
+    	if (accessions.size() > DOWNLOAD_MAX_RECORDS) {
+    		log.warning("Too many accessions.");
+    		throw new ParameterException("accessions list is too long");
+    	}
+    	Set<String> downloadAccessions = new LinkedHashSet<String>(accessions.size());
+    	for (String accession : accessions) {
+    		if  (security.checkParameter(accession, Parameter.ACCESSION)) {
+    			downloadAccessions.add(accession);
+    		}
+    		else {
+    			log.warning("Bad accession parameter: "+accession);
+    			throw new ParameterException(accession);
+    		}
+    	}
+    	final List<String> streamAccessions = new ArrayList<String>(downloadAccessions);
+    	downloadAccessions.clear();
+    	final boolean isGzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    	StreamingResponseBody body = new StreamingResponseBody() {
+    		@Override
+    		public void writeTo(OutputStream output) throws IOException {
+    			try {
+    				if (isGzip) {
+    					// closing the gzip stream finishes it and frees its Deflater, but the response stream is left to Spring
+    					try (GZIPOutputStream gzip = new GZIPOutputStream(new CloseShieldOutputStream(output), 65536)) {
+    						formatter.streamDownload(streamAccessions, downloadFormat, gzip);
+    					}
+    				}
+    				else {
+    					formatter.streamDownload(streamAccessions, downloadFormat, output);
+    				}
+    				log.info("Successfully streamed download.");
+    			}
+    			catch (ParameterException | FormatterException e) {
+    				log.warning("Streaming download failed: "+e.getMessage());
+    				throw new IOException(e.getMessage());
+    			}
+    		}
+    	};
+    	HttpHeaders headers = new HttpHeaders();
+    	if (downloadFormat == DownloadFormat.CSV) {
+    		headers.setContentType(MediaType.parseMediaType("text/csv"));
+    		headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=zoophy.csv");
+    	}
+    	else {
+    		headers.setContentType(MediaType.TEXT_PLAIN);
+    		headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=zoophy.fasta");
+    	}
+    	headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    	if (isGzip) {
+    		headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+    	}
+    	return new ResponseEntity<StreamingResponseBody>(body, headers, HttpStatus.OK);
+    }
+    
     /**
      * Generates a GLM Predictors template for users to fill in. Template already includes lat, long, and SampleSize.
      * @param accessions - Accessions to base template on
@@ -439,7 +658,15 @@ public class ZooPhyController {
 	    			log.warning("Bad XML Parameters: "+pe.getMessage());
 	    			throw pe;
 	    		}
+	    		try {
+	    			security.verifySubsampleOptions(parameters.getSubsampling());
+	    		}
+	    		catch (ParameterException pe) {
+	    			log.warning("Bad Subsampling Parameters: "+pe.getMessage());
+	    			throw pe;
+	    		}
 		    	zoophy = new ZooPhyRunner(parameters.getReplyEmail(), parameters.getJobName(), parameters.isUsingGLM(), parameters.getPredictors(), parameters.getXmlOptions());
+		    	zoophy.setSubsampling(parameters.getSubsampling());
 		    	Set<String> jobAccessions = new LinkedHashSet<String>(parameters.getAccessions().size());
 		    	for(String accession : parameters.getAccessions()) {
 		    		if  (security.checkParameter(accession, Parameter.ACCESSION)) {
@@ -456,7 +683,11 @@ public class ZooPhyController {
 		    	}
 		    	Set<String> remainingAccessions = zoophy.testZooPhy(new ArrayList<String>(jobAccessions), dao, indexSearcher);
 		    	jobAccessions.removeAll(remainingAccessions);
+		    	jobAccessions.removeAll(zoophy.getSubsampledAccessions());
+		    	jobAccessions.removeAll(zoophy.getCollapsedAccessions().keySet());
 		    	results.setAccessionsRemoved(new LinkedList<String>(jobAccessions));
+		    	results.setAccessionsSubsampled(new LinkedList<String>(zoophy.getSubsampledAccessions()));
+		    	results.setAccessionsCollapsed(new LinkedHashMap<String, String>(zoophy.getCollapsedAccessions()));
 		    	results.setAccessionsUsed(new LinkedList<String>(remainingAccessions));
 		    	return results;
 	    	}
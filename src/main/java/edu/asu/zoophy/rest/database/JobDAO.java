@@ -0,0 +1,371 @@
+package edu.asu.zoophy.rest.database;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Responsible for persisting ZooPhy Jobs so queued jobs survive service restarts.
+ * The Job table also serves as the work queue shared by worker nodes, which claim jobs with SELECT ... FOR UPDATE SKIP LOCKED and send heartbeats.
+ * @author devdemetri
+ */
+@Repository("JobDAO")
+public class JobDAO {
+	
+	@Autowired
+	private JdbcTemplate jdbc;
+	
+	private static final String CREATE_JOB_TABLE = "CREATE TABLE IF NOT EXISTS \"ZooPhy_Jobs\" (\"Job_ID\" VARCHAR(64) PRIMARY KEY, \"Status\" VARCHAR(16) NOT NULL, \"Priority\" INTEGER NOT NULL DEFAULT 0, \"Submitted\" TIMESTAMP NOT NULL DEFAULT now(), \"Started\" TIMESTAMP, \"Finished\" TIMESTAMP, \"Parameters\" TEXT NOT NULL, \"Stage\" VARCHAR(32), \"Worker\" VARCHAR(64), \"Heartbeat\" TIMESTAMP, \"Stop_Requested\" BOOLEAN NOT NULL DEFAULT false)";
+	private static final String ADD_COLUMNS = "ALTER TABLE \"ZooPhy_Jobs\" ADD COLUMN IF NOT EXISTS \"Stage\" VARCHAR(32), ADD COLUMN IF NOT EXISTS \"Worker\" VARCHAR(64), ADD COLUMN IF NOT EXISTS \"Heartbeat\" TIMESTAMP, ADD COLUMN IF NOT EXISTS \"Stop_Requested\" BOOLEAN NOT NULL DEFAULT false";
+	private static final String CREATE_QUEUE_INDEX = "CREATE INDEX IF NOT EXISTS \"ZooPhy_Jobs_Queue\" ON \"ZooPhy_Jobs\" (\"Status\", \"Priority\" DESC, \"Submitted\")";
+	private static final String INSERT_JOB = "INSERT INTO \"ZooPhy_Jobs\" (\"Job_ID\", \"Status\", \"Priority\", \"Parameters\") VALUES (?, ?, ?, ?)";
+	private static final String UPDATE_JOB_STARTED = "UPDATE \"ZooPhy_Jobs\" SET \"Status\"=?, \"Started\"=now() WHERE \"Job_ID\"=?";
+	private static final String UPDATE_JOB_FINISHED = "UPDATE \"ZooPhy_Jobs\" SET \"Status\"=?, \"Finished\"=now() WHERE \"Job_ID\"=?";
+	private static final String UPDATE_JOB_STATUS = "UPDATE \"ZooPhy_Jobs\" SET \"Status\"=? WHERE \"Job_ID\"=?";
+	private static final String UPDATE_JOB_STAGE = "UPDATE \"ZooPhy_Jobs\" SET \"Stage\"=? WHERE \"Job_ID\"=?";
+	private static final String UPDATE_WORKER_JOB_FINISHED = "UPDATE \"ZooPhy_Jobs\" SET \"Status\"=?, \"Finished\"=now() WHERE \"Job_ID\"=? AND \"Worker\"=? AND \"Status\"=?";
+	private static final String UPDATE_WORKER_JOB_STAGE = "UPDATE \"ZooPhy_Jobs\" SET \"Stage\"=? WHERE \"Job_ID\"=? AND \"Worker\"=? AND \"Status\"=?";
+	private static final String UPDATE_JOB_FINISHED_IF_STATUS = "UPDATE \"ZooPhy_Jobs\" SET \"Status\"=?, \"Finished\"=now() WHERE \"Job_ID\"=? AND \"Status\"=?";
+	private static final String PULL_JOBS_BY_STATUS = "SELECT \"Job_ID\", \"Status\", \"Priority\", \"Submitted\", \"Parameters\", \"Stage\" FROM \"ZooPhy_Jobs\" WHERE \"Status\"=? ORDER BY \"Priority\" DESC, \"Submitted\" ASC";
+	private static final String PULL_JOB = "SELECT \"Job_ID\", \"Status\", \"Priority\", \"Submitted\", \"Parameters\", \"Stage\" FROM \"ZooPhy_Jobs\" WHERE \"Job_ID\"=?";
+	private static final String COUNT_JOBS_BY_STATUS = "SELECT count(*) FROM \"ZooPhy_Jobs\" WHERE \"Status\"=?";
+	private static final String COUNT_JOBS_AHEAD = "SELECT count(*) FROM \"ZooPhy_Jobs\" q, \"ZooPhy_Jobs\" j WHERE j.\"Job_ID\"=? AND q.\"Status\"=j.\"Status\" AND (q.\"Priority\" > j.\"Priority\" OR (q.\"Priority\"=j.\"Priority\" AND q.\"Submitted\" <= j.\"Submitted\"))";
+	private static final String CLAIM_JOB = "UPDATE \"ZooPhy_Jobs\" SET \"Status\"=?, \"Worker\"=?, \"Heartbeat\"=now(), \"Started\"=now() WHERE \"Job_ID\"=(SELECT \"Job_ID\" FROM \"ZooPhy_Jobs\" WHERE \"Status\"=? AND NOT \"Stop_Requested\" ORDER BY \"Priority\" DESC, \"Submitted\" ASC LIMIT 1 FOR UPDATE SKIP LOCKED) RETURNING \"Job_ID\", \"Status\", \"Priority\", \"Submitted\", \"Parameters\", \"Stage\"";
+	private static final String UPDATE_HEARTBEAT = "UPDATE \"ZooPhy_Jobs\" SET \"Heartbeat\"=now() WHERE \"Worker\"=? AND \"Status\"=? RETURNING \"Job_ID\"";
+	private static final String PULL_STOP_REQUESTS = "SELECT \"Job_ID\" FROM \"ZooPhy_Jobs\" WHERE \"Worker\"=? AND \"Status\"=? AND \"Stop_Requested\"";
+	private static final String REQUEST_STOP = "UPDATE \"ZooPhy_Jobs\" SET \"Stop_Requested\"=true WHERE \"Job_ID\"=? AND \"Status\"=?";
+	private static final String REQUEUE_STALE_JOBS = "UPDATE \"ZooPhy_Jobs\" SET \"Status\"=?, \"Worker\"=NULL, \"Priority\"=GREATEST(\"Priority\", ?) WHERE \"Status\"=? AND \"Heartbeat\" < now() - ? * INTERVAL '1 second' AND NOT \"Stop_Requested\" RETURNING \"Job_ID\"";
+	private static final String REQUEUE_WORKER_JOBS = "UPDATE \"ZooPhy_Jobs\" SET \"Status\"=?, \"Worker\"=NULL, \"Priority\"=GREATEST(\"Priority\", ?) WHERE \"Worker\"=? AND \"Status\"=? RETURNING \"Job_ID\"";
+	
+	private static final Logger log = Logger.getLogger("JobDAO");
+	
+	public JobDAO() {
+		
+	}
+	
+	/**
+	 * Constructor for using the Job table outside of Spring
+	 * @param jdbc
+	 */
+	JobDAO(JdbcTemplate jdbc) {
+		this.jdbc = jdbc;
+	}
+	
+	/**
+	 * Creates the Job table if it does not exist yet, and adds the columns added since to tables created without them
+	 * @throws DaoException
+	 */
+	@PostConstruct
+	void createJobTable() throws DaoException {
+		try {
+			jdbc.execute(CREATE_JOB_TABLE);
+			jdbc.execute(ADD_COLUMNS);
+			jdbc.execute(CREATE_QUEUE_INDEX);
+			log.info("Job table ready.");
+		}
+		catch (Exception e) {
+			log.log(Level.SEVERE, "Could not create Job table: "+e.getMessage());
+			throw new DaoException("Could not create Job table: "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Persists a newly submitted job
+	 * @param jobID
+	 * @param status
+	 * @param priority - higher priority jobs are run first
+	 * @param parameters - JSON serialized JobParameters
+	 * @throws DaoException
+	 */
+	public void insertJob(String jobID, String status, int priority, String parameters) throws DaoException {
+		try {
+			jdbc.update(INSERT_JOB, jobID, status, priority, parameters);
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not insert job: "+jobID+" : "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Marks a job as started with the given status
+	 * @param jobID
+	 * @param status
+	 * @throws DaoException
+	 */
+	public void updateJobStarted(String jobID, String status) throws DaoException {
+		try {
+			jdbc.update(UPDATE_JOB_STARTED, status, jobID);
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not update job: "+jobID+" : "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Marks a job as finished with the given final status
+	 * @param jobID
+	 * @param status
+	 * @throws DaoException
+	 */
+	public void updateJobFinished(String jobID, String status) throws DaoException {
+		try {
+			jdbc.update(UPDATE_JOB_FINISHED, status, jobID);
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not update job: "+jobID+" : "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Marks a job as finished with the given final status, only if it still has the expected status
+	 * @param jobID
+	 * @param status
+	 * @param currentStatus - status the job must have
+	 * @return True if the job was updated, False if it did not have the expected status
+	 * @throws DaoException
+	 */
+	public boolean updateJobFinished(String jobID, String status, String currentStatus) throws DaoException {
+		try {
+			return jdbc.update(UPDATE_JOB_FINISHED_IF_STATUS, status, jobID, currentStatus) > 0;
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not update job: "+jobID+" : "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Marks a job as finished with the given final status, only if the worker still owns it
+	 * @param jobID
+	 * @param worker - ID of the worker running the job
+	 * @param status
+	 * @param runningStatus - status of running jobs
+	 * @return True if the job was updated, False if it was returned to the queue and the worker no longer owns it
+	 * @throws DaoException
+	 */
+	public boolean updateWorkerJobFinished(String jobID, String worker, String status, String runningStatus) throws DaoException {
+		try {
+			return jdbc.update(UPDATE_WORKER_JOB_FINISHED, status, jobID, worker, runningStatus) > 0;
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not update job: "+jobID+" : "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Changes a job's status without recording a start or finish time
+	 * @param jobID
+	 * @param status
+	 * @throws DaoException
+	 */
+	public void updateJobStatus(String jobID, String status) throws DaoException {
+		try {
+			jdbc.update(UPDATE_JOB_STATUS, status, jobID);
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not update job: "+jobID+" : "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Records the last pipeline stage a job completed
+	 * @param jobID
+	 * @param stage
+	 * @throws DaoException
+	 */
+	public void updateJobStage(String jobID, String stage) throws DaoException {
+		try {
+			jdbc.update(UPDATE_JOB_STAGE, stage, jobID);
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not update job: "+jobID+" : "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Records the last pipeline stage a job completed, only if the worker still owns it
+	 * @param jobID
+	 * @param worker - ID of the worker running the job
+	 * @param stage
+	 * @param runningStatus - status of running jobs
+	 * @return True if the job was updated, False if it was returned to the queue and the worker no longer owns it
+	 * @throws DaoException
+	 */
+	public boolean updateWorkerJobStage(String jobID, String worker, String stage, String runningStatus) throws DaoException {
+		try {
+			return jdbc.update(UPDATE_WORKER_JOB_STAGE, stage, jobID, worker, runningStatus) > 0;
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not update job: "+jobID+" : "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Retrieves jobs with the given status, highest priority and oldest first
+	 * @param status
+	 * @return list of matching jobs
+	 * @throws DaoException
+	 */
+	public List<StoredJob> retrieveJobs(String status) throws DaoException {
+		try {
+			final String[] parameters = {status};
+			return jdbc.query(PULL_JOBS_BY_STATUS, parameters, new StoredJobRowMapper());
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not retrieve "+status+" jobs: "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Retrieves a single job
+	 * @param jobID
+	 * @return the job, or null if it does not exist
+	 * @throws DaoException
+	 */
+	public StoredJob retrieveJob(String jobID) throws DaoException {
+		try {
+			final String[] parameters = {jobID};
+			List<StoredJob> jobs = jdbc.query(PULL_JOB, parameters, new StoredJobRowMapper());
+			return jobs.isEmpty() ? null : jobs.get(0);
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not retrieve job: "+jobID+" : "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * @param status
+	 * @return number of jobs with the given status
+	 * @throws DaoException
+	 */
+	public int countJobs(String status) throws DaoException {
+		try {
+			return jdbc.queryForObject(COUNT_JOBS_BY_STATUS, Integer.class, status);
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not count "+status+" jobs: "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * @param jobID
+	 * @return number of jobs with the same status that are ahead of the job or are the job, 0 if the job does not exist
+	 * @throws DaoException
+	 */
+	public int countJobsAhead(String jobID) throws DaoException {
+		try {
+			return jdbc.queryForObject(COUNT_JOBS_AHEAD, Integer.class, jobID);
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not count jobs ahead of: "+jobID+" : "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Claims the highest priority, oldest waiting job for a worker. Jobs locked by other workers' claims are skipped rather than waited on.
+	 * @param worker - ID of the claiming worker
+	 * @param fromStatus - status of waiting jobs
+	 * @param toStatus - status of claimed jobs
+	 * @return the claimed job, or null if no job is waiting
+	 * @throws DaoException
+	 */
+	public StoredJob claimJob(String worker, String fromStatus, String toStatus) throws DaoException {
+		try {
+			final String[] parameters = {toStatus, worker, fromStatus};
+			List<StoredJob> jobs = jdbc.query(CLAIM_JOB, parameters, new StoredJobRowMapper());
+			return jobs.isEmpty() ? null : jobs.get(0);
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not claim job for worker: "+worker+" : "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Records that a worker is still running its jobs
+	 * @param worker
+	 * @param status - status of running jobs
+	 * @return IDs of the jobs the worker still owns, without any of its jobs that were returned to the queue
+	 * @throws DaoException
+	 */
+	public List<String> updateHeartbeat(String worker, String status) throws DaoException {
+		try {
+			return jdbc.queryForList(UPDATE_HEARTBEAT, String.class, worker, status);
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not update heartbeat of worker: "+worker+" : "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * @param worker
+	 * @param status - status of running jobs
+	 * @return IDs of the worker's running jobs that a user asked to stop
+	 * @throws DaoException
+	 */
+	public List<String> retrieveStopRequests(String worker, String status) throws DaoException {
+		try {
+			return jdbc.queryForList(PULL_STOP_REQUESTS, String.class, worker, status);
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not retrieve stop requests of worker: "+worker+" : "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Asks the worker running a job to stop it
+	 * @param jobID
+	 * @param status - status of running jobs
+	 * @return True if the job is running, False otherwise
+	 * @throws DaoException
+	 */
+	public boolean requestStop(String jobID, String status) throws DaoException {
+		try {
+			return jdbc.update(REQUEST_STOP, jobID, status) > 0;
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not request stop of job: "+jobID+" : "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Returns running jobs whose worker stopped sending heartbeats to the queue
+	 * @param queuedStatus - status of waiting jobs
+	 * @param runningStatus - status of running jobs
+	 * @param timeoutSeconds - seconds without a heartbeat after which a worker is presumed dead
+	 * @param priority - lowest priority of the returned jobs
+	 * @return IDs of the returned jobs
+	 * @throws DaoException
+	 */
+	public List<String> requeueStaleJobs(String queuedStatus, String runningStatus, int timeoutSeconds, int priority) throws DaoException {
+		try {
+			return jdbc.queryForList(REQUEUE_STALE_JOBS, String.class, queuedStatus, priority, runningStatus, timeoutSeconds);
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not requeue stale jobs: "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Returns a worker's running jobs to the queue, for a worker restarting after it was stopped
+	 * @param worker
+	 * @param queuedStatus - status of waiting jobs
+	 * @param runningStatus - status of running jobs
+	 * @param priority - lowest priority of the returned jobs
+	 * @return IDs of the returned jobs
+	 * @throws DaoException
+	 */
+	public List<String> requeueWorkerJobs(String worker, String queuedStatus, String runningStatus, int priority) throws DaoException {
+		try {
+			return jdbc.queryForList(REQUEUE_WORKER_JOBS, String.class, queuedStatus, priority, worker, runningStatus);
+		}
+		catch (Exception e) {
+			throw new DaoException("Could not requeue jobs of worker: "+worker+" : "+e.getMessage());
+		}
+	}
+	
+}
@@ -0,0 +1,76 @@
+package edu.asu.zoophy.rest.database;
+
+import java.util.Date;
+
+/**
+ * ZooPhy Job as persisted in the Job table
+ * @author devdemetri
+ */
+public class StoredJob {
+	
+	private String jobID;
+	private String status;
+	private int priority;
+	private Date submitted;
+	private String parameters;
+	private String stage;
+	
+	public StoredJob() {
+		
+	}
+
+	public String getJobID() {
+		return jobID;
+	}
+
+	public void setJobID(String jobID) {
+		this.jobID = jobID;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public void setPriority(int priority) {
+		this.priority = priority;
+	}
+
+	public Date getSubmitted() {
+		return submitted;
+	}
+
+	public void setSubmitted(Date submitted) {
+		this.submitted = submitted;
+	}
+
+	/**
+	 * @return JSON serialized JobParameters
+	 */
+	public String getParameters() {
+		return parameters;
+	}
+
+	public void setParameters(String parameters) {
+		this.parameters = parameters;
+	}
+	
+	/**
+	 * @return last pipeline stage the job completed, or null
+	 */
+	public String getStage() {
+		return stage;
+	}
+	
+	public void setStage(String stage) {
+		this.stage = stage;
+	}
+	
+}
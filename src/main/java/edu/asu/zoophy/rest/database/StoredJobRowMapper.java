@@ -0,0 +1,26 @@
+package edu.asu.zoophy.rest.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * Maps SQL row to StoredJob
+ * @author devdemetri
+ */
+public class StoredJobRowMapper implements RowMapper<StoredJob> {
+
+	@Override
+	public StoredJob mapRow(ResultSet row, int rowNumber) throws SQLException {
+		StoredJob job = new StoredJob();
+		job.setJobID(row.getString("Job_ID"));
+		job.setStatus(row.getString("Status"));
+		job.setPriority(row.getInt("Priority"));
+		job.setSubmitted(row.getTimestamp("Submitted"));
+		job.setParameters(row.getString("Parameters"));
+		job.setStage(row.getString("Stage"));
+		return job;
+	}
+
+}
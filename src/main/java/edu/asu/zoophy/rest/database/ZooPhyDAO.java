@@ -1,6 +1,12 @@
 package edu.asu.zoophy.rest.database;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -9,6 +15,9 @@ import javax.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 
 import edu.asu.zoophy.rest.genbank.GenBankRecord;
@@ -26,16 +35,42 @@ public class ZooPhyDAO {
 	@Autowired
     private JdbcTemplate jdbc;
 	
+	@Autowired
+	private NamedParameterJdbcTemplate namedJdbc;
+	
 	private static final String PULL_RECORD_DETAILS = "SELECT \"Sequence_Details\".\"Accession\", \"Collection_Date\", \"Comment\", \"Definition\", \"Isolate\", \"Tax_ID\", \"Organism\", \"Strain\", \"Sequence\", \"Segment_Length\", \"pH1N1\", \"Host_Name\", \"Host_taxon\", \"Geoname_ID\", \"Location\", \"Latitude\", \"Longitude\", \"Type\", \"Country\" FROM \"Sequence_Details\" JOIN \"Host\" ON \"Sequence_Details\".\"Accession\"=\"Host\".\"Accession\" JOIN \"Location_Geoname\" ON \"Sequence_Details\".\"Accession\"=\"Location_Geoname\".\"Accession\" JOIN \"Sequence\" ON \"Sequence_Details\".\"Accession\"=\"Sequence\".\"Accession\" WHERE \"Sequence_Details\".\"Accession\"=?";
 	private static final String PULL_RECORD_GENES = "SELECT DISTINCT \"Accession\", \"Normalized_Gene_Name\" FROM \"Gene\" WHERE \"Accession\"=?  AND \"Normalized_Gene_Name\" IS NOT NULL";
 	private static final String PULL_RECORD_PUBLICATION = "SELECT \"Accession\", \"Pubmed_ID\", \"Pubmed_Central_ID\", \"Authors\", \"Title\", \"Journal\" FROM \"Sequence_Publication\" JOIN \"Publication\" ON \"Sequence_Publication\".\"Pub_ID\"=\"Publication\".\"Pubmed_ID\" WHERE \"Accession\"=?";
 	private static final String PULL_RECORD_LOCATION = "SELECT \"Accession\", \"Geoname_ID\", \"Location\", \"Latitude\", \"Longitude\", \"Type\", \"Country\" FROM \"Location_Geoname\" WHERE \"Accession\"=?";
 	private static final String PULL_RECORD_POSSIBLE_LOCATIONS = "SELECT \"Accession\", \"Geoname_ID\", \"Location\", \"Latitude\", \"Longitude\", \"probability\" FROM \"Possible_Location\" WHERE \"Accession\"=?";
 	private static final String PULL_STATE_PREDICTORS = "SELECT \"Key\", \"Value\", \"State\", \"Year\" FROM \"Predictor\" WHERE \"State\"=?";
+	private static final String PULL_RECORDS_DETAILS = "SELECT \"Sequence_Details\".\"Accession\", \"Collection_Date\", \"Comment\", \"Definition\", \"Isolate\", \"Tax_ID\", \"Organism\", \"Strain\", \"Sequence\", \"Segment_Length\", \"pH1N1\", \"Host_Name\", \"Host_taxon\", \"Geoname_ID\", \"Location\", \"Latitude\", \"Longitude\", \"Type\", \"Country\" FROM \"Sequence_Details\" JOIN \"Host\" ON \"Sequence_Details\".\"Accession\"=\"Host\".\"Accession\" JOIN \"Location_Geoname\" ON \"Sequence_Details\".\"Accession\"=\"Location_Geoname\".\"Accession\" JOIN \"Sequence\" ON \"Sequence_Details\".\"Accession\"=\"Sequence\".\"Accession\" WHERE \"Sequence_Details\".\"Accession\" IN (:accessions)";
+	private static final String PULL_RECORDS_GENES = "SELECT DISTINCT \"Accession\", \"Normalized_Gene_Name\" FROM \"Gene\" WHERE \"Accession\" IN (:accessions) AND \"Normalized_Gene_Name\" IS NOT NULL";
+	private static final String PULL_RECORDS_PUBLICATION = "SELECT \"Accession\", \"Pubmed_ID\", \"Pubmed_Central_ID\", \"Authors\", \"Title\", \"Journal\" FROM \"Sequence_Publication\" JOIN \"Publication\" ON \"Sequence_Publication\".\"Pub_ID\"=\"Publication\".\"Pubmed_ID\" WHERE \"Accession\" IN (:accessions)";
+	private static final String PULL_RECORDS_POSSIBLE_LOCATIONS = "SELECT \"Accession\", \"Geoname_ID\", \"Location\", \"Latitude\", \"Longitude\", \"probability\" FROM \"Possible_Location\" WHERE \"Accession\" IN (:accessions)";
 	private static final String TEST_QUERY = "SELECT DISTINCT(\"Accession\") FROM \"Sequence_Details\" LIMIT 500";
 
 	private static final Logger log = Logger.getLogger("ZooPhyDAO");
 	
+	/**
+	 * Maximum Accessions bound into a single bulk query
+	 */
+	private static final int BULK_CHUNK_SIZE = 1000;
+	
+	public ZooPhyDAO() {
+		
+	}
+	
+	/**
+	 * Constructor for using the record tables outside of Spring
+	 * @param jdbc
+	 * @param namedJdbc
+	 */
+	ZooPhyDAO(JdbcTemplate jdbc, NamedParameterJdbcTemplate namedJdbc) {
+		this.jdbc = jdbc;
+		this.namedJdbc = namedJdbc;
+	}
+	
 	/**
 	 * Tests connection to SQL Database
 	 * @throws DaoException
@@ -123,6 +158,102 @@ public class ZooPhyDAO {
 		}
 	}
 
+	/**
+	 * Retrieve the specified GenBankRecords from the database without Gene or Publication details.
+	 * Each table is queried once per chunk of Accessions rather than once per record.
+	 * @param accessions - unique accessions of records to be returned
+	 * @return retrieved GenBankRecords in the order of the given accessions
+	 * @throws GenBankRecordNotFoundException if any of the accessions is not in the database
+	 * @throws DaoException
+	 */
+	public List<GenBankRecord> retrieveLightRecords(List<String> accessions) throws GenBankRecordNotFoundException, DaoException {
+		return retrieveRecords(accessions, false);
+	}
+	
+	/**
+	 * Retrieve the specified GenBankRecords from the database with all related details.
+	 * Each table is queried once per chunk of Accessions rather than once per record.
+	 * @param accessions - unique accessions of records to be returned
+	 * @return retrieved GenBankRecords in the order of the given accessions
+	 * @throws GenBankRecordNotFoundException if any of the accessions is not in the database
+	 * @throws DaoException
+	 */
+	public List<GenBankRecord> retrieveFullRecords(List<String> accessions) throws GenBankRecordNotFoundException, DaoException {
+		return retrieveRecords(accessions, true);
+	}
+	
+	/**
+	 * Bulk loads GenBankRecords chunk by chunk and stitches their related rows together by Accession
+	 * @param accessions - accessions of records to be returned
+	 * @param isFull - whether to include Genes, Possible Locations and Publication
+	 * @return retrieved GenBankRecords in the order of the given accessions
+	 * @throws GenBankRecordNotFoundException for the first accession not in the database
+	 * @throws DaoException
+	 */
+	private List<GenBankRecord> retrieveRecords(List<String> accessions, boolean isFull) throws GenBankRecordNotFoundException, DaoException {
+		try {
+			List<String> uniqueAccessions = new ArrayList<String>(new LinkedHashSet<String>(accessions));
+			final Map<String, GenBankRecord> records = new LinkedHashMap<String, GenBankRecord>((int)(uniqueAccessions.size()/0.75)+1);
+			for (int start = 0; start < uniqueAccessions.size(); start += BULK_CHUNK_SIZE) {
+				List<String> chunk = uniqueAccessions.subList(start, Math.min(start+BULK_CHUNK_SIZE, uniqueAccessions.size()));
+				MapSqlParameterSource parameters = new MapSqlParameterSource("accessions", chunk);
+				for (GenBankRecord record : namedJdbc.query(PULL_RECORDS_DETAILS, parameters, new GenBankRecordRowMapper())) {
+					records.put(record.getAccession(), record);
+				}
+				if (isFull) {
+					namedJdbc.query(PULL_RECORDS_GENES, parameters, new RowCallbackHandler() {
+						private final GeneRowMapper mapper = new GeneRowMapper();
+						@Override
+						public void processRow(ResultSet row) throws SQLException {
+							GenBankRecord record = records.get(row.getString("Accession"));
+							if (record != null) {
+								record.getGenes().add(mapper.mapRow(row, 0));
+							}
+						}
+					});
+					namedJdbc.query(PULL_RECORDS_POSSIBLE_LOCATIONS, parameters, new RowCallbackHandler() {
+						private final PossLocationsRowMapper mapper = new PossLocationsRowMapper();
+						@Override
+						public void processRow(ResultSet row) throws SQLException {
+							GenBankRecord record = records.get(row.getString("Accession"));
+							if (record != null) {
+								record.getPossibleLocations().add(mapper.mapRow(row, 0));
+							}
+						}
+					});
+					namedJdbc.query(PULL_RECORDS_PUBLICATION, parameters, new RowCallbackHandler() {
+						private final PublicationRowMapper mapper = new PublicationRowMapper();
+						@Override
+						public void processRow(ResultSet row) throws SQLException {
+							GenBankRecord record = records.get(row.getString("Accession"));
+							if (record != null && record.getPublication() == null) {
+								record.setPublication(mapper.mapRow(row, 0));
+							}
+						}
+					});
+				}
+			}
+			List<GenBankRecord> orderedRecords = new ArrayList<GenBankRecord>(records.size());
+			for (String accession : uniqueAccessions) {
+				GenBankRecord record = records.get(accession);
+				if (record == null) {
+					log.warning("Bulk record retrieval found "+records.size()+" of "+uniqueAccessions.size()+" accessions.");
+					throw new GenBankRecordNotFoundException(accession);
+				}
+				orderedRecords.add(record);
+			}
+			return orderedRecords;
+		}
+		catch (Exception e) {
+			if (e.getClass() != GenBankRecordNotFoundException.class) {
+				throw new DaoException(e.getMessage());
+			}
+			else {
+				throw e;
+			}
+		}
+	}
+	
 	/**
 	 * Retrieve the specified record's location from the database
 	 * @param accession
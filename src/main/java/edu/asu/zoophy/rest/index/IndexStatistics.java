@@ -0,0 +1,59 @@
+package edu.asu.zoophy.rest.index;
+
+/**
+ * Reader and searcher usage statistics for the shared Lucene IndexSearcher
+ * @author devdemetri
+ */
+public class IndexStatistics {
+	
+	private long readerOpens = 0;
+	private long refreshChecks = 0;
+	private long searcherAcquires = 0;
+	private double meanAcquireMicros = 0.0;
+	private double maxAcquireMicros = 0.0;
+	
+	public IndexStatistics() {
+		
+	}
+
+	public long getReaderOpens() {
+		return readerOpens;
+	}
+
+	public void setReaderOpens(long readerOpens) {
+		this.readerOpens = readerOpens;
+	}
+
+	public long getRefreshChecks() {
+		return refreshChecks;
+	}
+
+	public void setRefreshChecks(long refreshChecks) {
+		this.refreshChecks = refreshChecks;
+	}
+
+	public long getSearcherAcquires() {
+		return searcherAcquires;
+	}
+
+	public void setSearcherAcquires(long searcherAcquires) {
+		this.searcherAcquires = searcherAcquires;
+	}
+
+	public double getMeanAcquireMicros() {
+		return meanAcquireMicros;
+	}
+
+	public void setMeanAcquireMicros(double meanAcquireMicros) {
+		this.meanAcquireMicros = meanAcquireMicros;
+	}
+
+	public double getMaxAcquireMicros() {
+		return maxAcquireMicros;
+	}
+
+	public void setMaxAcquireMicros(double maxAcquireMicros) {
+		this.maxAcquireMicros = maxAcquireMicros;
+	}
+	
+}
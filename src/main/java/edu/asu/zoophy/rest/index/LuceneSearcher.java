@@ -3,10 +3,21 @@ package edu.asu.zoophy.rest.index;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,17 +26,26 @@ import javax.annotation.PreDestroy;
 
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
@@ -39,15 +59,27 @@ import edu.asu.zoophy.rest.genbank.GenBankRecord;
 public class LuceneSearcher {
 	
 	private Directory indexDirectory;
+	private SearcherManager searcherManager;
+	private ScheduledExecutorService refresher = null;
 	private QueryParser queryParser;
 	private final static Logger log = Logger.getLogger("LuceneSearcher");
 	
-	public LuceneSearcher(@Value("${lucene.index.location}") String indexLocation) throws LuceneSearcherException {
+	private final AtomicLong readerOpens = new AtomicLong(0);
+	private final AtomicLong acquireCount = new AtomicLong(0);
+	private final AtomicLong acquireNanos = new AtomicLong(0);
+	private final AtomicLong maxAcquireNanos = new AtomicLong(0);
+	private final AtomicLong refreshCount = new AtomicLong(0);
+	
+	public LuceneSearcher(@Value("${lucene.index.location}") String indexLocation, @Value("${lucene.refresh.seconds:60}") Integer refreshSeconds) throws LuceneSearcherException {
 		try {
 			Path index = Paths.get(indexLocation);
 			indexDirectory = FSDirectory.open(index);
+			searcherManager = new SearcherManager(indexDirectory, new CountingSearcherFactory());
 			queryParser = new QueryParser("Accession", new KeywordAnalyzer());
 			log.info("Connected to Index at: "+indexLocation);
+			if (refreshSeconds != null && refreshSeconds > 0) {
+				startRefresher(refreshSeconds);
+			}
 		}
 		catch (IOException ioe) {
 			log.log(Level.SEVERE, "Could not open Lucene Index at: "+indexLocation+ " : "+ioe.getMessage());
@@ -83,6 +115,15 @@ public class LuceneSearcher {
 	 */
 	@PreDestroy
 	private void close() {
+		if (refresher != null) {
+			refresher.shutdownNow();
+		}
+		try {
+			searcherManager.close();
+		}
+		catch (IOException ioe) {
+			log.warning("Issue closing SearcherManager: "+ioe.getMessage());
+		}
 		try {
 			indexDirectory.close();
 			log.info("Lucene Index closed");
@@ -92,6 +133,102 @@ public class LuceneSearcher {
 		}
 	}
 
+	/**
+	 * Starts a background task that periodically picks up changes to the Index on disk
+	 * @param refreshSeconds - seconds between refresh checks
+	 */
+	private void startRefresher(final int refreshSeconds) {
+		refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "LuceneRefresher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		refresher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refresh();
+				}
+				catch (LuceneSearcherException lse) {
+					log.warning("Scheduled Index refresh failed: "+lse.getMessage());
+				}
+			}
+		}, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Reopens the shared IndexReader if the Index changed on disk. Searches in progress keep using the old reader until they release it.
+	 * @return True if a new reader was opened, False if the Index was unchanged
+	 * @throws LuceneSearcherException
+	 */
+	public boolean refresh() throws LuceneSearcherException {
+		try {
+			final long opensBefore = readerOpens.get();
+			searcherManager.maybeRefreshBlocking();
+			refreshCount.incrementAndGet();
+			boolean changed = readerOpens.get() != opensBefore;
+			if (changed) {
+				log.info("Lucene Index refreshed.");
+			}
+			return changed;
+		}
+		catch (IOException ioe) {
+			throw new LuceneSearcherException("Could not refresh Lucene Index: "+ioe.getMessage());
+		}
+	}
+	
+	/**
+	 * @return current reader open and searcher acquire statistics
+	 */
+	public IndexStatistics getStatistics() {
+		IndexStatistics statistics = new IndexStatistics();
+		final long acquires = acquireCount.get();
+		statistics.setReaderOpens(readerOpens.get());
+		statistics.setRefreshChecks(refreshCount.get());
+		statistics.setSearcherAcquires(acquires);
+		if (acquires > 0) {
+			statistics.setMeanAcquireMicros((acquireNanos.get() / acquires) / 1000.0);
+		}
+		statistics.setMaxAcquireMicros(maxAcquireNanos.get() / 1000.0);
+		return statistics;
+	}
+	
+	/**
+	 * Acquires the shared IndexSearcher. Must be paired with releaseSearcher.
+	 * @return shared IndexSearcher
+	 * @throws IOException
+	 */
+	private IndexSearcher acquireSearcher() throws IOException {
+		final long start = System.nanoTime();
+		IndexSearcher searcher = searcherManager.acquire();
+		final long elapsed = System.nanoTime() - start;
+		acquireCount.incrementAndGet();
+		acquireNanos.addAndGet(elapsed);
+		long currentMax = maxAcquireNanos.get();
+		while (elapsed > currentMax && !maxAcquireNanos.compareAndSet(currentMax, elapsed)) {
+			currentMax = maxAcquireNanos.get();
+		}
+		return searcher;
+	}
+	
+	/**
+	 * Releases an IndexSearcher obtained from acquireSearcher
+	 * @param indexSearcher
+	 */
+	private void releaseSearcher(IndexSearcher indexSearcher) {
+		if (indexSearcher != null) {
+			try {
+				searcherManager.release(indexSearcher);
+			}
+			catch (IOException ioe) {
+				log.warning("Could not release IndexSearcher: "+ioe.getMessage()); 
+			}
+		}
+	}
+
 	/**
 	 * Search Lucene Index for matching GenBank Records
 	 * @param querystring - valid Lucene query string
@@ -102,13 +239,11 @@ public class LuceneSearcher {
 	 */
 	public List<GenBankRecord> searchIndex(String querystring, int maxRecords) throws LuceneSearcherException, InvalidLuceneQueryException {
 		List<GenBankRecord> records = new LinkedList<GenBankRecord>();
-		IndexReader reader = null;
 		IndexSearcher indexSearcher = null;
 		Query query;
 		TopDocs documents;
 		try {
-			reader = DirectoryReader.open(indexDirectory);
-			indexSearcher = new IndexSearcher(reader);
+			indexSearcher = acquireSearcher();
 			query = queryParser.parse(querystring);
 			documents = indexSearcher.search(query, maxRecords);
 			for (ScoreDoc scoreDoc : documents.scoreDocs) {
@@ -124,14 +259,7 @@ public class LuceneSearcher {
 			throw new LuceneSearcherException(e.getMessage());
 		}
 		finally {
-			try {
-				if (reader != null) {
-					reader.close();
-				}
-			}
-			catch (IOException ioe) {
-				log.warning("Could not close IndexReader: "+ioe.getMessage()); 
-			}
+			releaseSearcher(indexSearcher);
 		}
 	}
 
@@ -143,14 +271,12 @@ public class LuceneSearcher {
 	 */
 	public Set<Long> findLocationAncestors(String accession) throws LuceneSearcherException {
 		Set<Long> ancestors = new HashSet<Long>();
-		IndexReader reader = null;
 		IndexSearcher indexSearcher = null;
 		Query query;
 		TopDocs documents;
 		String querystring = "Accession:"+accession;
 		try {
-			reader = DirectoryReader.open(indexDirectory);
-			indexSearcher = new IndexSearcher(reader);
+			indexSearcher = acquireSearcher();
 			query = queryParser.parse(querystring);
 			documents = indexSearcher.search(query, 1);
 			if (documents.scoreDocs != null && documents.scoreDocs.length == 1) {
@@ -165,14 +291,7 @@ public class LuceneSearcher {
 			throw new LuceneSearcherException(e.getMessage());
 		}
 		finally {
-			try {
-				if (reader != null) {
-					reader.close();
-				}
-			}
-			catch (IOException ioe) {
-				log.warning("Could not close IndexReader: "+ioe.getMessage()); 
-			}
+			releaseSearcher(indexSearcher);
 		}
 	}
 
@@ -184,13 +303,11 @@ public class LuceneSearcher {
 	 */
 	public GenBankRecord getRecord(String accession) throws LuceneSearcherException {
 		IndexSearcher indexSearcher = null;
-		IndexReader reader = null;
 		Query query;
 		TopDocs documents;
 		String querystring = "Accession:"+accession;
 		try {
-			reader = DirectoryReader.open(indexDirectory);
-			indexSearcher = new IndexSearcher(reader);
+			indexSearcher = acquireSearcher();
 			query = queryParser.parse(querystring);
 			documents = indexSearcher.search(query, 1);
 			if (documents.scoreDocs != null && documents.scoreDocs.length == 1) {
@@ -205,15 +322,88 @@ public class LuceneSearcher {
 			throw new LuceneSearcherException(e.getMessage());
 		}
 		finally {
-			try {
-				if (reader != null) {
-					reader.close();
+			releaseSearcher(indexSearcher);
+		}
+	}
+	
+	/**
+	 * Retrieves GenBankRecords for a batch of Accessions straight from the Accession term dictionary, without query parsing or scoring
+	 * @param accessions - Accessions to retrieve
+	 * @return GenBankRecords from the Index in the order of the given Accessions. Accessions missing from the Index are skipped.
+	 * @throws LuceneSearcherException
+	 */
+	public List<GenBankRecord> getRecords(Collection<String> accessions) throws LuceneSearcherException {
+		List<GenBankRecord> records = new ArrayList<GenBankRecord>(accessions.size());
+		if (accessions.isEmpty()) {
+			return records;
+		}
+		IndexSearcher indexSearcher = null;
+		try {
+			indexSearcher = acquireSearcher();
+			// sorted lookups let the TermsEnum seek forward through the term dictionary
+			Set<String> pending = new TreeSet<String>(accessions);
+			Map<String, GenBankRecord> found = new HashMap<String, GenBankRecord>((int)(pending.size()/0.75)+1);
+			for (LeafReaderContext leaf : indexSearcher.getIndexReader().leaves()) {
+				if (pending.isEmpty()) {
+					break;
+				}
+				LeafReader leafReader = leaf.reader();
+				Terms terms = leafReader.terms("Accession");
+				if (terms == null) {
+					continue;
+				}
+				TermsEnum termsEnum = terms.iterator();
+				Bits liveDocs = leafReader.getLiveDocs();
+				PostingsEnum postings = null;
+				Iterator<String> pendingIter = pending.iterator();
+				while (pendingIter.hasNext()) {
+					String accession = pendingIter.next();
+					if (termsEnum.seekExact(new BytesRef(accession))) {
+						postings = termsEnum.postings(postings, PostingsEnum.NONE);
+						int doc = postings.nextDoc();
+						while (doc != DocIdSetIterator.NO_MORE_DOCS) {
+							if (liveDocs == null || liveDocs.get(doc)) {
+								found.put(accession, DocumentMapper.mapRecord(leafReader.document(doc)));
+								pendingIter.remove();
+								break;
+							}
+							doc = postings.nextDoc();
+						}
+					}
 				}
 			}
-			catch (IOException ioe) {
-				log.warning("Could not close IndexReader: "+ioe.getMessage()); 
+			Set<String> added = new HashSet<String>((int)(found.size()/0.75)+1);
+			for (String accession : accessions) {
+				GenBankRecord record = found.get(accession);
+				if (record != null && added.add(accession)) {
+					records.add(record);
+				}
 			}
+			return records;
+		}
+		catch (LuceneSearcherException lse) {
+			throw lse;
+		}
+		catch (Exception e) {
+			throw new LuceneSearcherException(e.getMessage());
+		}
+		finally {
+			releaseSearcher(indexSearcher);
+		}
+	}
+	
+	/**
+	 * Counts every IndexReader opened for the SearcherManager
+	 * @author devdemetri
+	 */
+	private class CountingSearcherFactory extends SearcherFactory {
+		
+		@Override
+		public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+			readerOpens.incrementAndGet();
+			return super.newSearcher(reader, previousReader);
 		}
+		
 	}
 	
 }
@@ -0,0 +1,373 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Responsible for keeping MAFFT alignments on disk, keyed by the SHA-256 hash of the raw FASTA they were aligned from.
+ * Each alignment also keeps a list of its record hashes, so a job can start from the largest cached subset of its records.
+ * The least recently used alignments are evicted once the cache grows past its size limit.
+ * @author devdemetri
+ */
+public class AlignmentCache {
+
+	private final static Logger log = Logger.getLogger("AlignmentCache");
+	private final static String SUFFIX = ".fasta";
+	private final static String RECORDS_SUFFIX = ".records";
+	private static AlignmentCache cache = null;
+
+	private final File CACHE_DIR;
+	private final long MAX_BYTES;
+	private final double MIN_OVERLAP;
+	/**
+	 * Cached alignment sizes in least to most recently used order
+	 */
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	/**
+	 * Record hashes of cached alignments, loaded as needed
+	 */
+	private final Map<String, Set<String>> recordSets = new HashMap<String, Set<String>>();
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicLong incrementalHits = new AtomicLong(0);
+	private final AtomicLong evictions = new AtomicLong(0);
+	private long totalBytes = 0;
+
+	private AlignmentCache() throws PipelineException {
+		PropertyProvider provider = PropertyProvider.getInstance();
+		String cacheDir = provider.getProperty("alignment.cache.dir");
+		if (cacheDir == null || cacheDir.trim().isEmpty()) {
+			cacheDir = System.getProperty("user.dir")+"/AlignmentCache/";
+		}
+		String maxMegabytes = provider.getProperty("alignment.cache.max.mb");
+		MAX_BYTES = (maxMegabytes != null ? Long.parseLong(maxMegabytes.trim()) : 1024L) * 1024L * 1024L;
+		String minOverlap = provider.getProperty("alignment.incremental.min.overlap");
+		MIN_OVERLAP = minOverlap != null ? Double.parseDouble(minOverlap.trim()) : 0.5;
+		CACHE_DIR = new File(cacheDir.trim());
+		open();
+	}
+
+	/**
+	 * Constructor for using an AlignmentCache outside of the configured cache directory
+	 * @param cacheDir - directory to keep alignments in
+	 * @param maxBytes - size limit of the cache
+	 * @param minOverlap - smallest fraction of a job's records a base alignment must cover
+	 * @throws PipelineException
+	 */
+	AlignmentCache(File cacheDir, long maxBytes, double minOverlap) throws PipelineException {
+		CACHE_DIR = cacheDir;
+		MAX_BYTES = maxBytes;
+		MIN_OVERLAP = minOverlap;
+		open();
+	}
+
+	/**
+	 * Creates the cache directory and loads its alignments
+	 * @throws PipelineException
+	 */
+	private void open() throws PipelineException {
+		if (isEnabled()) {
+			if (!CACHE_DIR.isDirectory() && !CACHE_DIR.mkdirs()) {
+				throw new PipelineException("Could not create alignment cache directory: "+CACHE_DIR.getAbsolutePath(), null);
+			}
+			loadEntries();
+		}
+	}
+
+	/**
+	 * Retrieve the singleton instance of the AlignmentCache
+	 * @return an AlignmentCache instance
+	 * @throws PipelineException
+	 */
+	public static synchronized AlignmentCache getInstance() throws PipelineException {
+		if (cache == null) {
+			cache = new AlignmentCache();
+		}
+		return cache;
+	}
+
+	/**
+	 * Picks up alignments cached by earlier runs, oldest first
+	 */
+	private void loadEntries() {
+		File[] files = CACHE_DIR.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File first, File second) {
+				return Long.compare(first.lastModified(), second.lastModified());
+			}
+		});
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isFile() && name.endsWith(SUFFIX)) {
+				String key = name.substring(0, name.length()-SUFFIX.length());
+				long size = file.length() + new File(CACHE_DIR, key+RECORDS_SUFFIX).length();
+				entries.put(key, size);
+				totalBytes += size;
+			}
+		}
+		log.info("Loaded "+entries.size()+" cached alignments ("+totalBytes+" bytes) from "+CACHE_DIR.getAbsolutePath());
+		evict();
+	}
+
+	/**
+	 * @return True if alignments will be cached, False if alignment.cache.max.mb is 0
+	 */
+	public boolean isEnabled() {
+		return MAX_BYTES > 0;
+	}
+
+	/**
+	 * Hashes raw FASTA into a cache key
+	 * @param rawFasta - FASTA formatted sequences before alignment
+	 * @return hex encoded SHA-256 hash of the raw FASTA
+	 * @throws PipelineException
+	 */
+	public static String getKey(String rawFasta) throws PipelineException {
+		return toHex(newDigest().digest(rawFasta.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * @return a new SHA-256 MessageDigest
+	 * @throws PipelineException
+	 */
+	static MessageDigest newDigest() throws PipelineException {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new PipelineException("SHA-256 is not available: "+e.getMessage(), null);
+		}
+	}
+
+	/**
+	 * @param hash
+	 * @return lowercase hex String of the hash
+	 */
+	static String toHex(byte[] hash) {
+		StringBuilder hex = new StringBuilder(hash.length * 2);
+		for (byte b : hash) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Copies a cached alignment to the given file
+	 * @param key - raw FASTA hash
+	 * @param destination - file to copy the alignment to
+	 * @return True if the alignment was cached, False otherwise
+	 */
+	public boolean retrieve(String key, File destination) {
+		if (!isEnabled()) {
+			return false;
+		}
+		File cached = new File(CACHE_DIR, key+SUFFIX);
+		synchronized (this) {
+			if (entries.get(key) == null || !cached.isFile()) {
+				misses.incrementAndGet();
+				return false;
+			}
+			cached.setLastModified(System.currentTimeMillis());
+		}
+		try {
+			Files.copy(cached.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			hits.incrementAndGet();
+			return true;
+		}
+		catch (IOException e) {
+			log.log(Level.WARNING, "Could not copy cached alignment "+key+": "+e.getMessage());
+			misses.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * Finds the largest cached alignment whose records are all in the given set of records
+	 * @param records - record hashes of the raw FASTA to align
+	 * @return key of the cached alignment, or null if none covers at least alignment.incremental.min.overlap of the records
+	 */
+	public synchronized String findBase(Set<String> records) {
+		if (!isEnabled() || MIN_OVERLAP > 1.0) {
+			return null;
+		}
+		String bestKey = null;
+		int bestSize = 0;
+		final int minSize = (int) Math.ceil(records.size() * MIN_OVERLAP);
+		for (String key : new HashSet<String>(entries.keySet())) {
+			Set<String> cachedRecords = getRecordSet(key);
+			if (cachedRecords == null) {
+				continue;
+			}
+			int size = cachedRecords.size();
+			if (size > bestSize && size >= minSize && size < records.size() && records.containsAll(cachedRecords)) {
+				bestKey = key;
+				bestSize = size;
+			}
+		}
+		return bestKey;
+	}
+
+	/**
+	 * @param key
+	 * @return record hashes of the cached alignment, or null if they were not stored
+	 */
+	public synchronized Set<String> getRecordSet(String key) {
+		Set<String> cachedRecords = recordSets.get(key);
+		if (cachedRecords == null) {
+			File recordsFile = new File(CACHE_DIR, key+RECORDS_SUFFIX);
+			if (!recordsFile.isFile()) {
+				return null;
+			}
+			cachedRecords = new HashSet<String>();
+			try {
+				BufferedReader reader = Files.newBufferedReader(recordsFile.toPath(), StandardCharsets.UTF_8);
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (!line.isEmpty()) {
+							cachedRecords.add(line);
+						}
+					}
+				}
+				finally {
+					reader.close();
+				}
+			}
+			catch (IOException e) {
+				log.log(Level.WARNING, "Could not read records of cached alignment "+key+": "+e.getMessage());
+				return null;
+			}
+			recordSets.put(key, cachedRecords);
+		}
+		return cachedRecords;
+	}
+
+	/**
+	 * Copies a cached alignment to use as the base of an incremental alignment
+	 * @param key - raw FASTA hash of the base alignment
+	 * @param destination - file to copy the alignment to
+	 * @return True if the alignment was copied, False otherwise
+	 */
+	public boolean retrieveBase(String key, File destination) {
+		File cached = new File(CACHE_DIR, key+SUFFIX);
+		synchronized (this) {
+			if (entries.get(key) == null || !cached.isFile()) {
+				return false;
+			}
+			cached.setLastModified(System.currentTimeMillis());
+		}
+		try {
+			Files.copy(cached.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			incrementalHits.incrementAndGet();
+			return true;
+		}
+		catch (IOException e) {
+			log.log(Level.WARNING, "Could not copy cached base alignment "+key+": "+e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Adds an alignment to the cache, evicting the least recently used alignments if needed
+	 * @param key - raw FASTA hash
+	 * @param alignment - MAFFT aligned FASTA file
+	 * @param records - hashes of the records in the alignment
+	 */
+	public void store(String key, File alignment, Collection<String> records) {
+		if (!isEnabled() || alignment.length() > MAX_BYTES) {
+			return;
+		}
+		File cached = new File(CACHE_DIR, key+SUFFIX);
+		File temp = new File(CACHE_DIR, key+SUFFIX+".tmp");
+		File recordsFile = new File(CACHE_DIR, key+RECORDS_SUFFIX);
+		try {
+			Files.copy(alignment.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			BufferedWriter writer = Files.newBufferedWriter(recordsFile.toPath(), StandardCharsets.UTF_8);
+			try {
+				for (String record : records) {
+					writer.write(record);
+					writer.newLine();
+				}
+			}
+			finally {
+				writer.close();
+			}
+			synchronized (this) {
+				Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				long size = cached.length() + recordsFile.length();
+				Long previous = entries.put(key, size);
+				if (previous != null) {
+					totalBytes -= previous;
+				}
+				totalBytes += size;
+				recordSets.remove(key);
+				evict();
+			}
+		}
+		catch (IOException e) {
+			log.log(Level.WARNING, "Could not cache alignment "+key+": "+e.getMessage());
+			temp.delete();
+			recordsFile.delete();
+		}
+	}
+
+	/**
+	 * Deletes least recently used alignments until the cache fits in its size limit
+	 */
+	private synchronized void evict() {
+		Iterator<Map.Entry<String, Long>> iter = entries.entrySet().iterator();
+		while (totalBytes > MAX_BYTES && iter.hasNext()) {
+			Map.Entry<String, Long> eldest = iter.next();
+			File file = new File(CACHE_DIR, eldest.getKey()+SUFFIX);
+			if (file.delete() || !file.exists()) {
+				new File(CACHE_DIR, eldest.getKey()+RECORDS_SUFFIX).delete();
+				recordSets.remove(eldest.getKey());
+				totalBytes -= eldest.getValue();
+				iter.remove();
+				evictions.incrementAndGet();
+				log.info("Evicted cached alignment: "+eldest.getKey());
+			}
+		}
+	}
+
+	/**
+	 * @return current cache usage and hit rate
+	 */
+	public synchronized AlignmentCacheStatistics getStatistics() {
+		AlignmentCacheStatistics statistics = new AlignmentCacheStatistics();
+		statistics.setEnabled(isEnabled());
+		statistics.setEntries(entries.size());
+		statistics.setSizeBytes(totalBytes);
+		statistics.setMaxBytes(MAX_BYTES);
+		statistics.setHits(hits.get());
+		statistics.setMisses(misses.get());
+		statistics.setIncrementalHits(incrementalHits.get());
+		statistics.setEvictions(evictions.get());
+		return statistics;
+	}
+
+}
@@ -0,0 +1,94 @@
+package edu.asu.zoophy.rest.pipeline;
+
+/**
+ * Usage statistics for the AlignmentCache
+ * @author devdemetri
+ */
+public class AlignmentCacheStatistics {
+
+	private boolean enabled = false;
+	private int entries = 0;
+	private long sizeBytes = 0;
+	private long maxBytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long incrementalHits = 0;
+	private long evictions = 0;
+
+	public AlignmentCacheStatistics() {
+
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getEntries() {
+		return entries;
+	}
+
+	public void setEntries(int entries) {
+		this.entries = entries;
+	}
+
+	public long getSizeBytes() {
+		return sizeBytes;
+	}
+
+	public void setSizeBytes(long sizeBytes) {
+		this.sizeBytes = sizeBytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public void setHits(long hits) {
+		this.hits = hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public void setMisses(long misses) {
+		this.misses = misses;
+	}
+
+	public long getIncrementalHits() {
+		return incrementalHits;
+	}
+
+	public void setIncrementalHits(long incrementalHits) {
+		this.incrementalHits = incrementalHits;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public void setEvictions(long evictions) {
+		this.evictions = evictions;
+	}
+
+	/**
+	 * @return fraction of lookups that were hits
+	 */
+	public double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0.0 : (double) hits / lookups;
+	}
+
+}
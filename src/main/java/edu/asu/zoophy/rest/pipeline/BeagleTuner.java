@@ -0,0 +1,155 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * BEAGLE instance and thread counts for a BEAST run, chosen from the alignment's taxa and unique site patterns and the cores available to the chain
+ * @author devdemetri
+ */
+final class BeagleTuner {
+
+	/**
+	 * Fewest site patterns worth giving their own BEAGLE instance
+	 */
+	final static int MIN_PATTERNS_PER_INSTANCE = 500;
+	/**
+	 * Smallest taxa x patterns likelihood worth splitting at all
+	 */
+	final static long MIN_THREADED_WORK = 100000;
+
+	private final int instances;
+	private final int threads;
+
+	BeagleTuner(int instances, int threads) {
+		this.instances = Math.max(1, instances);
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Picks instance and thread counts for an alignment
+	 * @param taxa - number of aligned sequences
+	 * @param patterns - number of unique site patterns
+	 * @param cores - cores available to one BEAST chain
+	 * @return BeagleTuner for the alignment
+	 */
+	static BeagleTuner select(int taxa, int patterns, int cores) {
+		if (cores <= 1 || (long) taxa * patterns < MIN_THREADED_WORK) {
+			return new BeagleTuner(1, 1);
+		}
+		int instances = Math.min(cores, Math.max(1, patterns / MIN_PATTERNS_PER_INSTANCE));
+		return new BeagleTuner(instances, cores);
+	}
+
+	/**
+	 * Candidate configurations to time in a calibration run, with the selected one first
+	 * @param selected - configuration picked by select
+	 * @param cores - cores available to one BEAST chain
+	 * @return distinct configurations to try
+	 */
+	static List<BeagleTuner> candidates(BeagleTuner selected, int cores) {
+		List<BeagleTuner> candidates = new ArrayList<BeagleTuner>();
+		for (BeagleTuner candidate : Arrays.asList(selected, new BeagleTuner(1, 1), new BeagleTuner(1, cores), new BeagleTuner(cores, cores))) {
+			if (!candidates.contains(candidate)) {
+				candidates.add(candidate);
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Counts the taxa and unique site patterns of an aligned FASTA file in one pass, keeping only a hash per column
+	 * @param alignment - aligned FASTA file
+	 * @return {taxa, patterns}
+	 * @throws IOException
+	 */
+	static int[] countPatterns(File alignment) throws IOException {
+		long[] columnHashes = new long[0];
+		int taxa = 0;
+		int column = 0;
+		int sites = 0;
+		BufferedReader reader = Files.newBufferedReader(alignment.toPath(), StandardCharsets.UTF_8);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(">")) {
+					taxa++;
+					column = 0;
+					continue;
+				}
+				for (int i = 0; i < line.length(); i++) {
+					char c = line.charAt(i);
+					if (Character.isWhitespace(c)) {
+						continue;
+					}
+					if (column == columnHashes.length) {
+						columnHashes = Arrays.copyOf(columnHashes, Math.max(1024, columnHashes.length * 2));
+					}
+					columnHashes[column] = columnHashes[column] * 1000003L + Character.toUpperCase(c);
+					column++;
+				}
+				sites = Math.max(sites, column);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		Set<Long> patterns = new HashSet<Long>();
+		for (int i = 0; i < sites; i++) {
+			patterns.add(columnHashes[i]);
+		}
+		return new int[] {taxa, patterns.size()};
+	}
+
+	/**
+	 * @return BEAST command line options for this configuration, empty for BEAST's defaults
+	 */
+	List<String> getOptions() {
+		if (instances == 1 && threads == 1) {
+			return Collections.emptyList();
+		}
+		List<String> options = new ArrayList<String>();
+		options.add("-beagle_instances");
+		options.add(String.valueOf(instances));
+		options.add("-threads");
+		options.add(String.valueOf(threads));
+		return options;
+	}
+
+	int getInstances() {
+		return instances;
+	}
+
+	int getThreads() {
+		return threads;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof BeagleTuner)) {
+			return false;
+		}
+		BeagleTuner tuner = (BeagleTuner) other;
+		return instances == tuner.instances && threads == tuner.threads;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * instances + threads;
+	}
+
+	@Override
+	public String toString() {
+		return instances+" BEAGLE instances, "+threads+" threads";
+	}
+
+}
@@ -0,0 +1,80 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Independent BEAST chains of one job, handled as a single Process so stopping the job stops every chain
+ * @author devdemetri
+ */
+final class BeastChainGroup extends Process {
+
+	private final List<Process> chains;
+
+	/**
+	 * @param chains - started BEAST processes, the first one writes to the job log
+	 */
+	BeastChainGroup(List<Process> chains) {
+		this.chains = new ArrayList<Process>(chains);
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return chains.get(0).getOutputStream();
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return chains.get(0).getInputStream();
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		return chains.get(0).getErrorStream();
+	}
+
+	/**
+	 * Waits for every chain to finish
+	 * @return the first non-zero chain exit code, or 0 if every chain succeeded
+	 */
+	@Override
+	public int waitFor() throws InterruptedException {
+		for (Process chain : chains) {
+			chain.waitFor();
+		}
+		return exitValue();
+	}
+
+	/**
+	 * @return the first non-zero chain exit code, or 0 if every chain succeeded
+	 * @throws IllegalThreadStateException if any chain is still running
+	 */
+	@Override
+	public int exitValue() {
+		int exitValue = 0;
+		for (Process chain : chains) {
+			int chainExit = chain.exitValue();
+			if (exitValue == 0) {
+				exitValue = chainExit;
+			}
+		}
+		return exitValue;
+	}
+
+	@Override
+	public void destroy() {
+		for (Process chain : chains) {
+			chain.destroy();
+		}
+	}
+
+	/**
+	 * @return number of chains in the group
+	 */
+	int size() {
+		return chains.size();
+	}
+
+}
@@ -0,0 +1,72 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.util.logging.Logger;
+
+/**
+ * Watches BEAST screen output for known error signatures as it is written, so the job log never needs to be rescanned
+ * @author devdemetri
+ */
+public class BeastErrorDetector implements BeastLogMonitor.LineHandler {
+
+	/**
+	 * Printed by BEAST when the chain fails, usually from underflow that always-scaling mode can avoid
+	 */
+	final static String TERMINATING_ERROR = "java.lang.RuntimeException: An error was encounted. Terminating BEAST";
+	/**
+	 * Other failures worth recording in the job timeline
+	 */
+	private final static String[] ERROR_SIGNATURES = {
+		"java.lang.OutOfMemoryError",
+		"Exception in thread"
+	};
+
+	private final String jobID;
+	private final Logger log;
+	private volatile boolean hasTerminatingError = false;
+	private volatile int errorCount = 0;
+
+	/**
+	 * @param jobID - job whose timeline receives error events
+	 * @param log - job Logger
+	 */
+	public BeastErrorDetector(String jobID, Logger log) {
+		this.jobID = jobID;
+		this.log = log;
+	}
+
+	@Override
+	public void handle(String line) {
+		if (line.indexOf(TERMINATING_ERROR) != -1) {
+			hasTerminatingError = true;
+			record(line);
+			return;
+		}
+		for (String signature : ERROR_SIGNATURES) {
+			if (line.indexOf(signature) != -1) {
+				record(line);
+				return;
+			}
+		}
+	}
+
+	private void record(String line) {
+		errorCount++;
+		log.warning("BEAST error detected: "+line.trim());
+		JobTimeline.record(jobID, JobEventType.ERROR, line.trim());
+	}
+
+	/**
+	 * @return True if BEAST reported the terminating RuntimeException since this detector started
+	 */
+	public boolean hasTerminatingError() {
+		return hasTerminatingError;
+	}
+
+	/**
+	 * @return number of error lines seen
+	 */
+	public int getErrorCount() {
+		return errorCount;
+	}
+
+}
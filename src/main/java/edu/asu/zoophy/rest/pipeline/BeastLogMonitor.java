@@ -0,0 +1,276 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the logs of every running BEAST job from a single polling thread.
+ * Each poll reads only the bytes appended since the last one and passes complete lines to the subscribed handlers.
+ * A truncated log is read again from the start, as is a log replaced by a new file once the old one is read to its end.
+ * @author devdemetri
+ */
+public class BeastLogMonitor {
+
+	private final static Logger log = Logger.getLogger("BeastLogMonitor");
+	private final static int READ_BUFFER_SIZE = 64 * 1024;
+	private final static int DRAIN_BUFFER_SIZE = 8 * 1024;
+	private static BeastLogMonitor monitor = null;
+
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+	private final ScheduledExecutorService poller;
+	private final long POLL_MILLIS;
+
+	private BeastLogMonitor() throws PipelineException {
+		this(getPollMillis());
+	}
+
+	/**
+	 * Constructor for using a BeastLogMonitor outside of the singleton
+	 * @param pollMillis - delay between polls
+	 */
+	BeastLogMonitor(long pollMillis) {
+		POLL_MILLIS = pollMillis;
+		poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "BeastLogMonitor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		poller.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				pollAll();
+			}
+		}, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+		log.info("BEAST log monitor polling every "+POLL_MILLIS+" ms");
+	}
+
+	/**
+	 * @return poll delay from beast.log.poll.ms, 1000 ms by default
+	 * @throws PipelineException
+	 */
+	private static long getPollMillis() throws PipelineException {
+		String pollMillis = PropertyProvider.getInstance().getProperty("beast.log.poll.ms");
+		return pollMillis != null ? Long.parseLong(pollMillis.trim()) : 1000L;
+	}
+
+	/**
+	 * Retrieve the singleton instance of the BeastLogMonitor
+	 * @return a BeastLogMonitor instance
+	 * @throws PipelineException
+	 */
+	public static synchronized BeastLogMonitor getInstance() throws PipelineException {
+		if (monitor == null) {
+			monitor = new BeastLogMonitor();
+		}
+		return monitor;
+	}
+
+	/**
+	 * Starts passing lines of a log file to a handler. The file does not need to exist yet.
+	 * @param file - log file to watch
+	 * @param fromEnd - True to skip the current contents of the file, False to read it from the start
+	 * @param handler - called on the monitor thread for each complete line
+	 * @return Subscription to stop watching the file
+	 */
+	public Subscription watch(File file, boolean fromEnd, LineHandler handler) {
+		Subscription subscription = new Subscription(file, fromEnd ? file.length() : 0, handler);
+		subscriptions.add(subscription);
+		return subscription;
+	}
+
+	/**
+	 * @return number of log files currently watched
+	 */
+	public int getSubscriptionCount() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * Reads new lines from every watched file
+	 */
+	private void pollAll() {
+		for (Subscription subscription : subscriptions) {
+			try {
+				subscription.poll(buffer);
+			}
+			catch (Exception e) {
+				log.log(Level.WARNING, "Error reading "+subscription.file.getAbsolutePath()+": "+e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Receives complete lines appended to a watched log
+	 * @author devdemetri
+	 */
+	public interface LineHandler {
+
+		/**
+		 * @param line - log line without its line terminator
+		 */
+		void handle(String line);
+
+	}
+
+	/**
+	 * A handler's subscription to one log file
+	 * @author devdemetri
+	 */
+	public final class Subscription {
+
+		private final File file;
+		private final LineHandler handler;
+		private FileChannel channel = null;
+		private Object fileKey = null;
+		private long position;
+		private byte[] partialLine = new byte[256];
+		private int partialLength = 0;
+		private volatile boolean isStopped = false;
+
+		private Subscription(File file, long position, LineHandler handler) {
+			this.file = file;
+			this.position = position;
+			this.handler = handler;
+		}
+
+		/**
+		 * Reads the bytes appended since the last poll and dispatches any complete lines
+		 * @param buffer - read buffer shared by all subscriptions on the monitor thread
+		 * @throws IOException
+		 */
+		private synchronized void poll(ByteBuffer buffer) throws IOException {
+			if (isStopped) {
+				return;
+			}
+			if (channel != null && isReplaced()) {
+				read(buffer);
+				if (isStopped) {
+					return;
+				}
+				log.info(file.getName()+" was replaced, reading the new file from the start.");
+				channel.close();
+				channel = null;
+				position = 0;
+				partialLength = 0;
+			}
+			if (channel == null) {
+				if (!file.isFile()) {
+					return;
+				}
+				channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+				fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+			}
+			if (channel.size() < position) {
+				log.info(file.getName()+" was truncated, reading it from the start.");
+				position = 0;
+				partialLength = 0;
+			}
+			read(buffer);
+		}
+
+		/**
+		 * @return True if the watched path now names a different file than the open channel. False while the path is missing mid-rotation.
+		 */
+		private boolean isReplaced() {
+			if (fileKey == null) {
+				return false;
+			}
+			try {
+				return !fileKey.equals(Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey());
+			}
+			catch (IOException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Reads the open channel to its current end and dispatches any complete lines
+		 * @param buffer
+		 * @throws IOException
+		 */
+		private void read(ByteBuffer buffer) throws IOException {
+			long size = channel.size();
+			while (!isStopped && position < size) {
+				buffer.clear();
+				int read = channel.read(buffer, position);
+				if (read <= 0) {
+					break;
+				}
+				position += read;
+				buffer.flip();
+				while (!isStopped && buffer.hasRemaining()) {
+					byte b = buffer.get();
+					if (b == '\n') {
+						int length = partialLength;
+						if (length > 0 && partialLine[length-1] == '\r') {
+							length--;
+						}
+						partialLength = 0;
+						handler.handle(new String(partialLine, 0, length, StandardCharsets.UTF_8));
+					}
+					else {
+						if (partialLength == partialLine.length) {
+							partialLine = Arrays.copyOf(partialLine, partialLine.length * 2);
+						}
+						partialLine[partialLength++] = b;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Reads any lines written since the last poll on the calling thread, so nothing is missed once the writer has exited
+		 * @throws IOException
+		 */
+		public void drain() throws IOException {
+			poll(ByteBuffer.allocate(DRAIN_BUFFER_SIZE));
+		}
+
+		/**
+		 * Stops watching the file. Safe to call from the handler itself.
+		 */
+		public void stop() {
+			isStopped = true;
+			subscriptions.remove(this);
+			synchronized (this) {
+				if (channel != null) {
+					try {
+						channel.close();
+					}
+					catch (IOException e) {
+						log.warning("Could not close "+file.getAbsolutePath()+": "+e.getMessage());
+					}
+					channel = null;
+				}
+			}
+		}
+
+		/**
+		 * @return True if the subscription was stopped
+		 */
+		public boolean isStopped() {
+			return isStopped;
+		}
+
+	}
+
+}
@@ -0,0 +1,196 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Joins the output BEAST wrote before it was interrupted with the output of the run resumed from its state dump.
+ * A resumed BEAST starts its logs and trees file again from the dumped state, so the samples the first run wrote after that state are dropped.
+ * Works on both tab separated logs, whose samples start with the state, and NEXUS trees files, whose samples are named STATE_[state].
+ * @author devdemetri
+ */
+final class BeastLogSplicer {
+
+	private final static String TREE_PREFIX = "tree STATE_";
+	private final static String SET_ASIDE_SUFFIX = ".resume";
+
+	private BeastLogSplicer() {
+
+	}
+
+	/**
+	 * Writes the header and earlier samples of the first run followed by the samples and footer of the resumed run
+	 * @param before - output of the interrupted run
+	 * @param after - output of the resumed run
+	 * @param output - spliced output, may be either input file
+	 * @return state of the first sample of the resumed run, or -1 if it has none
+	 * @throws IOException
+	 */
+	static long splice(File before, File after, File output) throws IOException {
+		truncatePartialLine(before);
+		truncatePartialLine(after);
+		long resumedState = -1;
+		BufferedReader reader = Files.newBufferedReader(after.toPath(), StandardCharsets.UTF_8);
+		try {
+			String line;
+			while (resumedState < 0 && (line = reader.readLine()) != null) {
+				resumedState = getState(line);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		File temp = new File(output.getAbsolutePath()+".splice");
+		BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8);
+		try {
+			reader = Files.newBufferedReader(before.toPath(), StandardCharsets.UTF_8);
+			try {
+				boolean isSampling = false;
+				String line;
+				while ((line = reader.readLine()) != null) {
+					long state = getState(line);
+					if (state < 0 && isSampling) {
+						break;
+					}
+					if (state >= 0) {
+						isSampling = true;
+						if (resumedState >= 0 && state >= resumedState) {
+							break;
+						}
+					}
+					writer.write(line);
+					writer.newLine();
+				}
+			}
+			finally {
+				reader.close();
+			}
+			if (resumedState >= 0) {
+				reader = Files.newBufferedReader(after.toPath(), StandardCharsets.UTF_8);
+				try {
+					boolean isSampling = false;
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (!isSampling && getState(line) < 0) {
+							continue;
+						}
+						isSampling = true;
+						writer.write(line);
+						writer.newLine();
+					}
+				}
+				finally {
+					reader.close();
+				}
+			}
+		}
+		finally {
+			writer.close();
+		}
+		Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return resumedState;
+	}
+
+	/**
+	 * Moves the samples of an interrupted run aside before BEAST resumes and starts the output again.
+	 * Samples already set aside by an earlier interrupted resume are joined with the new ones.
+	 * @param output - BEAST output file
+	 * @return file holding the samples set aside
+	 * @throws IOException
+	 */
+	static File setAside(File output) throws IOException {
+		File setAside = getSetAside(output);
+		if (setAside.exists()) {
+			splice(setAside, output, setAside);
+			Files.delete(output.toPath());
+		}
+		else {
+			Files.move(output.toPath(), setAside.toPath());
+		}
+		return setAside;
+	}
+
+	/**
+	 * Joins the samples set aside before resuming with the samples of the resumed run
+	 * @param output - BEAST output file written by the resumed run
+	 * @return state of the first sample of the resumed run, or -1 if nothing was set aside or it has no samples
+	 * @throws IOException
+	 */
+	static long joinResumed(File output) throws IOException {
+		File setAside = getSetAside(output);
+		if (!setAside.exists()) {
+			return -1;
+		}
+		if (!output.exists()) {
+			Files.move(setAside.toPath(), output.toPath());
+			return -1;
+		}
+		long state = splice(setAside, output, output);
+		Files.delete(setAside.toPath());
+		return state;
+	}
+
+	/**
+	 * @param output - BEAST output file
+	 * @return file the output's samples are set aside in while BEAST resumes
+	 */
+	static File getSetAside(File output) {
+		return new File(output.getAbsolutePath()+SET_ASIDE_SUFFIX);
+	}
+
+	/**
+	 * @param line - line of a BEAST log or trees file
+	 * @return state of the sample on the line, or -1 if it is not a sample
+	 */
+	static long getState(String line) {
+		String trimmed = line.trim();
+		int start = 0;
+		if (trimmed.startsWith(TREE_PREFIX)) {
+			start = TREE_PREFIX.length();
+		}
+		int end = start;
+		while (end < trimmed.length() && Character.isDigit(trimmed.charAt(end))) {
+			end++;
+		}
+		if (end == start || end - start > 18) {
+			return -1;
+		}
+		if (start == 0 && end < trimmed.length() && trimmed.charAt(end) != '\t') {
+			return -1;
+		}
+		return Long.parseLong(trimmed.substring(start, end));
+	}
+
+	/**
+	 * Removes an unfinished last line from a file
+	 * @param file
+	 * @throws IOException
+	 */
+	static void truncatePartialLine(File file) throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long position = raf.length();
+			while (position > 0) {
+				raf.seek(position - 1);
+				if (raf.read() == '\n') {
+					break;
+				}
+				position--;
+			}
+			raf.setLength(position);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+}
@@ -2,28 +2,37 @@ package edu.asu.zoophy.rest.pipeline;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.io.PrintWriter;
 import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.FileHandler;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
-
-import org.apache.commons.io.input.Tailer;
-import org.apache.commons.io.input.TailerListenerAdapter;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import edu.asu.zoophy.rest.pipeline.glm.GLMException;
 
@@ -41,23 +50,62 @@ public class BeastRunner {
 	private final String FIGTREE_TEMPLATE;
 	private final String GLM_SCRIPT;
 	private final String JOB_WORK_DIR;
+	private final double ESS_TARGET;
+	private final Set<String> ESS_PARAMETERS;
+	private final int ESS_CHECK_EVERY;
+	private final double ESS_MIN_FRACTION;
+	private final int MAX_CHAINS;
+	private final double CHAIN_BURN_IN;
+	private final boolean BEAGLE_TUNING;
+	private final int BEAGLE_CALIBRATION_STATES;
+	private final boolean USE_BEASTGEN_JAR;
+	private final boolean USE_SPREAD_WORKER;
+	private final int RATE_STUCK_STATES;
+	private final int RATE_CHECK_SAMPLES;
+	private final int RATE_LOG_EVERY;
+	private final int RATE_LOG_MAX_ROWS;
+	private final int CHECKPOINT_EVERY;
 	
 	private final static String ALIGNED_FASTA = "-aligned.fasta";
 	private final static String INPUT_XML = ".xml";
 	private final static String OUTPUT_TREES = "trees";
 	private final static String RESULT_TREE = ".tree";
 	private final static String GLM_SUFFIX = "_GLMedits";
+	private final static String DEFAULT_ESS_PARAMETERS = "posterior,likelihood,treeModel.rootHeight";
+	private final static String CHAIN_OUTPUT = "-beast.out";
+	private final static String STATE_DUMP = "-beast.dump";
+	/**
+	 * Shortest chain worth splitting a job into
+	 */
+	private final static int MIN_CHAIN_LENGTH = 1000000;
+	private final static int PIPE_BUFFER_SIZE = 64 * 1024;
+	/**
+	 * Fewest samples without any rate moving that fail the rate matrix, however long the rates log interval is
+	 */
+	private final static int MIN_RATE_STUCK_SAMPLES = 2;
+	private final static Pattern MODEL_LOG = Pattern.compile("<log\\b[^>]*fileName=\"[^\"]*\\.model\\.log\"[^>]*>");
+	private final static Pattern LOG_EVERY = Pattern.compile("logEvery=\"(\\d+)\"");
 	
 	private final Logger log;
 	private final ZooPhyMailer mailer;
 	private final ZooPhyJob job;
 	private Set<String> filesToCleanup;
 	private File logFile;
-	private Tailer tail = null;
-	private Tailer rateTail = null;
+	private BeastLogMonitor.Subscription rateWatch = null;
+	private BeastLogMonitor.Subscription essWatch = null;
+	private final List<BeastLogMonitor.Subscription> errorWatches = new ArrayList<BeastLogMonitor.Subscription>();
+	private final List<BeastErrorDetector> errorDetectors = new ArrayList<BeastErrorDetector>();
+	private int chainCount = 1;
+	private int chainLength;
+	private BeagleTuner beagle = new BeagleTuner(1, 1);
+	private ConvergenceMonitor convergenceMonitor = null;
 	private Process beastProcess;
 	private boolean wasKilled = false;
+	private volatile boolean stoppedEarly = false;
 	private boolean isTest = false;
+	private Handler jobLog = null;
+	private File tree = null;
+	private JobCheckpoint checkpoint = null;
 	
 	public BeastRunner(ZooPhyJob job, ZooPhyMailer mailer) throws PipelineException {
 		PropertyProvider provider = PropertyProvider.getInstance();
@@ -73,6 +121,45 @@ public class BeastRunner {
 		this.job = job;
 		filesToCleanup = new LinkedHashSet<String>();
 		JOB_WORK_DIR = System.getProperty("user.dir")+"/ZooPhyJobs/";
+		String essTarget = provider.getProperty("beast.ess.target");
+		ESS_TARGET = essTarget != null ? Double.parseDouble(essTarget.trim()) : 0.0;
+		String essParameters = provider.getProperty("beast.ess.parameters");
+		if (essParameters == null || essParameters.trim().isEmpty()) {
+			essParameters = DEFAULT_ESS_PARAMETERS;
+		}
+		ESS_PARAMETERS = new HashSet<String>();
+		for (String parameter : essParameters.split(",")) {
+			if (!parameter.trim().isEmpty()) {
+				ESS_PARAMETERS.add(parameter.trim());
+			}
+		}
+		String essCheckEvery = provider.getProperty("beast.ess.check.every");
+		ESS_CHECK_EVERY = essCheckEvery != null ? Integer.parseInt(essCheckEvery.trim()) : 100;
+		String essMinFraction = provider.getProperty("beast.ess.min.fraction");
+		ESS_MIN_FRACTION = essMinFraction != null ? Double.parseDouble(essMinFraction.trim()) : 0.1;
+		String maxChains = provider.getProperty("beast.chains");
+		MAX_CHAINS = maxChains != null ? Integer.parseInt(maxChains.trim()) : 1;
+		String chainBurnIn = provider.getProperty("beast.chains.burnin");
+		CHAIN_BURN_IN = chainBurnIn != null ? Double.parseDouble(chainBurnIn.trim()) : 0.1;
+		String beagleTuning = provider.getProperty("beast.beagle.tune");
+		BEAGLE_TUNING = beagleTuning == null || Boolean.parseBoolean(beagleTuning.trim());
+		String calibrationStates = provider.getProperty("beast.beagle.calibration.states");
+		BEAGLE_CALIBRATION_STATES = calibrationStates != null ? Integer.parseInt(calibrationStates.trim()) : 0;
+		String xmlGenerator = provider.getProperty("beast.xml.generator");
+		USE_BEASTGEN_JAR = xmlGenerator != null && xmlGenerator.trim().equalsIgnoreCase("beastgen");
+		String spreadWorker = provider.getProperty("spread3.worker");
+		USE_SPREAD_WORKER = spreadWorker == null || Boolean.parseBoolean(spreadWorker.trim());
+		String rateStuckStates = provider.getProperty("beast.rates.stuck.states");
+		RATE_STUCK_STATES = rateStuckStates != null ? Integer.parseInt(rateStuckStates.trim()) : 10000;
+		String rateCheckSamples = provider.getProperty("beast.rates.check.samples");
+		RATE_CHECK_SAMPLES = rateCheckSamples != null ? Integer.parseInt(rateCheckSamples.trim()) : 50;
+		String rateLogEvery = provider.getProperty("beast.rates.log.every");
+		RATE_LOG_EVERY = rateLogEvery != null ? Integer.parseInt(rateLogEvery.trim()) : 1000;
+		String rateLogMaxRows = provider.getProperty("beast.rates.log.max.rows");
+		RATE_LOG_MAX_ROWS = rateLogMaxRows != null ? Integer.parseInt(rateLogMaxRows.trim()) : 2000;
+		String checkpointEvery = provider.getProperty("beast.checkpoint.every");
+		CHECKPOINT_EVERY = checkpointEvery != null ? Integer.parseInt(checkpointEvery.trim()) : 1000000;
+		chainLength = job.getXMLOptions().getChainLength();
 	}
 	
 	/**
@@ -81,73 +168,362 @@ public class BeastRunner {
 	 * @throws PipelineException 
 	 */
 	public File run() throws PipelineException {
-		String resultingTree = null;
 		FileHandler fileHandler = null;
 		try {
-			logFile = new File(JOB_LOG_DIR+job.getID()+".log");
 			fileHandler = new FileHandler(JOB_LOG_DIR+job.getID()+".log", true);
 			SimpleFormatter formatter = new SimpleFormatter();
 	        fileHandler.setFormatter(formatter);
-	        log.addHandler(fileHandler);
-	        log.setUseParentHandlers(false);
-			log.info("Starting the BEAST process...");
-			runBeastGen(job.getID()+ALIGNED_FASTA, job.getID()+INPUT_XML, job.getXMLOptions());
-			log.info("Adding location trait...");
-			DiscreteTraitInserter traitInserter = new DiscreteTraitInserter(job);
-			traitInserter.addLocation();
-			log.info("Location trait added.");
-			if (job.isUsingGLM()) {
-				log.info("Adding GLM Predictors...");
-				runGLM();
-				log.info("GLM Predictors added.");
-			}
-			else {
-				log.info("Job is not using GLM.");
+		}
+		catch (Exception e) {
+			log.log(Level.SEVERE, "BEAST process failed: "+e.getMessage());
+			throw new BeastException("BEAST process failed: "+e.getMessage(), "BEAST Pipeline Failed");
+		}
+		StageGraph graph = new StageGraph(job.getID());
+		graph.provide("alignment", "coordinates", "predictors");
+		try {
+			addStages(graph, fileHandler);
+			graph.run();
+			return tree;
+		}
+		finally {
+			finish();
+			fileHandler.close();
+		}
+	}
+
+	/**
+	 * Adds the BEAST stages to a job's StageGraph. They need the artifacts "alignment", "coordinates", and "predictors" if the job is using GLM,
+	 * and produce "beastInput", "beastOutput", "tree", "spread", and "glmInput" if the job is using GLM. Call finish() once the graph has run.
+	 * If the graph has a JobCheckpoint, completed stages can be resumed after a restart and BEAST resumes from its last state dump.
+	 * @param graph - job's StageGraph
+	 * @param jobLog - handler for the job's log file, shared with the job's other stages since only one FileHandler can hold the file
+	 */
+	public void addStages(StageGraph graph, Handler jobLog) {
+		logFile = new File(JOB_LOG_DIR+job.getID()+".log");
+		this.jobLog = jobLog;
+		log.addHandler(jobLog);
+		log.setUseParentHandlers(false);
+		checkpoint = graph.getCheckpoint();
+		graph.addStage("beastInput", new String[] {"alignment"}, new String[] {"beastInput"}, new ResumableBeastStage() {
+			@Override
+			protected void runStage() throws Exception {
+				log.info("Starting the BEAST process...");
+				configureChains();
+				if (checkpoint != null) {
+					checkpoint.setValue("beast.chains", String.valueOf(chainCount));
+					checkpoint.setValue("beast.chain.length", String.valueOf(chainLength));
+				}
+				createBeastInput(job.getID()+ALIGNED_FASTA, job.getID()+INPUT_XML, getChainOptions());
 			}
-			runBeast(job.getID());
-			if (wasKilled || !PipelineManager.checkProcess(job.getID())) {
-				throw new BeastException("Job was stopped!", "Job was stopped!");
+			@Override
+			protected void resumeStage() throws Exception {
+				chainCount = Integer.parseInt(checkpoint.getValue("beast.chains"));
+				chainLength = Integer.parseInt(checkpoint.getValue("beast.chain.length"));
+				filesToCleanup.add(JOB_WORK_DIR+job.getID()+ALIGNED_FASTA);
+				filesToCleanup.add(JOB_WORK_DIR+job.getID()+INPUT_XML);
 			}
-			if (job.isUsingGLM()) {
-				resultingTree = runTreeAnnotator(job.getID()+"-aligned"+GLM_SUFFIX+"_states."+OUTPUT_TREES);
+		});
+		String beastInput = "beastInput";
+		if (job.isUsingGLM()) {
+			graph.addStage("glmInput", new String[] {"beastInput", "predictors"}, new String[] {"glmInput"}, new ResumableBeastStage() {
+				@Override
+				protected void runStage() throws Exception {
+					log.info("Adding GLM Predictors...");
+					runGLM();
+					log.info("GLM Predictors added.");
+				}
+				@Override
+				protected void resumeStage() {
+					addGLMFilesToCleanup();
+				}
+			});
+			beastInput = "glmInput";
+		}
+		else {
+			log.info("Job is not using GLM.");
+		}
+		graph.addStage("beast", new String[] {beastInput}, new String[] {"beastOutput"}, new ResumableBeastStage() {
+			@Override
+			protected void runStage() throws Exception {
+				runBeast(job.getID());
+				if (wasKilled || !PipelineManager.checkProcess(job.getID())) {
+					throw new BeastException("Job was stopped!", "Job was stopped!");
+				}
 			}
-			else {
-				resultingTree = runTreeAnnotator(job.getID()+"-aligned."+OUTPUT_TREES);
+			@Override
+			protected void resumeStage() {
+				addOutputsToCleanup(job.getID(), getBeastOutputs(job.getID()));
 			}
-			File tree = new File(resultingTree);
-			if (tree.exists()) {
+		});
+		graph.addStage("treeAnnotator", new String[] {"beastOutput"}, new String[] {"tree"}, new ResumableBeastStage() {
+			@Override
+			protected void runStage() throws Exception {
+				String resultingTree;
+				if (job.isUsingGLM()) {
+					resultingTree = runTreeAnnotator(job.getID()+"-aligned"+GLM_SUFFIX+"_states."+OUTPUT_TREES);
+				}
+				else {
+					resultingTree = runTreeAnnotator(job.getID()+"-aligned."+OUTPUT_TREES);
+				}
+				File resultTree = new File(resultingTree);
+				if (!resultTree.exists()) {
+					log.log(Level.SEVERE, "TreeAnnotator did not proudce .tree file!");
+					throw new BeastException("TreeAnnotator did not proudce .tree file!", "Tree Annotator Failed");
+				}
 				annotateTreeFile(resultingTree);
+				tree = resultTree;
+			}
+			@Override
+			protected void resumeStage() throws BeastException {
+				File resultTree = new File(JOB_WORK_DIR+job.getID()+RESULT_TREE);
+				if (!resultTree.exists()) {
+					throw new BeastException("Checkpointed tree is missing: "+resultTree.getAbsolutePath(), "Tree Annotator Failed");
+				}
+				tree = resultTree;
+			}
+		});
+		graph.addStage("spread", new String[] {"tree", "coordinates"}, new String[] {"spread"}, new ResumableBeastStage() {
+			@Override
+			protected void runStage() throws Exception {
 				runSpread();
 				log.info("BEAST process complete.");
 			}
-			else {
-				log.log(Level.SEVERE, "TreeAnnotator did not proudce .tree file!");
-				throw new BeastException("TreeAnnotator did not proudce .tree file!", "Tree Annotator Failed");
+			@Override
+			protected void resumeStage() {
+				log.info("SpreaD3 results were already rendered.");
 			}
-			return tree;
+		});
+	}
+
+	/**
+	 * @return resulting Tree File, once the "treeAnnotator" stage has run
+	 */
+	public File getTree() {
+		return tree;
+	}
+
+	/**
+	 * Stops watching the BEAST logs, deletes unwanted files, and stops logging to the job log given to addStages
+	 */
+	public void finish() {
+		finish(true);
+	}
+
+	/**
+	 * Stops watching the BEAST logs and stops logging to the job log given to addStages
+	 * @param isCleanup - False to keep the BEAST files, for a job that will resume from its checkpoint
+	 */
+	public void finish(boolean isCleanup) {
+		stopWatching();
+		if (isCleanup) {
+			cleanupBeast();
 		}
-		catch (PipelineException pe) {
-			log.log(Level.SEVERE, "BEAST process failed: "+pe.getMessage());
-			throw pe;
+		if (jobLog != null) {
+			log.removeHandler(jobLog);
+			jobLog = null;
 		}
-		catch (Exception e) {
-			log.log(Level.SEVERE, "BEAST process failed: "+e.getMessage());
-			throw new BeastException("BEAST process failed: "+e.getMessage(), "BEAST Pipeline Failed");
+	}
+
+	/**
+	 * BEAST stage that reports failures the same way for every step
+	 * @author devdemetri
+	 */
+	private abstract class BeastStage implements StageGraph.Stage {
+
+		protected abstract void runStage() throws Exception;
+
+		@Override
+		public void run() throws PipelineException {
+			try {
+				runStage();
+			}
+			catch (PipelineException pe) {
+				log.log(Level.SEVERE, "BEAST process failed: "+pe.getMessage());
+				throw pe;
+			}
+			catch (Exception e) {
+				log.log(Level.SEVERE, "BEAST process failed: "+e.getMessage());
+				throw new BeastException("BEAST process failed: "+e.getMessage(), "BEAST Pipeline Failed");
+			}
 		}
-		finally {
-			if (tail != null) {
-				tail.stop();
+
+	}
+
+	/**
+	 * BEAST stage that a restarted job can skip once it has completed
+	 * @author devdemetri
+	 */
+	private abstract class ResumableBeastStage extends BeastStage implements StageGraph.ResumableStage {
+
+		/**
+		 * Restores the stage's results and the files to clean up
+		 * @throws Exception
+		 */
+		protected abstract void resumeStage() throws Exception;
+
+		@Override
+		public void resume() throws PipelineException {
+			try {
+				resumeStage();
 			}
-			if (rateTail != null) {
-				rateTail.stop();
+			catch (PipelineException pe) {
+				log.log(Level.SEVERE, "BEAST stage could not resume: "+pe.getMessage());
+				throw pe;
 			}
-			cleanupBeast();
-			if (fileHandler != null) {
-				fileHandler.close();
+			catch (Exception e) {
+				log.log(Level.SEVERE, "BEAST stage could not resume: "+e.getMessage());
+				throw new BeastException("BEAST stage could not resume: "+e.getMessage(), "BEAST Pipeline Failed");
 			}
 		}
+
 	}
 	
+	/**
+	 * Creates the BEAST input XML with the location trait, in process unless beast.xml.generator is set to beastgen
+	 * @param fastaFile
+	 * @param beastInput
+	 * @param xmlParameters
+	 * @throws PipelineException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void createBeastInput(String fastaFile, String beastInput, XMLParameters xmlParameters) throws PipelineException, IOException, InterruptedException {
+		if (USE_BEASTGEN_JAR) {
+			runBeastGen(fastaFile, beastInput, xmlParameters);
+			log.info("Adding location trait...");
+			StreamingTraitInserter traitInserter = new StreamingTraitInserter(job);
+			traitInserter.setRateLogEvery(getRateLogEvery());
+			traitInserter.addLocation();
+			log.info("Location trait added.");
+		}
+		else {
+			generateBeastInput(fastaFile, beastInput, xmlParameters);
+		}
+	}
+
+	/**
+	 * The rate matrix log keeps its interval for the whole run, although the health check only reads its first samples,
+	 * so the interval is raised as needed to keep the logs of all the job's chains within beast.rates.log.max.rows samples.
+	 * The health check scales its samples to the interval, see getRateStuckSamples.
+	 * @return MCMC states between rate matrix log samples, used only if it is less than the job's sub sample rate
+	 */
+	private int getRateLogEvery() {
+		if (RATE_LOG_MAX_ROWS <= 0) {
+			return RATE_LOG_EVERY;
+		}
+		long totalLength = job.getXMLOptions().getChainLength();
+		long every = Math.max(RATE_LOG_EVERY, (totalLength + RATE_LOG_MAX_ROWS - 1) / RATE_LOG_MAX_ROWS);
+		return (int) Math.min(every, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return MCMC states between the samples the rate matrix health check reads, from the rates log or the GLM model log
+	 */
+	private int getRateSampleEvery() {
+		final int sampleRate = job.getXMLOptions().getSubSampleRate();
+		final int every = getRateLogEvery();
+		return every > 0 && every < sampleRate ? every : sampleRate;
+	}
+
+	/**
+	 * A degenerate rate matrix is caught after beast.rates.stuck.states states, or after MIN_RATE_STUCK_SAMPLES samples if the rates log interval is longer
+	 * @return samples after the first without any rate moving that fail the rate matrix, 0 to skip this check
+	 */
+	private int getRateStuckSamples() {
+		if (RATE_STUCK_STATES <= 0) {
+			return 0;
+		}
+		long every = getRateSampleEvery();
+		return (int) Math.max(MIN_RATE_STUCK_SAMPLES, (RATE_STUCK_STATES + every - 1) / every);
+	}
+
+	/**
+	 * Logs the GLM model log as often as the rates log of a job without GLM, since the rate matrix health check reads it instead
+	 * @throws IOException
+	 */
+	private void setModelLogEvery() throws IOException {
+		Path input = Paths.get(JOB_WORK_DIR+job.getID()+GLM_SUFFIX+INPUT_XML);
+		String xml = new String(Files.readAllBytes(input), StandardCharsets.UTF_8);
+		Matcher modelLog = MODEL_LOG.matcher(xml);
+		if (!modelLog.find()) {
+			log.warning("GLM model log not found in: "+input.toString());
+			return;
+		}
+		Matcher logEvery = LOG_EVERY.matcher(modelLog.group());
+		final int every = getRateSampleEvery();
+		if (logEvery.find() && Long.parseLong(logEvery.group(1)) > every) {
+			String element = modelLog.group().substring(0, logEvery.start())+"logEvery=\""+every+"\""+modelLog.group().substring(logEvery.end());
+			Files.write(input, (xml.substring(0, modelLog.start())+element+xml.substring(modelLog.end())).getBytes(StandardCharsets.UTF_8));
+			log.info("GLM model log set to log every "+every+" states.");
+		}
+	}
+
+	/**
+	 * Generates the BEAST input XML in process and adds the location trait in the same pass.
+	 * The generator writes into a pipe read by the trait inserter, so the XML without the trait is never written to disk.
+	 * @param fastaFile
+	 * @param beastInput
+	 * @param xmlParameters
+	 * @throws PipelineException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void generateBeastInput(String fastaFile, String beastInput, final XMLParameters xmlParameters) throws PipelineException, IOException, InterruptedException {
+		final File alignment = new File(JOB_WORK_DIR+fastaFile);
+		filesToCleanup.add(JOB_WORK_DIR+fastaFile);
+		final BeastXMLGenerator generator = BeastXMLGenerator.getInstance();
+		final PipedInputStream generatedXML = new PipedInputStream(PIPE_BUFFER_SIZE);
+		final PipedOutputStream generatorOutput = new PipedOutputStream(generatedXML);
+		final AtomicReference<Exception> generatorFailure = new AtomicReference<Exception>();
+		log.info("Generating BEAST input with location trait...");
+		long start = System.currentTimeMillis();
+		Thread generatorThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					generator.generate(alignment, xmlParameters, generatorOutput);
+				}
+				catch (Exception e) {
+					generatorFailure.set(e);
+				}
+				finally {
+					try {
+						generatorOutput.close();
+					}
+					catch (IOException e) {
+						log.warning("Could not close BEAST input pipe: "+e.getMessage());
+					}
+				}
+			}
+		}, "BeastXMLGenerator-"+job.getID());
+		generatorThread.start();
+		TraitException traitFailure = null;
+		try {
+			StreamingTraitInserter traitInserter = new StreamingTraitInserter(job, JOB_WORK_DIR+beastInput);
+			traitInserter.setRateLogEvery(getRateLogEvery());
+			traitInserter.addLocation(generatedXML);
+		}
+		catch (TraitException te) {
+			traitFailure = te;
+		}
+		finally {
+			generatorThread.join();
+		}
+		Exception failure = generatorFailure.get();
+		// a generator failure also truncates the XML the inserter reads, so it is the one worth reporting
+		if (failure instanceof PipelineException) {
+			throw (PipelineException) failure;
+		}
+		else if (failure != null) {
+			throw new BeastException("BEAST input generation failed: "+failure.getMessage(), "BEAST Input Generation Failed");
+		}
+		else if (traitFailure != null) {
+			throw traitFailure;
+		}
+		filesToCleanup.add(JOB_WORK_DIR+beastInput);
+		log.info("BEAST input created in "+(System.currentTimeMillis()-start)+" ms.");
+	}
+
 	/**
 	 * Generates an input.xml file to feed into BEAST
 	 * @param fastaFile
@@ -169,7 +545,7 @@ public class BeastRunner {
 		builder.redirectOutput(Redirect.appendTo(logFile));
 		builder.redirectError(Redirect.appendTo(logFile));
 		log.info("Starting Process: "+builder.command().toString());
-		Process beastGenProcess = builder.start();
+		Process beastGenProcess = StageMonitor.watch(builder.start());
 		if (!isTest) {
 			PipelineManager.setProcess(job.getID(), beastGenProcess);
 		}
@@ -198,7 +574,7 @@ public class BeastRunner {
 			builder.redirectOutput(Redirect.appendTo(logFile));
 			builder.redirectError(Redirect.appendTo(logFile));
 			log.info("Starting Process: "+builder.command().toString());
-			Process beastGLMProcess = builder.start();
+			Process beastGLMProcess = StageMonitor.watch(builder.start());
 			if (!isTest) {
 				PipelineManager.setProcess(job.getID(), beastGLMProcess);
 			}
@@ -227,9 +603,8 @@ public class BeastRunner {
 				log.log(Level.SEVERE, "BEAST GLM failed! with code: "+beastGLMProcess.exitValue());
 				throw new GLMException("BEAST GLM failed! with code: "+beastGLMProcess.exitValue(), "BEAST_GLM failed!");
 			}
-			filesToCleanup.add(GLM_PATH);
-			filesToCleanup.add(JOB_WORK_DIR+job.getID()+GLM_SUFFIX+INPUT_XML);
-			filesToCleanup.add(JOB_WORK_DIR+job.getID()+"_distanceMatrix.txt");
+			addGLMFilesToCleanup();
+			setModelLogEvery();
 			log.info("BEAST_GLM finished.");
 		}
 		else {
@@ -238,84 +613,644 @@ public class BeastRunner {
 		}
 	}
 	
+	/**
+	 * Marks the predictors file and the BEAST_GLM outputs for cleanup
+	 */
+	private void addGLMFilesToCleanup() {
+		filesToCleanup.add(JOB_WORK_DIR+job.getID()+"-"+"predictors.txt");
+		filesToCleanup.add(JOB_WORK_DIR+job.getID()+GLM_SUFFIX+INPUT_XML);
+		filesToCleanup.add(JOB_WORK_DIR+job.getID()+"_distanceMatrix.txt");
+	}
+	
+	/**
+	 * Splits the job into as many chains as beast.chains and the job's allocated cores allow, keeping each chain at least MIN_CHAIN_LENGTH long
+	 */
+	private void configureChains() {
+		final int totalLength = job.getXMLOptions().getChainLength();
+		final int sampleRate = job.getXMLOptions().getSubSampleRate();
+		chainCount = Math.max(1, Math.min(MAX_CHAINS, Math.min(job.getAllocatedCores(), totalLength / MIN_CHAIN_LENGTH)));
+		if (chainCount > 1) {
+			int length = (int) Math.ceil((double) totalLength / chainCount);
+			chainLength = (int) Math.ceil((double) length / sampleRate) * sampleRate;
+			log.info("Running "+chainCount+" BEAST chains of "+chainLength+" states each.");
+		}
+		else {
+			chainLength = totalLength;
+		}
+	}
+	
+	/**
+	 * @return XML parameters for one chain of the job
+	 */
+	private XMLParameters getChainOptions() {
+		if (chainCount == 1) {
+			return job.getXMLOptions();
+		}
+		XMLParameters chainOptions = new XMLParameters();
+		chainOptions.setChainLength(chainLength);
+		chainOptions.setSubSampleRate(job.getXMLOptions().getSubSampleRate());
+		chainOptions.setSubstitutionModel(job.getXMLOptions().getSubstitutionModel());
+		return chainOptions;
+	}
+	
+	/**
+	 * @param chain - 0 based chain index
+	 * @return prefix BEAST adds to the chain's output file names, empty for the first chain
+	 */
+	private String getChainPrefix(int chain) {
+		return chain == 0 ? "" : "chain"+(chain+1)+"-";
+	}
+	
+	/**
+	 * @param jobID
+	 * @return name shared by the BEAST output files, without the directory or file type
+	 */
+	private String getOutputBase(String jobID) {
+		if (job.isUsingGLM()) {
+			return jobID+"-aligned"+GLM_SUFFIX+"_states.";
+		}
+		else {
+			return jobID+"-aligned.";
+		}
+	}
+	
 	/**
 	 * Runs BEAST on the input.xml file
 	 * @param jobID
-	 * @throws BeastException
+	 * @throws PipelineException
 	 * @throws IOException
 	 * @throws InterruptedException
 	 */
-	private void runBeast(String jobID) throws BeastException, IOException, InterruptedException {
+	private void runBeast(String jobID) throws PipelineException, IOException, InterruptedException {
 		String input;
 		if (job.isUsingGLM()) { 
 			input = jobID+GLM_SUFFIX+INPUT_XML;
-			filesToCleanup.add(JOB_WORK_DIR+jobID+"-aligned"+GLM_SUFFIX+"_states."+OUTPUT_TREES);
-			filesToCleanup.add(JOB_WORK_DIR+jobID+"-aligned"+GLM_SUFFIX+"_states.log");
-			filesToCleanup.add(JOB_WORK_DIR+jobID+"-aligned"+".ops");
 		}
 		else {
 			input = jobID+INPUT_XML;
-			filesToCleanup.add(JOB_WORK_DIR+jobID+"-aligned."+OUTPUT_TREES);
-			filesToCleanup.add(JOB_WORK_DIR+jobID+"-aligned.log");
-			filesToCleanup.add(JOB_WORK_DIR+jobID+"-aligned.ops");
-			filesToCleanup.add(JOB_WORK_DIR+jobID+"-aligned.states.rates.log");
 		}
-		String beast = BEAST_SCRIPTS_DIR+"beast";
+		List<String> outputs = getBeastOutputs(jobID);
+		addOutputsToCleanup(jobID, outputs);
+		tuneBeagle(jobID, input, outputs);
+		if (wasKilled || !PipelineManager.checkProcess(jobID)) {
+			return;
+		}
 		log.info("Running BEAST...");
-		File beastDir = new File(JOB_WORK_DIR);
-		ProcessBuilder builder;
-		builder = new ProcessBuilder(beast, JOB_WORK_DIR + input).directory(beastDir);
-		builder.redirectOutput(Redirect.appendTo(logFile));
-		builder.redirectError(Redirect.appendTo(logFile));
-		BeastTailerListener listener = new BeastTailerListener();
-		tail = new Tailer(logFile, listener);
-		log.info("Starting Process: "+builder.command().toString());
-		Process beastProcess = builder.start();
-		PipelineManager.setProcess(job.getID(), beastProcess);
-		tail.run();
+		BeastProgressHandler progressHandler = new BeastProgressHandler();
+		boolean isResuming = stateDumpsExist(jobID);
+		if (isResuming) {
+			setAsideOutputs(jobID, outputs);
+			log.info("Resuming BEAST from its last state dump.");
+			JobTimeline.record(jobID, JobEventType.CHECKPOINT, "BEAST resumed from its last state dump");
+		}
+		long beastStart = System.currentTimeMillis();
+		beastProcess = startBeast(jobID, input, false, isResuming, progressHandler);
+		startConvergenceMonitor(jobID);
 		beastProcess.waitFor();
-		tail.stop();
-		if (beastProcess.exitValue() != 0) {
-			tail.stop();
+		drainErrors();
+		stopWatching();
+		if (isResuming && !stoppedEarly && beastProcess.exitValue() != 0 && !wasKilled && PipelineManager.checkProcess(jobID)) {
+			log.warning("BEAST could not resume from its state dump, exit code: "+beastProcess.exitValue()+". Restarting the chain...");
+			JobTimeline.record(jobID, JobEventType.RESTART, "BEAST could not resume from its state dump, restarting the chain");
+			discardResumedOutputs(jobID, outputs);
+			isResuming = false;
+			beastStart = System.currentTimeMillis();
+			beastProcess = startBeast(jobID, input, false, false, progressHandler);
+			startConvergenceMonitor(jobID);
+			beastProcess.waitFor();
+			drainErrors();
+			stopWatching();
+		}
+		if (stoppedEarly) {
+			log.info("BEAST was stopped early after reaching the ESS target.");
+			repairStoppedOutputs(jobID);
+		}
+		else if (beastProcess.exitValue() != 0) {
 			log.log(Level.SEVERE, "BEAST failed! with code: "+beastProcess.exitValue());
 			throw new BeastException("BEAST failed! with code: "+beastProcess.exitValue(), "BEAST Failed");
 		}
+		long resumedState = 0;
+		if (isResuming) {
+			resumedState = spliceResumedOutputs(jobID, outputs);
+		}
+		recordSpeed(beastStart, (stoppedEarly ? convergenceMonitor.getLastState() : chainLength) - resumedState);
 		if (wasKilled) {
 			return;
 		}
-		String outputPath;
-		if (job.isUsingGLM()) {
-			outputPath = JOB_WORK_DIR+jobID+"-aligned"+GLM_SUFFIX+"_states."+OUTPUT_TREES;
-		}
-		else {
-			outputPath = JOB_WORK_DIR+jobID+"-aligned."+OUTPUT_TREES;
-		}
-		File beastOutput = new File(outputPath);
-		if (!beastOutput.exists() || scanForBeastError()) {
+		if (!stoppedEarly && (!chainOutputsExist(jobID) || hasTerminatingError())) {
 			log.log(Level.SEVERE, "BEAST did not produce output! Trying it in always scaling mode...");
-			builder = new ProcessBuilder(beast, "-beagle_scaling", "always", "-overwrite", JOB_WORK_DIR + input).directory(beastDir);
-			builder.redirectOutput(Redirect.appendTo(logFile));
-			builder.redirectError(Redirect.appendTo(logFile));
-			log.info("Starting Process: "+builder.command().toString());
-			Process beastRerunProcess = builder.start();
-			PipelineManager.setProcess(job.getID(), beastRerunProcess);
-			tail.run();
-			beastRerunProcess.waitFor();
-			tail.stop();
-			if (beastRerunProcess.exitValue() != 0) {
-				tail.stop();
+			JobTimeline.record(jobID, JobEventType.RESTART, "BEAST restarted in always scaling mode");
+			beastStart = System.currentTimeMillis();
+			beastProcess = startBeast(jobID, input, true, false, progressHandler);
+			beastProcess.waitFor();
+			drainErrors();
+			stopWatching();
+			if (beastProcess.exitValue() != 0) {
 				log.log(Level.SEVERE, "Always-scaling BEAST failed! with code: "+beastProcess.exitValue());
 				throw new BeastException("Always-scaling BEAST failed! with code: "+beastProcess.exitValue(), "BEAST Failed");
 			}
-			beastOutput = new File(outputPath);
-			if (!beastOutput.exists()) {
+			recordSpeed(beastStart, chainLength);
+			if (!chainOutputsExist(jobID)) {
 				log.log(Level.SEVERE, "Always-scaling BEAST did not produce output!");
 				throw new BeastException("Always-scaling BEAST did not produce output!", "BEAST Failed");
 			}
 		}
+		if (chainCount > 1) {
+			combineChains(jobID);
+		}
 		log.info("BEAST finished.");
+		JobTimeline.record(jobID, JobEventType.STAGE, "BEAST finished");
+	}
+	
+	/**
+	 * @param jobID
+	 * @return names of the files each BEAST chain writes, without the chain prefix
+	 */
+	private List<String> getBeastOutputs(String jobID) {
+		return getBeastOutputs(jobID, job.isUsingGLM());
+	}
+	
+	/**
+	 * @param jobID
+	 * @param isUsingGLM
+	 * @return names of the files each BEAST chain of a job writes, without the chain prefix
+	 */
+	static List<String> getBeastOutputs(String jobID, boolean isUsingGLM) {
+		List<String> outputs = new ArrayList<String>();
+		if (isUsingGLM) {
+			outputs.add(jobID+"-aligned"+GLM_SUFFIX+"_states."+OUTPUT_TREES);
+			outputs.add(jobID+"-aligned"+GLM_SUFFIX+"_states.log");
+			outputs.add(jobID+"-aligned"+".ops");
+			outputs.add(getModelLog(jobID));
+		}
+		else {
+			outputs.add(jobID+"-aligned."+OUTPUT_TREES);
+			outputs.add(jobID+"-aligned.log");
+			outputs.add(jobID+"-aligned.ops");
+			outputs.add(jobID+"-aligned.states.rates.log");
+		}
+		return outputs;
+	}
+	
+	/**
+	 * @param jobID
+	 * @return name of the GLM model log, which BEAST_GLM names after the job rather than the alignment
+	 */
+	private static String getModelLog(String jobID) {
+		return jobID+GLM_SUFFIX+"_states.model.log";
+	}
+	
+	/**
+	 * Marks every chain's output files and state dump for cleanup
+	 * @param jobID
+	 * @param outputs - names of the BEAST output files
+	 */
+	private void addOutputsToCleanup(String jobID, List<String> outputs) {
+		for (int chain = 0; chain < chainCount; chain++) {
+			for (String output : outputs) {
+				filesToCleanup.add(JOB_WORK_DIR+getChainPrefix(chain)+output);
+			}
+			if (chain > 0) {
+				filesToCleanup.add(JOB_WORK_DIR+getChainPrefix(chain)+jobID+CHAIN_OUTPUT);
+			}
+			filesToCleanup.add(getStateDump(jobID, chain));
+		}
+	}
+	
+	/**
+	 * @param jobID
+	 * @param chain - 0 based chain index
+	 * @return path of the file the chain saves its MCMC state to
+	 */
+	private String getStateDump(String jobID, int chain) {
+		return JOB_WORK_DIR+getChainPrefix(chain)+jobID+STATE_DUMP;
+	}
+	
+	/**
+	 * @param jobID
+	 * @return True if the job is checkpointed and every chain saved its state before BEAST was interrupted
+	 */
+	private boolean stateDumpsExist(String jobID) {
+		if (checkpoint == null || CHECKPOINT_EVERY <= 0) {
+			return false;
+		}
+		for (int chain = 0; chain < chainCount; chain++) {
+			File dump = new File(getStateDump(jobID, chain));
+			if (!dump.exists() || dump.length() == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @param output - name of a BEAST output file
+	 * @return True if BEAST writes samples to the file as it runs, rather than once at the end
+	 */
+	private static boolean isSampleOutput(String output) {
+		return !output.endsWith(".ops");
+	}
+	
+	/**
+	 * Moves the samples of the interrupted run aside before BEAST resumes, since the resumed run starts its outputs again.
+	 * Samples already set aside by an earlier interrupted resume are joined with the new ones.
+	 * @param jobID
+	 * @param outputs - names of the BEAST output files
+	 * @throws IOException
+	 */
+	private void setAsideOutputs(String jobID, List<String> outputs) throws IOException {
+		for (int chain = 0; chain < chainCount; chain++) {
+			for (String output : outputs) {
+				File file = new File(JOB_WORK_DIR+getChainPrefix(chain)+output);
+				if (isSampleOutput(output) && file.exists()) {
+					filesToCleanup.add(BeastLogSplicer.setAside(file).getAbsolutePath());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Joins the samples set aside before resuming with the samples of the resumed run
+	 * @param jobID
+	 * @param outputs - names of the BEAST output files
+	 * @return state the first chain resumed from
+	 * @throws IOException
+	 */
+	private long spliceResumedOutputs(String jobID, List<String> outputs) throws IOException {
+		long resumedState = 0;
+		for (int chain = 0; chain < chainCount; chain++) {
+			for (String output : outputs) {
+				if (!isSampleOutput(output)) {
+					continue;
+				}
+				long state = BeastLogSplicer.joinResumed(new File(JOB_WORK_DIR+getChainPrefix(chain)+output));
+				if (chain == 0 && output.endsWith(".log") && state > 0) {
+					resumedState = state;
+				}
+			}
+		}
+		log.info("Joined BEAST outputs from before and after resuming at state "+resumedState);
+		return resumedState;
+	}
+	
+	/**
+	 * Drops the samples set aside before resuming and the state dumps, so the chains start again from the beginning
+	 * @param jobID
+	 * @param outputs - names of the BEAST output files
+	 * @throws IOException
+	 */
+	private void discardResumedOutputs(String jobID, List<String> outputs) throws IOException {
+		for (int chain = 0; chain < chainCount; chain++) {
+			for (String output : outputs) {
+				Files.deleteIfExists(BeastLogSplicer.getSetAside(new File(JOB_WORK_DIR+getChainPrefix(chain)+output)).toPath());
+			}
+			Files.deleteIfExists(Paths.get(getStateDump(jobID, chain)));
+		}
+	}
+	
+	/**
+	 * Picks BEAGLE instance and thread counts from the alignment and the cores each chain gets.
+	 * If beast.beagle.calibration.states is set, short runs of the candidate configurations pick the fastest one instead.
+	 * @param jobID
+	 * @param input - BEAST XML input file name
+	 * @param outputs - names of the BEAST output files
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void tuneBeagle(String jobID, String input, List<String> outputs) throws IOException, InterruptedException {
+		if (!BEAGLE_TUNING) {
+			return;
+		}
+		final int cores = Math.max(1, job.getAllocatedCores() / chainCount);
+		int[] shape = BeagleTuner.countPatterns(new File(JOB_WORK_DIR+jobID+ALIGNED_FASTA));
+		beagle = BeagleTuner.select(shape[0], shape[1], cores);
+		log.info("Alignment has "+shape[0]+" taxa and "+shape[1]+" unique site patterns, "+cores+" cores per chain. Selected "+beagle.toString());
+		if (BEAGLE_CALIBRATION_STATES > 0 && cores > 1) {
+			calibrateBeagle(jobID, input, outputs, BeagleTuner.candidates(beagle, cores));
+		}
+		JobTimeline.record(jobID, JobEventType.STAGE, "BEAGLE configuration: "+beagle.toString());
+	}
+	
+	/**
+	 * Times short BEAST runs of each candidate configuration and keeps the fastest
+	 * @param jobID
+	 * @param input - BEAST XML input file name
+	 * @param outputs - names of the BEAST output files
+	 * @param candidates - BEAGLE configurations to time
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void calibrateBeagle(String jobID, String input, List<String> outputs, List<BeagleTuner> candidates) throws IOException, InterruptedException {
+		String calibrationInput = jobID+"-calibration"+INPUT_XML;
+		String xml = new String(Files.readAllBytes(Paths.get(JOB_WORK_DIR+input)), StandardCharsets.UTF_8);
+		xml = xml.replaceFirst("chainLength=\"\\d+\"", "chainLength=\""+BEAGLE_CALIBRATION_STATES+"\"");
+		Files.write(Paths.get(JOB_WORK_DIR+calibrationInput), xml.getBytes(StandardCharsets.UTF_8));
+		filesToCleanup.add(JOB_WORK_DIR+calibrationInput);
+		File calibrationOutput = new File(JOB_WORK_DIR+jobID+"-calibration.out");
+		filesToCleanup.add(calibrationOutput.getAbsolutePath());
+		BeagleTuner fastest = null;
+		long fastestMillis = Long.MAX_VALUE;
+		for (int i = 0; i < candidates.size(); i++) {
+			BeagleTuner candidate = candidates.get(i);
+			String prefix = "calibration"+(i+1)+"-";
+			for (String output : outputs) {
+				filesToCleanup.add(JOB_WORK_DIR+prefix+output);
+			}
+			List<String> command = new ArrayList<String>();
+			command.add(BEAST_SCRIPTS_DIR+"beast");
+			command.addAll(candidate.getOptions());
+			command.add("-overwrite");
+			command.add("-prefix");
+			command.add(prefix);
+			command.add(JOB_WORK_DIR+calibrationInput);
+			ProcessBuilder builder = new ProcessBuilder(command).directory(new File(JOB_WORK_DIR));
+			builder.redirectOutput(Redirect.appendTo(calibrationOutput));
+			builder.redirectError(Redirect.appendTo(calibrationOutput));
+			log.info("Starting Process: "+builder.command().toString());
+			long start = System.currentTimeMillis();
+			Process calibrationProcess = StageMonitor.watch(builder.start());
+			PipelineManager.setProcess(jobID, calibrationProcess);
+			calibrationProcess.waitFor();
+			long millis = System.currentTimeMillis() - start;
+			if (!PipelineManager.checkProcess(jobID)) {
+				return;
+			}
+			if (calibrationProcess.exitValue() != 0) {
+				log.warning("BEAGLE calibration with "+candidate.toString()+" failed with code: "+calibrationProcess.exitValue());
+				continue;
+			}
+			log.info("BEAGLE calibration with "+candidate.toString()+": "+millis+" ms for "+BEAGLE_CALIBRATION_STATES+" states");
+			if (millis < fastestMillis) {
+				fastest = candidate;
+				fastestMillis = millis;
+			}
+		}
+		if (fastest != null) {
+			beagle = fastest;
+			log.info("BEAGLE calibration picked "+beagle.toString());
+		}
+	}
+	
+	/**
+	 * Records how fast BEAST ran in the job log and timeline
+	 * @param start - time BEAST was started
+	 * @param states - MCMC states run by each chain
+	 */
+	private void recordSpeed(long start, long states) {
+		long millis = Math.max(1, System.currentTimeMillis() - start);
+		long statesPerHour = (long) (states * 3600000.0 / millis);
+		log.info("BEAST ran "+states+" states in "+millis+" ms ("+statesPerHour+" states/hour per chain) with "+beagle.toString());
+		JobTimeline.record(job.getID(), JobEventType.STAGE, "BEAST ran at "+statesPerHour+" states/hour per chain with "+beagle.toString());
+	}
+	
+	/**
+	 * Starts every BEAST chain of the job. The first chain writes to the job log, the others to their own output files.
+	 * @param jobID
+	 * @param input - BEAST XML input file name
+	 * @param isScalingAlways - True to rerun in always scaling mode, overwriting earlier outputs
+	 * @param isResuming - True to continue each chain from its state dump
+	 * @param progressHandler - handler for the first chain's progress, which shares that chain's error watch
+	 * @return the BEAST Process, or a BeastChainGroup of all chains
+	 * @throws PipelineException
+	 * @throws IOException
+	 */
+	private Process startBeast(String jobID, String input, boolean isScalingAlways, boolean isResuming, final BeastProgressHandler progressHandler) throws PipelineException, IOException {
+		BeastLogMonitor logMonitor = BeastLogMonitor.getInstance();
+		progressHandler.isWatching = true;
+		errorWatches.clear();
+		errorDetectors.clear();
+		Random random = new Random();
+		List<Process> chains = new ArrayList<Process>(chainCount);
+		StringBuilder seeds = new StringBuilder();
+		try {
+			for (int chain = 0; chain < chainCount; chain++) {
+				List<String> command = new ArrayList<String>();
+				command.add(BEAST_SCRIPTS_DIR+"beast");
+				command.addAll(beagle.getOptions());
+				if (isScalingAlways) {
+					command.add("-beagle_scaling");
+					command.add("always");
+				}
+				if (isScalingAlways || checkpoint != null) {
+					// outputs of a run interrupted before its first state dump are replaced
+					command.add("-overwrite");
+				}
+				if (checkpoint != null && CHECKPOINT_EVERY > 0) {
+					if (isResuming) {
+						command.add("-load_dump");
+						command.add(getStateDump(jobID, chain));
+					}
+					command.add("-dump_every");
+					command.add(String.valueOf(CHECKPOINT_EVERY));
+					command.add("-save_dump");
+					command.add(getStateDump(jobID, chain));
+				}
+				if (chainCount > 1) {
+					long seed = 1 + random.nextInt(Integer.MAX_VALUE - 1);
+					seeds.append(chain == 0 ? "" : ", ").append(seed);
+					command.add("-seed");
+					command.add(String.valueOf(seed));
+					if (chain > 0) {
+						command.add("-prefix");
+						command.add(getChainPrefix(chain));
+					}
+				}
+				command.add(JOB_WORK_DIR + input);
+				File output = chain == 0 ? logFile : new File(JOB_WORK_DIR+getChainPrefix(chain)+jobID+CHAIN_OUTPUT);
+				ProcessBuilder builder = new ProcessBuilder(command).directory(new File(JOB_WORK_DIR));
+				builder.redirectOutput(Redirect.appendTo(output));
+				builder.redirectError(Redirect.appendTo(output));
+				final BeastErrorDetector detector = new BeastErrorDetector(jobID, log);
+				errorDetectors.add(detector);
+				BeastLogMonitor.LineHandler handler = detector;
+				if (chain == 0) {
+					handler = new BeastLogMonitor.LineHandler() {
+						@Override
+						public void handle(String line) {
+							progressHandler.handle(line);
+							detector.handle(line);
+						}
+					};
+				}
+				errorWatches.add(logMonitor.watch(output, true, handler));
+				log.info("Starting Process: "+builder.command().toString());
+				chains.add(StageMonitor.watch(builder.start()));
+			}
+		}
+		catch (IOException e) {
+			for (Process chain : chains) {
+				chain.destroy();
+			}
+			throw e;
+		}
+		Process process = chainCount == 1 ? chains.get(0) : new BeastChainGroup(chains);
+		PipelineManager.setProcess(job.getID(), process);
+		if (chainCount == 1) {
+			JobTimeline.record(jobID, JobEventType.STAGE, "BEAST started");
+		}
+		else {
+			JobTimeline.record(jobID, JobEventType.STAGE, "BEAST started "+chainCount+" chains of "+chainLength+" states with seeds "+seeds.toString());
+		}
+		startRateMatrixCheck();
+		return process;
+	}
+	
+	/**
+	 * @param jobID
+	 * @return True if every chain wrote its trees file
+	 */
+	private boolean chainOutputsExist(String jobID) {
+		for (int chain = 0; chain < chainCount; chain++) {
+			if (!new File(JOB_WORK_DIR+getChainPrefix(chain)+getOutputBase(jobID)+OUTPUT_TREES).exists()) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return True if any chain reported the terminating BEAST error
+	 */
+	private boolean hasTerminatingError() {
+		for (BeastErrorDetector detector : errorDetectors) {
+			if (detector.hasTerminatingError()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Reads the chains' final output for errors after they exit
+	 * @throws IOException
+	 */
+	private void drainErrors() throws IOException {
+		for (BeastLogMonitor.Subscription errorWatch : errorWatches) {
+			errorWatch.drain();
+		}
+	}
+	
+	/**
+	 * Combines the chains' trees, parameter logs, and GLM model logs with LogCombiner, removing each chain's burn-in.
+	 * The combined outputs replace the first chain's outputs, so the later stages are the same as for a single chain.
+	 * @param jobID
+	 * @throws BeastException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void combineChains(String jobID) throws BeastException, IOException, InterruptedException {
+		final int sampleRate = job.getXMLOptions().getSubSampleRate();
+		final long burnIn = ((long) (chainLength * CHAIN_BURN_IN) / sampleRate) * sampleRate;
+		log.info("Combining "+chainCount+" chains with burn-in of "+burnIn+" states each...");
+		runLogCombiner(getOutputBase(jobID)+OUTPUT_TREES, true, burnIn);
+		runLogCombiner(getOutputBase(jobID)+"log", false, burnIn);
+		if (job.isUsingGLM()) {
+			runLogCombiner(getModelLog(jobID), false, burnIn);
+		}
+		JobTimeline.record(jobID, JobEventType.STAGE, "Combined "+chainCount+" chains");
+		log.info("Chains combined.");
+	}
+	
+	/**
+	 * Combines one output of every chain with LogCombiner, replacing the first chain's output
+	 * @param output - name of the BEAST output file, without the chain prefix
+	 * @param isTrees - True for a trees file, False for a tab separated log
+	 * @param burnIn - states removed from the start of each chain
+	 * @throws BeastException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void runLogCombiner(String output, boolean isTrees, long burnIn) throws BeastException, IOException, InterruptedException {
+		String combined = output+".combined";
+		List<String> command = new ArrayList<String>();
+		command.add(BEAST_SCRIPTS_DIR+"logcombiner");
+		if (isTrees) {
+			command.add("-trees");
+		}
+		command.add("-burnin");
+		command.add(String.valueOf(burnIn));
+		for (int chain = 0; chain < chainCount; chain++) {
+			command.add(JOB_WORK_DIR+getChainPrefix(chain)+output);
+		}
+		command.add(JOB_WORK_DIR+combined);
+		filesToCleanup.add(JOB_WORK_DIR+combined);
+		ProcessBuilder builder = new ProcessBuilder(command).directory(new File(JOB_WORK_DIR));
+		builder.redirectOutput(Redirect.appendTo(logFile));
+		builder.redirectError(Redirect.appendTo(logFile));
+		log.info("Starting Process: "+builder.command().toString());
+		Process logCombinerProcess = StageMonitor.watch(builder.start());
+		PipelineManager.setProcess(job.getID(), logCombinerProcess);
+		logCombinerProcess.waitFor();
+		if (logCombinerProcess.exitValue() != 0) {
+			log.log(Level.SEVERE, "LogCombiner failed on "+output+"! with code: "+logCombinerProcess.exitValue());
+			throw new BeastException("LogCombiner failed! with code: "+logCombinerProcess.exitValue(), "LogCombiner Failed");
+		}
+		Files.move(Paths.get(JOB_WORK_DIR+combined), Paths.get(JOB_WORK_DIR+output), StandardCopyOption.REPLACE_EXISTING);
 	}
 
+	/**
+	 * Starts watching the BEAST parameter log to stop the chain once every monitored parameter reaches the ESS target
+	 * @param jobID
+	 * @throws PipelineException
+	 */
+	private void startConvergenceMonitor(String jobID) throws PipelineException {
+		if (ESS_TARGET <= 0) {
+			return;
+		}
+		if (chainCount > 1) {
+			log.info("ESS monitoring is not used with multiple chains.");
+			return;
+		}
+		String parameterLog;
+		if (job.isUsingGLM()) {
+			parameterLog = JOB_WORK_DIR+jobID+"-aligned"+GLM_SUFFIX+"_states.log";
+		}
+		else {
+			parameterLog = JOB_WORK_DIR+jobID+"-aligned.log";
+		}
+		long minState = (long) (chainLength * ESS_MIN_FRACTION);
+		convergenceMonitor = new ConvergenceMonitor(ESS_PARAMETERS, ESS_TARGET, ESS_CHECK_EVERY, minState, new Runnable() {
+			@Override
+			public void run() {
+				stopConverged();
+			}
+		}, log);
+		essWatch = BeastLogMonitor.getInstance().watch(new File(parameterLog), false, convergenceMonitor);
+		log.info("Monitoring "+parameterLog+" for ESS target "+ESS_TARGET);
+	}
+	
+	/**
+	 * Stops the BEAST chain after it has converged
+	 */
+	private void stopConverged() {
+		stoppedEarly = true;
+		JobTimeline.record(job.getID(), JobEventType.CHECKPOINT, "ESS target "+ESS_TARGET+" reached, stopping BEAST early");
+		stopWatching();
+		if (beastProcess != null) {
+			beastProcess.destroy();
+		}
+	}
+	
+	/**
+	 * Completes the BEAST output files left partially written by stopping the chain, including the GLM model log
+	 * @param jobID
+	 * @throws IOException
+	 */
+	private void repairStoppedOutputs(String jobID) throws IOException {
+		for (String output : getBeastOutputs(jobID)) {
+			File file = new File(JOB_WORK_DIR+output);
+			if (!isSampleOutput(output) || !file.exists()) {
+				continue;
+			}
+			BeastLogSplicer.truncatePartialLine(file);
+			if (output.endsWith(OUTPUT_TREES)) {
+				FileWriter writer = new FileWriter(file, true);
+				writer.write("End;\n");
+				writer.close();
+			}
+		}
+	}
+	
 	/**
 	 * Runs the Tree Annotator to generate the final .tree file
 	 * @param trees
@@ -333,12 +1268,14 @@ public class BeastRunner {
 			tree = trees.substring(0, trees.indexOf("-aligned")) + RESULT_TREE;
 		}
 		String treeannotator = BEAST_SCRIPTS_DIR+"treeannotator";
+		// LogCombiner already removed the burn-in of combined chains
+		String burnIn = chainCount > 1 ? "0" : "1000";
 		log.info("Running Tree Annotator...");
-		ProcessBuilder builder = new ProcessBuilder(treeannotator,"-burnin", "1000", JOB_WORK_DIR+trees, JOB_WORK_DIR+tree);
+		ProcessBuilder builder = new ProcessBuilder(treeannotator,"-burnin", burnIn, JOB_WORK_DIR+trees, JOB_WORK_DIR+tree);
 		builder.redirectOutput(Redirect.appendTo(logFile));
 		builder.redirectError(Redirect.appendTo(logFile));
 		log.info("Starting Process: "+builder.command().toString());
-		Process treeAnnotatorProcess = builder.start();
+		Process treeAnnotatorProcess = StageMonitor.watch(builder.start());
 		PipelineManager.setProcess(job.getID(), treeAnnotatorProcess);
 		treeAnnotatorProcess.waitFor();
 		if (treeAnnotatorProcess.exitValue() != 0) {
@@ -382,11 +1319,11 @@ public class BeastRunner {
 	
 	/**
 	 * Runs SpreaD3 to generate data visualization files 
-	 * @throws BeastException
+	 * @throws PipelineException
 	 * @throws InterruptedException
 	 * @throws IOException
 	 */
-	private void runSpread() throws BeastException, InterruptedException, IOException {
+	private void runSpread() throws PipelineException, InterruptedException, IOException {
 		String workingDir = JOB_WORK_DIR+job.getID();
 		log.info("Running SpreaD3 generator...");
 		String coordinatesFile = workingDir+"-coords.txt";
@@ -401,30 +1338,45 @@ public class BeastRunner {
 			log.log(Level.SEVERE, "Invalid absolute path to SpreaD3 given: "+SPREAD3);
 			throw new BeastException("Invalid absolute path to SpreaD3 given!", "SpreaD3 Failed");
 		}
-		ProcessBuilder builder = new ProcessBuilder("java","-jar",SPREAD3,"-parse","-locations",coordinatesFile,"-header","false","-tree",treeFile,"-locationTrait","states","-intervals","10","-mrsd",youngestDate,"-geojson",WORLD_GEOJSON,"-output",spreadFile).directory(spreadDirectory);
-		builder.redirectOutput(Redirect.appendTo(logFile));
-		builder.redirectError(Redirect.appendTo(logFile));
-		log.info("Starting Process: "+builder.command().toString());
-		Process spreadGenerationProcess = builder.start();
-		PipelineManager.setProcess(job.getID(), spreadGenerationProcess);
-		spreadGenerationProcess.waitFor();
-		if (spreadGenerationProcess.exitValue() != 0) {
-			log.log(Level.SEVERE, "SpreaD3 generation failed! with code: "+spreadGenerationProcess.exitValue());
-			throw new BeastException("SpreaD3 generation failed! with code: "+spreadGenerationProcess.exitValue(), "SpreaD3 Failed");
-		}
+		runSpreadStep(Arrays.asList("-parse","-locations",coordinatesFile,"-header","false","-tree",treeFile,"-locationTrait","states","-intervals","10","-mrsd",youngestDate,"-geojson",WORLD_GEOJSON,"-output",spreadFile), spreadDirectory, "generation");
 		log.info("SpreaD3 finished.");
 		log.info("Running SpreaD3 render...");
 		String renderPath = RENDER_DIR+"/"+job.getID();
-		builder = new ProcessBuilder("java","-jar", SPREAD3,"-render","d3","-json",spreadFile,"-output",renderPath).directory(spreadDirectory);
-		builder.redirectOutput(Redirect.appendTo(logFile));
-		builder.redirectError(Redirect.appendTo(logFile));
-		log.info("Starting Process: "+builder.command().toString());
-		Process spreadRenderProcess = builder.start();
-		PipelineManager.setProcess(job.getID(), spreadRenderProcess);
-		spreadRenderProcess.waitFor();
-		if (spreadRenderProcess.exitValue() != 0) {
-			log.log(Level.SEVERE, "SpreaD3 rendering failed! with code: "+spreadRenderProcess.exitValue());
-			throw new BeastException("SpreaD3 rendering failed! with code: "+spreadRenderProcess.exitValue(), "SpreaD3 Failed");
+		runSpreadStep(Arrays.asList("-render","d3","-json",spreadFile,"-output",renderPath), spreadDirectory, "rendering");
+	}
+
+	/**
+	 * Runs one SpreaD3 step, on a shared SpreadDaemon worker unless spread3.worker is false
+	 * @param arguments - SpreaD3 command line arguments
+	 * @param spreadDirectory - directory holding the SpreaD3 jar
+	 * @param step - name of the step for error messages
+	 * @throws PipelineException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	private void runSpreadStep(List<String> arguments, File spreadDirectory, String step) throws PipelineException, InterruptedException, IOException {
+		Process spreadProcess;
+		if (USE_SPREAD_WORKER) {
+			log.info("Queueing SpreaD3 request: "+arguments.toString());
+			spreadProcess = SpreadDaemon.getInstance().submit(arguments, logFile);
+		}
+		else {
+			List<String> command = new ArrayList<String>();
+			command.add("java");
+			command.add("-jar");
+			command.add(SPREAD3);
+			command.addAll(arguments);
+			ProcessBuilder builder = new ProcessBuilder(command).directory(spreadDirectory);
+			builder.redirectOutput(Redirect.appendTo(logFile));
+			builder.redirectError(Redirect.appendTo(logFile));
+			log.info("Starting Process: "+builder.command().toString());
+			spreadProcess = StageMonitor.watch(builder.start());
+		}
+		PipelineManager.setProcess(job.getID(), spreadProcess);
+		spreadProcess.waitFor();
+		if (spreadProcess.exitValue() != 0) {
+			log.log(Level.SEVERE, "SpreaD3 "+step+" failed! with code: "+spreadProcess.exitValue());
+			throw new BeastException("SpreaD3 "+step+" failed! with code: "+spreadProcess.exitValue(), "SpreaD3 Failed");
 		}
 	}
 
@@ -493,11 +1445,9 @@ public class BeastRunner {
 	 * @param finalUpdate
 	 */
 	private void sendUpdate(String finishTime, boolean finalUpdate) {
-		if (finalUpdate) {
-			tail.stop();
-		}
+		JobTimeline.record(job.getID(), JobEventType.CHECKPOINT, (finalUpdate ? "Halfway" : "First")+" progress checkpoint reached, estimated finish: "+finishTime);
 		try {
-			if (finalUpdate || checkRateMatrix()) {
+			if (finalUpdate || rateLogExists()) {
 				mailer.sendUpdateEmail(finishTime, finalUpdate);
 			}
 			else {
@@ -505,64 +1455,76 @@ public class BeastRunner {
 			}
 		}
 		catch (Exception e) {
-			if (rateTail != null) {
-				rateTail.stop();
-			}
-			tail.stop();
+			stopWatching();
 			log.log(Level.SEVERE, "Error sending email: "+e.getMessage());
 		}
 	}
 	
 	/**
-	 * Checks the jog log for a BEAST runtime error that may have still reported an exit code of 0
-	 * @return True if the log contains a RuntimeException, False otherwise
-	 * @throws FileNotFoundException
+	 * @return path to the BEAST rates log
 	 */
-	private boolean scanForBeastError() throws FileNotFoundException {
-		Scanner scan = new Scanner(logFile);
-		String line;
-		while (scan.hasNext()) {
-			line = scan.nextLine();
-			if (line.contains("java.lang.RuntimeException: An error was encounted. Terminating BEAST")) {
-				scan.close();
-				return true;
-			}
+	private String getRateLogPath() {
+		if (job.isUsingGLM()) {
+			return JOB_WORK_DIR+job.getID()+GLM_SUFFIX+"_states.model.log";
+		}
+		else {
+			return JOB_WORK_DIR+job.getID()+"-aligned.states.rates.log";
+		}
+	}
+	
+	/**
+	 * Checks that BEAST is writing the rates log
+	 * @return True if the rates log exists, False otherwise
+	 */
+	private boolean rateLogExists() {
+		if (new File(getRateLogPath()).exists()) {
+			return true;
 		}
-		scan.close();
+		log.warning("Rate Log does not exist: "+getRateLogPath());
 		return false;
 	}
 	
 	/**
-	 * Checks the rates log file for obvious errors
-	 * @return True if the rate matrix file is not obviously invalid, False otherwise
+	 * Starts checking each new rates log sample for a degenerate rate matrix
+	 * @throws PipelineException
 	 */
-	private boolean checkRateMatrix() {
-		try {
-			String rateLogPath;
-			if (job.isUsingGLM()) {
-				rateLogPath = JOB_WORK_DIR+job.getID()+GLM_SUFFIX+"_states.model.log";
-			}
-			else {
-				rateLogPath = JOB_WORK_DIR+job.getID()+"-aligned.states.rates.log";
-			}
-			File rateLog = new File(rateLogPath);
-			if (rateLog.exists()) {
-				RateTailerListener rateListener = new RateTailerListener();
-				rateTail = new Tailer(rateLog, rateListener);
-				System.out.print("Starting rateTailer on "+rateLog.getAbsolutePath());
-				rateTail.run();
+	private void startRateMatrixCheck() throws PipelineException {
+		final int stuckSamples = getRateStuckSamples();
+		final RateMatrixHealthCheck healthCheck = new RateMatrixHealthCheck(stuckSamples, Math.max(RATE_CHECK_SAMPLES, stuckSamples + 1), new RateMatrixHealthCheck.FailureHandler() {
+			@Override
+			public void failed(String reason) {
+				if (!PipelineManager.checkProcess(job.getID())) {
+					killBeast("Process was already terminated.");
+				}
+				else {
+					JobTimeline.record(job.getID(), JobEventType.ERROR, "Rate matrix failed the health check: "+reason);
+					killBeast("Rate Matrix Error. Try reducing discrete states.");
+				}
 			}
-			else {
-				throw new Exception("Rate Log does not exist: "+rateLogPath);
+		}, log);
+		rateWatch = BeastLogMonitor.getInstance().watch(new File(getRateLogPath()), false, new BeastLogMonitor.LineHandler() {
+			@Override
+			public void handle(String line) {
+				healthCheck.handle(line);
+				if (healthCheck.isDone() && rateWatch != null) {
+					rateWatch.stop();
+				}
 			}
-			return true;
+		});
+	}
+	
+	/**
+	 * Stops watching all of the job's BEAST logs
+	 */
+	private void stopWatching() {
+		if (rateWatch != null) {
+			rateWatch.stop();
 		}
-		catch (Exception e) {
-			if (rateTail != null) {
-				rateTail.stop();
-			}
-			System.err.println("Error checking rate matrix: "+e.getMessage());
-			return false;
+		if (essWatch != null) {
+			essWatch.stop();
+		}
+		for (BeastLogMonitor.Subscription errorWatch : errorWatches) {
+			errorWatch.stop();
 		}
 	}
 	
@@ -571,35 +1533,34 @@ public class BeastRunner {
 	 * @param reason - Reason for stopping the job
 	 */
 	private void killBeast(String reason) {
-		if (tail != null) {
-			tail.stop();
-		}
-		if (rateTail != null) {
-			rateTail.stop();
-		}
+		stopWatching();
+		JobTimeline.record(job.getID(), JobEventType.ERROR, "BEAST stopped: "+reason);
 		mailer.sendFailureEmail(reason);
 		wasKilled = true;
-		beastProcess.destroy();
+		if (beastProcess != null) {
+			beastProcess.destroy();
+		}
 		PipelineManager.removeProcess(job.getID());
 	}
 	
 	/**
-	 * Tails the job log to screen BEAST output
+	 * Screens BEAST output in the job log for progress updates
 	 * @author devdemetri
 	 */
-	private class BeastTailerListener extends TailerListenerAdapter {
+	private class BeastProgressHandler implements BeastLogMonitor.LineHandler {
 	  boolean reached = false;
 	  boolean finalUpdate = false;
+	  boolean isWatching = true;
 	  
 	  public void handle(String line) {
-		  if (line != null && !(line.trim().isEmpty() || line.contains("INFO:") || line.contains("usa.ac.asu.dbi.diego.viralcontamination3"))) {
+		  if (isWatching && line != null && !(line.trim().isEmpty() || line.contains("INFO:") || line.contains("usa.ac.asu.dbi.diego.viralcontamination3"))) {
 			  if (line.contains("hours/million states") && (reachedCheck(line.trim()) || reached)) {
 				  if (!PipelineManager.checkProcess(job.getID())) {
-					  tail.stop();
 					  killBeast("Process was already terminated.");
 				  }
 				  else {
-					  System.out.println("\nTailer Reading: "+line);
+					  // the job log writes this with an INFO: prefix, so it is skipped when read back
+					  log.info("BEAST progress: "+line);
 					  reached = true;
 					  try {
 						  String[] beastColumns = line.split("\t");
@@ -607,10 +1568,9 @@ public class BeastRunner {
 							  String progressRate = beastColumns[beastColumns.length-1].trim();
 							  int estimatedHoursToGo;
 							  double hoursPerMillion = Double.parseDouble(progressRate.substring(0, progressRate.indexOf('h')));
-							  double millionsInJob = Math.ceil(job.getXMLOptions().getChainLength() / 1000000);
+							  double millionsInJob = Math.ceil(chainLength / 1000000);
 							  if (finalUpdate) {
 								  estimatedHoursToGo = (int) Math.ceil(hoursPerMillion*(millionsInJob*0.5));
-								  tail.stop();
 							  }
 							  else {
 								  estimatedHoursToGo = (int) Math.ceil(hoursPerMillion*(millionsInJob*0.9));
@@ -620,6 +1580,9 @@ public class BeastRunner {
 					  		  calendar.setTime(currentDate);
 					  		  calendar.add(Calendar.HOUR, estimatedHoursToGo);
 					  		  String finishTime = calendar.getTime().toString();
+					  		  if (finalUpdate) {
+					  			  isWatching = false;
+					  		  }
 					  		  sendUpdate(finishTime, finalUpdate);
 					  		  reached = false;
 					  		  finalUpdate = true;
@@ -631,21 +1594,21 @@ public class BeastRunner {
 				  }
 			  }
 			  else if (line.contains("java.lang.RuntimeException")) {
-				  tail.stop();
+				  isWatching = false;
 			  }
 		  }
 	  }
 	  
 	  /**
-	   * @return True if tailer checkpoint reached, False otherwise
+	   * @return True if progress checkpoint reached, False otherwise
 	   */
 	  private boolean reachedCheck(String line) {
 		  int checkpoint;
 		  if (finalUpdate) {
-			  checkpoint = job.getXMLOptions().getChainLength() / 2;
+			  checkpoint = chainLength / 2;
 		  }
 		  else {
-			  checkpoint = job.getXMLOptions().getChainLength() / 10;
+			  checkpoint = chainLength / 10;
 		  }
 		  try {
 			  String[] beastColumns = line.split("\t");
@@ -665,65 +1628,6 @@ public class BeastRunner {
 	  
 	}
 	
-	/**
-	 * Listener for RateTailer
-	 * @author devdemetri
-	 */
-	private class RateTailerListener extends TailerListenerAdapter {
-		
-		public void handle(String line) {
-			boolean isFailing = true;
-			final double standard = 1.0;
-			if (line != null && reachedCheck(line.trim())) {
-				rateTail.stop();
-				if (!PipelineManager.checkProcess(job.getID())) {
-					  killBeast("Process was already terminated.");
-				}
-				else {
-					try {
-						String[] row = line.trim().split("\t");
-						for (int i = 1; i < row.length; i++) {
-							double col = Double.parseDouble(row[i].trim());
-							if (col != standard) {
-								isFailing = false;
-							}
-						}
-						if (isFailing) {
-							killBeast("Rate Matrix Error. Try reducing discrete states.");
-						}
-					}
-					catch (Exception e) {
-						rateTail.stop();
-						System.err.println("ERROR checking rate matrix file: "+e.getMessage());
-						throw e;
-					}
-				}
-			}
-		}
-		
-		/**
-		   * @return True if tailer checkpoint reached, False otherwise
-		   */
-		  private boolean reachedCheck(String line) {
-			  int checkpoint = job.getXMLOptions().getChainLength() / 500;
-			  try {
-				  String[] beastColumns = line.split("\t");
-				  int sample = Integer.parseInt(beastColumns[0].trim());
-				  if (sample >= checkpoint) {
-					  return true;
-				  }
-				  else {
-					  return false;
-				  }
-			  }
-			  catch (Exception e) {
-				  log.warning("Error checking for initial checkpoint: "+e.getMessage());
-				  return false;
-			  }
-		  }
-		
-	}
-
 	/**
 	 * Test the given ZooPhy job in the quick early stages
 	 * @throws PipelineException
@@ -739,11 +1643,7 @@ public class BeastRunner {
 	        log.addHandler(fileHandler);
 	        log.setUseParentHandlers(false);
 			log.info("Starting the BEAST test process...");
-			runBeastGen(job.getID()+ALIGNED_FASTA, job.getID()+INPUT_XML, job.getXMLOptions());
-			log.info("Adding location trait...");
-			DiscreteTraitInserter traitInserter = new DiscreteTraitInserter(job);
-			traitInserter.addLocation();
-			log.info("Location trait added.");
+			createBeastInput(job.getID()+ALIGNED_FASTA, job.getID()+INPUT_XML, job.getXMLOptions());
 			if (job.isUsingGLM()) {
 				log.info("Adding GLM Predictors...");
 				runGLM();
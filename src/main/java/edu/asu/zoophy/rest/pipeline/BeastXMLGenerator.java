@@ -0,0 +1,322 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates BEAST input XML from an aligned FASTA file and a BeastGen template without starting beastgen.jar.
+ * Supports the parts of the BeastGen template language used by the ZooPhy templates: the taxa and alignment.sequences lists and ${} values.
+ * The FASTA file is read once per list, so sequences are never all held in memory.
+ * @author devdemetri
+ */
+public class BeastXMLGenerator {
+
+	private final static Logger log = Logger.getLogger("BeastXMLGenerator");
+	private final static Pattern LIST_START = Pattern.compile("^\\s*<#list\\s+(\\S+)\\s+as\\s+(\\w+)\\s*>\\s*$");
+	private final static Pattern LIST_END = Pattern.compile("^\\s*</#list>\\s*$");
+	private final static Pattern VALUE = Pattern.compile("\\$\\{([\\w.]+)\\}");
+	/**
+	 * Number in the header holding the sampling date, counted from 1 as in beastgen.jar's -date_order option
+	 */
+	private final static int DATE_ORDER = 4;
+	/**
+	 * Date beastgen.jar gives taxa it cannot date
+	 */
+	private final static String NO_DATE = "0.0";
+	private final static int BUFFER_SIZE = 64 * 1024;
+	private static BeastXMLGenerator generator = null;
+
+	private final List<Block> blocks;
+
+	/**
+	 * @param template - BeastGen template file
+	 * @throws BeastException if the template uses anything the generator does not support
+	 * @throws IOException
+	 */
+	BeastXMLGenerator(File template) throws BeastException, IOException {
+		blocks = parse(Files.readAllLines(template.toPath(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Retrieve the singleton instance of the BeastXMLGenerator, which parses the default template once
+	 * @return a BeastXMLGenerator instance
+	 * @throws BeastException
+	 * @throws IOException
+	 */
+	public static synchronized BeastXMLGenerator getInstance() throws BeastException, IOException {
+		if (generator == null) {
+			generator = new BeastXMLGenerator(new File(System.getProperty("user.dir")+"/BeastGen/beastgen.template"));
+			log.info("Loaded BeastGen template.");
+		}
+		return generator;
+	}
+
+	/**
+	 * Writes the BEAST input XML for an aligned FASTA file
+	 * @param alignment - aligned FASTA file, with headers in the ZooPhy Accession_Virus_Host_Date_Location format
+	 * @param xmlParameters - chain length and sampling frequency
+	 * @param output - stream the XML is written to, left open
+	 * @throws BeastException if the template names an unknown value
+	 * @throws IOException
+	 */
+	public void generate(File alignment, XMLParameters xmlParameters, OutputStream output) throws BeastException, IOException {
+		Map<String, String> values = new HashMap<String, String>();
+		String stem = alignment.getName();
+		if (stem.lastIndexOf('.') > 0) {
+			stem = stem.substring(0, stem.lastIndexOf('.'));
+		}
+		values.put("filename_stem", escape(stem));
+		values.put("alignment.id", "alignment");
+		values.put("chain_length", xmlParameters.getChainLength().toString());
+		values.put("log_every", xmlParameters.getSubSampleRate().toString());
+		Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_SIZE);
+		for (Block block : blocks) {
+			if (block.list == null) {
+				render(block.lines, values, writer);
+			}
+			else {
+				renderList(block, alignment, values, writer);
+			}
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Writes a list block once for each FASTA record
+	 * @param block - list block
+	 * @param alignment - aligned FASTA file
+	 * @param values - template values
+	 * @param writer
+	 * @throws BeastException
+	 * @throws IOException
+	 */
+	private void renderList(Block block, File alignment, Map<String, String> values, Writer writer) throws BeastException, IOException {
+		final boolean needsData = block.list.equals("alignment.sequences");
+		final String prefix = block.item+".";
+		final String taxonPrefix = needsData ? prefix+"taxon." : prefix;
+		BufferedReader reader = Files.newBufferedReader(alignment.toPath(), StandardCharsets.UTF_8);
+		try {
+			String header = null;
+			int undated = 0;
+			StringBuilder data = needsData ? new StringBuilder() : null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(">")) {
+					if (header != null) {
+						if (!renderItem(block, header, data, taxonPrefix, prefix, values, writer)) {
+							undated++;
+						}
+					}
+					header = line.substring(1).trim();
+				}
+				else if (needsData && header != null) {
+					for (int i = 0; i < line.length(); i++) {
+						char c = line.charAt(i);
+						if (!Character.isWhitespace(c)) {
+							data.append(Character.toUpperCase(c));
+						}
+					}
+				}
+			}
+			if (header != null && !renderItem(block, header, data, taxonPrefix, prefix, values, writer)) {
+				undated++;
+			}
+			if (undated > 0 && !needsData) {
+				log.warning(undated+" taxa in "+alignment.getName()+" have no date and were dated "+NO_DATE);
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Writes one list item, then clears the item's values and sequence buffer for the next record
+	 * @return True if the record has a date
+	 */
+	private boolean renderItem(Block block, String header, StringBuilder data, String taxonPrefix, String prefix, Map<String, String> values, Writer writer) throws BeastException, IOException {
+		values.put(taxonPrefix+"id", escape(header));
+		String date = parseDate(header);
+		values.put(taxonPrefix+"date", date != null ? date : NO_DATE);
+		if (data != null) {
+			values.put(prefix+"data", data.toString());
+			data.setLength(0);
+		}
+		render(block.lines, values, writer);
+		values.remove(taxonPrefix+"id");
+		values.remove(taxonPrefix+"date");
+		values.remove(prefix+"data");
+		return date != null;
+	}
+
+	/**
+	 * Writes template lines with their ${} values filled in
+	 * @param lines - template lines
+	 * @param values - template values
+	 * @param writer
+	 * @throws BeastException if a value is missing
+	 * @throws IOException
+	 */
+	private static void render(List<String> lines, Map<String, String> values, Writer writer) throws BeastException, IOException {
+		for (String line : lines) {
+			Matcher matcher = VALUE.matcher(line);
+			int last = 0;
+			while (matcher.find()) {
+				String value = values.get(matcher.group(1));
+				if (value == null) {
+					throw new BeastException("BEAST template value not set: "+matcher.group(1), "BEAST Input Generation Failed");
+				}
+				writer.write(line, last, matcher.start()-last);
+				writer.write(value);
+				last = matcher.end();
+			}
+			writer.write(line, last, line.length()-last);
+			writer.write('\n');
+		}
+	}
+
+	/**
+	 * Reads the sampling date from a FASTA header the way beastgen.jar's -date_order option does:
+	 * the date is the DATE_ORDER-th run of digits and dots, so the accession's digits count as the first number
+	 * @param header - FASTA header without the leading >
+	 * @return decimal date, or null if the header has no such number
+	 */
+	static String parseDate(String header) {
+		String field = null;
+		int end = 0;
+		for (int i = 0; i < DATE_ORDER; i++) {
+			int start = end;
+			while (start < header.length() && !Character.isDigit(header.charAt(start))) {
+				start++;
+			}
+			if (start == header.length()) {
+				return null;
+			}
+			end = start;
+			while (end < header.length() && (Character.isDigit(header.charAt(end)) || header.charAt(end) == '.')) {
+				end++;
+			}
+			field = header.substring(start, end);
+		}
+		try {
+			return Double.toString(Double.parseDouble(field));
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param text
+	 * @return text with XML special characters escaped
+	 */
+	private static String escape(String text) {
+		StringBuilder escaped = null;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			String replacement;
+			switch (c) {
+				case '&':
+					replacement = "&amp;";
+					break;
+				case '<':
+					replacement = "&lt;";
+					break;
+				case '>':
+					replacement = "&gt;";
+					break;
+				case '"':
+					replacement = "&quot;";
+					break;
+				default:
+					replacement = null;
+			}
+			if (replacement != null && escaped == null) {
+				escaped = new StringBuilder(text.length() + 16);
+				escaped.append(text, 0, i);
+			}
+			if (escaped != null) {
+				if (replacement != null) {
+					escaped.append(replacement);
+				}
+				else {
+					escaped.append(c);
+				}
+			}
+		}
+		return escaped == null ? text : escaped.toString();
+	}
+
+	/**
+	 * Splits template lines into plain blocks and list blocks. Lines holding only a list tag are dropped, as BeastGen does.
+	 * @param lines - template lines
+	 * @return template blocks
+	 * @throws BeastException if the template uses nested lists, unknown lists, or other directives
+	 */
+	private static List<Block> parse(List<String> lines) throws BeastException {
+		List<Block> parsed = new ArrayList<Block>();
+		Block current = new Block(null, null);
+		for (String line : lines) {
+			Matcher listStart = LIST_START.matcher(line);
+			if (listStart.matches()) {
+				String list = listStart.group(1);
+				if (current.list != null || !(list.equals("taxa") || list.equals("alignment.sequences"))) {
+					throw new BeastException("Unsupported BEAST template list: "+line.trim(), "BEAST Input Generation Failed");
+				}
+				parsed.add(current);
+				current = new Block(list, listStart.group(2));
+			}
+			else if (LIST_END.matcher(line).matches()) {
+				if (current.list == null) {
+					throw new BeastException("Unmatched BEAST template list end", "BEAST Input Generation Failed");
+				}
+				parsed.add(current);
+				current = new Block(null, null);
+			}
+			else if (line.contains("<#") || line.contains("</#")) {
+				throw new BeastException("Unsupported BEAST template directive: "+line.trim(), "BEAST Input Generation Failed");
+			}
+			else {
+				current.lines.add(line);
+			}
+		}
+		if (current.list != null) {
+			throw new BeastException("Unclosed BEAST template list: "+current.list, "BEAST Input Generation Failed");
+		}
+		parsed.add(current);
+		return Collections.unmodifiableList(parsed);
+	}
+
+	/**
+	 * Template lines, repeated for each FASTA record when they belong to a list
+	 * @author devdemetri
+	 */
+	private static final class Block {
+
+		private final String list;
+		private final String item;
+		private final List<String> lines = new ArrayList<String>();
+
+		private Block(String list, String item) {
+			this.list = list;
+			this.item = item;
+		}
+
+	}
+
+}
@@ -0,0 +1,170 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Reads the BEAST parameter log as it is written and keeps running Effective Sample Size estimates for the monitored parameters.
+ * Once every monitored parameter reaches the target ESS, the convergence callback is run once.
+ * Each estimate reads every sample after burn-in once per autocorrelation lag, up to ESSCalculator's largest lag, so checks are spaced
+ * at least CHECK_GROWTH of the samples apart. The checks over a whole chain then cost a constant multiple of one estimate at its end,
+ * rather than growing with the square of the chain's samples.
+ * @author devdemetri
+ */
+public class ConvergenceMonitor implements BeastLogMonitor.LineHandler {
+
+	/**
+	 * Fraction of samples discarded as burn-in before estimating ESS
+	 */
+	private final static double BURN_IN = 0.1;
+	/**
+	 * Smallest growth in samples, as a fraction of the samples read, between ESS estimates
+	 */
+	private final static double CHECK_GROWTH = 0.05;
+
+	private final Set<String> monitoredParameters;
+	private final double essTarget;
+	private final int checkEvery;
+	private final long minState;
+	private final Runnable onConverged;
+	private final Logger log;
+	private final Map<String, Double> latestESS = Collections.synchronizedMap(new LinkedHashMap<String, Double>());
+	private String[] monitoredNames = null;
+	private int[] columns = null;
+	private double[][] samples = null;
+	private int sampleCount = 0;
+	private int nextCheck;
+	private long lastState = 0;
+	private boolean isDisabled = false;
+	private volatile boolean hasConverged = false;
+
+	/**
+	 * @param monitoredParameters - parameter log column labels to monitor
+	 * @param essTarget - ESS every monitored parameter must reach
+	 * @param checkEvery - fewest new samples between ESS estimates
+	 * @param minState - earliest MCMC state the chain may be stopped at
+	 * @param onConverged - run once when every monitored ESS passes the target
+	 * @param log - job Logger
+	 */
+	public ConvergenceMonitor(Set<String> monitoredParameters, double essTarget, int checkEvery, long minState, Runnable onConverged, Logger log) {
+		this.monitoredParameters = monitoredParameters;
+		this.essTarget = essTarget;
+		this.checkEvery = Math.max(1, checkEvery);
+		nextCheck = this.checkEvery;
+		this.minState = minState;
+		this.onConverged = onConverged;
+		this.log = log;
+	}
+
+	@Override
+	public void handle(String line) {
+		if (isDisabled || hasConverged || line == null) {
+			return;
+		}
+		String trimmed = line.trim();
+		if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+			return;
+		}
+		String[] row = trimmed.split("\t");
+		if (columns == null) {
+			readHeader(row);
+			return;
+		}
+		try {
+			lastState = Long.parseLong(row[0].trim());
+			if (sampleCount == samples[0].length) {
+				for (int i = 0; i < samples.length; i++) {
+					samples[i] = Arrays.copyOf(samples[i], samples[i].length * 2);
+				}
+			}
+			for (int i = 0; i < columns.length; i++) {
+				samples[i][sampleCount] = Double.parseDouble(row[columns[i]].trim());
+			}
+			sampleCount++;
+		}
+		catch (Exception e) {
+			// partially written row, it will not be completed by a later line
+			return;
+		}
+		if (sampleCount >= nextCheck) {
+			nextCheck = sampleCount + Math.max(checkEvery, (int) (sampleCount * CHECK_GROWTH));
+			checkConvergence();
+		}
+	}
+
+	/**
+	 * Finds the columns of the monitored parameters in the log header
+	 * @param header
+	 */
+	private void readHeader(String[] header) {
+		int[] found = new int[header.length];
+		String[] names = new String[header.length];
+		int count = 0;
+		for (int i = 1; i < header.length; i++) {
+			String label = header[i].trim();
+			if (monitoredParameters.contains(label)) {
+				found[count] = i;
+				names[count] = label;
+				count++;
+			}
+		}
+		if (count == 0) {
+			log.warning("None of the ESS parameters "+monitoredParameters+" are in the parameter log. Convergence monitoring disabled.");
+			isDisabled = true;
+			return;
+		}
+		columns = Arrays.copyOf(found, count);
+		monitoredNames = Arrays.copyOf(names, count);
+		samples = new double[count][1024];
+		log.info("Monitoring ESS of: "+Arrays.toString(monitoredNames));
+	}
+
+	/**
+	 * Re-estimates ESS for every monitored parameter and runs the callback if all of them reached the target
+	 */
+	private void checkConvergence() {
+		final int burnIn = (int) (sampleCount * BURN_IN);
+		boolean isConverged = true;
+		for (int i = 0; i < columns.length; i++) {
+			double ess = ESSCalculator.calculate(samples[i], burnIn, sampleCount);
+			latestESS.put(monitoredNames[i], ess);
+			if (ess < essTarget) {
+				isConverged = false;
+			}
+		}
+		log.info("ESS at state "+lastState+": "+latestESS);
+		if (isConverged && lastState >= minState) {
+			hasConverged = true;
+			log.info("All monitored parameters reached ESS "+essTarget+" at state "+lastState);
+			onConverged.run();
+		}
+	}
+
+	/**
+	 * @return most recent ESS estimate of each monitored parameter
+	 */
+	public Map<String, Double> getLatestESS() {
+		synchronized (latestESS) {
+			return new LinkedHashMap<String, Double>(latestESS);
+		}
+	}
+
+	/**
+	 * @return True if the chain reached the ESS target
+	 */
+	public boolean hasConverged() {
+		return hasConverged;
+	}
+
+	/**
+	 * @return last MCMC state read from the parameter log
+	 */
+	public long getLastState() {
+		return lastState;
+	}
+
+}
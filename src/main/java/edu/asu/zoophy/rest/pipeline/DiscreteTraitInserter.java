@@ -22,7 +22,8 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 /**
- * Responsible for inserting discrete traits into BEAST input XML files
+ * Responsible for inserting discrete traits into BEAST input XML files.
+ * Builds the whole document in memory, see StreamingTraitInserter for the version used by the pipeline.
  * @author devdemetri
  */
 public class DiscreteTraitInserter {
@@ -35,9 +36,13 @@ public class DiscreteTraitInserter {
 	private final String LOG_EVERY;
 
 	public DiscreteTraitInserter(ZooPhyJob job) throws TraitException {
+		this(job, System.getProperty("user.dir")+"/ZooPhyJobs/"+job.getID()+".xml");
+	}
+
+	DiscreteTraitInserter(ZooPhyJob job, String documentPath) throws TraitException {
 		try {
 			this.job = job;
-			DOCUMENT_PATH = System.getProperty("user.dir")+"/ZooPhyJobs/"+job.getID()+".xml";
+			DOCUMENT_PATH = documentPath;
 			locations = new HashSet<String>();
 			DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
 			DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
@@ -0,0 +1,65 @@
+package edu.asu.zoophy.rest.pipeline;
+
+/**
+ * Estimates the Effective Sample Size of MCMC samples the same way Tracer does
+ * @author devdemetri
+ */
+public final class ESSCalculator {
+
+	/**
+	 * Largest autocorrelation lag considered
+	 */
+	private final static int MAX_LAG = 2000;
+
+	private ESSCalculator() {
+
+	}
+
+	/**
+	 * Calculates the Effective Sample Size of a range of samples.
+	 * Autocorrelations are summed in pairs of lags until a pair is no longer positive.
+	 * @param samples - MCMC samples in chain order
+	 * @param start - index of the first sample to use, e.g. after burn-in
+	 * @param end - index after the last sample to use
+	 * @return Effective Sample Size, or 0 if there are too few samples
+	 */
+	public static double calculate(double[] samples, int start, int end) {
+		final int count = end - start;
+		if (count < 2) {
+			return 0.0;
+		}
+		double mean = 0.0;
+		for (int i = start; i < end; i++) {
+			mean += samples[i];
+		}
+		mean /= count;
+		final int maxLag = Math.min(count - 1, MAX_LAG);
+		double[] gamma = new double[maxLag];
+		double variance = 0.0;
+		for (int lag = 0; lag < maxLag; lag++) {
+			double sum = 0.0;
+			for (int j = start; j < end - lag; j++) {
+				sum += (samples[j] - mean) * (samples[j + lag] - mean);
+			}
+			gamma[lag] = sum / (count - lag);
+			if (lag == 0) {
+				variance = gamma[0];
+			}
+			else if (lag % 2 == 0) {
+				double pair = gamma[lag - 1] + gamma[lag];
+				if (pair > 0) {
+					variance += 2.0 * pair;
+				}
+				else {
+					break;
+				}
+			}
+		}
+		if (gamma[0] <= 0.0 || variance <= 0.0) {
+			// constant trace, nothing has been explored
+			return 0.0;
+		}
+		return count * gamma[0] / variance;
+	}
+
+}
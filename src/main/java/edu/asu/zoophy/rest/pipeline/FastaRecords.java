@@ -0,0 +1,133 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Identifies the records of a FASTA file by hashes of their header and sequence, ignoring line breaks
+ * @author devdemetri
+ */
+final class FastaRecords {
+
+	/**
+	 * Number of hex characters kept from each record's SHA-256 hash
+	 */
+	private final static int HASH_LENGTH = 32;
+
+	private FastaRecords() {
+
+	}
+
+	/**
+	 * Hashes each record in a FASTA file
+	 * @param fasta
+	 * @return record hashes in file order
+	 * @throws IOException
+	 * @throws PipelineException
+	 */
+	static List<String> hashRecords(File fasta) throws IOException, PipelineException {
+		List<String> hashes = new ArrayList<String>();
+		MessageDigest digest = AlignmentCache.newDigest();
+		BufferedReader reader = Files.newBufferedReader(fasta.toPath(), StandardCharsets.UTF_8);
+		try {
+			boolean inRecord = false;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(">")) {
+					if (inRecord) {
+						hashes.add(finish(digest));
+					}
+					inRecord = true;
+					digest.update(line.trim().getBytes(StandardCharsets.UTF_8));
+					digest.update((byte) '\n');
+				}
+				else if (inRecord) {
+					digest.update(line.trim().getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			if (inRecord) {
+				hashes.add(finish(digest));
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return hashes;
+	}
+
+	/**
+	 * Copies the records of a FASTA file that are not in the given set
+	 * @param source - FASTA file to copy from
+	 * @param skip - hashes of records to leave out
+	 * @param destination - FASTA file to write
+	 * @return number of records copied
+	 * @throws IOException
+	 * @throws PipelineException
+	 */
+	static int copyRecords(File source, Set<String> skip, File destination) throws IOException, PipelineException {
+		int copied = 0;
+		MessageDigest digest = AlignmentCache.newDigest();
+		List<String> record = new ArrayList<String>();
+		BufferedReader reader = Files.newBufferedReader(source.toPath(), StandardCharsets.UTF_8);
+		BufferedWriter writer = Files.newBufferedWriter(destination.toPath(), StandardCharsets.UTF_8);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(">")) {
+					if (!record.isEmpty() && writeRecord(record, digest, skip, writer)) {
+						copied++;
+					}
+					record.clear();
+					digest.update(line.trim().getBytes(StandardCharsets.UTF_8));
+					digest.update((byte) '\n');
+					record.add(line);
+				}
+				else if (!record.isEmpty()) {
+					digest.update(line.trim().getBytes(StandardCharsets.UTF_8));
+					record.add(line);
+				}
+			}
+			if (!record.isEmpty() && writeRecord(record, digest, skip, writer)) {
+				copied++;
+			}
+		}
+		finally {
+			reader.close();
+			writer.close();
+		}
+		return copied;
+	}
+
+	/**
+	 * Writes out a buffered record unless its hash is skipped
+	 * @return True if the record was written
+	 * @throws IOException
+	 */
+	private static boolean writeRecord(List<String> record, MessageDigest digest, Set<String> skip, BufferedWriter writer) throws IOException {
+		if (skip.contains(finish(digest))) {
+			return false;
+		}
+		for (String line : record) {
+			writer.write(line);
+			writer.newLine();
+		}
+		return true;
+	}
+
+	/**
+	 * @param digest - digest of one record, reset afterwards
+	 * @return truncated hex hash of the record
+	 */
+	private static String finish(MessageDigest digest) {
+		return AlignmentCache.toHex(digest.digest()).substring(0, HASH_LENGTH);
+	}
+
+}
@@ -0,0 +1,145 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Persists a ZooPhy Job's progress in the job directory, so a job interrupted by a restart can resume from its last completed stage.
+ * Each completed stage leaves a marker file, and stages can save small values, such as the BEAST chain layout, that later stages need on resume.
+ * The checkpoint is cleared once the job has finished, failed, or been stopped.
+ * @author devdemetri
+ */
+public class JobCheckpoint {
+
+	private final static Logger log = Logger.getLogger("JobCheckpoint");
+	private final static String MARKER = ".done";
+	private final static String VALUES = "values.properties";
+
+	private final File directory;
+	private final Properties values = new Properties();
+	private Listener listener = null;
+
+	/**
+	 * @param jobID - ID of the job, the checkpoint is kept in ZooPhyJobs/[jobID]-checkpoint
+	 */
+	public JobCheckpoint(String jobID) {
+		this(new File(System.getProperty("user.dir")+"/ZooPhyJobs/"+jobID+"-checkpoint"));
+	}
+
+	/**
+	 * @param directory - folder holding the checkpoint
+	 */
+	JobCheckpoint(File directory) {
+		this.directory = directory;
+		File valueFile = new File(directory, VALUES);
+		if (valueFile.exists()) {
+			try (InputStream in = Files.newInputStream(valueFile.toPath())) {
+				values.load(in);
+			}
+			catch (IOException e) {
+				log.warning("Could not read checkpoint values in "+directory.getAbsolutePath()+" : "+e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @param listener - told when each stage completes, may be null
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @param stage
+	 * @return True if the stage completed in an earlier run of the job
+	 */
+	public boolean isDone(String stage) {
+		return new File(directory, stage+MARKER).exists();
+	}
+
+	/**
+	 * Records that a stage completed, once its artifacts are written
+	 * @param stage
+	 * @throws IOException
+	 */
+	public void markDone(String stage) throws IOException {
+		Files.createDirectories(directory.toPath());
+		FileOutputStream marker = new FileOutputStream(new File(directory, stage+MARKER));
+		try {
+			marker.getFD().sync();
+		}
+		finally {
+			marker.close();
+		}
+		if (listener != null) {
+			listener.stageDone(stage);
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return value saved by an earlier stage, or null
+	 */
+	public synchronized String getValue(String key) {
+		return values.getProperty(key);
+	}
+
+	/**
+	 * Saves a value for stages that run after a resume. The value file is replaced atomically, so a crash leaves either the old or the new values.
+	 * @param key
+	 * @param value
+	 * @throws IOException
+	 */
+	public synchronized void setValue(String key, String value) throws IOException {
+		values.setProperty(key, value);
+		Files.createDirectories(directory.toPath());
+		File temp = new File(directory, VALUES+".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			values.store(out, null);
+			out.getFD().sync();
+		}
+		finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), new File(directory, VALUES).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Deletes the checkpoint once the job no longer needs to resume
+	 */
+	public synchronized void clear() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (!file.delete()) {
+					log.warning("Could not delete checkpoint file: "+file.getAbsolutePath());
+				}
+			}
+		}
+		if (directory.exists() && !directory.delete()) {
+			log.warning("Could not delete checkpoint: "+directory.getAbsolutePath());
+		}
+		values.clear();
+	}
+
+	/**
+	 * Told when a stage of the job completes
+	 * @author devdemetri
+	 */
+	public interface Listener {
+
+		/**
+		 * @param stage - name of the completed stage
+		 */
+		void stageDone(String stage);
+
+	}
+
+}
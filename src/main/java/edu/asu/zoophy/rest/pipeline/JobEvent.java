@@ -0,0 +1,47 @@
+package edu.asu.zoophy.rest.pipeline;
+
+/**
+ * Single event in a ZooPhy Job's timeline
+ * @author devdemetri
+ */
+public class JobEvent {
+
+	private long timestamp;
+	private JobEventType type;
+	private String message;
+
+	public JobEvent() {
+
+	}
+
+	public JobEvent(long timestamp, JobEventType type, String message) {
+		this.timestamp = timestamp;
+		this.type = type;
+		this.message = message;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	public JobEventType getType() {
+		return type;
+	}
+
+	public void setType(JobEventType type) {
+		this.type = type;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+}
@@ -0,0 +1,14 @@
+package edu.asu.zoophy.rest.pipeline;
+
+/**
+ * Kinds of events recorded in a ZooPhy Job's timeline
+ * @author devdemetri
+ */
+public enum JobEventType {
+	STATUS,
+	STAGE,
+	CHECKPOINT,
+	RESTART,
+	REUSE,
+	ERROR
+}
@@ -0,0 +1,84 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the stage metrics of recent ZooPhy Jobs in memory, along with histograms of each stage across all jobs since startup
+ * @author devdemetri
+ */
+public class JobMetrics {
+
+	/**
+	 * Number of jobs whose stage breakdowns are kept, oldest are dropped first
+	 */
+	private final static int MAX_JOBS = 500;
+
+	private final static Map<String, List<StageMetrics>> jobs = new LinkedHashMap<String, List<StageMetrics>>(16, 0.75f, false) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, List<StageMetrics>> eldest) {
+			return size() > MAX_JOBS;
+		}
+	};
+	private final static Map<String, StageHistograms> histograms = new LinkedHashMap<String, StageHistograms>();
+
+	private JobMetrics() {
+
+	}
+
+	/**
+	 * Adds stage metrics to a job's breakdown and to the stage histograms
+	 * @param jobID
+	 * @param stages
+	 */
+	public static void record(String jobID, List<StageMetrics> stages) {
+		synchronized (jobs) {
+			List<StageMetrics> jobStages = jobs.get(jobID);
+			if (jobStages == null) {
+				jobStages = new ArrayList<StageMetrics>();
+				jobs.put(jobID, jobStages);
+			}
+			jobStages.addAll(stages);
+			for (StageMetrics stage : stages) {
+				StageHistograms stageHistograms = histograms.get(stage.getStage());
+				if (stageHistograms == null) {
+					stageHistograms = new StageHistograms(stage.getStage());
+					histograms.put(stage.getStage(), stageHistograms);
+				}
+				stageHistograms.add(stage);
+			}
+		}
+	}
+
+	/**
+	 * @param jobID
+	 * @return the job's stage metrics in the order the stages were added, or an empty list if none were recorded
+	 */
+	public static List<StageMetrics> getStages(String jobID) {
+		synchronized (jobs) {
+			List<StageMetrics> jobStages = jobs.get(jobID);
+			if (jobStages == null) {
+				return new ArrayList<StageMetrics>();
+			}
+			return new ArrayList<StageMetrics>(jobStages);
+		}
+	}
+
+	/**
+	 * @return histograms of every stage, in the order the stages were first seen
+	 */
+	public static List<StageHistograms> getHistograms() {
+		synchronized (jobs) {
+			List<StageHistograms> copies = new ArrayList<StageHistograms>(histograms.size());
+			for (StageHistograms stageHistograms : histograms.values()) {
+				copies.add(new StageHistograms(stageHistograms));
+			}
+			return copies;
+		}
+	}
+
+}
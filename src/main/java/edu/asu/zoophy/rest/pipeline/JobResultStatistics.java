@@ -0,0 +1,100 @@
+package edu.asu.zoophy.rest.pipeline;
+
+/**
+ * Usage statistics for the JobResultStore
+ * @author devdemetri
+ */
+public class JobResultStatistics {
+
+	private boolean enabled = false;
+	private int entries = 0;
+	private long sizeBytes = 0;
+	private long maxBytes = 0;
+	private long hits = 0;
+	private long attached = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public JobResultStatistics() {
+
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getEntries() {
+		return entries;
+	}
+
+	public void setEntries(int entries) {
+		this.entries = entries;
+	}
+
+	public long getSizeBytes() {
+		return sizeBytes;
+	}
+
+	public void setSizeBytes(long sizeBytes) {
+		this.sizeBytes = sizeBytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return jobs sent stored results instead of running
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	public void setHits(long hits) {
+		this.hits = hits;
+	}
+
+	/**
+	 * @return jobs attached to an identical queued or running job
+	 */
+	public long getAttached() {
+		return attached;
+	}
+
+	public void setAttached(long attached) {
+		this.attached = attached;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public void setMisses(long misses) {
+		this.misses = misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public void setEvictions(long evictions) {
+		this.evictions = evictions;
+	}
+
+	/**
+	 * @return fraction of submissions that did not have to run, either sent stored results or attached to an identical job
+	 */
+	public double getHitRate() {
+		long lookups = hits + attached + misses;
+		return lookups == 0 ? 0.0 : (double) (hits + attached) / lookups;
+	}
+
+}
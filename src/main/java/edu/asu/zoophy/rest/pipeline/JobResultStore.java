@@ -0,0 +1,472 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.asu.zoophy.rest.pipeline.glm.Predictor;
+
+/**
+ * Responsible for keeping the results of finished ZooPhy Jobs on disk, keyed by the job's fingerprint: the SHA-256 hash of its sorted accessions,
+ * XML parameters, GLM flag, predictors, and the versions of the pipeline tools. A job identical to a finished one is sent the stored tree,
+ * GLM figure, and SpreaD3 render instead of being run again. The least recently used results are evicted once the store grows past its size limit.
+ * @author devdemetri
+ */
+public class JobResultStore {
+
+	private final static Logger log = Logger.getLogger("JobResultStore");
+	private final static String TREE = "result.tree";
+	private final static String FIGURE = "figure";
+	private final static String RENDER = "spread3";
+	private final static String TEMP_SUFFIX = ".tmp";
+	private static JobResultStore store = null;
+
+	private final File STORE_DIR;
+	private final File JOB_WORK_DIR;
+	private final String RENDER_DIR;
+	private final long MAX_BYTES;
+	private final String TOOL_VERSIONS;
+	private final boolean COLLAPSE_IDENTICAL;
+	/**
+	 * Stored result sizes in least to most recently used order
+	 */
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong attached = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicLong evictions = new AtomicLong(0);
+	private long totalBytes = 0;
+
+	private JobResultStore() throws PipelineException {
+		PropertyProvider provider = PropertyProvider.getInstance();
+		String storeDir = provider.getProperty("job.results.dir");
+		if (storeDir == null || storeDir.trim().isEmpty()) {
+			storeDir = System.getProperty("user.dir")+"/JobResults/";
+		}
+		String maxMegabytes = provider.getProperty("job.results.max.mb");
+		MAX_BYTES = (maxMegabytes != null ? Long.parseLong(maxMegabytes.trim()) : 4096L) * 1024L * 1024L;
+		STORE_DIR = new File(storeDir.trim());
+		JOB_WORK_DIR = new File(System.getProperty("user.dir")+"/ZooPhyJobs/");
+		RENDER_DIR = provider.getProperty("spread3.result.dir");
+		TOOL_VERSIONS = readToolVersions(provider);
+		String collapseIdentical = provider.getProperty("alignment.collapse.identical");
+		COLLAPSE_IDENTICAL = collapseIdentical == null || Boolean.parseBoolean(collapseIdentical.trim());
+		open();
+	}
+
+	/**
+	 * Constructor for using a JobResultStore outside of the configured directories
+	 * @param storeDir - directory to keep results in
+	 * @param jobWorkDir - directory retrieved trees and GLM figures are copied to
+	 * @param renderDir - SpreaD3 render directory, or null
+	 * @param maxBytes - size limit of the store
+	 * @param toolVersions - description of the installed pipeline tools
+	 * @param collapseIdentical - whether jobs collapse identical sequences
+	 * @throws PipelineException
+	 */
+	JobResultStore(File storeDir, File jobWorkDir, String renderDir, long maxBytes, String toolVersions, boolean collapseIdentical) throws PipelineException {
+		STORE_DIR = storeDir;
+		JOB_WORK_DIR = jobWorkDir;
+		RENDER_DIR = renderDir;
+		MAX_BYTES = maxBytes;
+		TOOL_VERSIONS = toolVersions;
+		COLLAPSE_IDENTICAL = collapseIdentical;
+		open();
+	}
+
+	/**
+	 * Creates the store directory and loads its stored results
+	 * @throws PipelineException
+	 */
+	private void open() throws PipelineException {
+		if (isEnabled()) {
+			if (!STORE_DIR.isDirectory() && !STORE_DIR.mkdirs()) {
+				throw new PipelineException("Could not create job result store directory: "+STORE_DIR.getAbsolutePath(), null);
+			}
+			loadEntries();
+		}
+	}
+
+	/**
+	 * Retrieve the singleton instance of the JobResultStore
+	 * @return a JobResultStore instance
+	 * @throws PipelineException
+	 */
+	public static synchronized JobResultStore getInstance() throws PipelineException {
+		if (store == null) {
+			store = new JobResultStore();
+		}
+		return store;
+	}
+
+	/**
+	 * Describes the installed pipeline tools, so results are not reused after a tool is upgraded.
+	 * Uses job.results.tool.versions along with the size and modification time of the configured tool files.
+	 * @param provider
+	 * @return tool version description
+	 */
+	private static String readToolVersions(PropertyProvider provider) {
+		StringBuilder versions = new StringBuilder();
+		String configured = provider.getProperty("job.results.tool.versions");
+		if (configured != null) {
+			versions.append(configured.trim()).append('\n');
+		}
+		List<File> tools = new ArrayList<File>();
+		for (String property : new String[] {"spread3.jar", "glm.script", "geojson.location"}) {
+			String path = provider.getProperty(property);
+			if (path != null && !path.trim().isEmpty()) {
+				tools.add(new File(path.trim()));
+			}
+		}
+		String scriptsDir = provider.getProperty("beast.scripts.dir");
+		if (scriptsDir != null && !scriptsDir.trim().isEmpty()) {
+			File[] scripts = new File(scriptsDir.trim()).listFiles();
+			if (scripts != null) {
+				Arrays.sort(scripts);
+				tools.addAll(Arrays.asList(scripts));
+			}
+		}
+		for (File tool : tools) {
+			if (tool.isFile()) {
+				versions.append(tool.getName()).append(' ').append(tool.length()).append(' ').append(tool.lastModified()).append('\n');
+			}
+		}
+		return versions.toString();
+	}
+
+	/**
+	 * Picks up results stored by earlier runs, oldest first, and removes unfinished ones
+	 */
+	private void loadEntries() {
+		File[] dirs = STORE_DIR.listFiles();
+		if (dirs == null) {
+			return;
+		}
+		Arrays.sort(dirs, new Comparator<File>() {
+			@Override
+			public int compare(File first, File second) {
+				return Long.compare(first.lastModified(), second.lastModified());
+			}
+		});
+		for (File dir : dirs) {
+			if (!dir.isDirectory()) {
+				continue;
+			}
+			if (dir.getName().endsWith(TEMP_SUFFIX) || !new File(dir, TREE).isFile()) {
+				delete(dir);
+				continue;
+			}
+			long size = sizeOf(dir);
+			entries.put(dir.getName(), size);
+			totalBytes += size;
+		}
+		log.info("Loaded "+entries.size()+" stored job results ("+totalBytes+" bytes) from "+STORE_DIR.getAbsolutePath());
+		evict();
+	}
+
+	/**
+	 * @return True if job results will be stored, False if job.results.max.mb is 0
+	 */
+	public boolean isEnabled() {
+		return MAX_BYTES > 0;
+	}
+
+	/**
+	 * Hashes everything that determines a job's results, including whether identical sequences are collapsed. Accessions are sorted and null or empty predictors are the same, so equivalent submissions match.
+	 * @param accessions
+	 * @param useGLM
+	 * @param predictors
+	 * @param xmlOptions
+	 * @param subsampling - subsampling parameters, or null
+	 * @return hex encoded SHA-256 fingerprint of the job
+	 * @throws PipelineException
+	 */
+	public String getFingerprint(List<String> accessions, boolean useGLM, Map<String, List<Predictor>> predictors, XMLParameters xmlOptions, SubsampleParameters subsampling) throws PipelineException {
+		MessageDigest digest = AlignmentCache.newDigest();
+		List<String> sortedAccessions = new ArrayList<String>(accessions);
+		Collections.sort(sortedAccessions);
+		for (String accession : sortedAccessions) {
+			update(digest, "accession", accession);
+		}
+		if (xmlOptions == null) {
+			xmlOptions = XMLParameters.getDefault();
+		}
+		update(digest, "chainLength", String.valueOf(xmlOptions.getChainLength()));
+		update(digest, "subSampleRate", String.valueOf(xmlOptions.getSubSampleRate()));
+		update(digest, "substitutionModel", String.valueOf(xmlOptions.getSubstitutionModel()));
+		update(digest, "glm", String.valueOf(useGLM));
+		update(digest, "collapseIdentical", String.valueOf(COLLAPSE_IDENTICAL));
+		if (subsampling != null) {
+			update(digest, "subsampling", subsampling.getMaxPerGroup()+"\t"+subsampling.getBinMonths()+"\t"+subsampling.getSeed());
+		}
+		if (predictors != null) {
+			List<String> states = new ArrayList<String>(predictors.keySet());
+			Collections.sort(states);
+			for (String state : states) {
+				List<String> statePredictors = new ArrayList<String>();
+				if (predictors.get(state) != null) {
+					for (Predictor predictor : predictors.get(state)) {
+						statePredictors.add(predictor.getName()+"\t"+predictor.getYear()+"\t"+predictor.getValue());
+					}
+				}
+				Collections.sort(statePredictors);
+				update(digest, "state", state);
+				for (String predictor : statePredictors) {
+					update(digest, "predictor", predictor);
+				}
+			}
+		}
+		update(digest, "tools", TOOL_VERSIONS);
+		return AlignmentCache.toHex(digest.digest());
+	}
+
+	/**
+	 * Adds a labeled, length prefixed value to the fingerprint, so adjacent values cannot run together
+	 */
+	private static void update(MessageDigest digest, String label, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		digest.update(label.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(bytes);
+	}
+
+	/**
+	 * @param fingerprint
+	 * @return True if results are stored for the fingerprint
+	 */
+	public synchronized boolean contains(String fingerprint) {
+		return isEnabled() && entries.containsKey(fingerprint) && new File(STORE_DIR, fingerprint).isDirectory();
+	}
+
+	/**
+	 * Copies stored results for a new job: the tree and GLM figure to the job directory, and the SpreaD3 render to the job's render folder
+	 * @param fingerprint
+	 * @param jobID - ID of the job receiving the results
+	 * @return the job's tree file followed by its GLM figure, which may be null, or null if no results are stored
+	 */
+	public File[] retrieve(String fingerprint, String jobID) {
+		if (!isEnabled()) {
+			return null;
+		}
+		File stored = new File(STORE_DIR, fingerprint);
+		synchronized (this) {
+			if (entries.get(fingerprint) == null || !stored.isDirectory()) {
+				return null;
+			}
+			stored.setLastModified(System.currentTimeMillis());
+		}
+		File[] results = new File[2];
+		try {
+			Files.createDirectories(JOB_WORK_DIR.toPath());
+			results[0] = new File(JOB_WORK_DIR, jobID+".tree");
+			Files.copy(new File(stored, TREE).toPath(), results[0].toPath(), StandardCopyOption.REPLACE_EXISTING);
+			File[] files = stored.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					if (file.getName().startsWith(FIGURE)) {
+						results[1] = new File(JOB_WORK_DIR, jobID+"-"+file.getName());
+						Files.copy(file.toPath(), results[1].toPath(), StandardCopyOption.REPLACE_EXISTING);
+					}
+				}
+			}
+			File render = new File(stored, RENDER);
+			if (render.isDirectory() && RENDER_DIR != null) {
+				copy(render, new File(RENDER_DIR, jobID));
+			}
+			hits.incrementAndGet();
+			log.info("Retrieved stored results "+fingerprint+" for job: "+jobID);
+			return results;
+		}
+		catch (IOException e) {
+			log.log(Level.WARNING, "Could not retrieve stored results "+fingerprint+" for job "+jobID+": "+e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the results of a finished job, evicting the least recently used results if needed
+	 * @param fingerprint
+	 * @param jobID - ID of the finished job, whose SpreaD3 render is stored along with its results
+	 * @param tree - result tree
+	 * @param figure - GLM figure, or null
+	 */
+	public void store(String fingerprint, String jobID, File tree, File figure) {
+		if (!isEnabled() || tree == null || !tree.isFile()) {
+			return;
+		}
+		File temp = new File(STORE_DIR, fingerprint+"-"+jobID+TEMP_SUFFIX);
+		File stored = new File(STORE_DIR, fingerprint);
+		try {
+			Files.createDirectories(temp.toPath());
+			Files.copy(tree.toPath(), new File(temp, TREE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			if (figure != null && figure.isFile()) {
+				String ending = figure.getName().contains(".") ? figure.getName().substring(figure.getName().lastIndexOf(".")) : "";
+				Files.copy(figure.toPath(), new File(temp, FIGURE+ending).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			if (RENDER_DIR != null && new File(RENDER_DIR, jobID).isDirectory()) {
+				copy(new File(RENDER_DIR, jobID), new File(temp, RENDER));
+			}
+			long size = sizeOf(temp);
+			if (size > MAX_BYTES) {
+				delete(temp);
+				return;
+			}
+			synchronized (this) {
+				if (entries.containsKey(fingerprint)) {
+					delete(temp);
+					return;
+				}
+				delete(stored);
+				Files.move(temp.toPath(), stored.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				entries.put(fingerprint, size);
+				totalBytes += size;
+				evict();
+			}
+			log.info("Stored results "+fingerprint+" of job: "+jobID);
+		}
+		catch (IOException e) {
+			log.log(Level.WARNING, "Could not store results "+fingerprint+" of job "+jobID+": "+e.getMessage());
+			delete(temp);
+		}
+	}
+
+	/**
+	 * Counts a job that had to run because no identical job had finished or was running
+	 */
+	public void recordMiss() {
+		misses.incrementAndGet();
+	}
+
+	/**
+	 * Counts a job that will receive the results of an identical job that is already queued or running
+	 */
+	public void recordAttached() {
+		attached.incrementAndGet();
+	}
+
+	/**
+	 * Deletes least recently used results until the store fits in its size limit
+	 */
+	private synchronized void evict() {
+		Iterator<Map.Entry<String, Long>> iter = entries.entrySet().iterator();
+		while (totalBytes > MAX_BYTES && iter.hasNext()) {
+			Map.Entry<String, Long> eldest = iter.next();
+			File stored = new File(STORE_DIR, eldest.getKey());
+			delete(stored);
+			if (!stored.exists()) {
+				totalBytes -= eldest.getValue();
+				iter.remove();
+				evictions.incrementAndGet();
+				log.info("Evicted stored results: "+eldest.getKey());
+			}
+		}
+	}
+
+	/**
+	 * @return current store usage and hit rate
+	 */
+	public synchronized JobResultStatistics getStatistics() {
+		JobResultStatistics statistics = new JobResultStatistics();
+		statistics.setEnabled(isEnabled());
+		statistics.setEntries(entries.size());
+		statistics.setSizeBytes(totalBytes);
+		statistics.setMaxBytes(MAX_BYTES);
+		statistics.setHits(hits.get());
+		statistics.setAttached(attached.get());
+		statistics.setMisses(misses.get());
+		statistics.setEvictions(evictions.get());
+		return statistics;
+	}
+
+	/**
+	 * Copies a folder and everything in it
+	 * @param source
+	 * @param destination
+	 * @throws IOException
+	 */
+	private static void copy(final File source, final File destination) throws IOException {
+		final Path sourcePath = source.toPath();
+		final Path destinationPath = destination.toPath();
+		Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(destinationPath.resolve(sourcePath.relativize(dir)));
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.copy(file, destinationPath.resolve(sourcePath.relativize(file)), StandardCopyOption.REPLACE_EXISTING);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * @param dir
+	 * @return total size of the files in a folder
+	 */
+	private static long sizeOf(File dir) {
+		final long[] size = {0};
+		try {
+			Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					size[0] += attrs.size();
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		catch (IOException e) {
+			log.warning("Could not measure stored results "+dir.getName()+": "+e.getMessage());
+		}
+		return size[0];
+	}
+
+	/**
+	 * Deletes a folder and everything in it
+	 * @param dir
+	 */
+	private static void delete(File dir) {
+		if (!dir.exists()) {
+			return;
+		}
+		try {
+			Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+					Files.delete(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		catch (IOException e) {
+			log.warning("Could not delete stored results "+dir.getName()+": "+e.getMessage());
+		}
+	}
+
+}
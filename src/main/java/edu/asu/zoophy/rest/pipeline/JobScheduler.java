@@ -0,0 +1,915 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.asu.zoophy.rest.JobParameters;
+import edu.asu.zoophy.rest.database.DaoException;
+import edu.asu.zoophy.rest.database.JobDAO;
+import edu.asu.zoophy.rest.database.StoredJob;
+import edu.asu.zoophy.rest.database.ZooPhyDAO;
+import edu.asu.zoophy.rest.index.LuceneSearcher;
+
+/**
+ * Runs ZooPhy Jobs in a bounded number of pipeline slots. Waiting jobs are queued by priority, then FIFO, and persisted so a restart does not lose them.
+ * Running jobs are suspended when the service stops and resume from their checkpoints when it starts again.
+ * With job.queue.shared, the Job table is the queue: any node can accept jobs, and worker nodes claim them when they have a free slot,
+ * send heartbeats for the jobs they run, stop jobs that a user asked any node to stop, and return jobs of unresponsive workers to the queue.
+ * A job identical to a finished job is sent that job's stored results, and one identical to a queued or running job waits for that job's results.
+ * @author devdemetri
+ */
+@Component("JobScheduler")
+public class JobScheduler {
+
+	@Autowired
+	private ZooPhyDAO dao;
+
+	@Autowired
+	private LuceneSearcher indexSearcher;
+
+	@Autowired
+	private JobDAO jobDAO;
+
+	@Autowired
+	private ObjectMapper mapper;
+
+	@Value("${job.max.concurrent:0}")
+	private Integer MAX_CONCURRENT;
+
+	@Value("${job.cores.per.job:4}")
+	private Integer CORES_PER_JOB;
+
+	@Value("${job.memory.per.job:4096}")
+	private Integer MEMORY_PER_JOB;
+
+	@Value("${job.queue.shared:false}")
+	private Boolean SHARED_QUEUE;
+
+	@Value("${job.worker:true}")
+	private Boolean IS_WORKER;
+
+	@Value("${job.worker.id:}")
+	private String WORKER_ID;
+
+	@Value("${job.queue.poll.ms:2000}")
+	private Integer POLL_MILLIS;
+
+	@Value("${job.heartbeat.seconds:30}")
+	private Integer HEARTBEAT_SECONDS;
+
+	@Value("${job.heartbeat.timeout.seconds:300}")
+	private Integer HEARTBEAT_TIMEOUT_SECONDS;
+
+	/**
+	 * Priority given to jobs recovered from the Job table, so they run before newer submissions
+	 */
+	private final static int RECOVERED_PRIORITY = 10;
+	private final static int DEFAULT_PRIORITY = 0;
+	/**
+	 * Seconds to wait for suspended jobs to stop when the service shuts down
+	 */
+	private final static int SHUTDOWN_SECONDS = 30;
+
+	private final static Logger log = Logger.getLogger("JobScheduler");
+
+	private final PriorityBlockingQueue<QueuedJob> queue = new PriorityBlockingQueue<QueuedJob>();
+	private final Map<String, QueuedJob> runningJobs = new ConcurrentHashMap<String, QueuedJob>();
+	private final AtomicLong submissionCounter = new AtomicLong(0);
+	/**
+	 * Fingerprint of each queued or running job to its Job ID, guarded by attachedJobs
+	 */
+	private final Map<String, String> fingerprintJobs = new HashMap<String, String>();
+	/**
+	 * Jobs waiting for the results of an identical queued or running job, by that job's ID
+	 */
+	private final Map<String, List<QueuedJob>> attachedJobs = new HashMap<String, List<QueuedJob>>();
+	private Semaphore slots;
+	private int slotCount;
+	private int coresPerSlot;
+	private ExecutorService workers;
+	private Thread dispatcher;
+	private ScheduledExecutorService heartbeat;
+	private String workerID;
+	private volatile boolean isRunning = false;
+
+	/**
+	 * Sizes the pipeline slots, recovers persisted queued and interrupted jobs, and starts dispatching
+	 */
+	@PostConstruct
+	private void start() {
+		final int cores = Runtime.getRuntime().availableProcessors();
+		if (MAX_CONCURRENT != null && MAX_CONCURRENT > 0) {
+			slotCount = MAX_CONCURRENT;
+		}
+		else {
+			int byCores = Math.max(1, cores / Math.max(1, CORES_PER_JOB));
+			int byMemory = Math.max(1, (int) (totalMemoryMB() / Math.max(1, MEMORY_PER_JOB)));
+			slotCount = Math.min(byCores, byMemory);
+		}
+		coresPerSlot = Math.max(1, cores / slotCount);
+		slots = new Semaphore(slotCount, true);
+		SpreadDaemon.setDefaultWorkerCount(slotCount);
+		workers = Executors.newCachedThreadPool(new NamedThreadFactory("ZooPhyJob"));
+		workerID = getWorkerID();
+		isRunning = true;
+		if (SHARED_QUEUE) {
+			log.info("Job Scheduler using the shared job queue as "+(IS_WORKER ? "worker "+workerID : "a front-end only")+".");
+			recoverWorkerJobs();
+			if (!IS_WORKER) {
+				return;
+			}
+			heartbeat = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("JobHeartbeat"));
+			heartbeat.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					sendHeartbeat();
+				}
+			}, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+		}
+		else {
+			recoverJobs();
+		}
+		log.info("Job Scheduler running "+slotCount+" pipeline slots with "+coresPerSlot+" cores each.");
+		dispatcher = new NamedThreadFactory("JobDispatcher").newThread(new Runnable() {
+			@Override
+			public void run() {
+				dispatch();
+			}
+		});
+		dispatcher.start();
+	}
+
+	/**
+	 * Stops dispatching new jobs and suspends running jobs, which stay RUNNING in the Job table so they resume on the next start
+	 */
+	@PreDestroy
+	private void stop() {
+		isRunning = false;
+		if (dispatcher != null) {
+			dispatcher.interrupt();
+		}
+		if (heartbeat != null) {
+			heartbeat.shutdownNow();
+		}
+		for (QueuedJob runningJob : runningJobs.values()) {
+			runningJob.runner.suspend();
+		}
+		if (workers != null) {
+			workers.shutdownNow();
+			try {
+				if (!workers.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+					log.warning("Suspended jobs did not stop within "+SHUTDOWN_SECONDS+" seconds.");
+				}
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		log.info("Job Scheduler stopped with "+queue.size()+" queued jobs.");
+	}
+
+	/**
+	 * Persists and queues a new ZooPhy Job
+	 * @param runner - ZooPhyRunner containing the job details
+	 * @param parameters - validated job parameters, including the final accession list
+	 * @throws PipelineException
+	 */
+	public void submit(ZooPhyRunner runner, JobParameters parameters) throws PipelineException {
+		try {
+			jobDAO.insertJob(runner.getJobID(), JobStatus.QUEUED.toString(), DEFAULT_PRIORITY, mapper.writeValueAsString(parameters));
+			JobTimeline.record(runner.getJobID(), JobEventType.STATUS, JobStatus.QUEUED.toString());
+		}
+		catch (Exception e) {
+			log.log(Level.SEVERE, "Could not persist job: "+runner.getJobID()+" : "+e.getMessage());
+			throw new PipelineException("Could not persist job: "+runner.getJobID()+" : "+e.getMessage(), "Could Not Queue Job!");
+		}
+		if (SHARED_QUEUE) {
+			log.info("Queued job in the shared job queue: "+runner.getJobID());
+		}
+		else {
+			route(new QueuedJob(runner, parameters.getAccessions(), DEFAULT_PRIORITY, submissionCounter.getAndIncrement(), getFingerprint(parameters)));
+		}
+	}
+
+	/**
+	 * Removes a job that has not started yet from the queue
+	 * @param jobID
+	 * @return True if the job was waiting in the queue, False otherwise
+	 */
+	public boolean cancel(String jobID) {
+		if (SHARED_QUEUE) {
+			try {
+				if (jobDAO.updateJobFinished(jobID, JobStatus.STOPPED.toString(), JobStatus.QUEUED.toString())) {
+					JobTimeline.record(jobID, JobEventType.STATUS, JobStatus.STOPPED.toString());
+					log.info("Removed queued job: "+jobID);
+					return true;
+				}
+			}
+			catch (DaoException de) {
+				log.warning("Could not remove queued job: "+jobID+" : "+de.getMessage());
+			}
+			return false;
+		}
+		for (QueuedJob queuedJob : queue) {
+			if (queuedJob.runner.getJobID().equals(jobID) && queue.remove(queuedJob)) {
+				updateFinished(jobID, JobStatus.STOPPED);
+				log.info("Removed queued job: "+jobID);
+				releaseAttached(queuedJob, false);
+				return true;
+			}
+		}
+		synchronized (attachedJobs) {
+			for (List<QueuedJob> attached : attachedJobs.values()) {
+				Iterator<QueuedJob> iter = attached.iterator();
+				while (iter.hasNext()) {
+					if (iter.next().runner.getJobID().equals(jobID)) {
+						iter.remove();
+						updateFinished(jobID, JobStatus.STOPPED);
+						log.info("Removed attached job: "+jobID);
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Asks the worker running a job on another node to stop it
+	 * @param jobID
+	 * @return True if the job is running in the shared job queue, False otherwise
+	 */
+	public boolean requestStop(String jobID) {
+		if (!SHARED_QUEUE) {
+			return false;
+		}
+		try {
+			if (jobDAO.requestStop(jobID, JobStatus.RUNNING.toString())) {
+				log.info("Requested stop of job on its worker: "+jobID);
+				return true;
+			}
+		}
+		catch (DaoException de) {
+			log.warning("Could not request stop of job: "+jobID+" : "+de.getMessage());
+		}
+		return false;
+	}
+
+	/**
+	 * Reports where a job is in the scheduler
+	 * @param jobID
+	 * @return 0 if the job is running, its 1-based position if it is queued, or -1 if the scheduler does not know the job
+	 */
+	public int getQueuePosition(String jobID) {
+		if (runningJobs.containsKey(jobID)) {
+			return 0;
+		}
+		if (SHARED_QUEUE) {
+			try {
+				StoredJob storedJob = jobDAO.retrieveJob(jobID);
+				if (storedJob == null) {
+					return -1;
+				}
+				else if (storedJob.getStatus().equals(JobStatus.RUNNING.toString())) {
+					return 0;
+				}
+				else if (storedJob.getStatus().equals(JobStatus.QUEUED.toString())) {
+					return jobDAO.countJobsAhead(jobID);
+				}
+			}
+			catch (DaoException de) {
+				log.warning("Could not find job in the shared job queue: "+jobID+" : "+de.getMessage());
+			}
+			return -1;
+		}
+		QueuedJob[] waiting = queue.toArray(new QueuedJob[0]);
+		Arrays.sort(waiting);
+		for (int i = 0; i < waiting.length; i++) {
+			if (waiting[i].runner.getJobID().equals(jobID)) {
+				return i+1;
+			}
+		}
+		String attachedTo = null;
+		synchronized (attachedJobs) {
+			for (Map.Entry<String, List<QueuedJob>> attached : attachedJobs.entrySet()) {
+				for (QueuedJob attachedJob : attached.getValue()) {
+					if (attachedJob.runner.getJobID().equals(jobID)) {
+						attachedTo = attached.getKey();
+					}
+				}
+			}
+		}
+		if (attachedTo != null) {
+			return getQueuePosition(attachedTo);
+		}
+		return -1;
+	}
+
+	/**
+	 * @return number of jobs waiting for a pipeline slot
+	 */
+	public int getQueueLength() {
+		if (SHARED_QUEUE) {
+			try {
+				return jobDAO.countJobs(JobStatus.QUEUED.toString());
+			}
+			catch (DaoException de) {
+				log.warning("Could not count jobs in the shared job queue: "+de.getMessage());
+			}
+		}
+		return queue.size();
+	}
+
+	/**
+	 * @return number of jobs currently running on this node
+	 */
+	public int getRunningCount() {
+		return runningJobs.size();
+	}
+
+	/**
+	 * @return total number of pipeline slots
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * @return cores allocated to each running job
+	 */
+	public int getCoresPerSlot() {
+		return coresPerSlot;
+	}
+
+	/**
+	 * Sends a job the stored results of an identical finished job, or attaches it to an identical queued or running job, or queues it
+	 * @param queuedJob
+	 */
+	private void route(final QueuedJob queuedJob) {
+		JobResultStore store = getResultStore();
+		if (store != null && queuedJob.fingerprint != null && store.contains(queuedJob.fingerprint)) {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (!sendStoredResults(queuedJob)) {
+						attachOrQueue(queuedJob);
+					}
+				}
+			});
+			return;
+		}
+		attachOrQueue(queuedJob);
+	}
+
+	/**
+	 * Attaches a job to an identical queued or running job, or queues it
+	 * @param queuedJob
+	 */
+	private void attachOrQueue(QueuedJob queuedJob) {
+		final String jobID = queuedJob.runner.getJobID();
+		JobResultStore store = getResultStore();
+		if (store != null && queuedJob.fingerprint != null) {
+			String attachedTo;
+			synchronized (attachedJobs) {
+				attachedTo = fingerprintJobs.get(queuedJob.fingerprint);
+				if (attachedTo != null) {
+					attachedJobs.get(attachedTo).add(queuedJob);
+				}
+				else {
+					fingerprintJobs.put(queuedJob.fingerprint, jobID);
+					attachedJobs.put(jobID, new ArrayList<QueuedJob>());
+				}
+			}
+			if (attachedTo != null) {
+				store.recordAttached();
+				JobTimeline.record(jobID, JobEventType.REUSE, "Waiting for the results of identical job: "+attachedTo);
+				log.info("Attached job: "+jobID+" to identical job: "+attachedTo);
+				return;
+			}
+			store.recordMiss();
+		}
+		queue.put(queuedJob);
+		log.info("Queued job: "+jobID+" at position "+getQueuePosition(jobID));
+	}
+
+	/**
+	 * Hands the jobs attached to a job that is no longer queued or running its stored results, or queues them to run themselves if it did not finish
+	 * @param queuedJob
+	 * @param isSuccess - True if the job finished successfully
+	 */
+	private void releaseAttached(QueuedJob queuedJob, boolean isSuccess) {
+		if (queuedJob.fingerprint == null) {
+			return;
+		}
+		final String jobID = queuedJob.runner.getJobID();
+		List<QueuedJob> attached;
+		synchronized (attachedJobs) {
+			attached = attachedJobs.remove(jobID);
+			if (jobID.equals(fingerprintJobs.get(queuedJob.fingerprint))) {
+				fingerprintJobs.remove(queuedJob.fingerprint);
+			}
+		}
+		if (attached == null) {
+			return;
+		}
+		for (QueuedJob attachedJob : attached) {
+			if (isSuccess) {
+				route(attachedJob);
+			}
+			else {
+				log.info("Identical job did not finish, queueing attached job: "+attachedJob.runner.getJobID());
+				attachOrQueue(attachedJob);
+			}
+		}
+	}
+
+	/**
+	 * Sends a job the stored results of an identical job, without using a pipeline slot
+	 * @param queuedJob
+	 * @return True if the job is done, False if the results are no longer stored
+	 */
+	private boolean sendStoredResults(QueuedJob queuedJob) {
+		final String jobID = queuedJob.runner.getJobID();
+		try {
+			if (queuedJob.runner.sendStoredResults(queuedJob.fingerprint)) {
+				JobTimeline.record(jobID, JobEventType.REUSE, "Sent the stored results of an identical job");
+				log.info("Sent stored results to job: "+jobID);
+				updateFinished(jobID, JobStatus.FINISHED);
+				return true;
+			}
+			return false;
+		}
+		catch (PipelineException pe) {
+			log.log(Level.SEVERE, "Could not send stored results to job: "+jobID+" : "+pe.getMessage());
+			updateFinished(jobID, JobStatus.FAILED);
+			return true;
+		}
+	}
+
+	/**
+	 * @param parameters
+	 * @return fingerprint of the job, or null if the JobResultStore is disabled
+	 */
+	private String getFingerprint(JobParameters parameters) {
+		JobResultStore store = getResultStore();
+		if (store == null) {
+			return null;
+		}
+		try {
+			return store.getFingerprint(parameters.getAccessions(), parameters.isUsingGLM(), parameters.getPredictors(), parameters.getXmlOptions(), parameters.getSubsampling());
+		}
+		catch (PipelineException pe) {
+			log.warning("Could not fingerprint job: "+pe.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @return the JobResultStore, or null if it is disabled or not available
+	 */
+	private JobResultStore getResultStore() {
+		try {
+			JobResultStore store = JobResultStore.getInstance();
+			return store.isEnabled() ? store : null;
+		}
+		catch (PipelineException pe) {
+			log.warning("Job result store is not available: "+pe.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Hands queued jobs to workers whenever a pipeline slot is free
+	 */
+	private void dispatch() {
+		while (isRunning) {
+			try {
+				slots.acquire();
+				final QueuedJob next;
+				try {
+					next = SHARED_QUEUE ? claimJob() : queue.take();
+				}
+				catch (InterruptedException ie) {
+					slots.release();
+					throw ie;
+				}
+				runningJobs.put(next.runner.getJobID(), next);
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						runJob(next);
+					}
+				});
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			catch (Exception e) {
+				log.log(Level.SEVERE, "Job dispatch failed: "+e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Waits until a job can be claimed from the shared job queue
+	 * @return the claimed job
+	 * @throws InterruptedException
+	 */
+	private QueuedJob claimJob() throws InterruptedException {
+		while (true) {
+			StoredJob claimed = null;
+			try {
+				claimed = jobDAO.claimJob(workerID, JobStatus.QUEUED.toString(), JobStatus.RUNNING.toString());
+			}
+			catch (DaoException de) {
+				log.warning("Could not claim a job: "+de.getMessage());
+			}
+			if (claimed != null) {
+				QueuedJob claimedJob = createJob(claimed);
+				if (claimedJob != null) {
+					log.info("Claimed job: "+claimed.getJobID());
+					return claimedJob;
+				}
+				updateFinished(claimed.getJobID(), JobStatus.FAILED);
+			}
+			else {
+				Thread.sleep(POLL_MILLIS);
+			}
+		}
+	}
+
+	/**
+	 * Runs a single job in its pipeline slot and records its final status
+	 * @param queuedJob
+	 */
+	private void runJob(final QueuedJob queuedJob) {
+		final String jobID = queuedJob.runner.getJobID();
+		boolean isSuccess = false;
+		synchronized (queuedJob) {
+			queuedJob.thread = Thread.currentThread();
+		}
+		try {
+			if (SHARED_QUEUE && isStored(queuedJob) && sendStoredResults(queuedJob)) {
+				return;
+			}
+			if (!SHARED_QUEUE) {
+				try {
+					jobDAO.updateJobStarted(jobID, JobStatus.RUNNING.toString());
+				}
+				catch (DaoException de) {
+					log.warning("Could not mark job as running: "+jobID+" : "+de.getMessage());
+				}
+			}
+			JobTimeline.record(jobID, JobEventType.STATUS, JobStatus.RUNNING.toString());
+			queuedJob.runner.setAllocatedCores(coresPerSlot);
+			queuedJob.runner.setCheckpointListener(new JobCheckpoint.Listener() {
+				@Override
+				public void stageDone(String stage) {
+					try {
+						if (!SHARED_QUEUE) {
+							jobDAO.updateJobStage(jobID, stage);
+						}
+						else if (!jobDAO.updateWorkerJobStage(jobID, workerID, stage, JobStatus.RUNNING.toString())) {
+							suspendLostJob(queuedJob);
+						}
+					}
+					catch (DaoException de) {
+						log.warning("Could not record stage of job: "+jobID+" : "+de.getMessage());
+					}
+				}
+			});
+			log.info("Starting ZooPhy Job: "+jobID);
+			isSuccess = queuedJob.runner.runZooPhy(queuedJob.accessions, dao, indexSearcher);
+			if (queuedJob.runner.wasSuspended()) {
+				log.info("Suspended ZooPhy Job: "+jobID);
+				JobTimeline.record(jobID, JobEventType.STATUS, "SUSPENDED");
+			}
+			else if (isSuccess) {
+				updateFinished(jobID, JobStatus.FINISHED);
+			}
+			else if (queuedJob.runner.wasStopped()) {
+				updateFinished(jobID, JobStatus.STOPPED);
+			}
+			else {
+				updateFinished(jobID, JobStatus.FAILED);
+			}
+		}
+		catch (Exception e) {
+			log.log(Level.SEVERE, "Scheduled job failed: "+jobID+" : "+e.getMessage());
+			if (!queuedJob.runner.wasSuspended()) {
+				updateFinished(jobID, JobStatus.FAILED);
+			}
+		}
+		finally {
+			synchronized (queuedJob) {
+				queuedJob.thread = null;
+			}
+			PipelineManager.clearStopped(jobID);
+			runningJobs.remove(jobID);
+			slots.release();
+			if (!queuedJob.runner.wasSuspended()) {
+				releaseAttached(queuedJob, isSuccess);
+			}
+		}
+	}
+
+	/**
+	 * Looks up a job claimed from the shared job queue in the JobResultStore
+	 * @param queuedJob
+	 * @return True if results are stored for the job
+	 */
+	private boolean isStored(QueuedJob queuedJob) {
+		JobResultStore store = getResultStore();
+		if (store == null || queuedJob.fingerprint == null) {
+			return false;
+		}
+		if (store.contains(queuedJob.fingerprint)) {
+			return true;
+		}
+		store.recordMiss();
+		return false;
+	}
+
+	/**
+	 * Records a job's final status. With the shared job queue, only jobs this worker still owns are updated.
+	 * @param jobID
+	 * @param status
+	 */
+	private void updateFinished(String jobID, JobStatus status) {
+		JobTimeline.record(jobID, JobEventType.STATUS, status.toString());
+		try {
+			if (!SHARED_QUEUE) {
+				jobDAO.updateJobFinished(jobID, status.toString());
+			}
+			else if (!jobDAO.updateWorkerJobFinished(jobID, workerID, status.toString(), JobStatus.RUNNING.toString())) {
+				log.warning("Job was returned to the shared job queue, not recording its final status: "+jobID);
+			}
+		}
+		catch (DaoException de) {
+			log.warning("Could not record final status of job: "+jobID+" : "+de.getMessage());
+		}
+	}
+
+	/**
+	 * Re-queues jobs that were still queued or running when the service last stopped.
+	 * Jobs that were running are queued first and resume after their last checkpointed stage. If one cannot be recreated it is marked as interrupted.
+	 * Each job is routed once, even if it was already sent stored results or started by the time the queued jobs are read.
+	 */
+	private void recoverJobs() {
+		try {
+			Set<String> recoveredJobs = new HashSet<String>();
+			List<StoredJob> interruptedJobs = jobDAO.retrieveJobs(JobStatus.RUNNING.toString());
+			for (StoredJob interrupted : interruptedJobs) {
+				log.warning("Job was interrupted by a restart after stage "+interrupted.getStage()+", resuming: "+interrupted.getJobID());
+				QueuedJob recovered = createJob(interrupted);
+				if (recovered == null) {
+					updateFinished(interrupted.getJobID(), JobStatus.INTERRUPTED);
+					continue;
+				}
+				recoveredJobs.add(interrupted.getJobID());
+				try {
+					jobDAO.updateJobStatus(interrupted.getJobID(), JobStatus.QUEUED.toString());
+				}
+				catch (DaoException de) {
+					log.warning("Could not mark resumed job as queued: "+interrupted.getJobID()+" : "+de.getMessage());
+				}
+				route(recovered);
+			}
+			if (!interruptedJobs.isEmpty()) {
+				log.info("Resuming "+interruptedJobs.size()+" interrupted jobs.");
+			}
+			List<StoredJob> storedJobs = jobDAO.retrieveJobs(JobStatus.QUEUED.toString());
+			int queuedCount = 0;
+			for (StoredJob storedJob : storedJobs) {
+				if (recoveredJobs.contains(storedJob.getJobID())) {
+					continue;
+				}
+				if (recoverJob(storedJob)) {
+					queuedCount++;
+				}
+				else {
+					updateFinished(storedJob.getJobID(), JobStatus.FAILED);
+				}
+			}
+			if (queuedCount > 0) {
+				log.info("Recovered "+queuedCount+" queued jobs.");
+			}
+		}
+		catch (DaoException de) {
+			log.log(Level.SEVERE, "Could not recover queued jobs: "+de.getMessage());
+		}
+	}
+
+	/**
+	 * Recreates a persisted job and queues it
+	 * @param storedJob
+	 * @return True if the job was queued, False if it could not be recreated
+	 */
+	private boolean recoverJob(StoredJob storedJob) {
+		QueuedJob recovered = createJob(storedJob);
+		if (recovered == null) {
+			return false;
+		}
+		route(recovered);
+		return true;
+	}
+
+	/**
+	 * Recreates a persisted job from its parameters
+	 * @param storedJob
+	 * @return the job, or null if it could not be recreated
+	 */
+	private QueuedJob createJob(StoredJob storedJob) {
+		try {
+			JobParameters parameters = mapper.readValue(storedJob.getParameters(), JobParameters.class);
+			ZooPhyRunner runner = new ZooPhyRunner(storedJob.getJobID(), parameters.getReplyEmail(), parameters.getJobName(), parameters.isUsingGLM(), parameters.getPredictors(), parameters.getXmlOptions());
+			runner.setSubsampling(parameters.getSubsampling());
+			return new QueuedJob(runner, new ArrayList<String>(parameters.getAccessions()), Math.max(storedJob.getPriority(), RECOVERED_PRIORITY), submissionCounter.getAndIncrement(), getFingerprint(parameters));
+		}
+		catch (Exception e) {
+			log.log(Level.SEVERE, "Could not recover job: "+storedJob.getJobID()+" : "+e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the jobs this worker was running when it last stopped to the shared job queue, where they resume from their checkpoints
+	 */
+	private void recoverWorkerJobs() {
+		try {
+			List<String> requeued = jobDAO.requeueWorkerJobs(workerID, JobStatus.QUEUED.toString(), JobStatus.RUNNING.toString(), RECOVERED_PRIORITY);
+			for (String jobID : requeued) {
+				log.warning("Job was interrupted by a restart, returned to the shared job queue: "+jobID);
+			}
+		}
+		catch (DaoException de) {
+			log.log(Level.SEVERE, "Could not requeue interrupted jobs: "+de.getMessage());
+		}
+	}
+
+	/**
+	 * Tells the shared job queue this worker is alive, suspends jobs it no longer owns, stops jobs that users asked to stop, and returns jobs of unresponsive workers to the queue
+	 */
+	private void sendHeartbeat() {
+		try {
+			Set<String> lostJobs = new HashSet<String>(runningJobs.keySet());
+			lostJobs.removeAll(jobDAO.updateHeartbeat(workerID, JobStatus.RUNNING.toString()));
+			for (String jobID : lostJobs) {
+				QueuedJob lostJob = runningJobs.get(jobID);
+				if (lostJob != null) {
+					suspendLostJob(lostJob);
+				}
+			}
+			for (String jobID : jobDAO.retrieveStopRequests(workerID, JobStatus.RUNNING.toString())) {
+				if (runningJobs.containsKey(jobID) && PipelineManager.stopProcess(jobID)) {
+					log.info("Stopped job at a user's request: "+jobID);
+				}
+			}
+			for (String jobID : jobDAO.requeueStaleJobs(JobStatus.QUEUED.toString(), JobStatus.RUNNING.toString(), HEARTBEAT_TIMEOUT_SECONDS, RECOVERED_PRIORITY)) {
+				log.warning("Worker of job stopped sending heartbeats, returned it to the shared job queue: "+jobID);
+				JobTimeline.record(jobID, JobEventType.RESTART, "Worker stopped sending heartbeats, job returned to the queue");
+			}
+		}
+		catch (Exception e) {
+			log.warning("Job heartbeat failed: "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Suspends a running job that was returned to the shared job queue, e.g. after this worker missed heartbeats, so it is only run by the worker that claims it next.
+	 * Its checkpoint is kept for that worker to resume from, and its final status is not recorded.
+	 * @param queuedJob
+	 */
+	private void suspendLostJob(QueuedJob queuedJob) {
+		synchronized (queuedJob) {
+			if (queuedJob.thread == null) {
+				return;
+			}
+			String jobID = queuedJob.runner.getJobID();
+			log.warning("Job was returned to the shared job queue while running on this worker, suspending it: "+jobID);
+			JobTimeline.record(jobID, JobEventType.RESTART, "Worker no longer owns the job, suspended it");
+			queuedJob.runner.suspend();
+			queuedJob.thread.interrupt();
+		}
+	}
+
+	/**
+	 * @return job.worker.id, or the host name if it is not set
+	 */
+	private String getWorkerID() {
+		if (WORKER_ID != null && !WORKER_ID.trim().isEmpty()) {
+			return WORKER_ID.trim();
+		}
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		}
+		catch (Exception e) {
+			String id = UUID.randomUUID().toString();
+			log.warning("Could not find host name, using worker ID: "+id);
+			return id;
+		}
+	}
+
+	/**
+	 * @return total physical memory of the server in MB, or Long.MAX_VALUE if it cannot be determined
+	 */
+	private long totalMemoryMB() {
+		OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+		if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) osBean).getTotalPhysicalMemorySize() / (1024L*1024L);
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Job waiting for a pipeline slot. Higher priority first, then first submitted first.
+	 * @author devdemetri
+	 */
+	private static class QueuedJob implements Comparable<QueuedJob> {
+
+		private final ZooPhyRunner runner;
+		private final List<String> accessions;
+		private final int priority;
+		private final long sequence;
+		/**
+		 * JobResultStore fingerprint, or null if the store is disabled
+		 */
+		private final String fingerprint;
+		/**
+		 * Thread running the job, or null while it is not running. Guarded by the QueuedJob.
+		 */
+		private Thread thread = null;
+
+		private QueuedJob(ZooPhyRunner runner, List<String> accessions, int priority, long sequence, String fingerprint) {
+			this.runner = runner;
+			this.accessions = accessions;
+			this.priority = priority;
+			this.sequence = sequence;
+			this.fingerprint = fingerprint;
+		}
+
+		@Override
+		public int compareTo(QueuedJob other) {
+			if (priority != other.priority) {
+				return Integer.compare(other.priority, priority);
+			}
+			return Long.compare(sequence, other.sequence);
+		}
+
+	}
+
+	/**
+	 * Names scheduler threads for readable logs and thread dumps
+	 * @author devdemetri
+	 */
+	private static class NamedThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger(0);
+
+		private NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, prefix+"-"+count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	}
+
+}
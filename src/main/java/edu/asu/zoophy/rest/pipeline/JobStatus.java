@@ -0,0 +1,14 @@
+package edu.asu.zoophy.rest.pipeline;
+
+/**
+ * Lifecycle states of a scheduled ZooPhy Job
+ * @author devdemetri
+ */
+public enum JobStatus {
+	QUEUED,
+	RUNNING,
+	FINISHED,
+	FAILED,
+	STOPPED,
+	INTERRUPTED
+}
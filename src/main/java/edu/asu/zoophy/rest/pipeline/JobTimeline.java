@@ -0,0 +1,64 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the event timelines of recent ZooPhy Jobs in memory
+ * @author devdemetri
+ */
+public class JobTimeline {
+
+	/**
+	 * Number of jobs whose timelines are kept, oldest are dropped first
+	 */
+	private final static int MAX_JOBS = 500;
+
+	private final static Map<String, List<JobEvent>> timelines = new LinkedHashMap<String, List<JobEvent>>(16, 0.75f, false) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, List<JobEvent>> eldest) {
+			return size() > MAX_JOBS;
+		}
+	};
+
+	private JobTimeline() {
+
+	}
+
+	/**
+	 * Adds an event to a job's timeline
+	 * @param jobID
+	 * @param type
+	 * @param message
+	 */
+	public static void record(String jobID, JobEventType type, String message) {
+		JobEvent event = new JobEvent(System.currentTimeMillis(), type, message);
+		synchronized (timelines) {
+			List<JobEvent> events = timelines.get(jobID);
+			if (events == null) {
+				events = new ArrayList<JobEvent>();
+				timelines.put(jobID, events);
+			}
+			events.add(event);
+		}
+	}
+
+	/**
+	 * @param jobID
+	 * @return the job's events in the order they happened, or an empty list if none were recorded
+	 */
+	public static List<JobEvent> getEvents(String jobID) {
+		synchronized (timelines) {
+			List<JobEvent> events = timelines.get(jobID);
+			if (events == null) {
+				return new ArrayList<JobEvent>();
+			}
+			return new ArrayList<JobEvent>(events);
+		}
+	}
+
+}
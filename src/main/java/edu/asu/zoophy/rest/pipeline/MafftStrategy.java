@@ -0,0 +1,115 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * MAFFT options chosen from the number of sequences, their mean length, and the cores allocated to the job
+ * @author devdemetri
+ */
+final class MafftStrategy {
+
+	/**
+	 * Largest input aligned with --auto, which picks the accurate iterative methods for small inputs
+	 */
+	final static int AUTO_MAX_SEQUENCES = 2000;
+	/**
+	 * Largest input aligned with FFT-NS-2 (--6merpair --retree 2)
+	 */
+	final static int FFTNS2_MAX_SEQUENCES = 10000;
+	/**
+	 * Largest input aligned with FFT-NS-1 (--6merpair --retree 1), larger inputs use PartTree
+	 */
+	final static int FFTNS1_MAX_SEQUENCES = 50000;
+	/**
+	 * Mean sequence length past which the next faster strategy is used
+	 */
+	final static int LONG_SEQUENCE_LENGTH = 5000;
+	/**
+	 * Inputs smaller than this are aligned single-threaded, as threads cost more than they save
+	 */
+	final static int MIN_THREADED_SEQUENCES = 200;
+
+	private final String name;
+	private final List<String> options;
+	private final int threads;
+
+	private MafftStrategy(String name, int threads, String... options) {
+		this.name = name;
+		this.threads = threads;
+		List<String> allOptions = new ArrayList<String>();
+		if (threads > 1) {
+			allOptions.add("--thread");
+			allOptions.add(String.valueOf(threads));
+		}
+		for (String option : options) {
+			allOptions.add(option);
+		}
+		this.options = Collections.unmodifiableList(allOptions);
+	}
+
+	/**
+	 * Selects MAFFT options for an input
+	 * @param sequences - number of sequences to align
+	 * @param meanLength - mean sequence length
+	 * @param cores - cores allocated to the job
+	 * @return MafftStrategy for the input
+	 */
+	static MafftStrategy select(int sequences, double meanLength, int cores) {
+		int tier;
+		if (sequences <= AUTO_MAX_SEQUENCES) {
+			tier = 0;
+		}
+		else if (sequences <= FFTNS2_MAX_SEQUENCES) {
+			tier = 1;
+		}
+		else if (sequences <= FFTNS1_MAX_SEQUENCES) {
+			tier = 2;
+		}
+		else {
+			tier = 3;
+		}
+		if (meanLength > LONG_SEQUENCE_LENGTH && tier < 3) {
+			tier++;
+		}
+		int threads = sequences < MIN_THREADED_SEQUENCES ? 1 : Math.max(1, cores);
+		switch (tier) {
+			case 0:
+				return new MafftStrategy("auto", threads, "--auto");
+			case 1:
+				return new MafftStrategy("FFT-NS-2", threads, "--6merpair", "--retree", "2");
+			case 2:
+				return new MafftStrategy("FFT-NS-1", threads, "--6merpair", "--retree", "1");
+			default:
+				return new MafftStrategy("PartTree", 1, "--parttree", "--retree", "1");
+		}
+	}
+
+	/**
+	 * @return short name of the MAFFT strategy
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * @return MAFFT command line options, not including the input file
+	 */
+	List<String> getOptions() {
+		return options;
+	}
+
+	/**
+	 * @return number of threads MAFFT will use
+	 */
+	int getThreads() {
+		return threads;
+	}
+
+	@Override
+	public String toString() {
+		return name+" "+options.toString();
+	}
+
+}
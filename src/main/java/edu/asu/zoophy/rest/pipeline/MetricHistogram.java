@@ -0,0 +1,114 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Histogram of a stage measurement across jobs, with power of two buckets
+ * @author devdemetri
+ */
+public class MetricHistogram {
+
+	private final static int BUCKETS = 63;
+
+	private final long[] counts;
+	private long count = 0;
+	private long sum = 0;
+	private long min = 0;
+	private long max = 0;
+
+	public MetricHistogram() {
+		counts = new long[BUCKETS];
+	}
+
+	public MetricHistogram(MetricHistogram other) {
+		counts = Arrays.copyOf(other.counts, BUCKETS);
+		count = other.count;
+		sum = other.sum;
+		min = other.min;
+		max = other.max;
+	}
+
+	/**
+	 * @param value - measurement to add, negative values are counted as 0
+	 */
+	public void add(long value) {
+		value = Math.max(0, value);
+		counts[value <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(value)]++;
+		if (count == 0 || value < min) {
+			min = value;
+		}
+		max = Math.max(max, value);
+		sum += value;
+		count++;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	public long getMin() {
+		return min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0.0 : (double) sum / count;
+	}
+
+	/**
+	 * @return upper bound of the bucket holding the median
+	 */
+	public long getP50() {
+		return getPercentile(0.5);
+	}
+
+	/**
+	 * @return upper bound of the bucket holding the 95th percentile
+	 */
+	public long getP95() {
+		return getPercentile(0.95);
+	}
+
+	/**
+	 * @return count of each non-empty bucket by the bucket's inclusive upper bound
+	 */
+	public Map<Long, Long> getBuckets() {
+		Map<Long, Long> buckets = new LinkedHashMap<Long, Long>();
+		for (int i = 0; i < BUCKETS; i++) {
+			if (counts[i] > 0) {
+				buckets.put(upperBound(i), counts[i]);
+			}
+		}
+		return buckets;
+	}
+
+	private long getPercentile(double fraction) {
+		long rank = (long) Math.ceil(count * fraction);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank && counts[i] > 0) {
+				return Math.min(upperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * @param bucket
+	 * @return largest value in the bucket, bucket 0 holds 0 and 1, bucket i holds 2^i to 2^(i+1)-1
+	 */
+	private static long upperBound(int bucket) {
+		return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (2L << bucket) - 1;
+	}
+
+}
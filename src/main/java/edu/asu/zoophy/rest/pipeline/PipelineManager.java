@@ -1,31 +1,24 @@
 package edu.asu.zoophy.rest.pipeline;
 
-import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.stereotype.Component;
 
-import edu.asu.zoophy.rest.database.ZooPhyDAO;
-import edu.asu.zoophy.rest.index.LuceneSearcher;
+import edu.asu.zoophy.rest.JobParameters;
 
 /**
  * Manages ZooPhy Pipeline jobs
  * @author devdemetri
  */
-@EnableAsync
 @Component("PipelineManager")
 public class PipelineManager {
 	
 	@Autowired
-	private ZooPhyDAO dao;
-	
-	@Autowired
-	private LuceneSearcher indexSearcher;
+	private JobScheduler scheduler;
 	
 	private final static Logger log = Logger.getLogger("PipelineManager");
 	
@@ -36,17 +29,36 @@ public class PipelineManager {
 	 */
 	private static Map<String, Process> processes = new ConcurrentHashMap<String, Process>();
 	
-	 /**
-     * Asynchronously a the ZooPhy job
-     * @param runner - ZoophyRunner containing the job details
-     * @param accessions - list of accessions for the job
-     * @throws PipelineException
-     */
-    @Async
-    public void startZooPhyPipeline(ZooPhyRunner runner, List<String> accessions) throws PipelineException {
-    	log.info("Starting ZooPhy Job: "+runner.getJobID());
-    	runner.runZooPhy(accessions, dao, indexSearcher);
-    }
+	/**
+	 * Set of jobs stopped by users
+	 */
+	private static Set<String> stoppedJobs = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * Queues the ZooPhy job to run once a pipeline slot is free
+	 * @param runner - ZoophyRunner containing the job details
+	 * @param parameters - validated job parameters, including the final list of accessions for the job
+	 * @throws PipelineException
+	 */
+	public void startZooPhyPipeline(ZooPhyRunner runner, JobParameters parameters) throws PipelineException {
+		log.info("Submitting ZooPhy Job: "+runner.getJobID());
+		scheduler.submit(runner, parameters);
+	}
+	
+	/**
+	 * @param jobID
+	 * @return 0 if the job is running, its 1-based queue position if it is waiting, or -1 if the job is not scheduled
+	 */
+	public int getQueuePosition(String jobID) {
+		return scheduler.getQueuePosition(jobID);
+	}
+	
+	/**
+	 * @return the JobScheduler running ZooPhy jobs
+	 */
+	public JobScheduler getScheduler() {
+		return scheduler;
+	}
 	
 	/**
 	 * Update the Process for a ZooPhyJob
@@ -66,6 +78,37 @@ public class PipelineManager {
 		return (processes.remove(jobID) != null);
 	}
 	
+	/**
+	 * Stops the running Process of a Job at a user's request
+	 * @param jobID
+	 * @return True if the Process existed, False otherwise
+	 */
+	protected static boolean stopProcess(String jobID) {
+		Process jobProcess = processes.remove(jobID);
+		if (jobProcess != null) {
+			log.info("Killing job: "+jobID);
+			stoppedJobs.add(jobID);
+			jobProcess.destroy();
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Stops the running Process of a Job for a service shutdown, without marking the Job as stopped by a user
+	 * @param jobID
+	 * @return True if the Process existed, False otherwise
+	 */
+	protected static boolean suspendProcess(String jobID) {
+		Process jobProcess = processes.remove(jobID);
+		if (jobProcess != null) {
+			log.info("Suspending job: "+jobID);
+			jobProcess.destroy();
+			return true;
+		}
+		return false;
+	}
+	
 	/**
 	 * Check if the Job is still running
 	 * @param jobID
@@ -75,19 +118,36 @@ public class PipelineManager {
 		return (processes.get(jobID) != null);
 	}
 	
+	/**
+	 * Check if the Job was stopped by a user
+	 * @param jobID
+	 * @return True if the job was killed, False otherwise
+	 */
+	protected static boolean wasStopped(String jobID) {
+		return stoppedJobs.contains(jobID);
+	}
+	
+	/**
+	 * Forget the stop request for a finished Job
+	 * @param jobID
+	 */
+	protected static void clearStopped(String jobID) {
+		stoppedJobs.remove(jobID);
+	}
+	
 	/**
 	 * Kills the given ZooPhy Job. NOTE: Currently only works on Unix based systems, NOT Windows.
+	 * With a shared job queue, jobs running on other worker nodes are stopped by their worker at its next heartbeat.
 	 * @param jobID - ID of ZooPhy job to kill
 	 * @throws PipelineException if the job does not exist
 	 */
 	 public void killJob(String jobID) throws PipelineException {
+		if (scheduler.cancel(jobID)) {
+			log.info("Removed job from queue: "+jobID);
+			return;
+		}
 		try {
-			Process jobProcess = processes.remove(jobID);
-			if (jobProcess != null) {
-				log.info("Killing job: "+jobID);
-				jobProcess.destroy();
-			}
-			else {
+			if (!stopProcess(jobID) && !scheduler.requestStop(jobID)) {
 				log.warning("Attempted to kill non-existent job: "+jobID);
 				throw new PipelineException("ERROR! Tried to kill non-existent job: "+jobID, "Job Does Not Exist!");
 			}
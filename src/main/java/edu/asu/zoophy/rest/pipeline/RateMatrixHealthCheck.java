@@ -0,0 +1,147 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Reads the BEAST rate matrix log as it is written and checks every new sample for a degenerate rate matrix, so a failing job is
+ * stopped within its first few samples instead of running on. The matrix fails if a rate is not a finite non-negative number,
+ * or if no rate has moved from its value in the first sample after a set number of samples. A matrix whose rates have moved once passes
+ * this check, since a healthy chain can still go several samples without accepting a move. Only the first samples of the chain are checked.
+ * @author devdemetri
+ */
+public class RateMatrixHealthCheck implements BeastLogMonitor.LineHandler {
+
+	private final int stuckSamples;
+	private final int checkSamples;
+	private final FailureHandler onFailure;
+	private final Logger log;
+	private int[] columns = null;
+	private double[] initial = null;
+	private boolean hasMoved = false;
+	private int checkedSamples = 0;
+	private volatile boolean isDone = false;
+
+	/**
+	 * @param stuckSamples - samples after the first without any rate moving from its initial value that fail the matrix, 0 to skip this check
+	 * @param checkSamples - samples checked before the health check stops
+	 * @param onFailure - run once if the matrix fails
+	 * @param log - job Logger
+	 */
+	public RateMatrixHealthCheck(int stuckSamples, int checkSamples, FailureHandler onFailure, Logger log) {
+		this.stuckSamples = Math.max(0, stuckSamples);
+		this.checkSamples = Math.max(1, checkSamples);
+		this.onFailure = onFailure;
+		this.log = log;
+	}
+
+	@Override
+	public void handle(String line) {
+		if (isDone || line == null) {
+			return;
+		}
+		String trimmed = line.trim();
+		if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+			return;
+		}
+		String[] row = trimmed.split("\t");
+		if (columns == null) {
+			readHeader(row);
+			return;
+		}
+		long state;
+		double[] rates = new double[columns.length];
+		try {
+			state = Long.parseLong(row[0].trim());
+			for (int i = 0; i < columns.length; i++) {
+				rates[i] = Double.parseDouble(row[columns[i]].trim());
+			}
+		}
+		catch (Exception e) {
+			log.warning("Could not read rate matrix sample: "+e.getMessage());
+			return;
+		}
+		for (int i = 0; i < rates.length; i++) {
+			if (Double.isNaN(rates[i]) || Double.isInfinite(rates[i]) || rates[i] < 0.0) {
+				fail("rate "+(i+1)+" is "+rates[i]+" at state "+state);
+				return;
+			}
+		}
+		if (initial == null) {
+			initial = rates;
+		}
+		else if (!hasMoved && stuckSamples > 0) {
+			if (!isUnchanged(initial, rates)) {
+				hasMoved = true;
+			}
+			else if (checkedSamples >= stuckSamples) {
+				fail("no rate moved from its initial value across "+checkedSamples+" samples up to state "+state);
+				return;
+			}
+		}
+		if (++checkedSamples >= checkSamples) {
+			isDone = true;
+			log.info("Rate matrix passed the health check at state "+state);
+		}
+	}
+
+	/**
+	 * Finds the rate columns, or uses every column after the state if none are labeled as rates
+	 * @param header - rate log column labels
+	 */
+	private void readHeader(String[] header) {
+		List<Integer> rateColumns = new ArrayList<Integer>();
+		for (int i = 1; i < header.length; i++) {
+			String label = header[i].trim().toLowerCase();
+			if (label.contains("rates") && !label.contains("nonzero")) {
+				rateColumns.add(i);
+			}
+		}
+		if (rateColumns.isEmpty()) {
+			for (int i = 1; i < header.length; i++) {
+				rateColumns.add(i);
+			}
+		}
+		columns = new int[rateColumns.size()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = rateColumns.get(i);
+		}
+	}
+
+	private static boolean isUnchanged(double[] initial, double[] rates) {
+		for (int i = 0; i < rates.length; i++) {
+			if (Double.compare(initial[i], rates[i]) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void fail(String reason) {
+		isDone = true;
+		log.warning("Rate matrix failed the health check: "+reason);
+		onFailure.failed(reason);
+	}
+
+	/**
+	 * @return True once the check has passed or failed
+	 */
+	public boolean isDone() {
+		return isDone;
+	}
+
+	/**
+	 * Called when the rate matrix fails the health check
+	 * @author devdemetri
+	 */
+	public interface FailureHandler {
+
+		/**
+		 * @param reason - criterion the matrix failed
+		 */
+		void failed(String reason);
+
+	}
+
+}
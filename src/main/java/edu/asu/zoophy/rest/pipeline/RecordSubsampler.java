@@ -0,0 +1,130 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import edu.asu.zoophy.rest.genbank.GenBankRecord;
+import edu.asu.zoophy.rest.pipeline.utils.Normalizer;
+import edu.asu.zoophy.rest.pipeline.utils.NormalizerException;
+
+/**
+ * Caps the number of records in each group of a normalized location and a time bin, so over-sampled places and seasons do not dominate
+ * the BEAST run. Which records a group keeps depends only on the seed and their accessions, not on the order they were loaded in.
+ * @author devdemetri
+ */
+public class RecordSubsampler {
+
+	private final int maxPerGroup;
+	private final int binMonths;
+	private final long seed;
+	private final List<String> droppedAccessions = new ArrayList<String>();
+	private final Map<String, Integer> droppedGroups = new LinkedHashMap<String, Integer>();
+
+	/**
+	 * @param parameters - subsampling parameters, already validated
+	 */
+	public RecordSubsampler(SubsampleParameters parameters) {
+		maxPerGroup = Math.max(1, parameters.getMaxPerGroup());
+		binMonths = parameters.getBinMonths() != null ? Math.max(1, Math.min(12, parameters.getBinMonths())) : 12;
+		seed = parameters.getSeed() != null ? parameters.getSeed() : 0L;
+	}
+
+	/**
+	 * @param records - records with a known collection date and location
+	 * @return the kept records, in their original order
+	 * @throws NormalizerException
+	 */
+	public List<GenBankRecord> subsample(List<GenBankRecord> records) throws NormalizerException {
+		Map<String, List<GenBankRecord>> groups = new LinkedHashMap<String, List<GenBankRecord>>();
+		for (GenBankRecord record : records) {
+			double date = Double.parseDouble(Normalizer.dateToDecimal(Normalizer.formatDate(record.getSequence().getCollectionDate())));
+			String group = getGroup(Normalizer.normalizeLocation(record.getGeonameLocation()), date, binMonths);
+			List<GenBankRecord> groupRecords = groups.get(group);
+			if (groupRecords == null) {
+				groupRecords = new ArrayList<GenBankRecord>();
+				groups.put(group, groupRecords);
+			}
+			groupRecords.add(record);
+		}
+		Set<String> dropped = new HashSet<String>();
+		for (Map.Entry<String, List<GenBankRecord>> group : groups.entrySet()) {
+			List<GenBankRecord> groupRecords = group.getValue();
+			if (groupRecords.size() <= maxPerGroup) {
+				continue;
+			}
+			Collections.sort(groupRecords, new Comparator<GenBankRecord>() {
+				@Override
+				public int compare(GenBankRecord first, GenBankRecord second) {
+					int byRank = Long.compare(rank(seed, first.getAccession()), rank(seed, second.getAccession()));
+					return byRank != 0 ? byRank : first.getAccession().compareTo(second.getAccession());
+				}
+			});
+			for (GenBankRecord record : groupRecords.subList(maxPerGroup, groupRecords.size())) {
+				dropped.add(record.getAccession());
+			}
+			droppedGroups.put(group.getKey(), groupRecords.size() - maxPerGroup);
+		}
+		List<GenBankRecord> kept = new ArrayList<GenBankRecord>(records.size() - dropped.size());
+		for (GenBankRecord record : records) {
+			if (dropped.contains(record.getAccession())) {
+				droppedAccessions.add(record.getAccession());
+			}
+			else {
+				kept.add(record);
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * @param location - normalized location
+	 * @param decimalDate - collection date as a decimal year
+	 * @param binMonths - months in each time bin
+	 * @return name of the record's group, the location and the decimal year its time bin starts at
+	 */
+	static String getGroup(String location, double decimalDate, int binMonths) {
+		long bin = (long) Math.floor(decimalDate * 12 / binMonths);
+		return location+" "+String.format(Locale.ROOT, "%.2f", bin * binMonths / 12.0);
+	}
+
+	/**
+	 * Orders the records of a group pseudo-randomly, the same way for the same seed
+	 * @param seed
+	 * @param accession
+	 * @return rank of the record in its group
+	 */
+	static long rank(long seed, String accession) {
+		long hash = 0xcbf29ce484222325L ^ seed;
+		for (byte b : accession.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * @return accessions of the dropped records, in their original order
+	 */
+	public List<String> getDroppedAccessions() {
+		return droppedAccessions;
+	}
+
+	/**
+	 * @return number of records dropped from each over-sampled group
+	 */
+	public Map<String, Integer> getDroppedGroups() {
+		return droppedGroups;
+	}
+
+}
@@ -1,19 +1,29 @@
 package edu.asu.zoophy.rest.pipeline;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.FileHandler;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
@@ -36,6 +46,7 @@ import edu.asu.zoophy.rest.pipeline.utils.NormalizerException;
 public class SequenceAligner {
 
 	private final String JOB_LOG_DIR;
+	private final boolean COLLAPSE_IDENTICAL;
 	private final ZooPhyJob job;
 	private final ZooPhyDAO dao;
 	private final LuceneSearcher indexSearcher;
@@ -46,6 +57,15 @@ public class SequenceAligner {
 	private int startYear = 3000;
 	private int endYear = 1000;
 	private Map<String, Integer> occurrences = null;
+	private int fastaSequences = 0;
+	private long fastaResidues = 0;
+	private Handler jobLog = null;
+	private List<GenBankRecord> records = null;
+	private String rawFastaKey = null;
+	private List<String> subsampledAccessions = new LinkedList<String>();
+	private Map<String, String> collapsedAccessions = new HashMap<String, String>();
+	private final static int FASTA_LINE_LENGTH = 80;
+	private final static int FASTA_BUFFER_SIZE = 64 * 1024;
 	
 	/**
 	 * Constructor for regular ZooPhy Pipeline usage
@@ -59,6 +79,8 @@ public class SequenceAligner {
 		this.indexSearcher = indexSearcher;
 		PropertyProvider provider = PropertyProvider.getInstance();
 		JOB_LOG_DIR = provider.getProperty("job.logs.dir");
+		String collapseIdentical = provider.getProperty("alignment.collapse.identical");
+		COLLAPSE_IDENTICAL = collapseIdentical == null || Boolean.parseBoolean(collapseIdentical.trim());
 		log = Logger.getLogger("SequenceAligner"+job.getID());
 		uniqueGeonames = new LinkedHashSet<String>();
 		geonameCoordinates = new HashMap<String,String>();
@@ -78,15 +100,18 @@ public class SequenceAligner {
 		this.dao = dao;
 		this.indexSearcher = indexSearcher;
 		JOB_LOG_DIR = null;
+		COLLAPSE_IDENTICAL = false;
 		job = null;
 	}
 	
 	/**
 	 * Sequence Alignment Pipeline that runs:
 	 * 1) Geoname Disjoiner
-	 * 2) GLM Predictor Generator (only if job is using GLM)
-	 * 3) FASTA formatting of raw sequences
-	 * 4) MAFFT sequence alignment
+	 * 2) Collapsing of identical sequences from the same location and date (unless alignment.collapse.identical is false)
+	 * 3) Subsampling by location and time bin (only if the job is subsampled)
+	 * 4) FASTA formatting of raw sequences
+	 * 5) SpreaD3 coordinates and GLM Predictor Generator (only if job is using GLM), alongside
+	 * 6) MAFFT sequence alignment
 	 * @param accessions - record sequences to be included in FASTA
 	 * @param isTest - True iff actual alignment can be skipped for a test run
 	 * @return Final List of Records to be used in the Job
@@ -95,53 +120,224 @@ public class SequenceAligner {
 	public List<GenBankRecord> align(List<String> accessions, boolean isTest) throws PipelineException {
 		FileHandler fileHandler = null;
 		try {
-			logFile = new File(JOB_LOG_DIR+job.getID()+".log");
 			fileHandler = new FileHandler(JOB_LOG_DIR+job.getID()+".log", true);
 			SimpleFormatter formatter = new SimpleFormatter();  
 	        fileHandler.setFormatter(formatter);
-	        log.addHandler(fileHandler);
-	        log.setUseParentHandlers(false);
-			log.info("Starting Mafft Job: "+job.getID());
-			List<GenBankRecord>recs = loadSequences(accessions, true, (job.isUsingGLM() && !job.isUsingCustomPredictors()));
-			log.info("After screening job includes: "+recs.size()+" records.");
-			String rawFasta = fastaFormat(recs, (job.isUsingGLM() && !job.isUsingCustomPredictors()));
-			createCoordinatesFile();
-			if (job.isUsingGLM()) {
-				createGLMFile(job.isUsingGLM() && !job.isUsingCustomPredictors());
+		}
+		catch (Exception e) {
+			log.log(Level.SEVERE, "ERROR! Mafft process failed: "+e.getMessage());
+			throw new AlignerException(e.getMessage(), "ERROR Mafft process failed.");
+		}
+		StageGraph graph = new StageGraph(job.getID());
+		try {
+			addStages(graph, accessions, isTest, fileHandler);
+			graph.run();
+			return records;
+		}
+		finally {
+			finish();
+			fileHandler.close();
+		}
+	}
+
+	/**
+	 * Adds the alignment stages to a job's StageGraph. They produce the artifacts "records", "rawFasta", "coordinates", "alignment",
+	 * "predictors" if the job is using GLM, "collapsedRecords" if identical sequences are collapsed, and "sampledRecords" if the job is subsampled. Call finish() once the graph has run.
+	 * @param graph - job's StageGraph
+	 * @param accessions - record sequences to be included in FASTA
+	 * @param isTest - True iff actual alignment can be skipped for a test run
+	 * @param jobLog - handler for the job's log file, shared with the job's other stages since only one FileHandler can hold the file
+	 */
+	public void addStages(StageGraph graph, final List<String> accessions, final boolean isTest, Handler jobLog) {
+		final boolean isUsingDefaultGLM = job.isUsingGLM() && !job.isUsingCustomPredictors();
+		logFile = new File(JOB_LOG_DIR+job.getID()+".log");
+		this.jobLog = jobLog;
+		log.addHandler(jobLog);
+		log.setUseParentHandlers(false);
+		graph.addStage("records", new String[] {}, new String[] {"records"}, new AlignerStage() {
+			@Override
+			protected void runStage() throws Exception {
+				log.info("Starting Mafft Job: "+job.getID());
+				records = loadSequences(accessions, true, isUsingDefaultGLM);
+				log.info("After screening job includes: "+records.size()+" records.");
 			}
-			if (isTest) {
-				fakeMafft(rawFasta);
+		});
+		String fastaRecords = "records";
+		if (COLLAPSE_IDENTICAL) {
+			graph.addStage("collapse", new String[] {fastaRecords}, new String[] {"collapsedRecords"}, new AlignerStage() {
+				@Override
+				protected void runStage() throws Exception {
+					collapseRecords();
+				}
+			});
+			fastaRecords = "collapsedRecords";
+		}
+		if (job.getSubsampling() != null) {
+			graph.addStage("subsample", new String[] {fastaRecords}, new String[] {"sampledRecords"}, new AlignerStage() {
+				@Override
+				protected void runStage() throws Exception {
+					subsampleRecords();
+				}
+			});
+			fastaRecords = "sampledRecords";
+		}
+		graph.addStage("rawFasta", new String[] {fastaRecords}, new String[] {"rawFasta"}, new AlignerStage() {
+			@Override
+			protected void runStage() throws Exception {
+				rawFastaKey = writeRawFasta(records, isUsingDefaultGLM);
 			}
-			else {
-				runMafft(rawFasta);
+		});
+		final String jobDir = System.getProperty("user.dir")+"/ZooPhyJobs/"+job.getID()+"-";
+		graph.addStage("coordinates", new String[] {"rawFasta"}, new String[] {"coordinates"}, new FileAlignerStage(jobDir+"coords.txt") {
+			@Override
+			protected void runStage() throws Exception {
+				createCoordinatesFile();
+			}
+		});
+		if (job.isUsingGLM()) {
+			graph.addStage("predictors", new String[] {"rawFasta"}, new String[] {"predictors"}, new FileAlignerStage(jobDir+"predictors.txt") {
+				@Override
+				protected void runStage() throws Exception {
+					createGLMFile(isUsingDefaultGLM);
+				}
+			});
+		}
+		graph.addStage("mafft", new String[] {"rawFasta"}, new String[] {"alignment"}, new FileAlignerStage(jobDir+"aligned.fasta") {
+			@Override
+			protected void runStage() throws Exception {
+				if (isTest) {
+					fakeMafft();
+				}
+				else {
+					runMafft(rawFastaKey);
+				}
+				log.info("Mafft Job: "+job.getID()+" has finished.");
+				log.info("Deleting raw fasta...");
+				try {
+					Path path = Paths.get(System.getProperty("user.dir")+"/ZooPhyJobs/"+job.getID()+"-raw.fasta");
+					Files.delete(path);
+				}
+				catch (IOException e) {
+					log.log(Level.SEVERE, "ERROR! could not delete raw fasta: "+e.getMessage());
+					throw e;
+				}
+				log.info("Mafft process complete");
 			}
-			log.info("Mafft Job: "+job.getID()+" has finished.");
-			log.info("Deleting raw fasta...");
+		});
+	}
+
+	/**
+	 * @return Final List of Records to be used in the Job, once the "records" stage has run
+	 */
+	public List<GenBankRecord> getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return accessions dropped by the "subsample" stage, empty if the job is not subsampled
+	 */
+	public List<String> getSubsampledAccessions() {
+		return subsampledAccessions;
+	}
+
+	/**
+	 * @return accessions merged into an identical record by the "collapse" stage, each with the accession kept for it
+	 */
+	public Map<String, String> getCollapsedAccessions() {
+		return collapsedAccessions;
+	}
+
+	/**
+	 * Keeps one record of each group of identical sequences from the same location and date, and reports the collapsed counts in the job log and timeline
+	 * @throws NormalizerException
+	 */
+	private void collapseRecords() throws NormalizerException {
+		SequenceCollapser collapser = new SequenceCollapser();
+		int loaded = records.size();
+		records = collapser.collapse(records);
+		collapsedAccessions = collapser.getCollapsedAccessions();
+		String report = "Collapsing kept "+records.size()+" of "+loaded+" records, merging "+collapsedAccessions.size()+" identical sequences into "+collapser.getCollapsedGroups()+" representatives";
+		log.info(report);
+		if (!collapsedAccessions.isEmpty()) {
+			log.info("Collapsed into representatives: "+collapsedAccessions.toString());
+		}
+		JobTimeline.record(job.getID(), JobEventType.STAGE, report);
+	}
+
+	/**
+	 * Caps the job's records per location and time bin, and reports what was dropped in the job log and timeline
+	 * @throws NormalizerException
+	 */
+	private void subsampleRecords() throws NormalizerException {
+		RecordSubsampler subsampler = new RecordSubsampler(job.getSubsampling());
+		int loaded = records.size();
+		records = subsampler.subsample(records);
+		subsampledAccessions = subsampler.getDroppedAccessions();
+		String report = "Subsampling kept "+records.size()+" of "+loaded+" records, dropping "+subsampledAccessions.size()+" from "+subsampler.getDroppedGroups().size()+" over-sampled location and time bins";
+		log.info(report+": "+subsampler.getDroppedGroups().toString());
+		if (!subsampledAccessions.isEmpty()) {
+			log.info("Subsampling dropped: "+subsampledAccessions.toString());
+		}
+		JobTimeline.record(job.getID(), JobEventType.STAGE, report);
+	}
+
+	/**
+	 * Stops logging to the job log given to addStages
+	 */
+	public void finish() {
+		if (jobLog != null) {
+			log.removeHandler(jobLog);
+			jobLog = null;
+		}
+	}
+
+	/**
+	 * Alignment stage that reports failures the same way for every step
+	 * @author devdemetri
+	 */
+	private abstract class AlignerStage implements StageGraph.Stage {
+
+		protected abstract void runStage() throws Exception;
+
+		@Override
+		public void run() throws PipelineException {
 			try {
-				Path path = Paths.get(System.getProperty("user.dir")+"/ZooPhyJobs/"+job.getID()+"-raw.fasta");
-				Files.delete(path);
+				runStage();
 			}
-			catch (IOException e) {
-				log.log(Level.SEVERE, "ERROR! could not delete raw fasta: "+e.getMessage());
-				throw e;
+			catch (PipelineException pe) {
+				log.log(Level.SEVERE, "ERROR! Mafft process failed: "+pe.getMessage());
+				throw pe;
+			}
+			catch (Exception e) {
+				log.log(Level.SEVERE, "ERROR! Mafft process failed: "+e.getMessage());
+				throw new AlignerException(e.getMessage(), "ERROR Mafft process failed.");
 			}
-			log.info("Mafft process complete");
-			fileHandler.close();
-			return recs;
-		}
-		catch (PipelineException pe) {
-			log.log(Level.SEVERE, "ERROR! Mafft process failed: "+pe.getMessage());
-			throw pe;
 		}
-		catch (Exception e) {
-			log.log(Level.SEVERE, "ERROR! Mafft process failed: "+e.getMessage());
-			throw new AlignerException(e.getMessage(), "ERROR Mafft process failed.");
+
+	}
+
+	/**
+	 * Alignment stage whose only result is a file, so a restarted job can skip it once it has completed
+	 * @author devdemetri
+	 */
+	private abstract class FileAlignerStage extends AlignerStage implements StageGraph.ResumableStage {
+
+		private final String result;
+
+		/**
+		 * @param result - path of the file the stage writes
+		 */
+		protected FileAlignerStage(String result) {
+			this.result = result;
 		}
-		finally {
-			if (fileHandler != null) {
-				fileHandler.close();
+
+		@Override
+		public void resume() throws AlignerException {
+			if (!new File(result).exists()) {
+				throw new AlignerException("Checkpointed result is missing: "+result, "ERROR Mafft process failed.");
 			}
 		}
+
 	}
 
 	/**
@@ -198,17 +394,18 @@ public class SequenceAligner {
 	public List<GenBankRecord> loadSequences(List<String> accessions, boolean isDisjoint, boolean isUsingDefaultGLM) throws GenBankRecordNotFoundException, DaoException, PipelineException {
 		log.info("Loading records for Mafft...");
 		List<GenBankRecord> records = new LinkedList<GenBankRecord>();
-		for (String accession : accessions) {
-			GenBankRecord record = dao.retrieveFullRecord(accession);
+		List<GenBankRecord> loadedRecords = dao.retrieveFullRecords(accessions);
+		for (GenBankRecord record : loadedRecords) {
 			try {
 				if (record != null && record.getSequence().getCollectionDate() != null && !getFastaDate(record.getSequence().getCollectionDate()).equalsIgnoreCase("unknown") && record.getGeonameLocation() != null) { 
 					records.add(record);
 				}
 			}
 			catch (Exception e) {
-				log.log(Level.SEVERE, "ERROR! Issue Adding Record: "+accession+" : "+e.getMessage());
+				log.log(Level.SEVERE, "ERROR! Issue Adding Record: "+record.getAccession()+" : "+e.getMessage());
 			}
 		}
+		loadedRecords.clear();
 		log.info("Records loaded.");
 		if (isDisjoint) {
 			GeonameDisjoiner disjoiner  = new GeonameDisjoiner(indexSearcher);
@@ -232,64 +429,145 @@ public class SequenceAligner {
 
 	/**
 	 * Runs MAFFT to Align Sequences
-	 * @param rawFasta - String of raw fasta formatted sequences
+	 * @param rawFastaKey - SHA-256 hash of the raw fasta file, as written by writeRawFasta
 	 * @return file path to MAFFT aligned .fasta file
 	 * @throws AlignerException 
 	 */
-	private String runMafft(String rawFasta) throws AlignerException {
+	private String runMafft(String rawFastaKey) throws AlignerException {
 		log.info("Setting up Mafft for job: "+job.getID());
 		String dir = System.getProperty("user.dir")+"/ZooPhyJobs/"+job.getID()+"-";
 		String rawFilePath = dir + "raw.fasta";
 		String alignedFilePath = dir+"aligned.fasta";
+		File outFile = new File(alignedFilePath);
+		AlignmentCache cache = null;
+		String cacheKey = null;
 		try {
-			PrintWriter printer = new PrintWriter(rawFilePath);
-			printer.write(rawFasta);
-			printer.close();
+			cache = AlignmentCache.getInstance();
+			if (cache.isEnabled()) {
+				cacheKey = rawFastaKey;
+				if (cache.retrieve(cacheKey, outFile)) {
+					log.info("Alignment cache hit: "+cacheKey+" Skipping Mafft.");
+					return alignedFilePath;
+				}
+				log.info("Alignment cache miss: "+cacheKey);
+			}
 		}
 		catch (Exception e) {
-			log.log(Level.SEVERE, "Error setting up raw.fasta: "+e.getMessage());
+			log.log(Level.WARNING, "Alignment cache unavailable: "+e.getMessage());
+			cache = null;
 		}
-		File outFile = new File(alignedFilePath);
+		List<String> records = null;
+		boolean isAligned = false;
+		if (cacheKey != null) {
+			try {
+				records = FastaRecords.hashRecords(new File(rawFilePath));
+				isAligned = runIncrementalMafft(cache, new HashSet<String>(records), rawFilePath, outFile);
+			}
+			catch (Exception e) {
+				log.log(Level.WARNING, "Incremental alignment failed, running full alignment: "+e.getMessage());
+			}
+		}
+		if (!isAligned) {
+			double meanLength = fastaSequences == 0 ? 0.0 : (double) fastaResidues / fastaSequences;
+			MafftStrategy strategy = MafftStrategy.select(fastaSequences, meanLength, job.getAllocatedCores());
+			log.info("Mafft strategy: "+strategy.toString());
+			List<String> command = new LinkedList<String>();
+			command.add("mafft");
+			command.addAll(strategy.getOptions());
+			command.add(rawFilePath);
+			runMafftProcess(command, outFile);
+		}
+		if (cacheKey != null && records != null) {
+			cache.store(cacheKey, outFile, records);
+			log.info("Alignment cached: "+cacheKey);
+		}
+		return alignedFilePath;
+	}
+	
+	/**
+	 * Adds new sequences to the largest cached alignment of a subset of the job's records with mafft --add
+	 * @param cache - AlignmentCache to find the base alignment in
+	 * @param records - hashes of the job's raw FASTA records
+	 * @param rawFilePath - job's raw FASTA
+	 * @param outFile - aligned FASTA to write
+	 * @return True if the alignment was done incrementally, False if a full alignment is needed
+	 * @throws Exception
+	 */
+	private boolean runIncrementalMafft(AlignmentCache cache, Set<String> records, String rawFilePath, File outFile) throws Exception {
+		String baseKey = cache.findBase(records);
+		if (baseKey == null) {
+			log.info("No cached alignment covers enough of the job's records for incremental alignment.");
+			return false;
+		}
+		String dir = System.getProperty("user.dir")+"/ZooPhyJobs/"+job.getID()+"-";
+		File baseFile = new File(dir+"base.fasta");
+		File addedFile = new File(dir+"added.fasta");
 		try {
-			ProcessBuilder builder = new ProcessBuilder("mafft", "--auto", rawFilePath);
-			builder.redirectOutput(Redirect.appendTo(outFile));
+			if (!cache.retrieveBase(baseKey, baseFile)) {
+				return false;
+			}
+			Set<String> baseRecords = cache.getRecordSet(baseKey);
+			int added = FastaRecords.copyRecords(new File(rawFilePath), baseRecords, addedFile);
+			log.info("Incremental alignment: adding "+added+" sequences to cached alignment "+baseKey+" of "+baseRecords.size()+" sequences.");
+			List<String> command = new LinkedList<String>();
+			command.add("mafft");
+			if (job.getAllocatedCores() > 1) {
+				command.add("--thread");
+				command.add(String.valueOf(job.getAllocatedCores()));
+			}
+			command.add("--add");
+			command.add(addedFile.getAbsolutePath());
+			command.add(baseFile.getAbsolutePath());
+			runMafftProcess(command, outFile);
+			return true;
+		}
+		finally {
+			baseFile.delete();
+			addedFile.delete();
+		}
+	}
+	
+	/**
+	 * Runs a MAFFT command, writing its output to the given file and its wall time to the job log
+	 * @param command - MAFFT command and arguments
+	 * @param outFile - file for the aligned FASTA
+	 * @throws AlignerException
+	 */
+	private void runMafftProcess(List<String> command, File outFile) throws AlignerException {
+		try {
+			final long start = System.currentTimeMillis();
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectOutput(Redirect.to(outFile));
 			builder.redirectError(Redirect.appendTo(logFile));
-			log.info("Running Mafft...");
-			Process mafftProcess = builder.start();
+			log.info("Running Mafft: "+builder.command().toString());
+			Process mafftProcess = StageMonitor.watch(builder.start());
 			PipelineManager.setProcess(job.getID(), mafftProcess);
 			mafftProcess.waitFor();
 			if (mafftProcess.exitValue() != 0) {
 				log.log(Level.SEVERE, "Mafft failed! with code: "+mafftProcess.exitValue());
 				throw new Exception("Mafft failed! with code: "+mafftProcess.exitValue());
 			}
-			log.info("Mafft finished.");
+			log.info("Mafft finished in "+(System.currentTimeMillis()-start)+" ms.");
 		} 
 		catch (Exception e) {
 			log.log(Level.SEVERE, "Error running mafft: "+e.getMessage());
 			throw new AlignerException("Error running mafft: "+e.getMessage(), null);
 		}
-		return alignedFilePath;
 	}
 	
 	/**
 	 * FOR TEST USE ONLY
 	 * To save time, the raw fasta is copied to an aligned fasta file instead of actually funning Mafft
 	 * Useful for quickly validating job parameters before starting job
-	 * @param rawFasta
 	 * @return file path to fake aligned .fasta file that is really just a copy of the raw .fasta file
 	 */
-	private String fakeMafft(String rawFasta) {
+	private String fakeMafft() {
 		log.info("Faking Mafft for job: "+job.getID());
 		String dir = System.getProperty("user.dir")+"/ZooPhyJobs/"+job.getID()+"-";
 		String rawFilePath = dir + "raw.fasta";
 		String alignedFilePath = dir+"aligned.fasta";
 		try {
-			PrintWriter printer = new PrintWriter(rawFilePath);
-			printer.write(rawFasta);
-			printer.close();
-			printer = new PrintWriter(alignedFilePath);
-			printer.write(rawFasta);
-			printer.close();
+			Files.copy(Paths.get(rawFilePath), Paths.get(alignedFilePath), StandardCopyOption.REPLACE_EXISTING);
 		}
 		catch (Exception e) {
 			log.log(Level.SEVERE, "Error faking aligned fasta: "+e.getMessage());
@@ -298,27 +576,71 @@ public class SequenceAligner {
 		return alignedFilePath;
 	}
 
+	/**
+	 * Writes the job's raw FASTA file through a fixed size buffer, hashing it for the AlignmentCache as it is written
+	 * @param records List of full GenBankRecords
+	 * @param isUsingDefaultGLM
+	 * @return hex encoded SHA-256 hash of the raw FASTA file
+	 * @throws PipelineException
+	 */
+	private String writeRawFasta(List<GenBankRecord> records, boolean isUsingDefaultGLM) throws PipelineException {
+		String rawFilePath = System.getProperty("user.dir")+"/ZooPhyJobs/"+job.getID()+"-raw.fasta";
+		MessageDigest digest = AlignmentCache.newDigest();
+		Writer writer = null;
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(new DigestOutputStream(Files.newOutputStream(Paths.get(rawFilePath)), digest), StandardCharsets.UTF_8), FASTA_BUFFER_SIZE);
+			writeFasta(records, isUsingDefaultGLM, writer);
+			writer.close();
+			writer = null;
+		}
+		catch (IOException e) {
+			log.log(Level.SEVERE, "Error setting up raw.fasta: "+e.getMessage());
+			throw new AlignerException("Error setting up raw.fasta: "+e.getMessage(), null);
+		}
+		finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				}
+				catch (IOException e) {
+					log.warning("Could not close raw.fasta: "+e.getMessage());
+				}
+			}
+		}
+		return AlignmentCache.toHex(digest.digest());
+	}
+
 	/**
 	 * Combines the records' sequences into a FASTA formatted String
 	 * @param records List of full GenBankRecords
 	 * @return String FASTA formatted sequences
 	 * @throws AlignerException 
-	 * @throws Exception 
 	 */
 	private String fastaFormat(List<GenBankRecord> records, boolean isUsingDefaultGLM) throws AlignerException {
+		StringWriter writer = new StringWriter();
+		try {
+			writeFasta(records, isUsingDefaultGLM, writer);
+		}
+		catch (IOException e) {
+			throw new AlignerException("Error Fasta Formatting: "+e.getMessage(), null);
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Writes the records' sequences in FASTA format, with sequences broken into 80 character lines
+	 * @param records List of full GenBankRecords
+	 * @param isUsingDefaultGLM
+	 * @param writer - destination for the FASTA
+	 * @throws AlignerException
+	 * @throws IOException
+	 */
+	private void writeFasta(List<GenBankRecord> records, boolean isUsingDefaultGLM, Writer writer) throws AlignerException, IOException {
 		log.info("Starting Fasta formatting");
-		StringBuilder builder = new StringBuilder();
-		StringBuilder tempBuilder;
+		fastaSequences = 0;
+		fastaResidues = 0;
 		for (GenBankRecord record : records) {
 			try {
-				tempBuilder = new StringBuilder();
-				tempBuilder.append(">");
-				tempBuilder.append(record.getAccession());
-				tempBuilder.append("_");
-				tempBuilder.append(record.getSequence().getTaxID());
-				tempBuilder.append("_");
-				tempBuilder.append(record.getHost().getTaxon());
-				tempBuilder.append("_");
 				String stringDate = getFastaDate(record.getSequence().getCollectionDate());
 				int year = (int) Double.parseDouble(stringDate);
 				if (year < startYear) {
@@ -327,10 +649,7 @@ public class SequenceAligner {
 				else if (year > endYear) {
 					endYear = year;
 				}
-				tempBuilder.append(stringDate);
-				tempBuilder.append("_");
 				String normalizedLocation = Normalizer.normalizeLocation(record.getGeonameLocation());
-				tempBuilder.append(normalizedLocation);
 				if (isUsingDefaultGLM) {
 					addOccurrence(normalizedLocation);
 				}
@@ -339,14 +658,33 @@ public class SequenceAligner {
 					geonameCoordinates.put(normalizedLocation, coordinates);
 					uniqueGeonames.add(normalizedLocation);
 				}
-				tempBuilder.append("\n");
-				List<String> rows = breakUp(record.getSequence().getRawSequence());
-				for (String row : rows) {
-					tempBuilder.append(row);
-					tempBuilder.append("\n");
-				}
-				tempBuilder.append("\n");
-				builder.append(tempBuilder.toString());
+				writer.write('>');
+				writer.write(record.getAccession());
+				writer.write('_');
+				writer.write(String.valueOf(record.getSequence().getTaxID()));
+				writer.write('_');
+				writer.write(String.valueOf(record.getHost().getTaxon()));
+				writer.write('_');
+				writer.write(stringDate);
+				writer.write('_');
+				writer.write(normalizedLocation);
+				writer.write('\n');
+				String sequence = record.getSequence().getRawSequence();
+				int length = sequence.length();
+				int i = 0;
+				do {
+					int end = Math.min(i+FASTA_LINE_LENGTH, length);
+					writer.write(sequence, i, end-i);
+					writer.write('\n');
+					i = end;
+				} while (i < length);
+				writer.write('\n');
+				fastaSequences++;
+				fastaResidues += length;
+			}
+			catch (IOException e) {
+				log.log(Level.SEVERE, "Error writing Fasta: "+e.getMessage());
+				throw e;
 			}
 			catch (Exception e) {
 				log.log(Level.SEVERE, "Error Fasta Formatting: "+e.getMessage());
@@ -354,7 +692,6 @@ public class SequenceAligner {
 			}
 		}
 		log.info("Fasta Formatting complete.");
-		return builder.toString();
 	}
 	
 	/**
@@ -376,31 +713,6 @@ public class SequenceAligner {
 		
 	}
 
-	/**
-	 * Breaks up sequences into 80 character lines
-	 * @param sequence raw rna/dna sequence
-	 * @return sequence split into 80 character lines
-	 * @throws AlignerException 
-	 * @throws Exception 
-	 */
-	private List<String> breakUp(String sequence) throws AlignerException {
-		LinkedList<String> segments = new LinkedList<String>();
-		int length = sequence.length();
-		int i;
-		for (i = 0; i+80 < length; i+=80) {
-			segments.add(sequence.substring(i, i+80));
-		}
-		segments.add(sequence.substring(i));
-		int count = 0;
-		for (String s : segments) {
-			count+= s.length();
-		}
-		if (count != length) {
-			throw new AlignerException("Error breaking up sequence. Result was "+count+" length instead of the expected "+length+" length.", null);
-		}
-		return segments;
-	}
-	
 	/**
 	 * Generate raw FASTA for downlaods
 	 * @param accessions
@@ -414,6 +726,25 @@ public class SequenceAligner {
 		return fastaFormat(records, false);
 	}
 	
+	/**
+	 * Writes raw FASTA for downloads one chunk of records at a time, so memory use does not grow with the number of accessions
+	 * @param accessions
+	 * @param writer - destination for the FASTA
+	 * @param chunkSize - maximum records loaded at once
+	 * @throws GenBankRecordNotFoundException
+	 * @throws DaoException
+	 * @throws PipelineException
+	 * @throws IOException
+	 */
+	public void writeDownloadableRawFasta(List<String> accessions, Writer writer, int chunkSize) throws GenBankRecordNotFoundException, DaoException, PipelineException, IOException {
+		for (int start = 0; start < accessions.size(); start += chunkSize) {
+			List<String> chunk = accessions.subList(start, Math.min(start+chunkSize, accessions.size()));
+			List<GenBankRecord> records = loadSequences(chunk, false, false);
+			writeFasta(records, false, writer);
+			writer.flush();
+		}
+	}
+	
 	/**
 	 * Adds an occurrence of a GLM state
 	 * @param state
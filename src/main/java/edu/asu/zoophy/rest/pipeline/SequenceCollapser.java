@@ -0,0 +1,127 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.asu.zoophy.rest.genbank.GenBankRecord;
+import edu.asu.zoophy.rest.pipeline.utils.Normalizer;
+import edu.asu.zoophy.rest.pipeline.utils.NormalizerException;
+
+/**
+ * Collapses records with identical sequences from the same location and date into one representative, since the copies add MAFFT and BEAST
+ * time without adding information. Each record is hashed in one pass over its characters into a table of primitive arrays, and records
+ * with matching hashes are compared in full before they are collapsed. The representative of a group is its lowest accession, so the
+ * same records are kept whatever order they were loaded in.
+ * @author devdemetri
+ */
+public class SequenceCollapser {
+
+	private final Map<String, String> collapsedAccessions = new LinkedHashMap<String, String>();
+	private int collapsedGroups = 0;
+
+	/**
+	 * @param records - records with a known collection date and location
+	 * @return the kept records, in their original order
+	 * @throws NormalizerException
+	 */
+	public List<GenBankRecord> collapse(List<GenBankRecord> records) throws NormalizerException {
+		int size = records.size();
+		GenBankRecord[] recordArray = records.toArray(new GenBankRecord[size]);
+		String[] locations = new String[size];
+		String[] dates = new String[size];
+		int mask = (Integer.highestOneBit(Math.max(size, 1)) << 2) - 1;
+		long[] slotHashes = new long[mask + 1];
+		int[] slotRecords = new int[mask + 1];
+		int[] slotSizes = new int[mask + 1];
+		int[] recordSlots = new int[size];
+		for (int i = 0; i < size; i++) {
+			GenBankRecord record = recordArray[i];
+			String sequence = record.getSequence().getRawSequence();
+			locations[i] = Normalizer.normalizeLocation(record.getGeonameLocation());
+			dates[i] = Normalizer.dateToDecimal(Normalizer.formatDate(record.getSequence().getCollectionDate()));
+			recordSlots[i] = -1;
+			if (sequence == null) {
+				continue;
+			}
+			long hash = hash(sequence, locations[i], dates[i]);
+			int slot = (int) hash & mask;
+			while (slotRecords[slot] != 0) {
+				int other = slotRecords[slot] - 1;
+				if (slotHashes[slot] == hash && dates[other].equals(dates[i]) && locations[other].equals(locations[i]) && recordArray[other].getSequence().getRawSequence().equalsIgnoreCase(sequence)) {
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+			recordSlots[i] = slot;
+			if (slotRecords[slot] == 0 || record.getAccession().compareTo(recordArray[slotRecords[slot] - 1].getAccession()) < 0) {
+				slotRecords[slot] = i + 1;
+				slotHashes[slot] = hash;
+			}
+			slotSizes[slot]++;
+		}
+		List<GenBankRecord> kept = new ArrayList<GenBankRecord>(size);
+		for (int i = 0; i < size; i++) {
+			int slot = recordSlots[i];
+			if (slot < 0 || slotRecords[slot] - 1 == i) {
+				kept.add(recordArray[i]);
+			}
+			else {
+				collapsedAccessions.put(recordArray[i].getAccession(), recordArray[slotRecords[slot] - 1].getAccession());
+			}
+		}
+		for (int slotSize : slotSizes) {
+			if (slotSize > 1) {
+				collapsedGroups++;
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * Hashes a record's sequence, ignoring case, with its location and date, without copying any of them
+	 * @param sequence - raw sequence
+	 * @param location - normalized location
+	 * @param date - decimal collection date
+	 * @return 64 bit hash of the record
+	 */
+	static long hash(String sequence, String location, String date) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < sequence.length(); i++) {
+			hash ^= Character.toUpperCase(sequence.charAt(i));
+			hash *= 0x100000001b3L;
+		}
+		hash ^= '>';
+		hash *= 0x100000001b3L;
+		for (int i = 0; i < location.length(); i++) {
+			hash ^= location.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= '_';
+		hash *= 0x100000001b3L;
+		for (int i = 0; i < date.length(); i++) {
+			hash ^= date.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * @return accessions of the collapsed records, in their original order, each with the accession of the record kept for it
+	 */
+	public Map<String, String> getCollapsedAccessions() {
+		return collapsedAccessions;
+	}
+
+	/**
+	 * @return number of groups of identical records that were collapsed
+	 */
+	public int getCollapsedGroups() {
+		return collapsedGroups;
+	}
+
+}
@@ -0,0 +1,477 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs SpreaD3 parse and render requests in a pool of long-lived SpreadWorker JVMs instead of starting a new JVM for each.
+ * Requests are queued and each worker runs one at a time, so the pool is sized to the number of jobs that can run at once.
+ * A worker is restarted after a failure, after being stopped, and after a set number of requests, as soon as its request finishes,
+ * so the next request does not wait for the JVM to start. Workers run on the service's own JVM, so their options can follow its version.
+ * The CPU time and bytes written by a worker during a request are added to the measurements of the stage that submitted it.
+ * @author devdemetri
+ */
+public class SpreadDaemon {
+
+	private final static Logger log = Logger.getLogger("SpreadDaemon");
+	/**
+	 * Classes copied out for the worker JVM's classpath, since the service itself may be packaged in a jar the worker cannot load them from
+	 */
+	private final static String[] WORKER_CLASSES = {"SpreadWorker", "SpreadWorker$ExitTrap", "SpreadWorker$ExitException"};
+	/**
+	 * Exit code reported for requests stopped before they finished, as for a destroyed Process
+	 */
+	private final static int STOPPED_EXIT_CODE = 143;
+	/**
+	 * First Java version that needs -Djava.security.manager=allow before SpreadWorker can trap System.exit
+	 */
+	private final static int SECURITY_MANAGER_FLAG_VERSION = 12;
+	private static SpreadDaemon daemon = null;
+	private static int defaultWorkerCount = 1;
+
+	private final File SPREAD3_JAR;
+	private final int MAX_REQUESTS;
+	private final String WORKER_HEAP;
+	private final ExecutorService queue;
+	private final List<Worker> workers = new ArrayList<Worker>();
+	private final BlockingQueue<Worker> idleWorkers;
+	private File workerClasses = null;
+
+	/**
+	 * @param spread3Jar - SpreaD3 jar file
+	 * @param maxRequests - requests served by one worker JVM before it is replaced
+	 * @param workerHeap - maximum heap of the worker JVM, such as 4g, or null for the JVM default
+	 */
+	SpreadDaemon(File spread3Jar, int maxRequests, String workerHeap) {
+		this(spread3Jar, maxRequests, workerHeap, 1);
+	}
+
+	/**
+	 * @param spread3Jar - SpreaD3 jar file
+	 * @param maxRequests - requests served by one worker JVM before it is replaced
+	 * @param workerHeap - maximum heap of each worker JVM, such as 4g, or null for the JVM default
+	 * @param workerCount - worker JVMs running requests at once
+	 */
+	SpreadDaemon(File spread3Jar, int maxRequests, String workerHeap, int workerCount) {
+		SPREAD3_JAR = spread3Jar.getAbsoluteFile();
+		MAX_REQUESTS = Math.max(1, maxRequests);
+		WORKER_HEAP = workerHeap;
+		workerCount = Math.max(1, workerCount);
+		idleWorkers = new ArrayBlockingQueue<Worker>(workerCount);
+		for (int i = 1; i <= workerCount; i++) {
+			Worker worker = new Worker(i);
+			workers.add(worker);
+			idleWorkers.add(worker);
+		}
+		queue = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger(0);
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "SpreadDaemon-"+count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Retrieve the singleton instance of the SpreadDaemon
+	 * @return a SpreadDaemon instance
+	 * @throws PipelineException
+	 */
+	public static synchronized SpreadDaemon getInstance() throws PipelineException {
+		if (daemon == null) {
+			PropertyProvider provider = PropertyProvider.getInstance();
+			String maxRequests = provider.getProperty("spread3.worker.max.requests");
+			String workerHeap = provider.getProperty("spread3.worker.heap");
+			if (workerHeap != null && workerHeap.trim().isEmpty()) {
+				workerHeap = null;
+			}
+			String workerCount = provider.getProperty("spread3.worker.count");
+			int count = workerCount != null && !workerCount.trim().isEmpty() ? Integer.parseInt(workerCount.trim()) : 0;
+			if (count <= 0) {
+				count = defaultWorkerCount;
+			}
+			daemon = new SpreadDaemon(new File(provider.getProperty("spread3.jar")), maxRequests != null ? Integer.parseInt(maxRequests.trim()) : 100, workerHeap != null ? workerHeap.trim() : null, count);
+			log.info("SpreaD3 daemon running "+count+" workers.");
+		}
+		return daemon;
+	}
+
+	/**
+	 * Sizes the worker pool when spread3.worker.count is not set. Must be called before the first request to take effect.
+	 * @param workerCount - number of jobs that can run at once
+	 */
+	static synchronized void setDefaultWorkerCount(int workerCount) {
+		defaultWorkerCount = Math.max(1, workerCount);
+	}
+
+	/**
+	 * Queues a SpreaD3 run
+	 * @param arguments - SpreaD3 command line arguments
+	 * @param logFile - file SpreaD3's output is appended to
+	 * @return SpreadRequest to wait for the run's exit code, or to stop it
+	 */
+	public SpreadRequest submit(List<String> arguments, File logFile) {
+		final SpreadRequest request = new SpreadRequest(arguments, logFile);
+		queue.execute(new Runnable() {
+			@Override
+			public void run() {
+				serve(request);
+			}
+		});
+		return request;
+	}
+
+	/**
+	 * Runs a request on an idle worker, on a queue thread, then restarts the worker if the request ended it.
+	 * There are as many queue threads as workers, so one is always idle.
+	 * @param request
+	 */
+	private void serve(SpreadRequest request) {
+		Worker worker;
+		try {
+			worker = idleWorkers.take();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			request.finish(STOPPED_EXIT_CODE);
+			return;
+		}
+		try {
+			request.finish(worker.serve(request));
+			if (!Thread.currentThread().isInterrupted()) {
+				worker.warmUp();
+			}
+		}
+		finally {
+			idleWorkers.add(worker);
+		}
+	}
+
+	/**
+	 * Stops the workers and the request queue
+	 */
+	void shutdown() {
+		queue.shutdownNow();
+		try {
+			queue.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (Worker worker : workers) {
+			worker.stop();
+		}
+	}
+
+	/**
+	 * @return classpath directory holding the worker classes, copied out on first use
+	 * @throws IOException
+	 */
+	private synchronized File getWorkerClasses() throws IOException {
+		if (workerClasses == null) {
+			workerClasses = extractWorkerClasses();
+		}
+		return workerClasses;
+	}
+
+	/**
+	 * One SpreadWorker JVM of the pool, used by one queue thread at a time
+	 * @author devdemetri
+	 */
+	private final class Worker {
+
+		private final int id;
+		private Process process = null;
+		private BufferedWriter requests = null;
+		private BufferedReader replies = null;
+		private int requestCount = 0;
+
+		private Worker(int id) {
+			this.id = id;
+		}
+
+		/**
+		 * Runs a request on the worker JVM
+		 * @param request
+		 * @return the run's exit code
+		 */
+		private int serve(SpreadRequest request) {
+			long start = System.currentTimeMillis();
+			StageMonitor.SharedUse use = null;
+			try {
+				start();
+				if (!request.start(process)) {
+					return STOPPED_EXIT_CODE;
+				}
+				if (request.monitor != null) {
+					use = request.monitor.watchShared(process);
+				}
+				StringBuilder line = new StringBuilder(request.logFile.getAbsolutePath());
+				for (String argument : request.arguments) {
+					line.append('\t').append(argument);
+				}
+				requests.write(line.toString());
+				requests.newLine();
+				requests.flush();
+				String reply = replies.readLine();
+				if (reply == null || !reply.startsWith(SpreadWorker.EXIT_PREFIX)) {
+					// the worker exits with SpreaD3's code if it could not trap System.exit
+					int exitCode = process.waitFor();
+					stop();
+					log.warning("SpreaD3 worker "+id+" exited with code "+exitCode+" during request: "+request.arguments);
+					return request.isStopped() ? STOPPED_EXIT_CODE : exitCode;
+				}
+				int exitCode = Integer.parseInt(reply.substring(SpreadWorker.EXIT_PREFIX.length()).trim());
+				log.info("SpreaD3 "+request.arguments.get(0)+" finished on worker "+id+" with code "+exitCode+" in "+(System.currentTimeMillis()-start)+" ms, "+(start-request.submitted)+" ms queued");
+				if (++requestCount >= MAX_REQUESTS) {
+					log.info("SpreaD3 worker "+id+" served "+requestCount+" requests, replacing it.");
+					stop();
+				}
+				return exitCode;
+			}
+			catch (Exception e) {
+				log.log(Level.SEVERE, "SpreaD3 worker "+id+" request failed: "+e.getMessage());
+				stop();
+				return request.isStopped() ? STOPPED_EXIT_CODE : 1;
+			}
+			finally {
+				if (use != null) {
+					use.end();
+				}
+			}
+		}
+
+		/**
+		 * Starts the worker JVM again if it was stopped, so it has loaded SpreaD3 before the next request
+		 */
+		private void warmUp() {
+			try {
+				start();
+			}
+			catch (IOException e) {
+				log.warning("Could not restart SpreaD3 worker "+id+": "+e.getMessage());
+			}
+		}
+
+		/**
+		 * Starts the worker JVM if it is not running
+		 * @throws IOException
+		 */
+		private void start() throws IOException {
+			if (process != null && process.isAlive()) {
+				return;
+			}
+			stop();
+			List<String> command = new ArrayList<String>();
+			command.add(getJavaCommand());
+			if (getJavaVersion() >= SECURITY_MANAGER_FLAG_VERSION) {
+				// SpreadWorker installs a SecurityManager to trap System.exit, which Java 18 and later refuse without this
+				command.add("-Djava.security.manager=allow");
+			}
+			if (WORKER_HEAP != null) {
+				command.add("-Xmx"+WORKER_HEAP);
+			}
+			command.add("-cp");
+			command.add(getWorkerClasses().getAbsolutePath());
+			command.add(SpreadWorker.class.getName());
+			command.add(SPREAD3_JAR.getAbsolutePath());
+			ProcessBuilder builder = new ProcessBuilder(command).directory(SPREAD3_JAR.getParentFile());
+			builder.redirectError(Redirect.INHERIT);
+			log.info("Starting SpreaD3 worker "+id+": "+command.toString());
+			process = builder.start();
+			requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+			replies = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+			requestCount = 0;
+		}
+
+		/**
+		 * Stops the worker JVM, if any. Closing its input lets it exit on its own, destroy covers a worker stuck in a request.
+		 */
+		private void stop() {
+			if (process != null) {
+				try {
+					requests.close();
+				}
+				catch (IOException e) {
+					log.fine("Could not close SpreaD3 worker input: "+e.getMessage());
+				}
+				process.destroy();
+				process = null;
+				requests = null;
+				replies = null;
+			}
+		}
+
+	}
+
+	/**
+	 * @return java launcher of the service's own JVM, or java on the PATH if it cannot be found
+	 */
+	private static String getJavaCommand() {
+		File java = new File(System.getProperty("java.home"), "bin/java");
+		return java.isFile() ? java.getAbsolutePath() : "java";
+	}
+
+	/**
+	 * @return feature version of the service's JVM, such as 8 for 1.8 or 17 for 17
+	 */
+	static int getJavaVersion() {
+		String version = System.getProperty("java.specification.version", "1.8");
+		if (version.startsWith("1.")) {
+			version = version.substring(2);
+		}
+		try {
+			return Integer.parseInt(version.split("\\.")[0]);
+		}
+		catch (NumberFormatException e) {
+			return 8;
+		}
+	}
+
+	/**
+	 * Copies the worker classes into a temporary classpath directory
+	 * @return classpath directory
+	 * @throws IOException
+	 */
+	private static File extractWorkerClasses() throws IOException {
+		Path classpath = Files.createTempDirectory("spread-worker");
+		Path packageDir = classpath.resolve(SpreadWorker.class.getPackage().getName().replace('.', '/'));
+		Files.createDirectories(packageDir);
+		for (String className : WORKER_CLASSES) {
+			InputStream classFile = SpreadDaemon.class.getResourceAsStream(className+".class");
+			if (classFile == null) {
+				throw new IOException("Missing SpreaD3 worker class: "+className);
+			}
+			try {
+				Files.copy(classFile, packageDir.resolve(className+".class"));
+			}
+			finally {
+				classFile.close();
+			}
+		}
+		return classpath.toFile();
+	}
+
+	/**
+	 * A queued SpreaD3 run, handled as a Process so stopping the job stops the run
+	 * @author devdemetri
+	 */
+	public static final class SpreadRequest extends Process {
+
+		private final List<String> arguments;
+		private final File logFile;
+		private final long submitted = System.currentTimeMillis();
+		/**
+		 * Measurements of the stage that submitted the request
+		 */
+		private final StageMonitor monitor = StageMonitor.current();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile int exitCode = 0;
+		private Process runningOn = null;
+		private boolean isStopped = false;
+
+		private SpreadRequest(List<String> arguments, File logFile) {
+			this.arguments = new ArrayList<String>(arguments);
+			this.logFile = logFile;
+		}
+
+		/**
+		 * Marks the request as running on a worker
+		 * @param worker - worker JVM running the request
+		 * @return False if the request was stopped while queued
+		 */
+		private synchronized boolean start(Process worker) {
+			if (isStopped) {
+				return false;
+			}
+			runningOn = worker;
+			return true;
+		}
+
+		private void finish(int exitCode) {
+			synchronized (this) {
+				runningOn = null;
+			}
+			this.exitCode = exitCode;
+			done.countDown();
+		}
+
+		private synchronized boolean isStopped() {
+			return isStopped;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return new OutputStream() {
+				@Override
+				public void write(int b) {
+				}
+			};
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+
+		@Override
+		public InputStream getErrorStream() {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+
+		@Override
+		public int waitFor() throws InterruptedException {
+			done.await();
+			return exitCode;
+		}
+
+		/**
+		 * @throws IllegalThreadStateException if the request has not finished
+		 */
+		@Override
+		public int exitValue() {
+			if (done.getCount() > 0) {
+				throw new IllegalThreadStateException("SpreaD3 request has not finished");
+			}
+			return exitCode;
+		}
+
+		/**
+		 * Drops the request if it is still queued, or stops the worker running it
+		 */
+		@Override
+		public synchronized void destroy() {
+			isStopped = true;
+			if (runningOn != null) {
+				runningOn.destroy();
+			}
+		}
+
+	}
+
+}
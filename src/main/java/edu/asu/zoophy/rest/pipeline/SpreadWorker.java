@@ -0,0 +1,143 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.security.Permission;
+import java.util.Arrays;
+import java.util.jar.JarFile;
+
+/**
+ * Entry point of the long-lived SpreaD3 worker JVM started by SpreadDaemon.
+ * Loads spread3.jar once, then runs its main method for each request read from stdin, so parse and render requests skip JVM startup and class loading.
+ * Each request is one line of tab separated fields: the log file for the run's output, then the SpreaD3 arguments.
+ * The worker answers each request with a line holding the run's exit code.
+ * Runs in its own JVM with only this class and spread3.jar on the classpath, so it must not use any other ZooPhy or third party classes.
+ * @author devdemetri
+ */
+public final class SpreadWorker {
+
+	/**
+	 * Prefix of the line that answers a request
+	 */
+	final static String EXIT_PREFIX = "EXIT ";
+
+	private SpreadWorker() {
+	}
+
+	/**
+	 * @param args - path to spread3.jar
+	 * @throws Exception if spread3.jar cannot be loaded
+	 */
+	public static void main(String[] args) throws Exception {
+		File jar = new File(args[0]);
+		String mainClassName;
+		JarFile jarFile = new JarFile(jar);
+		try {
+			mainClassName = jarFile.getManifest().getMainAttributes().getValue("Main-Class");
+		}
+		finally {
+			jarFile.close();
+		}
+		URLClassLoader loader = new URLClassLoader(new URL[] {jar.toURI().toURL()}, SpreadWorker.class.getClassLoader());
+		Thread.currentThread().setContextClassLoader(loader);
+		Method main = loader.loadClass(mainClassName).getMethod("main", String[].class);
+		PrintStream replies = new PrintStream(new FileOutputStream(FileDescriptor.out), true, "UTF-8");
+		PrintStream stdout = System.out;
+		PrintStream stderr = System.err;
+		ExitTrap exitTrap = new ExitTrap();
+		try {
+			System.setSecurityManager(exitTrap);
+		}
+		catch (UnsupportedOperationException e) {
+			stderr.println("SpreadWorker cannot trap System.exit on this JVM, the worker will be restarted whenever SpreaD3 exits.");
+		}
+		BufferedReader requests = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+		String request;
+		while ((request = requests.readLine()) != null) {
+			if (request.isEmpty()) {
+				continue;
+			}
+			String[] fields = request.split("\t");
+			PrintStream output = new PrintStream(new FileOutputStream(fields[0], true), true, "UTF-8");
+			int exitCode = 0;
+			System.setOut(output);
+			System.setErr(output);
+			exitTrap.isTrapping = true;
+			try {
+				main.invoke(null, (Object) Arrays.copyOfRange(fields, 1, fields.length));
+			}
+			catch (InvocationTargetException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof ExitException) {
+					exitCode = ((ExitException) cause).status;
+				}
+				else {
+					cause.printStackTrace(output);
+					exitCode = 1;
+				}
+			}
+			catch (Throwable t) {
+				t.printStackTrace(output);
+				exitCode = 1;
+			}
+			finally {
+				exitTrap.isTrapping = false;
+				System.setOut(stdout);
+				System.setErr(stderr);
+				output.close();
+			}
+			replies.println(EXIT_PREFIX+exitCode);
+		}
+	}
+
+	/**
+	 * Turns System.exit calls made by SpreaD3 during a request into an ExitException, and allows everything else
+	 * @author devdemetri
+	 */
+	private static final class ExitTrap extends SecurityManager {
+
+		private volatile boolean isTrapping = false;
+
+		@Override
+		public void checkExit(int status) {
+			if (isTrapping) {
+				throw new ExitException(status);
+			}
+		}
+
+		@Override
+		public void checkPermission(Permission permission) {
+		}
+
+		@Override
+		public void checkPermission(Permission permission, Object context) {
+		}
+
+	}
+
+	/**
+	 * Thrown in place of a System.exit call during a request
+	 * @author devdemetri
+	 */
+	private static final class ExitException extends SecurityException {
+
+		private static final long serialVersionUID = 1L;
+		private final int status;
+
+		private ExitException(int status) {
+			super("SpreaD3 exited with code: "+status);
+			this.status = status;
+		}
+
+	}
+
+}
@@ -0,0 +1,529 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the stages of a ZooPhy job as a DAG. Each stage declares the artifacts it needs and the artifacts it produces,
+ * and starts as soon as every stage producing its inputs has finished, so independent stages overlap.
+ * After a run the timings hold each stage's wall time, its slack, and whether it is on the critical path,
+ * and each stage's timing and resource use is added to the JobMetrics.
+ * With a JobCheckpoint, each completed stage is marked, and stages completed in an earlier run are skipped when they can be resumed.
+ * @author devdemetri
+ */
+public class StageGraph {
+
+	private final static Logger log = Logger.getLogger("StageGraph");
+
+	private final String jobID;
+	private final Map<String, Node> stages = new LinkedHashMap<String, Node>();
+	private final Map<String, Node> producers = new HashMap<String, Node>();
+	private final Set<String> available = new HashSet<String>();
+	private List<StageTiming> timings = Collections.emptyList();
+	private JobCheckpoint checkpoint = null;
+
+	/**
+	 * @param jobID - ID of the job the stages belong to, used for thread names and the job timeline
+	 */
+	public StageGraph(String jobID) {
+		this.jobID = jobID;
+	}
+
+	/**
+	 * Marks artifacts as already available, for graphs that only run part of the pipeline
+	 * @param artifacts
+	 */
+	public void provide(String... artifacts) {
+		for (String artifact : artifacts) {
+			available.add(artifact);
+		}
+	}
+
+	/**
+	 * Marks each stage in the checkpoint as it completes, and resumes stages the checkpoint already marks
+	 * @param checkpoint - the job's checkpoint
+	 */
+	public void setCheckpoint(JobCheckpoint checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * @return the job's checkpoint, or null if stages are not checkpointed
+	 */
+	public JobCheckpoint getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * Adds a stage. Stages must be added after the stages producing their inputs, which also keeps the graph acyclic.
+	 * @param name - unique stage name
+	 * @param inputs - artifacts the stage needs
+	 * @param outputs - artifacts the stage produces
+	 * @param stage - work to run
+	 * @throws IllegalArgumentException if the name is taken, an input has no producer, or an output already has one
+	 */
+	public void addStage(String name, String[] inputs, String[] outputs, Stage stage) {
+		if (stages.containsKey(name)) {
+			throw new IllegalArgumentException("Duplicate stage: "+name);
+		}
+		Node node = new Node(name, stage);
+		for (String input : inputs) {
+			Node producer = producers.get(input);
+			if (producer != null) {
+				if (!node.dependencies.contains(producer)) {
+					node.dependencies.add(producer);
+					producer.dependents.add(node);
+				}
+			}
+			else if (!available.contains(input)) {
+				throw new IllegalArgumentException("Stage "+name+" needs "+input+" but no earlier stage produces it");
+			}
+		}
+		for (String output : outputs) {
+			if (producers.containsKey(output) || available.contains(output)) {
+				throw new IllegalArgumentException("Stage "+name+" produces "+output+" which already has a producer");
+			}
+			producers.put(output, node);
+		}
+		stages.put(name, node);
+	}
+
+	/**
+	 * @param name
+	 * @return True if a stage with this name was added
+	 */
+	public boolean hasStage(String name) {
+		return stages.containsKey(name);
+	}
+
+	/**
+	 * Runs every stage, each as soon as its dependencies have finished.
+	 * After a failure no more stages are started, stages already running are allowed to finish, and the first failure is thrown.
+	 * @throws PipelineException
+	 */
+	public void run() throws PipelineException {
+		final Set<Node> resumed = resumeStages();
+		final long graphStart = System.currentTimeMillis();
+		final AtomicInteger threadCount = new AtomicInteger(0);
+		ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Stage-"+jobID+"-"+threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		CompletionService<Node> completion = new ExecutorCompletionService<Node>(executor);
+		Map<Node, Integer> waitingOn = new HashMap<Node, Integer>();
+		List<Future<Node>> futures = new ArrayList<Future<Node>>();
+		Exception failure = null;
+		int running = 0;
+		try {
+			for (Node node : stages.values()) {
+				if (resumed.contains(node)) {
+					continue;
+				}
+				int dependencies = 0;
+				for (Node dependency : node.dependencies) {
+					if (!resumed.contains(dependency)) {
+						dependencies++;
+					}
+				}
+				waitingOn.put(node, dependencies);
+				if (dependencies == 0) {
+					futures.add(completion.submit(node.task(graphStart, checkpoint)));
+					running++;
+				}
+			}
+			while (running > 0) {
+				Future<Node> done = completion.take();
+				running--;
+				Node node;
+				try {
+					node = done.get();
+				}
+				catch (ExecutionException e) {
+					if (failure == null) {
+						Throwable cause = e.getCause();
+						failure = cause instanceof Exception ? (Exception) cause : new PipelineException("Stage failed: "+cause, "Internal Server Error");
+					}
+					continue;
+				}
+				if (failure != null) {
+					continue;
+				}
+				for (Node dependent : node.dependents) {
+					if (resumed.contains(dependent)) {
+						continue;
+					}
+					int remaining = waitingOn.get(dependent) - 1;
+					waitingOn.put(dependent, remaining);
+					if (remaining == 0) {
+						futures.add(completion.submit(dependent.task(graphStart, checkpoint)));
+						running++;
+					}
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			for (Future<Node> future : futures) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			failure = new PipelineException("Job was stopped!", "Job was stopped!");
+		}
+		finally {
+			executor.shutdown();
+			timings = computeTimings();
+			logTimings(System.currentTimeMillis()-graphStart);
+			recordMetrics();
+		}
+		if (failure instanceof PipelineException) {
+			throw (PipelineException) failure;
+		}
+		else if (failure != null) {
+			throw new PipelineException("Stage failed: "+failure.getMessage(), "Internal Server Error");
+		}
+	}
+
+	/**
+	 * Finds the stages an earlier run of the job completed that need not run again, and restores their results.
+	 * A completed stage is skipped if it can resume from the files it wrote, or if every stage depending on it is skipped too,
+	 * so stages that only leave results in memory run again whenever a later stage needs them.
+	 * @return skipped stages
+	 * @throws PipelineException if a stage could not be resumed
+	 */
+	private Set<Node> resumeStages() throws PipelineException {
+		Set<Node> resumed = new HashSet<Node>();
+		if (checkpoint == null) {
+			return resumed;
+		}
+		List<Node> order = new ArrayList<Node>(stages.values());
+		Collections.reverse(order);
+		for (Node node : order) {
+			if (!checkpoint.isDone(node.name)) {
+				continue;
+			}
+			boolean isResumable = node.stage instanceof ResumableStage;
+			if (!isResumable) {
+				isResumable = true;
+				for (Node dependent : node.dependents) {
+					if (!resumed.contains(dependent)) {
+						isResumable = false;
+						break;
+					}
+				}
+			}
+			if (isResumable) {
+				resumed.add(node);
+			}
+		}
+		if (resumed.isEmpty()) {
+			return resumed;
+		}
+		StringBuilder names = new StringBuilder();
+		for (Node node : stages.values()) {
+			if (!resumed.contains(node)) {
+				continue;
+			}
+			if (node.stage instanceof ResumableStage) {
+				try {
+					((ResumableStage) node.stage).resume();
+				}
+				catch (PipelineException pe) {
+					log.log(Level.SEVERE, "Stage "+node.name+" could not resume: "+pe.getMessage());
+					throw pe;
+				}
+				catch (Exception e) {
+					log.log(Level.SEVERE, "Stage "+node.name+" could not resume: "+e.getMessage());
+					throw new PipelineException("Stage "+node.name+" could not resume: "+e.getMessage(), "Internal Server Error");
+				}
+			}
+			names.append(names.length() == 0 ? "" : ", ").append(node.name);
+		}
+		log.info(jobID+" resuming after completed stages: "+names.toString());
+		JobTimeline.record(jobID, JobEventType.CHECKPOINT, "Resumed after completed stages: "+names.toString());
+		return resumed;
+	}
+
+	/**
+	 * @return timings of the stages that ran in the last run, in the order they were added
+	 */
+	public List<StageTiming> getTimings() {
+		return timings;
+	}
+
+	/**
+	 * Computes each finished stage's slack: how much longer it could have taken without delaying the job, given the measured durations of the others
+	 * @return stage timings
+	 */
+	private List<StageTiming> computeTimings() {
+		Map<Node, Long> earliestFinish = new HashMap<Node, Long>();
+		long makespan = 0;
+		for (Node node : stages.values()) {
+			if (node.end < 0) {
+				continue;
+			}
+			long ready = 0;
+			for (Node dependency : node.dependencies) {
+				Long finish = earliestFinish.get(dependency);
+				if (finish != null) {
+					ready = Math.max(ready, finish);
+				}
+			}
+			long finish = ready + node.getDuration();
+			earliestFinish.put(node, finish);
+			makespan = Math.max(makespan, finish);
+		}
+		List<Node> order = new ArrayList<Node>(stages.values());
+		Collections.reverse(order);
+		Map<Node, Long> latestFinish = new HashMap<Node, Long>();
+		for (Node node : order) {
+			if (!earliestFinish.containsKey(node)) {
+				continue;
+			}
+			long latest = makespan;
+			for (Node dependent : node.dependents) {
+				Long dependentFinish = latestFinish.get(dependent);
+				if (dependentFinish != null) {
+					latest = Math.min(latest, dependentFinish - dependent.getDuration());
+				}
+			}
+			latestFinish.put(node, latest);
+		}
+		Set<Node> criticalPath = new HashSet<Node>();
+		Node last = null;
+		for (Node node : earliestFinish.keySet()) {
+			if (last == null || earliestFinish.get(node) > earliestFinish.get(last)) {
+				last = node;
+			}
+		}
+		while (last != null) {
+			criticalPath.add(last);
+			Node previous = null;
+			for (Node dependency : last.dependencies) {
+				if (earliestFinish.containsKey(dependency) && (previous == null || earliestFinish.get(dependency) > earliestFinish.get(previous))) {
+					previous = dependency;
+				}
+			}
+			last = previous;
+		}
+		List<StageTiming> stageTimings = new ArrayList<StageTiming>();
+		for (Node node : stages.values()) {
+			if (earliestFinish.containsKey(node)) {
+				stageTimings.add(new StageTiming(node.name, node.start, node.end, latestFinish.get(node) - earliestFinish.get(node), criticalPath.contains(node)));
+			}
+		}
+		return Collections.unmodifiableList(stageTimings);
+	}
+
+	/**
+	 * Adds the metrics of the stages that ran to the JobMetrics
+	 */
+	private void recordMetrics() {
+		List<StageMetrics> stageMetrics = new ArrayList<StageMetrics>();
+		for (StageTiming timing : timings) {
+			StageMetrics metrics = stages.get(timing.getName()).metrics;
+			if (metrics != null) {
+				metrics.setWallMillis(timing.getDurationMillis());
+				metrics.setSlackMillis(timing.getSlackMillis());
+				metrics.setCritical(timing.isCritical());
+				stageMetrics.add(metrics);
+				log.info(jobID+" stage "+timing.getName()+" resources: JVM CPU "+metrics.getJvmCpuMillis()+" ms, child CPU "+metrics.getChildCpuMillis()+" ms in "+metrics.getChildProcesses()+" processes, peak RSS "+metrics.getPeakRssBytes()+" bytes, "+metrics.getBytesWritten()+" bytes written");
+			}
+		}
+		JobMetrics.record(jobID, stageMetrics);
+	}
+
+	/**
+	 * Logs the stage timings and records the critical path on the job timeline
+	 * @param totalMillis - wall time of the whole run
+	 */
+	private void logTimings(long totalMillis) {
+		StringBuilder criticalPath = new StringBuilder();
+		long criticalMillis = 0;
+		for (StageTiming timing : timings) {
+			log.info(jobID+" stage "+timing.getName()+": "+timing.getDurationMillis()+" ms, started at +"+timing.getStartMillis()+" ms, slack "+timing.getSlackMillis()+" ms");
+			if (timing.isCritical()) {
+				if (criticalPath.length() > 0) {
+					criticalPath.append(" > ");
+				}
+				criticalPath.append(timing.getName()).append(" ").append(timing.getDurationMillis()).append(" ms");
+				criticalMillis += timing.getDurationMillis();
+			}
+		}
+		String summary = "Critical path "+criticalMillis+" ms of "+totalMillis+" ms: "+criticalPath.toString();
+		log.info(jobID+" "+summary);
+		JobTimeline.record(jobID, JobEventType.STAGE, summary);
+	}
+
+	/**
+	 * Work done by one stage
+	 * @author devdemetri
+	 */
+	public interface Stage {
+
+		/**
+		 * @throws Exception if the stage failed, PipelineExceptions are passed on unchanged
+		 */
+		void run() throws Exception;
+
+	}
+
+	/**
+	 * Stage that can be skipped when an earlier run of the job completed it
+	 * @author devdemetri
+	 */
+	public interface ResumableStage extends Stage {
+
+		/**
+		 * Restores what the stage leaves in memory from the files it wrote, instead of running it again
+		 * @throws Exception if the stage's results could not be restored
+		 */
+		void resume() throws Exception;
+
+	}
+
+	/**
+	 * A stage and its place in the graph
+	 * @author devdemetri
+	 */
+	private static final class Node {
+
+		private final String name;
+		private final Stage stage;
+		private final List<Node> dependencies = new ArrayList<Node>();
+		private final List<Node> dependents = new ArrayList<Node>();
+		private volatile long start = -1;
+		private volatile long end = -1;
+		private volatile StageMetrics metrics = null;
+
+		private Node(String name, Stage stage) {
+			this.name = name;
+			this.stage = stage;
+		}
+
+		private long getDuration() {
+			return end - start;
+		}
+
+		/**
+		 * @param graphStart - time the graph started, stage times are recorded relative to it
+		 * @param checkpoint - job checkpoint to mark the stage in once it completes, or null
+		 * @return task running the stage and recording its times
+		 */
+		private Callable<Node> task(final long graphStart, final JobCheckpoint checkpoint) {
+			final Node node = this;
+			return new Callable<Node>() {
+				@Override
+				public Node call() throws Exception {
+					start = System.currentTimeMillis() - graphStart;
+					StageMetrics stageMetrics = new StageMetrics(name);
+					stageMetrics.setStartTime(graphStart + start);
+					stageMetrics.setFailed(true);
+					StageMonitor monitor = StageMonitor.start();
+					try {
+						stage.run();
+						stageMetrics.setFailed(false);
+						if (checkpoint != null) {
+							try {
+								checkpoint.markDone(name);
+							}
+							catch (IOException e) {
+								log.warning("Could not checkpoint stage "+name+": "+e.getMessage());
+							}
+						}
+					}
+					catch (Exception e) {
+						log.log(Level.SEVERE, "Stage "+name+" failed: "+e.getMessage());
+						throw e;
+					}
+					finally {
+						end = System.currentTimeMillis() - graphStart;
+						monitor.stop(stageMetrics);
+						metrics = stageMetrics;
+					}
+					return node;
+				}
+			};
+		}
+
+	}
+
+	/**
+	 * Measured times of one stage
+	 * @author devdemetri
+	 */
+	public static final class StageTiming {
+
+		private final String name;
+		private final long startMillis;
+		private final long endMillis;
+		private final long slackMillis;
+		private final boolean isCritical;
+
+		StageTiming(String name, long startMillis, long endMillis, long slackMillis, boolean isCritical) {
+			this.name = name;
+			this.startMillis = startMillis;
+			this.endMillis = endMillis;
+			this.slackMillis = slackMillis;
+			this.isCritical = isCritical;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return start time in milliseconds after the graph started
+		 */
+		public long getStartMillis() {
+			return startMillis;
+		}
+
+		/**
+		 * @return end time in milliseconds after the graph started
+		 */
+		public long getEndMillis() {
+			return endMillis;
+		}
+
+		public long getDurationMillis() {
+			return endMillis - startMillis;
+		}
+
+		/**
+		 * @return how much longer the stage could have run without delaying the job
+		 */
+		public long getSlackMillis() {
+			return slackMillis;
+		}
+
+		/**
+		 * @return True if the stage is on the critical path, the chain of dependent stages that set the job's run time
+		 */
+		public boolean isCritical() {
+			return isCritical;
+		}
+
+	}
+
+}
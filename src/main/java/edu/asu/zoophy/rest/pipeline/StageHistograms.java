@@ -0,0 +1,91 @@
+package edu.asu.zoophy.rest.pipeline;
+
+/**
+ * Histograms of one pipeline stage's timing and resource use across the jobs that finished it
+ * @author devdemetri
+ */
+public class StageHistograms {
+
+	private String stage;
+	private long failures = 0;
+	private MetricHistogram wallMillis = new MetricHistogram();
+	private MetricHistogram criticalMillis = new MetricHistogram();
+	private MetricHistogram jvmCpuMillis = new MetricHistogram();
+	private MetricHistogram childCpuMillis = new MetricHistogram();
+	private MetricHistogram peakRssBytes = new MetricHistogram();
+	private MetricHistogram bytesWritten = new MetricHistogram();
+
+	public StageHistograms() {
+
+	}
+
+	public StageHistograms(String stage) {
+		this.stage = stage;
+	}
+
+	public StageHistograms(StageHistograms other) {
+		stage = other.stage;
+		failures = other.failures;
+		wallMillis = new MetricHistogram(other.wallMillis);
+		criticalMillis = new MetricHistogram(other.criticalMillis);
+		jvmCpuMillis = new MetricHistogram(other.jvmCpuMillis);
+		childCpuMillis = new MetricHistogram(other.childCpuMillis);
+		peakRssBytes = new MetricHistogram(other.peakRssBytes);
+		bytesWritten = new MetricHistogram(other.bytesWritten);
+	}
+
+	/**
+	 * Adds a job's run of the stage. Failed runs are only counted.
+	 * @param metrics
+	 */
+	public void add(StageMetrics metrics) {
+		if (metrics.isFailed()) {
+			failures++;
+			return;
+		}
+		wallMillis.add(metrics.getWallMillis());
+		if (metrics.isCritical()) {
+			criticalMillis.add(metrics.getWallMillis());
+		}
+		jvmCpuMillis.add(metrics.getJvmCpuMillis());
+		childCpuMillis.add(metrics.getChildCpuMillis());
+		peakRssBytes.add(metrics.getPeakRssBytes());
+		bytesWritten.add(metrics.getBytesWritten());
+	}
+
+	public String getStage() {
+		return stage;
+	}
+
+	public long getFailures() {
+		return failures;
+	}
+
+	public MetricHistogram getWallMillis() {
+		return wallMillis;
+	}
+
+	/**
+	 * @return wall time of the runs where the stage was on the job's critical path
+	 */
+	public MetricHistogram getCriticalMillis() {
+		return criticalMillis;
+	}
+
+	public MetricHistogram getJvmCpuMillis() {
+		return jvmCpuMillis;
+	}
+
+	public MetricHistogram getChildCpuMillis() {
+		return childCpuMillis;
+	}
+
+	public MetricHistogram getPeakRssBytes() {
+		return peakRssBytes;
+	}
+
+	public MetricHistogram getBytesWritten() {
+		return bytesWritten;
+	}
+
+}
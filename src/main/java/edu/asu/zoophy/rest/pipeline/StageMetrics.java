@@ -0,0 +1,138 @@
+package edu.asu.zoophy.rest.pipeline;
+
+/**
+ * Timing and resource use of one stage of a ZooPhy Job
+ * @author devdemetri
+ */
+public class StageMetrics {
+
+	private String stage;
+	private long startTime;
+	private long wallMillis;
+	private long slackMillis;
+	private boolean critical;
+	private boolean failed;
+	private long jvmCpuMillis;
+	private long childCpuMillis;
+	private int childProcesses;
+	private long peakRssBytes;
+	private long bytesWritten;
+
+	public StageMetrics() {
+
+	}
+
+	public StageMetrics(String stage) {
+		this.stage = stage;
+	}
+
+	public String getStage() {
+		return stage;
+	}
+
+	public void setStage(String stage) {
+		this.stage = stage;
+	}
+
+	/**
+	 * @return time the stage started, in epoch milliseconds
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public void setStartTime(long startTime) {
+		this.startTime = startTime;
+	}
+
+	public long getWallMillis() {
+		return wallMillis;
+	}
+
+	public void setWallMillis(long wallMillis) {
+		this.wallMillis = wallMillis;
+	}
+
+	/**
+	 * @return how much longer the stage could have run without delaying the job
+	 */
+	public long getSlackMillis() {
+		return slackMillis;
+	}
+
+	public void setSlackMillis(long slackMillis) {
+		this.slackMillis = slackMillis;
+	}
+
+	/**
+	 * @return True if the stage was on the job's critical path
+	 */
+	public boolean isCritical() {
+		return critical;
+	}
+
+	public void setCritical(boolean critical) {
+		this.critical = critical;
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public void setFailed(boolean failed) {
+		this.failed = failed;
+	}
+
+	/**
+	 * @return CPU time of the JVM thread running the stage
+	 */
+	public long getJvmCpuMillis() {
+		return jvmCpuMillis;
+	}
+
+	public void setJvmCpuMillis(long jvmCpuMillis) {
+		this.jvmCpuMillis = jvmCpuMillis;
+	}
+
+	/**
+	 * @return CPU time of the processes started by the stage and their descendants
+	 */
+	public long getChildCpuMillis() {
+		return childCpuMillis;
+	}
+
+	public void setChildCpuMillis(long childCpuMillis) {
+		this.childCpuMillis = childCpuMillis;
+	}
+
+	public int getChildProcesses() {
+		return childProcesses;
+	}
+
+	public void setChildProcesses(int childProcesses) {
+		this.childProcesses = childProcesses;
+	}
+
+	/**
+	 * @return highest combined resident memory of the stage's processes
+	 */
+	public long getPeakRssBytes() {
+		return peakRssBytes;
+	}
+
+	public void setPeakRssBytes(long peakRssBytes) {
+		this.peakRssBytes = peakRssBytes;
+	}
+
+	/**
+	 * @return bytes written by the stage's processes, including to pipes and logs
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public void setBytesWritten(long bytesWritten) {
+		this.bytesWritten = bytesWritten;
+	}
+
+}
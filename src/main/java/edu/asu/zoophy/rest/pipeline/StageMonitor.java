@@ -0,0 +1,386 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Measures the resources used by one pipeline stage: CPU time of the stage's JVM thread, and CPU time, peak RSS, and bytes written of
+ * the processes the stage starts along with their descendants. Processes are sampled from /proc while they run, so the last moments of
+ * a process and processes shorter than the sample interval are missed, and the process figures are zero where /proc is not available.
+ * Long-lived processes shared between stages, such as SpreaD3 worker JVMs, only count for the time they work for the stage.
+ * @author devdemetri
+ */
+public final class StageMonitor {
+
+	private final static Logger log = Logger.getLogger("StageMonitor");
+	private final static long SAMPLE_MILLIS = 500;
+	/**
+	 * USER_HZ, the unit of the CPU times in /proc/[pid]/stat
+	 */
+	private final static long CLOCK_TICKS_PER_SECOND = 100;
+	private final static File PROC = new File("/proc");
+	private final static InheritableThreadLocal<StageMonitor> current = new InheritableThreadLocal<StageMonitor>();
+	private final static Set<StageMonitor> active = ConcurrentHashMap.newKeySet();
+	private static ScheduledExecutorService sampler = null;
+
+	private final Thread thread;
+	private final long threadCpuStart;
+	private final List<Integer> roots = new ArrayList<Integer>();
+	private final Map<Integer, long[]> processes = new HashMap<Integer, long[]>();
+	private final Set<Integer> sharedProcesses = new HashSet<Integer>();
+	private long sharedCpuTicks = 0;
+	private long sharedBytesWritten = 0;
+	private long peakRssBytes = 0;
+	private volatile boolean isStopped = false;
+
+	private StageMonitor() {
+		thread = Thread.currentThread();
+		threadCpuStart = getThreadCpuNanos();
+	}
+
+	/**
+	 * Starts measuring the stage running on the current thread
+	 * @return the stage's monitor
+	 */
+	static StageMonitor start() {
+		StageMonitor monitor = new StageMonitor();
+		current.set(monitor);
+		return monitor;
+	}
+
+	/**
+	 * Adds a process started by the current stage, if any, to the stage's measurements
+	 * @param process - newly started process
+	 * @return the same process
+	 */
+	public static Process watch(Process process) {
+		StageMonitor monitor = current.get();
+		if (monitor == null || monitor.isStopped) {
+			return process;
+		}
+		Integer pid = getPid(process);
+		if (pid != null) {
+			synchronized (monitor) {
+				monitor.roots.add(pid);
+			}
+			monitor.sample(readParents());
+			startSampling(monitor);
+		}
+		return process;
+	}
+
+	/**
+	 * @return monitor of the stage running on the current thread, or null if it is not measured
+	 */
+	static StageMonitor current() {
+		return current.get();
+	}
+
+	/**
+	 * Starts measuring a long-lived process while it works for this stage. Only the process's usage until the returned SharedUse ends
+	 * is added to the stage, since the process also works for other stages.
+	 * @param process - running process shared between stages
+	 * @return the process's use by this stage, or null if it cannot be measured
+	 */
+	SharedUse watchShared(Process process) {
+		Integer pid = getPid(process);
+		if (pid == null || isStopped) {
+			return null;
+		}
+		long[] usage = readUsage(pid);
+		return usage != null ? new SharedUse(pid, usage) : null;
+	}
+
+	/**
+	 * Stops measuring the stage. Must be called on the thread that started it.
+	 * @param metrics - the stage's metrics to fill in
+	 */
+	void stop(StageMetrics metrics) {
+		long threadCpu = getThreadCpuNanos();
+		if (!roots.isEmpty()) {
+			sample(readParents());
+		}
+		isStopped = true;
+		active.remove(this);
+		if (current.get() == this) {
+			current.remove();
+		}
+		long cpuTicks;
+		long bytesWritten;
+		synchronized (this) {
+			cpuTicks = sharedCpuTicks;
+			bytesWritten = sharedBytesWritten;
+			for (long[] usage : processes.values()) {
+				cpuTicks += usage[0];
+				bytesWritten += usage[1];
+			}
+			Set<Integer> children = new HashSet<Integer>(processes.keySet());
+			children.addAll(sharedProcesses);
+			metrics.setChildProcesses(children.size());
+			metrics.setPeakRssBytes(peakRssBytes);
+		}
+		metrics.setJvmCpuMillis(threadCpu >= 0 && threadCpuStart >= 0 ? (threadCpu - threadCpuStart) / 1000000 : 0);
+		metrics.setChildCpuMillis(cpuTicks * 1000 / CLOCK_TICKS_PER_SECOND);
+		metrics.setBytesWritten(bytesWritten);
+	}
+
+	/**
+	 * Reads the current usage of every live process in the stage's process trees
+	 * @param children - parent PID to child PIDs of every process on the machine
+	 */
+	private void sample(Map<Integer, List<Integer>> children) {
+		List<Integer> pending;
+		synchronized (this) {
+			pending = new ArrayList<Integer>(roots);
+		}
+		long rssBytes = 0;
+		long peakBytes = 0;
+		Map<Integer, long[]> seen = new HashMap<Integer, long[]>();
+		while (!pending.isEmpty()) {
+			Integer pid = pending.remove(pending.size() - 1);
+			if (seen.containsKey(pid)) {
+				continue;
+			}
+			long[] usage = readUsage(pid);
+			if (usage == null) {
+				continue;
+			}
+			seen.put(pid, usage);
+			rssBytes += usage[2];
+			peakBytes = Math.max(peakBytes, usage[3]);
+			List<Integer> pidChildren = children.get(pid);
+			if (pidChildren != null) {
+				pending.addAll(pidChildren);
+			}
+		}
+		synchronized (this) {
+			for (Map.Entry<Integer, long[]> entry : seen.entrySet()) {
+				long[] last = processes.get(entry.getKey());
+				if (last == null) {
+					processes.put(entry.getKey(), new long[] {entry.getValue()[0], entry.getValue()[1]});
+				}
+				else {
+					last[0] = Math.max(last[0], entry.getValue()[0]);
+					last[1] = Math.max(last[1], entry.getValue()[1]);
+				}
+			}
+			peakRssBytes = Math.max(peakRssBytes, Math.max(rssBytes, peakBytes));
+		}
+	}
+
+	/**
+	 * Use of a shared process by one stage, from watchShared until end
+	 * @author devdemetri
+	 */
+	final class SharedUse {
+
+		private final int pid;
+		private final long[] start;
+
+		private SharedUse(int pid, long[] start) {
+			this.pid = pid;
+			this.start = start;
+		}
+
+		/**
+		 * Adds the process's CPU time and bytes written since watchShared to the stage, and its RSS to the stage's peak.
+		 * Nothing is added if the process has exited.
+		 */
+		void end() {
+			long[] usage = readUsage(pid);
+			if (usage == null || isStopped) {
+				return;
+			}
+			synchronized (StageMonitor.this) {
+				sharedProcesses.add(pid);
+				sharedCpuTicks += Math.max(0, usage[0] - start[0]);
+				sharedBytesWritten += Math.max(0, usage[1] - start[1]);
+				peakRssBytes = Math.max(peakRssBytes, Math.max(start[2], usage[2]));
+			}
+		}
+
+	}
+
+	/**
+	 * Samples every active stage, on the sampler thread
+	 */
+	private static void sampleAll() {
+		if (active.isEmpty()) {
+			return;
+		}
+		Map<Integer, List<Integer>> children = readParents();
+		for (StageMonitor monitor : active) {
+			monitor.sample(children);
+		}
+	}
+
+	private static synchronized void startSampling(StageMonitor monitor) {
+		active.add(monitor);
+		if (sampler == null) {
+			sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "StageMonitor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			sampler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						sampleAll();
+					}
+					catch (Exception e) {
+						log.warning("Could not sample stage processes: "+e.getMessage());
+					}
+				}
+			}, SAMPLE_MILLIS, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * @param pid
+	 * @return {CPU clock ticks, bytes written, current RSS bytes, peak RSS bytes} of the process, or null if it has exited
+	 */
+	private static long[] readUsage(int pid) {
+		File dir = new File(PROC, Integer.toString(pid));
+		try {
+			String[] stat = readStat(new File(dir, "stat"));
+			if (stat == null) {
+				return null;
+			}
+			long[] usage = new long[4];
+			// utime and stime are fields 14 and 15, counted from 3 after the command name
+			usage[0] = Long.parseLong(stat[11]) + Long.parseLong(stat[12]);
+			for (String line : Files.readAllLines(new File(dir, "status").toPath(), StandardCharsets.UTF_8)) {
+				if (line.startsWith("VmRSS:")) {
+					usage[2] = parseKilobytes(line);
+				}
+				else if (line.startsWith("VmHWM:")) {
+					usage[3] = parseKilobytes(line);
+				}
+			}
+			try {
+				for (String line : Files.readAllLines(new File(dir, "io").toPath(), StandardCharsets.UTF_8)) {
+					if (line.startsWith("wchar:")) {
+						usage[1] = Long.parseLong(line.substring(6).trim());
+					}
+				}
+			}
+			catch (IOException e) {
+				log.fine("Could not read io of process "+pid+": "+e.getMessage());
+			}
+			return usage;
+		}
+		catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return parent PID to child PIDs of every process on the machine, empty if /proc is not available
+	 */
+	private static Map<Integer, List<Integer>> readParents() {
+		Map<Integer, List<Integer>> children = new HashMap<Integer, List<Integer>>();
+		String[] pids = PROC.list();
+		if (pids == null) {
+			return children;
+		}
+		for (String pid : pids) {
+			if (pid.isEmpty() || !Character.isDigit(pid.charAt(0))) {
+				continue;
+			}
+			try {
+				String[] stat = readStat(new File(new File(PROC, pid), "stat"));
+				if (stat != null) {
+					Integer parent = Integer.valueOf(stat[1]);
+					List<Integer> parentChildren = children.get(parent);
+					if (parentChildren == null) {
+						parentChildren = new ArrayList<Integer>();
+						children.put(parent, parentChildren);
+					}
+					parentChildren.add(Integer.valueOf(pid));
+				}
+			}
+			catch (IOException | RuntimeException e) {
+				// process exited while reading
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * @param statFile - /proc/[pid]/stat
+	 * @return the fields after the command name, which may contain spaces, starting with the state
+	 * @throws IOException
+	 */
+	private static String[] readStat(File statFile) throws IOException {
+		String stat = new String(Files.readAllBytes(statFile.toPath()), StandardCharsets.UTF_8);
+		int commandEnd = stat.lastIndexOf(')');
+		if (commandEnd < 0) {
+			return null;
+		}
+		return stat.substring(commandEnd + 1).trim().split(" ");
+	}
+
+	private static long parseKilobytes(String statusLine) {
+		String value = statusLine.substring(statusLine.indexOf(':') + 1).trim();
+		return Long.parseLong(value.split("\\s+")[0]) * 1024;
+	}
+
+	/**
+	 * @return CPU time of the stage thread in nanoseconds, or -1 if the JVM does not measure it
+	 */
+	private long getThreadCpuNanos() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!threads.isThreadCpuTimeSupported() || !threads.isThreadCpuTimeEnabled()) {
+			return -1;
+		}
+		return threads.getThreadCpuTime(thread.getId());
+	}
+
+	/**
+	 * Finds a process's PID with Process.pid() on Java 9 and later, or the pid field of java.lang.UNIXProcess on Java 8
+	 * @param process
+	 * @return PID of the process, or null if it is not a native process
+	 */
+	private static Integer getPid(Process process) {
+		try {
+			Method pid = Process.class.getMethod("pid");
+			return Integer.valueOf(((Long) pid.invoke(process)).intValue());
+		}
+		catch (NoSuchMethodException e) {
+			try {
+				Field pid = process.getClass().getDeclaredField("pid");
+				pid.setAccessible(true);
+				return Integer.valueOf(pid.getInt(process));
+			}
+			catch (Exception fieldException) {
+				return null;
+			}
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,785 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Responsible for inserting discrete traits into BEAST input XML files in a single streaming pass.
+ * Produces the same document as DiscreteTraitInserter without holding the whole XML in memory.
+ * Only the taxa list and the first alignment sequence are buffered, since the comments written before them need their counts.
+ * @author devdemetri
+ */
+public class StreamingTraitInserter {
+
+	/**
+	 * Number of places the trait is inserted into the BeastGen template
+	 */
+	private final static int INSERTION_POINTS = 18;
+	private final static String TRAIT_NAME = "states";
+	private final static String START_COMMENT = " START Discrete Traits Model ";
+	private final static String END_COMMENT = " END Discrete Traits Model ";
+
+	private final String DOCUMENT_PATH;
+	private final String LOG_EVERY;
+	private String rateLogEvery;
+	private final ZooPhyJob job;
+	private final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+	private final Set<String> locations = new HashSet<String>();
+	private final Set<String> insertions = new HashSet<String>();
+	private final Deque<String> path = new ArrayDeque<String>();
+	private final Deque<Boolean> insertedElements = new ArrayDeque<Boolean>();
+	private XMLStreamWriter writer;
+	private StartElement pendingStart = null;
+	private List<XMLEvent> captured = null;
+	private int capturedDepth = 0;
+	private List<XMLEvent> leadingComments = null;
+	private StringBuilder firstSequence = null;
+	private String currentLocation = null;
+	private int numTaxa = 0;
+	private int mcmcLogs = 0;
+	private boolean isAdded = false;
+
+	public StreamingTraitInserter(ZooPhyJob job) throws TraitException {
+		this(job, System.getProperty("user.dir")+"/ZooPhyJobs/"+job.getID()+".xml");
+	}
+
+	StreamingTraitInserter(ZooPhyJob job, String documentPath) throws TraitException {
+		try {
+			this.job = job;
+			DOCUMENT_PATH = documentPath;
+			LOG_EVERY = String.valueOf(job.getXMLOptions().getSubSampleRate());
+			rateLogEvery = LOG_EVERY;
+		}
+		catch (Exception e) {
+			throw new TraitException("Error initializing StreamingTraitInserter: "+e.getMessage(), null);
+		}
+	}
+
+	/**
+	 * Logs the rate matrix more often than the other logs, so the rate matrix health check sees samples early in the chain
+	 * @param states - MCMC states between rate matrix samples, used only if it is less than the job's sub sample rate
+	 */
+	public void setRateLogEvery(int states) {
+		if (states > 0 && states < job.getXMLOptions().getSubSampleRate()) {
+			rateLogEvery = String.valueOf(states);
+		}
+	}
+
+	/**
+	 * Inserts locations as a discrete trait named States.
+	 * Can only be called once per StreamingTraitInserter instance.
+	 * @throws TraitException
+	 */
+	public void addLocation() throws TraitException {
+		try {
+			addLocation(new BufferedInputStream(new FileInputStream(DOCUMENT_PATH)));
+		}
+		catch (FileNotFoundException e) {
+			throw new TraitException("ERROR adding trait: "+TRAIT_NAME+" : "+e.getMessage(), null);
+		}
+	}
+
+	/**
+	 * Inserts locations as a discrete trait named States into XML read from a stream, such as BeastXMLGenerator output, and writes the result to the document path.
+	 * Can only be called once per StreamingTraitInserter instance.
+	 * @param source - BEAST input XML without the trait, closed when done
+	 * @throws TraitException
+	 */
+	public void addLocation(InputStream source) throws TraitException {
+		File document = new File(DOCUMENT_PATH);
+		File updatedDocument = new File(DOCUMENT_PATH+".tmp");
+		try {
+			OutputStream output = null;
+			try {
+				if (isAdded) {
+					throw new TraitException("Error adding Location trait: trait already added.", "Error adding Location trait.");
+				}
+				isAdded = true;
+				output = new BufferedOutputStream(new FileOutputStream(updatedDocument));
+				addTrait(source, output);
+			}
+			finally {
+				source.close();
+				if (output != null) {
+					output.close();
+				}
+			}
+			Files.move(updatedDocument.toPath(), document.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (TraitException te) {
+			updatedDocument.delete();
+			throw te;
+		}
+		catch (Exception e) {
+			updatedDocument.delete();
+			throw new TraitException("ERROR adding trait: "+TRAIT_NAME+" : "+e.getMessage(), null);
+		}
+	}
+
+	/**
+	 * Streams the BEAST input XML from input to output, adding the location trait along the way
+	 * @param input
+	 * @param output
+	 * @throws XMLStreamException
+	 * @throws TraitException
+	 */
+	private void addTrait(InputStream input, OutputStream output) throws XMLStreamException, TraitException {
+		XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		XMLEventReader reader = inputFactory.createXMLEventReader(input, "UTF-8");
+		writer = XMLOutputFactory.newInstance().createXMLStreamWriter(output, "UTF-8");
+		try {
+			writer.writeStartDocument("UTF-8", "1.0");
+			while (reader.hasNext()) {
+				XMLEvent event = reader.nextEvent();
+				switch (event.getEventType()) {
+					case XMLStreamConstants.START_DOCUMENT:
+					case XMLStreamConstants.END_DOCUMENT:
+					case XMLStreamConstants.DTD:
+						break;
+					case XMLStreamConstants.COMMENT:
+						if (leadingComments == null) {
+							leadingComments = new LinkedList<XMLEvent>();
+						}
+						leadingComments.add(event);
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.SPACE:
+					case XMLStreamConstants.CDATA:
+						handleCharacters(event.asCharacters());
+						break;
+					case XMLStreamConstants.START_ELEMENT:
+						handleStart(event.asStartElement());
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						handleEnd(event);
+						break;
+					default:
+						flushLeadingComments();
+						emit(event);
+				}
+			}
+			flushLeadingComments();
+			write(null);
+			writer.writeEndDocument();
+			writer.flush();
+		}
+		finally {
+			reader.close();
+			writer.close();
+		}
+		if (insertions.size() != INSERTION_POINTS) {
+			throw new TraitException("ERROR adding trait: "+TRAIT_NAME+" : only found "+insertions.size()+" of "+INSERTION_POINTS+" insertion points "+insertions, null);
+		}
+	}
+
+	/**
+	 * Passes through text, holding whitespace that follows a comment so the comments stay grouped with the next element
+	 * @param characters
+	 * @throws XMLStreamException
+	 */
+	private void handleCharacters(Characters characters) throws XMLStreamException {
+		if (characters.isWhiteSpace()) {
+			if (path.isEmpty()) {
+				return;
+			}
+			if (leadingComments != null) {
+				leadingComments.add(characters);
+				return;
+			}
+		}
+		else {
+			flushLeadingComments();
+			if (firstSequence != null) {
+				firstSequence.append(characters.getData());
+			}
+		}
+		emit(characters);
+	}
+
+	/**
+	 * Handles an element start, inserting anything that belongs before it
+	 * @param start
+	 * @throws XMLStreamException
+	 */
+	private void handleStart(StartElement start) throws XMLStreamException {
+		final String name = start.getName().getLocalPart();
+		final String parent = path.peek();
+		int count = insertions.size();
+		if ("beast".equals(parent)) {
+			if (name.equals("constantSize") && insertions.add("dataType")) {
+				addDataType();
+			}
+			else if (name.equals("HKYModel") && insertions.add("clock")) {
+				addClock();
+			}
+			else if (name.equals("operators") && insertions.add("models")) {
+				addModels();
+			}
+		}
+		else if ("mcmc".equals(parent) && name.equals("logTree") && insertions.add("rateMatrixLog")) {
+			addRateMatrixLog();
+		}
+		finishInsertion(count, path.size());
+		flushLeadingComments();
+		if ("beast".equals(parent) && ((name.equals("taxa") && insertions.add("taxa")) || (name.equals("alignment") && insertions.add("alignment")))) {
+			captured = new ArrayList<XMLEvent>();
+			capturedDepth = path.size();
+		}
+		count = insertions.size();
+		if ("operators".equals(parent) && name.equals("subtreeSlide") && insertions.add("clockOperator")) {
+			addClockOperator();
+		}
+		else if ("prior".equals(parent)) {
+			if (name.equals("oneOnXPrior") && insertions.add("ctmcPrior")) {
+				addCtmcPrior();
+			}
+			else if (name.equals("coalescentLikelihood") && insertions.contains("ctmcPrior") && insertions.add("priors")) {
+				addPriors();
+			}
+		}
+		else if ("log".equals(parent) && mcmcLogs == 2) {
+			if (name.equals("rateStatistic") && insertions.add("fileLogClock")) {
+				empty("parameter", "idref", TRAIT_NAME+".clock.rate");
+			}
+			else if (name.equals("treeLikelihood") && insertions.add("fileLogRates")) {
+				addFileLogRates();
+			}
+			else if (name.equals("coalescentLikelihood") && insertions.add("fileLogLikelihood")) {
+				addFileLogLikelihood();
+			}
+		}
+		else if ("logTree".equals(parent) && name.equals("posterior") && insertions.add("treeLogRate")) {
+			start("trait", "name", "rate", "tag", TRAIT_NAME+".rate");
+			empty("strictClockBranchRates", "idref", TRAIT_NAME+".branchRates");
+			end();
+		}
+		else if ("alignment".equals(parent) && name.equals("sequence") && captured != null && firstSequence == null) {
+			firstSequence = new StringBuilder();
+		}
+		finishInsertion(count, path.size());
+		if (name.equals("taxon") && captured != null && !"sequence".equals(parent)) {
+			Attribute id = start.getAttributeByName(new QName("id"));
+			if (id != null) {
+				numTaxa++;
+				String[] splits = id.getValue().split("_");
+				currentLocation = splits[splits.length-1];
+				locations.add(currentLocation);
+			}
+		}
+		else if (name.equals("log") && "mcmc".equals(parent)) {
+			mcmcLogs++;
+		}
+		path.push(name);
+		emit(start);
+	}
+
+	/**
+	 * Handles an element end, appending anything that belongs at the end of the element
+	 * @param end
+	 * @throws XMLStreamException
+	 */
+	private void handleEnd(XMLEvent end) throws XMLStreamException {
+		flushLeadingComments();
+		final String name = path.pop();
+		final String parent = path.peek();
+		path.push(name);
+		final int count = insertions.size();
+		if (name.equals("taxon") && currentLocation != null) {
+			start("attr", "name", TRAIT_NAME);
+			text(currentLocation);
+			end();
+			currentLocation = null;
+			emit(eventFactory.createSpace(newLine(path.size()-1)));
+		}
+		else if (name.equals("operators") && "beast".equals(parent) && insertions.add("operators")) {
+			addOperators();
+		}
+		else if (name.equals("prior") && "posterior".equals(parent) && insertions.add("priorModels")) {
+			empty("strictClockBranchRates", "idref", TRAIT_NAME+".branchRates");
+			comment(START_COMMENT);
+			empty("generalSubstitutionModel", "idref", TRAIT_NAME+".model");
+			comment(END_COMMENT);
+		}
+		else if (name.equals("likelihood") && "posterior".equals(parent) && insertions.add("likelihood")) {
+			comment(START_COMMENT);
+			empty("ancestralTreeLikelihood", "idref", TRAIT_NAME+".treeLikelihood");
+			comment(END_COMMENT);
+		}
+		else if (name.equals("log") && "mcmc".equals(parent) && mcmcLogs == 1 && insertions.add("screenLog")) {
+			addScreenLogColumns();
+		}
+		else if (name.equals("logTree") && insertions.add("ancestralStates")) {
+			comment(" START Ancestral state reconstruction ");
+			start("trait", "name", TRAIT_NAME+".states", "tag", TRAIT_NAME);
+			empty("ancestralTreeLikelihood", "idref", TRAIT_NAME+".treeLikelihood");
+			end();
+			comment(" END Ancestral state reconstruction ");
+		}
+		path.pop();
+		finishInsertion(count, path.size());
+		emit(end);
+		if (name.equals("taxa") && captured != null) {
+			releaseCaptured(" ntax="+numTaxa+" ");
+		}
+		else if (name.equals("sequence") && firstSequence != null && captured != null) {
+			final int numChars = firstSequence.toString().trim().length();
+			firstSequence = null;
+			releaseCaptured(" ntax="+numTaxa+" nchar="+numChars+" ");
+		}
+	}
+
+	/**
+	 * Starts a new line after inserted content so the following original content keeps its indentation
+	 * @param count - number of insertions made before the content
+	 * @param depth - depth of the following content
+	 * @throws XMLStreamException
+	 */
+	private void finishInsertion(int count, int depth) throws XMLStreamException {
+		if (insertions.size() != count) {
+			emit(eventFactory.createSpace(newLine(depth)));
+		}
+	}
+
+	/**
+	 * Writes the comment that belongs before the captured element, followed by the captured events
+	 * @param text - comment text
+	 * @throws XMLStreamException
+	 */
+	private void releaseCaptured(String text) throws XMLStreamException {
+		List<XMLEvent> events = captured;
+		captured = null;
+		write(eventFactory.createComment(text));
+		write(eventFactory.createSpace(newLine(capturedDepth)));
+		Iterator<XMLEvent> iter = events.iterator();
+		while (iter.hasNext()) {
+			write(iter.next());
+		}
+	}
+
+	/**
+	 * Writes out the held comments and the whitespace between them
+	 * @throws XMLStreamException
+	 */
+	private void flushLeadingComments() throws XMLStreamException {
+		if (leadingComments != null) {
+			List<XMLEvent> comments = leadingComments;
+			leadingComments = null;
+			for (XMLEvent event : comments) {
+				emit(event);
+			}
+		}
+	}
+
+	/**
+	 * Adds the general data type of the locations and its attribute patterns
+	 * @throws XMLStreamException
+	 */
+	private void addDataType() throws XMLStreamException {
+		comment(START_COMMENT);
+		comment(" general data type for discrete trait model, '"+TRAIT_NAME+"' ");
+		start("generalDataType", "id", TRAIT_NAME+".dataType");
+		comment(" Number Of States = "+locations.size()+" ");
+		for (String location : locations) {
+			empty("state", "code", location);
+		}
+		end();
+		comment(" Data pattern for discrete trait, '"+TRAIT_NAME+"' ");
+		start("attributePatterns", "id", TRAIT_NAME+".pattern", "attribute", TRAIT_NAME);
+		empty("taxa", "idref", "taxa");
+		empty("generalDataType", "idref", TRAIT_NAME+".dataType");
+		end();
+		comment(END_COMMENT);
+	}
+
+	/**
+	 * Adds the trait clock and its rate statistic
+	 * @throws XMLStreamException
+	 */
+	private void addClock() throws XMLStreamException {
+		comment(" The strict clock (Uniform rates across branches) ");
+		start("strictClockBranchRates", "id", TRAIT_NAME+".branchRates");
+		start("rate");
+		empty("parameter", "id", TRAIT_NAME+".clock.rate", "value", "1.0", "lower", "0.0");
+		end();
+		end();
+		start("rateStatistic", "id", TRAIT_NAME+".meanRate", "name", TRAIT_NAME+".meanRate", "mode", "mean", "internal", "true", "external", "true");
+		empty("treeModel", "idref", "treeModel");
+		empty("strictClockBranchRates", "idref", TRAIT_NAME+".branchRates");
+		end();
+	}
+
+	/**
+	 * Adds the discrete trait substitution model, statistics, and likelihood
+	 * @throws XMLStreamException
+	 */
+	private void addModels() throws XMLStreamException {
+		final String kValue = String.valueOf(locations.size());
+		final String dimension = String.valueOf(locations.size()*(locations.size()-1));
+		comment(START_COMMENT);
+		comment(" asymmetric CTMC model for discrete state reconstructions ");
+		start("generalSubstitutionModel", "id", TRAIT_NAME+".model", "randomizeIndicator", "false");
+		empty("generalDataType", "idref", TRAIT_NAME+".dataType");
+		start("frequencies");
+		start("frequencyModel", "id", TRAIT_NAME+".frequencyModel", "normalize", "true");
+		empty("generalDataType", "idref", TRAIT_NAME+".dataType");
+		start("frequencies");
+		empty("parameter", "id", TRAIT_NAME+".frequencies", "dimension", kValue);
+		end();
+		end();
+		end();
+		comment(" rates and indicators ");
+		start("rates");
+		empty("parameter", "id", TRAIT_NAME+".rates", "dimension", dimension, "value", "1.0", "lower", "0.0");
+		end();
+		start("rateIndicator");
+		empty("parameter", "id", TRAIT_NAME+".indicators", "dimension", dimension, "value", "1.0");
+		end();
+		end();
+		start("sumStatistic", "id", TRAIT_NAME+".nonZeroRates", "elementwise", "true");
+		empty("parameter", "idref", TRAIT_NAME+".indicators");
+		end();
+		start("productStatistic", "id", TRAIT_NAME+".actualRates", "elementwise", "false");
+		empty("parameter", "idref", TRAIT_NAME+".indicators");
+		empty("parameter", "idref", TRAIT_NAME+".rates");
+		end();
+		start("siteModel", "id", TRAIT_NAME+".siteModel");
+		start("substitutionModel");
+		empty("generalSubstitutionModel", "idref", TRAIT_NAME+".model");
+		end();
+		end();
+		comment(" Likelihood for tree given discrete trait data ");
+		start("ancestralTreeLikelihood", "id", TRAIT_NAME+".treeLikelihood", "stateTagName", TRAIT_NAME+".states");
+		empty("attributePatterns", "idref", TRAIT_NAME+".pattern");
+		empty("treeModel", "idref", "treeModel");
+		empty("siteModel", "idref", TRAIT_NAME+".siteModel");
+		empty("generalSubstitutionModel", "idref", TRAIT_NAME+".model");
+		empty("strictClockBranchRates", "idref", TRAIT_NAME+".branchRates");
+		comment(" The root state frequencies ");
+		start("frequencyModel", "id", TRAIT_NAME+".root.frequencyModel", "normalize", "true");
+		empty("generalDataType", "idref", TRAIT_NAME+".dataType");
+		start("frequencies");
+		empty("parameter", "id", TRAIT_NAME+".root.frequencies", "dimension", kValue);
+		end();
+		end();
+		end();
+		comment(END_COMMENT);
+	}
+
+	/**
+	 * Adds the trait clock rate scale operator
+	 * @throws XMLStreamException
+	 */
+	private void addClockOperator() throws XMLStreamException {
+		start("scaleOperator", "weight", "3", "scaleFactor", "0.75");
+		empty("parameter", "idref", TRAIT_NAME+".clock.rate");
+		end();
+	}
+
+	/**
+	 * Adds the remaining trait operators to the end of the operators list
+	 * @throws XMLStreamException
+	 */
+	private void addOperators() throws XMLStreamException {
+		start("upDownOperator", "scaleFactor", "0.75", "weight", "3");
+		start("up");
+		empty("parameter", "idref", TRAIT_NAME+".clock.rate");
+		end();
+		start("down");
+		empty("parameter", "idref", "treeModel.allInternalNodeHeights");
+		end();
+		end();
+		start("scaleOperator", "scaleFactor", "0.75", "weight", "15", "scaleAllIndependently", "true");
+		empty("parameter", "idref", TRAIT_NAME+".rates");
+		end();
+		start("bitFlipOperator", "weight", "7");
+		empty("parameter", "idref", TRAIT_NAME+".indicators");
+		end();
+		start("deltaExchange", "delta", "0.75", "weight", "1");
+		empty("parameter", "idref", TRAIT_NAME+".root.frequencies");
+		end();
+	}
+
+	/**
+	 * Adds the trait clock CTMC scale prior
+	 * @throws XMLStreamException
+	 */
+	private void addCtmcPrior() throws XMLStreamException {
+		start("ctmcScalePrior");
+		start("ctmcScale");
+		empty("parameter", "idref", TRAIT_NAME+".clock.rate");
+		end();
+		empty("treeModel", "idref", "treeModel");
+		end();
+	}
+
+	/**
+	 * Adds the priors on the trait rates and frequencies
+	 * @throws XMLStreamException
+	 */
+	private void addPriors() throws XMLStreamException {
+		start("poissonPrior", "mean", (locations.size()-1)+".0", "offset", "0.0");
+		empty("statistic", "idref", TRAIT_NAME+".nonZeroRates");
+		end();
+		start("uniformPrior", "lower", "0.0", "upper", "1.0");
+		empty("parameter", "idref", TRAIT_NAME+".frequencies");
+		end();
+		start("cachedPrior");
+		start("gammaPrior", "shape", "1.0", "scale", "1.0", "offset", "0.0");
+		empty("parameter", "idref", TRAIT_NAME+".rates");
+		end();
+		empty("parameter", "idref", TRAIT_NAME+".rates");
+		end();
+		start("uniformPrior", "lower", "0.0", "upper", "1.0");
+		empty("parameter", "idref", TRAIT_NAME+".root.frequencies");
+		end();
+	}
+
+	/**
+	 * Adds the trait columns to the screen log
+	 * @throws XMLStreamException
+	 */
+	private void addScreenLogColumns() throws XMLStreamException {
+		start("column", "label", TRAIT_NAME+".clock.rate", "sf", "6", "width", "12");
+		empty("parameter", "idref", TRAIT_NAME+".clock.rate");
+		end();
+		comment(START_COMMENT);
+		start("column", "label", TRAIT_NAME+".nonZeroRates", "sf", "6", "width", "12");
+		empty("sumStatistic", "idref", TRAIT_NAME+".nonZeroRates");
+		end();
+		comment(END_COMMENT);
+	}
+
+	/**
+	 * Adds the trait rate statistic and rate matrix entries to the file log
+	 * @throws XMLStreamException
+	 */
+	private void addFileLogRates() throws XMLStreamException {
+		empty("rateStatistic", "idref", TRAIT_NAME+".meanRate");
+		comment(START_COMMENT);
+		addRateMatrix();
+		comment(END_COMMENT);
+	}
+
+	/**
+	 * Adds the trait clock and likelihood to the file log
+	 * @throws XMLStreamException
+	 */
+	private void addFileLogLikelihood() throws XMLStreamException {
+		empty("strictClockBranchRates", "idref", TRAIT_NAME+".branchRates");
+		comment(START_COMMENT);
+		empty("ancestralTreeLikelihood", "idref", TRAIT_NAME+".treeLikelihood");
+		comment(END_COMMENT);
+	}
+
+	/**
+	 * Adds the separate rate matrix log read by the rate matrix check
+	 * @throws XMLStreamException
+	 */
+	private void addRateMatrixLog() throws XMLStreamException {
+		final String baseName = job.getID()+"-aligned";
+		comment(START_COMMENT);
+		start("log", "id", baseName+"."+TRAIT_NAME+"rateMatrixLog", "logEvery", rateLogEvery, "fileName", baseName+"."+TRAIT_NAME+".rates.log");
+		addRateMatrix();
+		end();
+		comment(END_COMMENT);
+	}
+
+	/**
+	 * Adds references to the rates, indicators, and non-zero rate count
+	 * @throws XMLStreamException
+	 */
+	private void addRateMatrix() throws XMLStreamException {
+		empty("parameter", "idref", TRAIT_NAME+".rates");
+		empty("parameter", "idref", TRAIT_NAME+".indicators");
+		empty("sumStatistic", "idref", TRAIT_NAME+".nonZeroRates");
+	}
+
+	/**
+	 * Starts an inserted element on its own line
+	 * @param name - element name
+	 * @param attributes - alternating attribute names and values
+	 * @throws XMLStreamException
+	 */
+	private void start(String name, String... attributes) throws XMLStreamException {
+		indent();
+		List<Attribute> attributeList = new ArrayList<Attribute>(attributes.length / 2);
+		for (int i = 0; i < attributes.length; i += 2) {
+			attributeList.add(eventFactory.createAttribute(attributes[i], attributes[i+1]));
+		}
+		if (!insertedElements.isEmpty()) {
+			insertedElements.pop();
+			insertedElements.push(true);
+		}
+		insertedElements.push(false);
+		emit(eventFactory.createStartElement("", "", name, attributeList.iterator(), null));
+	}
+
+	/**
+	 * Ends the most recent inserted element
+	 * @throws XMLStreamException
+	 */
+	private void end() throws XMLStreamException {
+		boolean hasChildren = insertedElements.pop();
+		if (hasChildren) {
+			indent();
+		}
+		emit(eventFactory.createEndElement("", "", ""));
+	}
+
+	/**
+	 * Inserts an element without children
+	 * @param name - element name
+	 * @param attributes - alternating attribute names and values
+	 * @throws XMLStreamException
+	 */
+	private void empty(String name, String... attributes) throws XMLStreamException {
+		start(name, attributes);
+		insertedElements.pop();
+		emit(eventFactory.createEndElement("", "", name));
+	}
+
+	/**
+	 * Inserts a comment on its own line
+	 * @param text
+	 * @throws XMLStreamException
+	 */
+	private void comment(String text) throws XMLStreamException {
+		indent();
+		if (!insertedElements.isEmpty()) {
+			insertedElements.pop();
+			insertedElements.push(true);
+		}
+		emit(eventFactory.createComment(text));
+	}
+
+	/**
+	 * Inserts text into the current inserted element
+	 * @param text
+	 * @throws XMLStreamException
+	 */
+	private void text(String text) throws XMLStreamException {
+		emit(eventFactory.createCharacters(text));
+	}
+
+	/**
+	 * Starts a new line indented to the current depth
+	 * @throws XMLStreamException
+	 */
+	private void indent() throws XMLStreamException {
+		emit(eventFactory.createSpace(newLine(path.size() + insertedElements.size())));
+	}
+
+	/**
+	 * @param depth
+	 * @return a line break followed by one tab per level of depth
+	 */
+	private static String newLine(int depth) {
+		StringBuilder whitespace = new StringBuilder("\n");
+		for (int i = 0; i < depth; i++) {
+			whitespace.append('\t');
+		}
+		return whitespace.toString();
+	}
+
+	/**
+	 * Sends an event to the current capture buffer if one is open, or to the output otherwise
+	 * @param event
+	 * @throws XMLStreamException
+	 */
+	private void emit(XMLEvent event) throws XMLStreamException {
+		if (captured != null) {
+			captured.add(event);
+		}
+		else {
+			write(event);
+		}
+	}
+
+	/**
+	 * Writes an event to the output.
+	 * Element starts are held back by one event so elements without content are written as empty elements.
+	 * @param event - event to write, or null to only write out a held element start
+	 * @throws XMLStreamException
+	 */
+	private void write(XMLEvent event) throws XMLStreamException {
+		if (pendingStart != null) {
+			StartElement start = pendingStart;
+			pendingStart = null;
+			boolean isEmpty = event != null && event.isEndElement();
+			if (isEmpty) {
+				writer.writeEmptyElement(start.getName().getLocalPart());
+			}
+			else {
+				writer.writeStartElement(start.getName().getLocalPart());
+			}
+			@SuppressWarnings("unchecked")
+			Iterator<Attribute> attributes = start.getAttributes();
+			while (attributes.hasNext()) {
+				Attribute attribute = attributes.next();
+				writer.writeAttribute(attribute.getName().getLocalPart(), attribute.getValue());
+			}
+			if (isEmpty) {
+				return;
+			}
+		}
+		if (event == null) {
+			return;
+		}
+		switch (event.getEventType()) {
+			case XMLStreamConstants.START_ELEMENT:
+				pendingStart = event.asStartElement();
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				writer.writeEndElement();
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.SPACE:
+			case XMLStreamConstants.CDATA:
+				writer.writeCharacters(event.asCharacters().getData());
+				break;
+			case XMLStreamConstants.COMMENT:
+				writer.writeComment(((Comment) event).getText());
+				break;
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				ProcessingInstruction instruction = (ProcessingInstruction) event;
+				writer.writeProcessingInstruction(instruction.getTarget(), instruction.getData());
+				break;
+			default:
+				break;
+		}
+	}
+
+}
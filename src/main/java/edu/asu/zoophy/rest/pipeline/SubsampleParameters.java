@@ -0,0 +1,50 @@
+package edu.asu.zoophy.rest.pipeline;
+
+/**
+ * Time and location stratified subsampling parameters for ZooPhy jobs
+ * @author devdemetri
+ */
+public class SubsampleParameters {
+
+	private Integer maxPerGroup = null;
+	private Integer binMonths = 12;
+	private Long seed = 0L;
+
+	public SubsampleParameters() {
+
+	}
+
+	/**
+	 * @return most records kept for each location and time bin
+	 */
+	public Integer getMaxPerGroup() {
+		return maxPerGroup;
+	}
+
+	public void setMaxPerGroup(Integer maxPerGroup) {
+		this.maxPerGroup = maxPerGroup;
+	}
+
+	/**
+	 * @return length of each time bin in months, a divisor of 12
+	 */
+	public Integer getBinMonths() {
+		return binMonths;
+	}
+
+	public void setBinMonths(Integer binMonths) {
+		this.binMonths = binMonths;
+	}
+
+	/**
+	 * @return seed choosing which records are kept, the same seed always keeps the same records
+	 */
+	public Long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(Long seed) {
+		this.seed = seed;
+	}
+
+}
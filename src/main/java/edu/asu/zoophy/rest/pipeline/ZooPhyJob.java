@@ -18,6 +18,8 @@ public final class ZooPhyJob {
 	private final boolean USE_CUSTOM_PREDICTORS;
 	private final Map<String, List<Predictor>> predictors;
 	private final XMLParameters XML_OPTIONS;
+	private SubsampleParameters subsampling = null;
+	private volatile int allocatedCores = 1;
 	
 	public ZooPhyJob(String id, String name, String email, boolean useGLM, Map<String, List<Predictor>> predictors, XMLParameters xmlOptions) {
 		ID = id;
@@ -63,4 +65,26 @@ public final class ZooPhyJob {
 		return XML_OPTIONS;
 	}
 	
+	/**
+	 * @return subsampling parameters, or null if the job uses every record
+	 */
+	public SubsampleParameters getSubsampling() {
+		return subsampling;
+	}
+	
+	public void setSubsampling(SubsampleParameters subsampling) {
+		this.subsampling = subsampling;
+	}
+	
+	/**
+	 * @return number of cores the JobScheduler allocated to this job
+	 */
+	public int getAllocatedCores() {
+		return allocatedCores;
+	}
+	
+	public void setAllocatedCores(int allocatedCores) {
+		this.allocatedCores = Math.max(1, allocatedCores);
+	}
+	
 }
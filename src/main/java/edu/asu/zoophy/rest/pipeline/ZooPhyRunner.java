@@ -1,17 +1,22 @@
 package edu.asu.zoophy.rest.pipeline;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
 
 import edu.asu.zoophy.rest.database.ZooPhyDAO;
 import edu.asu.zoophy.rest.genbank.GenBankRecord;
 import edu.asu.zoophy.rest.index.LuceneSearcher;
+import edu.asu.zoophy.rest.pipeline.glm.GLMException;
 import edu.asu.zoophy.rest.pipeline.glm.GLMFigureGenerator;
 import edu.asu.zoophy.rest.pipeline.glm.Predictor;
 
@@ -24,10 +29,26 @@ public class ZooPhyRunner {
 	private final ZooPhyJob job;
 	private final ZooPhyMailer mailer;
 	private final Logger log;
+	private JobCheckpoint.Listener checkpointListener = null;
+	private volatile boolean isSuspended = false;
+	private List<String> subsampledAccessions = new ArrayList<String>();
+	private Map<String, String> collapsedAccessions = new HashMap<String, String>();
 
 	public ZooPhyRunner(String replyEmail, String jobName, boolean useGLM, Map<String, List<Predictor>> predictors, XMLParameters xmlOptions) throws PipelineException {
-		char rand_char = (char) (Math.random()*26 + 'a');				
-		final String id  = rand_char + UUID.randomUUID().toString();	//Used as property by SpreaD3, hence start with char
+		this(generateJobID(), replyEmail, jobName, useGLM, predictors, xmlOptions);
+	}
+	
+	/**
+	 * Constructor for recreating a previously submitted job with its existing Job ID
+	 * @param id - existing Job ID
+	 * @param replyEmail
+	 * @param jobName
+	 * @param useGLM
+	 * @param predictors
+	 * @param xmlOptions
+	 * @throws PipelineException
+	 */
+	public ZooPhyRunner(String id, String replyEmail, String jobName, boolean useGLM, Map<String, List<Predictor>> predictors, XMLParameters xmlOptions) throws PipelineException {
 		log = Logger.getLogger("ZooPhyRunner"+id);
 		log.info("Initializing ZooPhy Job");
 		job = new ZooPhyJob(id,jobName,replyEmail, useGLM, predictors, xmlOptions);
@@ -36,52 +57,222 @@ public class ZooPhyRunner {
 	}
 	
 	/**
-	 * Runs the ZooPhy pipeline on the given Accessions
+	 * Runs the ZooPhy pipeline on the given Accessions.
+	 * The pipeline runs as a StageGraph, so stages that do not depend on each other, such as the SpreaD3 and GLM figure stages, overlap.
+	 * Completed stages are checkpointed in the job directory, so a job rerun after a restart resumes after its last completed stage.
 	 * @param accessions
 	 * @param dao 
 	 * @param indexSearcher 
+	 * @return True if the job finished successfully, False otherwise
 	 * @throws PipelineException
 	 */
-	public void runZooPhy(List<String> accessions, ZooPhyDAO dao, LuceneSearcher indexSearcher) throws PipelineException {
+	public boolean runZooPhy(List<String> accessions, ZooPhyDAO dao, LuceneSearcher indexSearcher) throws PipelineException {
+		SequenceAligner aligner = null;
+		BeastRunner beast = null;
+		FileHandler jobLog = null;
+		final JobCheckpoint checkpoint = new JobCheckpoint(job.getID());
+		checkpoint.setListener(checkpointListener);
 		try {
-			log.info("Sending Start Email... : "+job.getID());
-			mailer.sendStartEmail();
+			jobLog = new FileHandler(PropertyProvider.getInstance().getProperty("job.logs.dir")+job.getID()+".log", true);
+			jobLog.setFormatter(new SimpleFormatter());
+			StageGraph graph = new StageGraph(job.getID());
+			graph.setCheckpoint(checkpoint);
+			graph.addStage("startEmail", new String[] {}, new String[] {}, new StageGraph.ResumableStage() {
+				@Override
+				public void run() throws MailerException {
+					log.info("Sending Start Email... : "+job.getID());
+					mailer.sendStartEmail();
+				}
+				@Override
+				public void resume() {
+					log.info("Start Email was already sent: "+job.getID());
+				}
+			});
 			log.info("Initializing Sequence Aligner... : "+job.getID());
-			SequenceAligner aligner = new SequenceAligner(job, dao, indexSearcher);
-			log.info("Running Sequence Aligner... : "+job.getID());
-			aligner.align(accessions, false);
+			aligner = new SequenceAligner(job, dao, indexSearcher);
+			aligner.addStages(graph, accessions, false, jobLog);
 			log.info("Initializing Beast Runner... : "+job.getID());
-			BeastRunner beast = new BeastRunner(job, mailer);
-			log.info("Starting Beast Runner... : "+job.getID());
-			File treeFile = beast.run();
-			File[] results = new File[2];
-			results[0] = treeFile;
+			beast = new BeastRunner(job, mailer);
+			beast.addStages(graph, jobLog);
+			final BeastRunner beastRunner = beast;
+			final FileHandler figureLog = jobLog;
+			final File[] results = new File[2];
+			String[] resultInputs = {"spread"};
 			if (job.isUsingGLM()) {
-				log.info("Running GLM Figure Generator... : "+job.getID());
-				GLMFigureGenerator figureGenerator = new GLMFigureGenerator(job);
-				File glmFile = figureGenerator.generateFigure();
-				results[1] = glmFile;
-			}
-			else {
-				results[1] = null;
+				graph.addStage("glmFigure", new String[] {"beastOutput"}, new String[] {"glmFigure"}, new StageGraph.ResumableStage() {
+					@Override
+					public void run() throws Exception {
+						log.info("Running GLM Figure Generator... : "+job.getID());
+						GLMFigureGenerator figureGenerator = new GLMFigureGenerator(job);
+						results[1] = figureGenerator.generateFigure(figureLog);
+						checkpoint.setValue("glm.figure", results[1].getAbsolutePath());
+					}
+					@Override
+					public void resume() throws GLMException {
+						String figure = checkpoint.getValue("glm.figure");
+						if (figure == null || !new File(figure).exists()) {
+							throw new GLMException("Checkpointed GLM Figure is missing: "+figure, null);
+						}
+						results[1] = new File(figure);
+					}
+				});
+				resultInputs = new String[] {"spread", "glmFigure"};
 			}
-			log.info("Sending Results Email... : "+job.getID());
-			mailer.sendSuccessEmail(results); 
+			graph.addStage("resultsEmail", resultInputs, new String[] {}, new StageGraph.ResumableStage() {
+				@Override
+				public void run() throws PipelineException {
+					if (isSuspended) {
+						throw new PipelineException("Job was suspended before sending its results", null);
+					}
+					results[0] = beastRunner.getTree();
+					log.info("Sending Results Email... : "+job.getID());
+					mailer.sendSuccessEmail(results);
+				}
+				@Override
+				public void resume() {
+					log.info("Results Email was already sent: "+job.getID());
+				}
+			});
+			log.info("Running ZooPhy stages... : "+job.getID());
+			graph.run();
+			storeResults(accessions, results);
 			PipelineManager.removeProcess(job.getID());
 			log.info("ZooPhy Job Complete: "+job.getID());
+			return true;
 		}
 		catch (PipelineException pe) {
+			if (isSuspended) {
+				log.info("ZooPhy Job suspended, it will resume from its checkpoint: "+job.getID());
+				return false;
+			}
 			log.log(Level.SEVERE, "PipelineException for job: "+job.getID()+" : "+pe.getMessage());
 			log.info("Sending Failure Email... : "+job.getID());
 			mailer.sendFailureEmail(pe.getUserMessage()); 
+			return false;
 		}
 		catch (Exception e) {
+			if (isSuspended) {
+				log.info("ZooPhy Job suspended, it will resume from its checkpoint: "+job.getID());
+				return false;
+			}
 			log.log(Level.SEVERE, "Unhandled Exception for job: "+job.getID()+" : "+e.getMessage());
 			log.info("Sending Failure Email... : "+job.getID());
 			mailer.sendFailureEmail("Internal Server Error");
+			return false;
+		}
+		finally {
+			if (aligner != null) {
+				aligner.finish();
+			}
+			if (beast != null) {
+				beast.finish(!isSuspended);
+			}
+			if (!isSuspended) {
+				checkpoint.clear();
+			}
+			if (jobLog != null) {
+				jobLog.close();
+			}
+		}
+	}
+
+	/**
+	 * Keeps the job's results in the JobResultStore, so identical jobs can be sent them without running
+	 * @param accessions
+	 * @param results - tree file and GLM figure, if any
+	 */
+	private void storeResults(List<String> accessions, File[] results) {
+		if (results[0] == null) {
+			return;
+		}
+		try {
+			JobResultStore store = JobResultStore.getInstance();
+			if (store.isEnabled()) {
+				store.store(store.getFingerprint(accessions, job.isUsingGLM(), job.getPredictors(), job.getXMLOptions(), job.getSubsampling()), job.getID(), results[0], results[1]);
+			}
+		}
+		catch (PipelineException pe) {
+			log.warning("Could not store results of job: "+job.getID()+" : "+pe.getMessage());
+		}
+	}
+
+	/**
+	 * Sends the job the stored results of an identical job instead of running it
+	 * @param fingerprint - fingerprint of the job in the JobResultStore
+	 * @return True if the results were sent, False if no results are stored for the job
+	 * @throws PipelineException
+	 */
+	public boolean sendStoredResults(String fingerprint) throws PipelineException {
+		File[] results = JobResultStore.getInstance().retrieve(fingerprint, job.getID());
+		if (results == null) {
+			return false;
+		}
+		try {
+			log.info("Sending Stored Results Email... : "+job.getID());
+			mailer.sendSuccessEmail(results);
+			return true;
+		}
+		finally {
+			for (File result : results) {
+				if (result != null && !result.delete()) {
+					log.warning("Could not delete stored result copy: "+result.getAbsolutePath());
+				}
+			}
 		}
 	}
 
+	/**
+	 * Stops the job for a service shutdown, or because another worker of the shared job queue took it over, keeping its checkpoint and files so it resumes from them
+	 */
+	public void suspend() {
+		isSuspended = true;
+		PipelineManager.suspendProcess(job.getID());
+	}
+
+	/**
+	 * @return True if the job was suspended, False otherwise
+	 */
+	public boolean wasSuspended() {
+		return isSuspended;
+	}
+
+	/**
+	 * @param listener - told as each stage of the job completes
+	 */
+	public void setCheckpointListener(JobCheckpoint.Listener listener) {
+		checkpointListener = listener;
+	}
+
+	/**
+	 * Generates a new Job ID. Used as property by SpreaD3, hence start with char.
+	 * @return new random Job ID
+	 */
+	private static String generateJobID() {
+		char rand_char = (char) (Math.random()*26 + 'a');
+		return rand_char + UUID.randomUUID().toString();
+	}
+	
+	/**
+	 * @param subsampling - caps on records per location and time bin, or null to use every record
+	 */
+	public void setSubsampling(SubsampleParameters subsampling) {
+		job.setSubsampling(subsampling);
+	}
+	
+	/**
+	 * @param cores - number of cores the JobScheduler allocated to this job
+	 */
+	public void setAllocatedCores(int cores) {
+		job.setAllocatedCores(cores);
+	}
+	
+	/**
+	 * @return True if the job was stopped by a user, False otherwise
+	 */
+	public boolean wasStopped() {
+		return PipelineManager.wasStopped(job.getID());
+	}
+	
 	/**
 	 * @return generated ID for the ZooPhy job being run
 	 */
@@ -89,6 +280,20 @@ public class ZooPhyRunner {
 		return job.getID();
 	}
 
+	/**
+	 * @return accessions dropped by subsampling in the last testZooPhy run
+	 */
+	public List<String> getSubsampledAccessions() {
+		return subsampledAccessions;
+	}
+
+	/**
+	 * @return accessions collapsed into an identical record in the last testZooPhy run, each with the accession kept for it
+	 */
+	public Map<String, String> getCollapsedAccessions() {
+		return collapsedAccessions;
+	}
+
 	/**
 	 * Runs early stages of the pipeline to test ZooPhy job viability
 	 * @param accessions
@@ -102,6 +307,8 @@ public class ZooPhyRunner {
 			SequenceAligner aligner = new SequenceAligner(job, dao, indexSearcher);
 			log.info("Running test Sequence Aligner... : "+job.getID());
 			final List<GenBankRecord> finalRecs = aligner.align(accessions, true);
+			subsampledAccessions = aligner.getSubsampledAccessions();
+			collapsedAccessions = aligner.getCollapsedAccessions();
 			log.info("Initializing test Beast Runner... : "+job.getID());
 			BeastRunner beast = new BeastRunner(job, null);
 			log.info("Starting test Beast Runner... : "+job.getID());
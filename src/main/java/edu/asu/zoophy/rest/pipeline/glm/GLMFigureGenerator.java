@@ -8,12 +8,14 @@ import java.nio.file.Paths;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.logging.FileHandler;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
 import edu.asu.zoophy.rest.pipeline.PipelineException;
 import edu.asu.zoophy.rest.pipeline.PropertyProvider;
+import edu.asu.zoophy.rest.pipeline.StageMonitor;
 import edu.asu.zoophy.rest.pipeline.ZooPhyJob;
 
 /**
@@ -53,13 +55,37 @@ public class GLMFigureGenerator {
 	 * @throws GLMException
 	 */
 	public File generateFigure() throws GLMException {
-		File figure = null;
 		FileHandler fileHandler = null;
 		try {
 			fileHandler = new FileHandler(JOB_LOG_DIR+job.getID()+".log", true);
 			SimpleFormatter formatter = new SimpleFormatter();
 	        fileHandler.setFormatter(formatter);
-	        log.addHandler(fileHandler);
+			return generateFigure(fileHandler);
+		}
+		catch (GLMException glme) {
+			throw glme;
+		}
+		catch (Exception e) {
+			log.log(Level.SEVERE, "ERROR running GLM Figure Generator: "+e.getMessage());
+			throw new GLMException("ERROR running GLM Figure Generator: "+e.getMessage(), null);
+		}
+		finally {
+			if (fileHandler != null) {
+				fileHandler.close();
+			}
+		}
+	}
+
+	/**
+	 * Generates PDF Figure from GLM results, logging to a job log handler shared with the job's other stages
+	 * @param jobLog - handler for the job's log file
+	 * @return GLM Figure File
+	 * @throws GLMException
+	 */
+	public File generateFigure(Handler jobLog) throws GLMException {
+		File figure = null;
+		try {
+	        log.addHandler(jobLog);
 	        log.setUseParentHandlers(false);
 			log.info("Starting the GLM Figure Generator process...");
 			String analyserOutput = runLogAnalyser();
@@ -81,9 +107,7 @@ public class GLMFigureGenerator {
 		}
 		finally {
 			cleanupGLM();
-			if (fileHandler != null) {
-				fileHandler.close();
-			}
+			log.removeHandler(jobLog);
 		}
 	}
 
@@ -103,7 +127,7 @@ public class GLMFigureGenerator {
 			builder.redirectOutput(Redirect.appendTo(logFile));
 			builder.redirectError(Redirect.appendTo(logFile));
 			log.info("Starting Process: "+builder.command().toString());
-			Process logAnalyserProcess = builder.start();
+			Process logAnalyserProcess = StageMonitor.watch(builder.start());
 			logAnalyserProcess.waitFor();
 			if (logAnalyserProcess.exitValue() != 0) {
 				log.log(Level.SEVERE, "Log Analyser failed! with code: "+logAnalyserProcess.exitValue());
@@ -137,7 +161,7 @@ public class GLMFigureGenerator {
 			bashBuilder.redirectOutput(Redirect.appendTo(logFile));
 			bashBuilder.redirectError(Redirect.appendTo(logFile));
 			log.info("Starting Process: "+bashBuilder.command().toString());
-			Process bashProcess = bashBuilder.start();
+			Process bashProcess = StageMonitor.watch(bashBuilder.start());
 			bashProcess.waitFor();
 			if (bashProcess.exitValue() != 0) {
 				log.log(Level.SEVERE, "make_table.sh failed! with code: "+bashProcess.exitValue());
@@ -149,7 +173,7 @@ public class GLMFigureGenerator {
 			rBuilder.redirectOutput(Redirect.appendTo(logFile));
 			rBuilder.redirectError(Redirect.appendTo(logFile));
 			log.info("Starting Process: "+rBuilder.command().toString());
-			Process rProcess = rBuilder.start();
+			Process rProcess = StageMonitor.watch(rBuilder.start());
 			rProcess.waitFor();
 			if (rProcess.exitValue() != 0) {
 				log.log(Level.SEVERE, "R script failed! with code: "+rProcess.exitValue());
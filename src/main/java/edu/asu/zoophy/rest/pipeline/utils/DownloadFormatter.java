@@ -1,6 +1,11 @@
 package edu.asu.zoophy.rest.pipeline.utils;
 
-import java.util.LinkedList;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -25,6 +30,12 @@ public class DownloadFormatter {
 	private LuceneSearcher indexSearcher;
 	
 	private final static Logger log = Logger.getLogger("DownloadFormatter");
+	private final static String CSV_HEADER = "Accession,Genes,Virus,Date,Host,Country,Segment Length\n";
+	
+	/**
+	 * Maximum records held in memory at once while streaming a download
+	 */
+	private final static int STREAM_CHUNK_SIZE = 500;
 
 	/**
 	 * Generate String for given download format
@@ -68,39 +79,10 @@ public class DownloadFormatter {
 	 */
 	private String generateCSV(List<String> accessions) throws LuceneSearcherException, FormatterException {
 		try {
-			List<GenBankRecord> records = new LinkedList<GenBankRecord>();
-			for (String accession : accessions) {
-				GenBankRecord record = indexSearcher.getRecord(accession);
-				if (record != null) {
-					records.add(record);
-				}
-			}
-			StringBuilder csv = new StringBuilder("Accession,Genes,Virus,Date,Host,Country,Segment Length\n");
+			List<GenBankRecord> records = indexSearcher.getRecords(accessions);
+			StringBuilder csv = new StringBuilder(CSV_HEADER);
 			for (GenBankRecord record : records) {
-				csv.append(Normalizer.csvify(record.getAccession()));
-				csv.append(",");
-				csv.append(Normalizer.csvify(Normalizer.geneListToCSVString(record.getGenes())));
-				csv.append(",");
-				csv.append(Normalizer.csvify(Normalizer.simplifyOrganism(record.getSequence().getOrganism())));
-				csv.append(",");
-				csv.append(Normalizer.csvify(Normalizer.normalizeDate(record.getSequence().getCollectionDate())));
-				csv.append(",");
-				if (record.getHost() != null && record.getHost().getName() != null) {
-					csv.append(Normalizer.csvify(record.getHost().getName()));
-				}
-				else {
-					csv.append(Normalizer.csvify("unknown"));
-				}
-				csv.append(",");
-				if (record.getGeonameLocation() != null && record.getGeonameLocation().getCountry() != null) {
-					csv.append(Normalizer.csvify(record.getGeonameLocation().getCountry()));
-				}
-				else {
-					csv.append(Normalizer.csvify("unknown"));
-				}
-				csv.append(",");
-				csv.append(Normalizer.csvify(String.valueOf(record.getSequence().getSegmentLength())));
-				csv.append("\n");
+				appendCSVRow(csv, record);
 			}
 			return csv.toString();
 		}
@@ -110,6 +92,39 @@ public class DownloadFormatter {
 		}
 	}
 
+	/**
+	 * Appends a single record as a CSV row
+	 * @param csv - CSV destination
+	 * @param record - record to format
+	 * @throws IOException
+	 */
+	private void appendCSVRow(Appendable csv, GenBankRecord record) throws IOException {
+		csv.append(Normalizer.csvify(record.getAccession()));
+		csv.append(",");
+		csv.append(Normalizer.csvify(Normalizer.geneListToCSVString(record.getGenes())));
+		csv.append(",");
+		csv.append(Normalizer.csvify(Normalizer.simplifyOrganism(record.getSequence().getOrganism())));
+		csv.append(",");
+		csv.append(Normalizer.csvify(Normalizer.normalizeDate(record.getSequence().getCollectionDate())));
+		csv.append(",");
+		if (record.getHost() != null && record.getHost().getName() != null) {
+			csv.append(Normalizer.csvify(record.getHost().getName()));
+		}
+		else {
+			csv.append(Normalizer.csvify("unknown"));
+		}
+		csv.append(",");
+		if (record.getGeonameLocation() != null && record.getGeonameLocation().getCountry() != null) {
+			csv.append(Normalizer.csvify(record.getGeonameLocation().getCountry()));
+		}
+		else {
+			csv.append(Normalizer.csvify("unknown"));
+		}
+		csv.append(",");
+		csv.append(Normalizer.csvify(String.valueOf(record.getSequence().getSegmentLength())));
+		csv.append("\n");
+	}
+
 	/**
 	 * Generates a FASTA String for downloads
 	 * @param accessions
@@ -127,4 +142,56 @@ public class DownloadFormatter {
 		}
 	}
 	
+	/**
+	 * Streams the given download format to the output as records are fetched, so only one chunk of records is in memory at a time
+	 * @param accessions
+	 * @param format
+	 * @param output - destination stream. It is flushed but not closed.
+	 * @throws ParameterException
+	 * @throws FormatterException
+	 */
+	public void streamDownload(List<String> accessions, DownloadFormat format, OutputStream output) throws ParameterException, FormatterException {
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+			switch (format) {
+				case CSV:
+					streamCSV(accessions, writer);
+					break;
+				case FASTA:
+					SequenceAligner fastaGenerator = new SequenceAligner(dao, indexSearcher);
+					fastaGenerator.writeDownloadableRawFasta(accessions, writer, STREAM_CHUNK_SIZE);
+					break;
+				default:
+					log.log(Level.SEVERE, "Unimplemented format type: "+format.toString());
+					throw new ParameterException(format.toString());
+			}
+			writer.flush();
+		}
+		catch (ParameterException pe) {
+			throw pe;
+		}
+		catch (Exception e) {
+			log.log(Level.SEVERE, "Error streaming download: "+e.getMessage());
+			throw new FormatterException("Error Streaming Download!");
+		}
+	}
+	
+	/**
+	 * Writes CSV rows chunk by chunk as records are fetched from the Index
+	 * @param accessions
+	 * @param writer
+	 * @throws LuceneSearcherException
+	 * @throws IOException
+	 */
+	private void streamCSV(List<String> accessions, Writer writer) throws LuceneSearcherException, IOException {
+		writer.write(CSV_HEADER);
+		for (int start = 0; start < accessions.size(); start += STREAM_CHUNK_SIZE) {
+			List<String> chunk = accessions.subList(start, Math.min(start+STREAM_CHUNK_SIZE, accessions.size()));
+			for (GenBankRecord record : indexSearcher.getRecords(chunk)) {
+				appendCSVRow(writer, record);
+			}
+			writer.flush();
+		}
+	}
+	
 }
@@ -5,6 +5,7 @@ import java.util.regex.Pattern;
 
 import org.springframework.stereotype.Repository;
 
+import edu.asu.zoophy.rest.pipeline.SubsampleParameters;
 import edu.asu.zoophy.rest.pipeline.XMLParameters;
 
 /**
@@ -82,4 +83,30 @@ public class SecurityHelper {
 		}
 	}
 
+	/**
+	 * Validates subsampling values
+	 * @param subsampling Subsampling Options to validate, may be null for no subsampling
+	 * @throws ParameterException if any subsampling values are invalid
+	 */
+	public void verifySubsampleOptions(SubsampleParameters subsampling) throws ParameterException {
+		if (subsampling == null) {
+			return;
+		}
+		if (subsampling.getMaxPerGroup() == null) {
+			throw new ParameterException("Missing Subsampling Max Per Group!");
+		}
+		else if (subsampling.getMaxPerGroup() < 1) {
+			throw new ParameterException("Invalid Subsampling Max Per Group!");
+		}
+		if (subsampling.getBinMonths() == null) {
+			throw new ParameterException("Missing Subsampling Bin Months!");
+		}
+		else if (subsampling.getBinMonths() < 1 || subsampling.getBinMonths() > 12 || 12 % subsampling.getBinMonths() != 0) {
+			throw new ParameterException("Invalid Subsampling Bin Months!");
+		}
+		if (subsampling.getSeed() == null) {
+			throw new ParameterException("Missing Subsampling Seed!");
+		}
+	}
+
 }
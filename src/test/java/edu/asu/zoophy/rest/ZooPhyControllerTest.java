@@ -1,12 +1,226 @@
 package edu.asu.zoophy.rest;
 
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import edu.asu.zoophy.rest.index.IndexStatistics;
+import edu.asu.zoophy.rest.index.LuceneSearcher;
+import edu.asu.zoophy.rest.pipeline.AlignmentCache;
+import edu.asu.zoophy.rest.pipeline.AlignmentCacheStatistics;
+import edu.asu.zoophy.rest.pipeline.utils.DownloadFormat;
+import edu.asu.zoophy.rest.pipeline.utils.DownloadFormatter;
+import edu.asu.zoophy.rest.pipeline.utils.FormatterException;
+import edu.asu.zoophy.rest.security.SecurityHelper;
 
+/**
+ * Checks the streaming download's content encoding, and that a gzip body is finished even when streaming fails.
+ * Also checks the Index statistics and refresh endpoints on a temporary Index, and the alignment cache statistics endpoint.
+ */
 public class ZooPhyControllerTest {
 
+	private final static String CSV = "Accession,Genes,Virus,Date,Host,Country,Segment Length\nKX000001,HA,H1N1,2015,Human,USA,1701\n";
+	private final static List<String> ACCESSIONS = Arrays.asList("KX000001");
+
 	@Test
 	public void test() {
-		
+
+	}
+
+	@Test
+	public void testStreamDownloadGzip() throws Exception {
+		ResponseEntity<StreamingResponseBody> response = newController(new FixedFormatter(false)).streamDownload("csv", "gzip, deflate", ACCESSIONS);
+		assertEquals("gzip", response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+		assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeaders().getFirst(HttpHeaders.VARY));
+		ResponseStream body = new ResponseStream();
+		response.getBody().writeTo(body);
+		assertFalse(body.isClosed);
+		assertEquals(CSV, gunzip(body.toByteArray()));
+	}
+
+	@Test
+	public void testStreamDownloadPlain() throws Exception {
+		ResponseEntity<StreamingResponseBody> response = newController(new FixedFormatter(false)).streamDownload("csv", null, ACCESSIONS);
+		assertNull(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+		ResponseStream body = new ResponseStream();
+		response.getBody().writeTo(body);
+		assertEquals(CSV, new String(body.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testStreamDownloadGzipFinishedOnError() throws Exception {
+		ResponseEntity<StreamingResponseBody> response = newController(new FixedFormatter(true)).streamDownload("csv", "gzip", ACCESSIONS);
+		ResponseStream body = new ResponseStream();
+		try {
+			response.getBody().writeTo(body);
+			fail("Expected IOException");
+		}
+		catch (IOException e) {
+			assertEquals("Error Streaming Download!", e.getMessage());
+		}
+		assertFalse(body.isClosed);
+		assertEquals(CSV, gunzip(body.toByteArray()));
+	}
+
+	@Test
+	public void testIndexStatisticsAndRefresh() throws Exception {
+		File indexDir = Files.createTempDirectory("lucene-index").toFile();
+		Directory directory = FSDirectory.open(indexDir.toPath());
+		IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new KeywordAnalyzer()));
+		LuceneSearcher searcher = null;
+		try {
+			addRecord(writer, "KX000001");
+			searcher = new LuceneSearcher(indexDir.getAbsolutePath(), 0);
+			ZooPhyController controller = new ZooPhyController();
+			ReflectionTestUtils.setField(controller, "indexSearcher", searcher);
+			IndexStatistics statistics = controller.getIndexStatistics();
+			assertEquals(1, statistics.getReaderOpens());
+			assertEquals(0, statistics.getRefreshChecks());
+			assertEquals("Lucene Index unchanged.", controller.refreshIndex());
+			addRecord(writer, "KX000002");
+			assertEquals("Lucene Index refreshed.", controller.refreshIndex());
+			statistics = controller.getIndexStatistics();
+			assertEquals(2, statistics.getReaderOpens());
+			assertEquals(2, statistics.getRefreshChecks());
+		}
+		finally {
+			if (searcher != null) {
+				ReflectionTestUtils.invokeMethod(searcher, "close");
+			}
+			writer.close();
+			directory.close();
+			delete(indexDir);
+		}
+	}
+
+	@Test
+	public void testAlignmentCacheStatistics() throws Exception {
+		File workDir = Files.createTempDirectory("alignment-cache").toFile();
+		Constructor<AlignmentCache> constructor = AlignmentCache.class.getDeclaredConstructor(File.class, long.class, double.class);
+		constructor.setAccessible(true);
+		AlignmentCache cache = constructor.newInstance(new File(workDir, "cache"), 1024L * 1024L, 0.5);
+		ReflectionTestUtils.setField(AlignmentCache.class, "cache", cache);
+		try {
+			File alignment = new File(workDir, "aligned.fasta");
+			Files.write(alignment.toPath(), ">KX000001_2015.00_phoenix\nACGT\n".getBytes(StandardCharsets.UTF_8));
+			cache.store("aligned", alignment, Arrays.asList("KX000001"));
+			assertTrue(cache.retrieve("aligned", new File(workDir, "hit.fasta")));
+			assertFalse(cache.retrieve("missing", new File(workDir, "miss.fasta")));
+			AlignmentCacheStatistics statistics = new ZooPhyController().getAlignmentCacheStatistics();
+			assertTrue(statistics.isEnabled());
+			assertEquals(1, statistics.getEntries());
+			assertEquals(1, statistics.getHits());
+			assertEquals(1, statistics.getMisses());
+			assertEquals(1024L * 1024L, statistics.getMaxBytes());
+		}
+		finally {
+			ReflectionTestUtils.setField(AlignmentCache.class, "cache", null);
+			delete(workDir);
+		}
+	}
+
+	private static void addRecord(IndexWriter writer, String accession) throws IOException {
+		Document document = new Document();
+		document.add(new StringField("Accession", accession, Field.Store.YES));
+		writer.addDocument(document);
+		writer.commit();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static ZooPhyController newController(DownloadFormatter formatter) {
+		ZooPhyController controller = new ZooPhyController();
+		ReflectionTestUtils.setField(controller, "security", new SecurityHelper());
+		ReflectionTestUtils.setField(controller, "formatter", formatter);
+		ReflectionTestUtils.setField(controller, "DOWNLOAD_MAX_RECORDS", 100000);
+		return controller;
+	}
+
+	private static String gunzip(byte[] bytes) throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				content.write(buffer, 0, read);
+			}
+		}
+		return new String(content.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the same CSV for any accessions, and optionally fails after writing it
+	 */
+	private static class FixedFormatter extends DownloadFormatter {
+
+		private final boolean isFailing;
+
+		FixedFormatter(boolean isFailing) {
+			this.isFailing = isFailing;
+		}
+
+		@Override
+		public void streamDownload(List<String> accessions, DownloadFormat format, OutputStream output) throws FormatterException {
+			try {
+				output.write(CSV.getBytes(StandardCharsets.UTF_8));
+				output.flush();
+			}
+			catch (IOException e) {
+				throw new FormatterException(e.getMessage());
+			}
+			if (isFailing) {
+				throw new FormatterException("Error Streaming Download!");
+			}
+		}
+
+	}
+
+	/**
+	 * Stands in for the servlet response stream, which Spring flushes and closes after the body is written
+	 */
+	private static class ResponseStream extends ByteArrayOutputStream {
+
+		private boolean isClosed = false;
+
+		@Override
+		public void close() throws IOException {
+			isClosed = true;
+			super.close();
+		}
+
 	}
 
 }
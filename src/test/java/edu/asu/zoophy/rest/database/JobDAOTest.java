@@ -0,0 +1,152 @@
+package edu.asu.zoophy.rest.database;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Checks the shared job queue against a PostgreSQL database. Skipped unless -Dzoophy.test.db.url is set, with
+ * -Dzoophy.test.db.user and -Dzoophy.test.db.password, e.g. jdbc:postgresql://localhost:5432/zoophy_test.
+ * Test jobs use statuses of their own, so jobs already in the table are not claimed.
+ */
+public class JobDAOTest {
+
+	private final static int JOBS = 20;
+	private final static int WORKERS = 4;
+	private JdbcTemplate jdbc;
+	private JobDAO dao;
+	private String queued;
+	private String running;
+	private List<String> jobIDs;
+
+	@Before
+	public void setUp() throws Exception {
+		String url = System.getProperty("zoophy.test.db.url");
+		assumeNotNull(url);
+		jdbc = new JdbcTemplate(new DriverManagerDataSource(url, System.getProperty("zoophy.test.db.user", ""), System.getProperty("zoophy.test.db.password", "")));
+		dao = new JobDAO(jdbc);
+		dao.createJobTable();
+		String run = UUID.randomUUID().toString().substring(0, 8);
+		queued = "QUEUED-"+run;
+		running = "RUNNING-"+run;
+		jobIDs = new ArrayList<String>();
+		for (int i = 0; i < JOBS; i++) {
+			String jobID = "test-"+run+"-"+i;
+			dao.insertJob(jobID, queued, i % 3, "{}");
+			jobIDs.add(jobID);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		if (jdbc != null) {
+			for (String jobID : jobIDs) {
+				jdbc.update("DELETE FROM \"ZooPhy_Jobs\" WHERE \"Job_ID\"=?", jobID);
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentClaims() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(WORKERS);
+		List<Future<List<String>>> claims = new ArrayList<Future<List<String>>>();
+		for (int w = 0; w < WORKERS; w++) {
+			final String worker = "worker-"+w;
+			claims.add(pool.submit(new Callable<List<String>>() {
+				@Override
+				public List<String> call() throws Exception {
+					List<String> claimed = new ArrayList<String>();
+					StoredJob job;
+					while ((job = dao.claimJob(worker, queued, running)) != null) {
+						assertEquals(running, job.getStatus());
+						claimed.add(job.getJobID());
+					}
+					return claimed;
+				}
+			}));
+		}
+		Set<String> allClaimed = new HashSet<String>();
+		int claimCount = 0;
+		for (Future<List<String>> claim : claims) {
+			List<String> claimed = claim.get();
+			claimCount += claimed.size();
+			allClaimed.addAll(claimed);
+		}
+		pool.shutdown();
+		assertEquals(JOBS, claimCount);
+		assertEquals(new HashSet<String>(jobIDs), allClaimed);
+		assertEquals(0, dao.countJobs(queued));
+		assertEquals(JOBS, dao.countJobs(running));
+	}
+
+	@Test
+	public void testClaimOrder() throws Exception {
+		StoredJob first = dao.claimJob("worker", queued, running);
+		assertEquals(2, first.getPriority());
+		assertEquals(jobIDs.get(2), first.getJobID());
+		assertEquals(1, dao.countJobsAhead(jobIDs.get(5)));
+		assertEquals(12, dao.countJobsAhead(jobIDs.get(JOBS - 1)));
+	}
+
+	@Test
+	public void testStaleJobsRequeued() throws Exception {
+		StoredJob live = dao.claimJob("live", queued, running);
+		StoredJob dead = dao.claimJob("dead", queued, running);
+		jdbc.update("UPDATE \"ZooPhy_Jobs\" SET \"Heartbeat\"=now() - INTERVAL '1 hour' WHERE \"Job_ID\"=?", dead.getJobID());
+		dao.updateHeartbeat("live", running);
+		List<String> requeued = dao.requeueStaleJobs(queued, running, 60, 5);
+		assertEquals(Collections.singletonList(dead.getJobID()), requeued);
+		assertEquals(queued, dao.retrieveJob(dead.getJobID()).getStatus());
+		assertEquals(5, dao.retrieveJob(dead.getJobID()).getPriority());
+		assertEquals(running, dao.retrieveJob(live.getJobID()).getStatus());
+		assertEquals(dead.getJobID(), dao.claimJob("live", queued, running).getJobID());
+		assertEquals(2, dao.requeueWorkerJobs("live", queued, running, 0).size());
+		assertEquals(JOBS, dao.countJobs(queued));
+	}
+
+	@Test
+	public void testLostJobsNotUpdated() throws Exception {
+		StoredJob job = dao.claimJob("dead", queued, running);
+		assertEquals(Collections.singletonList(job.getJobID()), dao.updateHeartbeat("dead", running));
+		jdbc.update("UPDATE \"ZooPhy_Jobs\" SET \"Heartbeat\"=now() - INTERVAL '1 hour' WHERE \"Job_ID\"=?", job.getJobID());
+		dao.requeueStaleJobs(queued, running, 60, 5);
+		assertTrue(dao.updateHeartbeat("dead", running).isEmpty());
+		assertFalse(dao.updateWorkerJobStage(job.getJobID(), "dead", "beast", running));
+		assertFalse(dao.updateWorkerJobFinished(job.getJobID(), "dead", "FINISHED", running));
+		assertEquals(job.getJobID(), dao.claimJob("live", queued, running).getJobID());
+		assertFalse(dao.updateWorkerJobFinished(job.getJobID(), "dead", "FINISHED", running));
+		assertTrue(dao.updateWorkerJobStage(job.getJobID(), "live", "beast", running));
+		assertEquals("beast", dao.retrieveJob(job.getJobID()).getStage());
+		assertTrue(dao.updateWorkerJobFinished(job.getJobID(), "live", "FINISHED", running));
+		assertEquals("FINISHED", dao.retrieveJob(job.getJobID()).getStatus());
+	}
+
+		@Test
+	public void testStopRequests() throws Exception {
+		StoredJob job = dao.claimJob("worker", queued, running);
+		assertFalse(dao.requestStop(jobIDs.get(0), running));
+		assertTrue(dao.requestStop(job.getJobID(), running));
+		assertTrue(dao.retrieveStopRequests("other", running).isEmpty());
+		assertEquals(Collections.singletonList(job.getJobID()), dao.retrieveStopRequests("worker", running));
+		assertTrue(dao.updateJobFinished(job.getJobID(), "STOPPED", running));
+		assertFalse(dao.updateJobFinished(job.getJobID(), "FAILED", running));
+		assertTrue(dao.retrieveStopRequests("worker", running).isEmpty());
+	}
+
+}
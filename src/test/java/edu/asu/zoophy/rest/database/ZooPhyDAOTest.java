@@ -0,0 +1,143 @@
+package edu.asu.zoophy.rest.database;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import edu.asu.zoophy.rest.genbank.GenBankRecord;
+
+/**
+ * Checks how ZooPhyDAO splits bulk record retrieval into IN chunks, and that missing accessions are still reported
+ */
+public class ZooPhyDAOTest {
+
+	@Test
+	public void testChunkBoundaries() throws Exception {
+		assertChunks(999, Arrays.asList(999));
+		assertChunks(1000, Arrays.asList(1000));
+		assertChunks(1001, Arrays.asList(1000, 1));
+	}
+
+	@Test
+	public void testFullRecordsQueryEachTablePerChunk() throws Exception {
+		List<String> accessions = accessions(1001);
+		FakeRecordTables tables = new FakeRecordTables(accessions);
+		List<GenBankRecord> records = new ZooPhyDAO(new JdbcTemplate(), tables).retrieveFullRecords(accessions);
+		assertEquals(accessions, accessionsOf(records));
+		assertEquals(Arrays.asList(1000, 1000, 1000, 1000, 1, 1, 1, 1), tables.chunkSizes);
+	}
+
+	@Test
+	public void testDuplicateAccessionsLoadedOnce() throws Exception {
+		List<String> accessions = accessions(3);
+		FakeRecordTables tables = new FakeRecordTables(accessions);
+		List<String> requested = new ArrayList<String>(accessions);
+		requested.add(accessions.get(0));
+		List<GenBankRecord> records = new ZooPhyDAO(new JdbcTemplate(), tables).retrieveLightRecords(requested);
+		assertEquals(accessions, accessionsOf(records));
+		assertEquals(Arrays.asList(3), tables.chunkSizes);
+	}
+
+	@Test
+	public void testMissingAccessions() throws Exception {
+		List<String> accessions = accessions(1001);
+		List<String> stored = new ArrayList<String>(accessions);
+		stored.remove("KX001000");
+		stored.remove("KX000500");
+		ZooPhyDAO dao = new ZooPhyDAO(new JdbcTemplate(), new FakeRecordTables(stored));
+		try {
+			dao.retrieveFullRecords(accessions);
+			fail("Expected GenBankRecordNotFoundException");
+		}
+		catch (GenBankRecordNotFoundException e) {
+			assertEquals("GenBank record not found: KX000500", e.getMessage());
+		}
+		try {
+			dao.retrieveLightRecords(Arrays.asList("KX000001", "KX001000"));
+			fail("Expected GenBankRecordNotFoundException");
+		}
+		catch (GenBankRecordNotFoundException e) {
+			assertEquals("GenBank record not found: KX001000", e.getMessage());
+		}
+		assertEquals(Arrays.asList("KX000001"), accessionsOf(dao.retrieveLightRecords(Arrays.asList("KX000001"))));
+	}
+
+	private static void assertChunks(int count, List<Integer> chunkSizes) throws Exception {
+		List<String> accessions = accessions(count);
+		FakeRecordTables tables = new FakeRecordTables(accessions);
+		List<GenBankRecord> records = new ZooPhyDAO(new JdbcTemplate(), tables).retrieveLightRecords(accessions);
+		assertEquals(accessions, accessionsOf(records));
+		assertEquals(chunkSizes, tables.chunkSizes);
+	}
+
+	private static List<String> accessions(int count) {
+		List<String> accessions = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			accessions.add(String.format("KX%06d", i));
+		}
+		return accessions;
+	}
+
+	private static List<String> accessionsOf(List<GenBankRecord> records) {
+		List<String> accessions = new ArrayList<String>(records.size());
+		for (GenBankRecord record : records) {
+			accessions.add(record.getAccession());
+		}
+		return accessions;
+	}
+
+	/**
+	 * Stands in for the record tables. Each query records the size of its IN chunk, and stored records come back in reverse order.
+	 */
+	private static class FakeRecordTables extends NamedParameterJdbcTemplate {
+
+		private final Set<String> stored;
+		private final List<Integer> chunkSizes = new ArrayList<Integer>();
+
+		FakeRecordTables(List<String> stored) {
+			super(new JdbcTemplate());
+			this.stored = new HashSet<String>(stored);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> List<T> query(String sql, SqlParameterSource parameters, RowMapper<T> mapper) {
+			List<T> records = new ArrayList<T>();
+			for (String accession : chunk(parameters)) {
+				if (stored.contains(accession)) {
+					GenBankRecord record = new GenBankRecord();
+					record.setAccession(accession);
+					records.add((T) record);
+				}
+			}
+			Collections.reverse(records);
+			return records;
+		}
+
+		@Override
+		public void query(String sql, SqlParameterSource parameters, RowCallbackHandler handler) {
+			chunk(parameters);
+		}
+
+		@SuppressWarnings("unchecked")
+		private List<String> chunk(SqlParameterSource parameters) {
+			List<String> chunk = (List<String>) parameters.getValue("accessions");
+			chunkSizes.add(chunk.size());
+			return chunk;
+		}
+
+	}
+
+}
@@ -2,6 +2,9 @@ package edu.asu.zoophy.rest.index;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -35,6 +38,21 @@ public class LuceneSearcherTest {
 		}
 	}
 	
+	@Test
+	public void testGetRecords() {
+		assertNotNull(searcher);
+		try {
+			List<GenBankRecord> records = searcher.getRecords(Arrays.asList("CY187660", "NOTREAL00", "CY187660"));
+			assertNotNull(records);
+			assertEquals(1, records.size());
+			assertEquals("CY187660", records.get(0).getAccession());
+			assertEquals(searcher.getRecord("CY187660").getSequence().getSegmentLength(), records.get(0).getSequence().getSegmentLength());
+		}
+		catch (LuceneSearcherException lse) {
+			fail("Should not throw Lucene Error");
+		}
+	}
+	
 //	@Test
 //	public void testFindLocationAncestors() {
 //		fail("TODO");
@@ -0,0 +1,163 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Checks how AlignmentCache picks the base of an incremental alignment and evicts alignments, and how FastaRecords copies the records left to add
+ */
+public class AlignmentCacheTest {
+
+	private final static long NO_LIMIT = 1024L * 1024L;
+
+	@Test
+	public void testFindBaseLargestSubset() throws Exception {
+		File workDir = Files.createTempDirectory("alignment-cache").toFile();
+		try {
+			AlignmentCache cache = new AlignmentCache(new File(workDir, "cache"), NO_LIMIT, 0.5);
+			List<String> hashes = hash(workDir, "A", "B", "C", "D", "E", "F");
+			store(cache, workDir, "small", hashes.subList(0, 3));
+			store(cache, workDir, "large", hashes.subList(0, 4));
+			store(cache, workDir, "other", Arrays.asList(hashes.get(0), hashes.get(5)));
+			assertEquals("large", cache.findBase(new HashSet<String>(hashes.subList(0, 5))));
+			assertEquals("small", cache.findBase(new HashSet<String>(Arrays.asList(hashes.get(0), hashes.get(1), hashes.get(2), hashes.get(5)))));
+		}
+		finally {
+			delete(workDir);
+		}
+	}
+
+	@Test
+	public void testFindBaseRejectsNonSubsets() throws Exception {
+		File workDir = Files.createTempDirectory("alignment-cache").toFile();
+		try {
+			AlignmentCache cache = new AlignmentCache(new File(workDir, "cache"), NO_LIMIT, 0.5);
+			List<String> hashes = hash(workDir, "A", "B", "C", "D", "E", "F", "G");
+			Set<String> records = new HashSet<String>(hashes.subList(0, 5));
+			store(cache, workDir, "subset", hashes.subList(0, 3));
+			store(cache, workDir, "larger", Arrays.asList(hashes.get(0), hashes.get(1), hashes.get(2), hashes.get(6)));
+			store(cache, workDir, "superset", hashes);
+			assertEquals("subset", cache.findBase(records));
+			store(cache, workDir, "same", hashes.subList(0, 5));
+			assertEquals("subset", cache.findBase(records));
+		}
+		finally {
+			delete(workDir);
+		}
+	}
+
+	@Test
+	public void testFindBaseMinOverlap() throws Exception {
+		File workDir = Files.createTempDirectory("alignment-cache").toFile();
+		try {
+			List<String> hashes = hash(workDir, "A", "B", "C", "D", "E", "F", "G", "H");
+			AlignmentCache cache = new AlignmentCache(new File(workDir, "cache"), NO_LIMIT, 0.5);
+			store(cache, workDir, "base", hashes.subList(0, 4));
+			assertEquals("base", cache.findBase(new HashSet<String>(hashes)));
+			cache = new AlignmentCache(new File(workDir, "strict"), NO_LIMIT, 0.6);
+			store(cache, workDir, "base", hashes.subList(0, 4));
+			assertNull(cache.findBase(new HashSet<String>(hashes)));
+			assertEquals("base", cache.findBase(new HashSet<String>(hashes.subList(0, 6))));
+		}
+		finally {
+			delete(workDir);
+		}
+	}
+
+	@Test
+	public void testCopyRecordsSkipsBase() throws Exception {
+		File workDir = Files.createTempDirectory("alignment-cache").toFile();
+		try {
+			File base = write(workDir, "base.fasta", fasta(7, "A", "C"));
+			File raw = write(workDir, "raw.fasta", fasta(80, "A", "B", "C", "D"));
+			Set<String> skip = new HashSet<String>(FastaRecords.hashRecords(base));
+			assertEquals(2, skip.size());
+			assertTrue(FastaRecords.hashRecords(raw).containsAll(skip));
+			File added = new File(workDir, "added.fasta");
+			assertEquals(2, FastaRecords.copyRecords(raw, skip, added));
+			assertEquals(FastaRecords.hashRecords(write(workDir, "expected.fasta", fasta(80, "B", "D"))), FastaRecords.hashRecords(added));
+		}
+		finally {
+			delete(workDir);
+		}
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		File workDir = Files.createTempDirectory("alignment-cache").toFile();
+		try {
+			File alignment = write(workDir, "aligned.fasta", fasta(80, "A"));
+			long entryBytes = alignment.length() + FastaRecords.hashRecords(alignment).get(0).length() + System.lineSeparator().length();
+			AlignmentCache cache = new AlignmentCache(new File(workDir, "cache"), entryBytes * 2, 0.5);
+			List<String> records = FastaRecords.hashRecords(alignment);
+			cache.store("first", alignment, records);
+			cache.store("second", alignment, records);
+			assertEquals(2, cache.getStatistics().getEntries());
+			assertTrue(cache.retrieve("first", new File(workDir, "first.fasta")));
+			cache.store("third", alignment, records);
+			assertEquals(1, cache.getStatistics().getEvictions());
+			assertFalse(cache.retrieve("second", new File(workDir, "second.fasta")));
+			assertTrue(cache.retrieve("first", new File(workDir, "first.fasta")));
+			assertTrue(cache.retrieve("third", new File(workDir, "third.fasta")));
+			assertNull(cache.getRecordSet("second"));
+		}
+		finally {
+			delete(workDir);
+		}
+	}
+
+	/**
+	 * @param width - sequence line length
+	 * @param names - record names
+	 * @return FASTA with a distinct sequence for each name
+	 */
+	private static String fasta(int width, String... names) {
+		StringBuilder fasta = new StringBuilder();
+		for (String name : names) {
+			StringBuilder sequence = new StringBuilder();
+			for (int i = 0; i < 24; i++) {
+				sequence.append("ACGT".charAt((i * name.charAt(0)) % 4));
+			}
+			sequence.append(name);
+			fasta.append('>').append(name).append("_2015.00_phoenix\n");
+			for (int i = 0; i < sequence.length(); i += width) {
+				fasta.append(sequence, i, Math.min(i + width, sequence.length())).append('\n');
+			}
+		}
+		return fasta.toString();
+	}
+
+	private static List<String> hash(File workDir, String... names) throws Exception {
+		return FastaRecords.hashRecords(write(workDir, "records.fasta", fasta(80, names)));
+	}
+
+	private static void store(AlignmentCache cache, File workDir, String key, List<String> records) throws Exception {
+		cache.store(key, write(workDir, key+".fasta", key+"\n"), records);
+	}
+
+	private static File write(File workDir, String name, String content) throws Exception {
+		File file = new File(workDir, name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
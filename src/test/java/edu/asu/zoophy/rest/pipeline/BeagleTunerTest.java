@@ -0,0 +1,57 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BeagleTunerTest {
+
+	@Test
+	public void testCountPatterns() throws Exception {
+		File alignment = File.createTempFile("beagle-tuner", ".fasta");
+		try {
+			PrintWriter writer = new PrintWriter(alignment);
+			writer.println(">A_1");
+			writer.println("ACGT");
+			writer.println("AC");
+			writer.println(">B_2");
+			writer.println("ACGTAC");
+			writer.println(">C_3");
+			writer.println("ACGAac");
+			writer.close();
+			int[] shape = BeagleTuner.countPatterns(alignment);
+			assertEquals(3, shape[0]);
+			// columns AAA, CCC, GGG, TTA, AAA, CCC: 4 unique patterns
+			assertEquals(4, shape[1]);
+		}
+		finally {
+			alignment.delete();
+		}
+	}
+
+	@Test
+	public void testSelect() {
+		BeagleTuner small = BeagleTuner.select(50, 200, 8);
+		assertTrue(small.getOptions().isEmpty());
+		BeagleTuner singleCore = BeagleTuner.select(2000, 1500, 1);
+		assertTrue(singleCore.getOptions().isEmpty());
+		BeagleTuner large = BeagleTuner.select(2000, 1500, 8);
+		assertEquals(3, large.getInstances());
+		assertEquals(8, large.getThreads());
+		assertEquals(8, BeagleTuner.select(2000, 20000, 8).getInstances());
+	}
+
+	@Test
+	public void testCandidates() {
+		BeagleTuner selected = BeagleTuner.select(2000, 1500, 4);
+		List<BeagleTuner> candidates = BeagleTuner.candidates(selected, 4);
+		assertEquals(selected, candidates.get(0));
+		assertEquals(4, candidates.size());
+		assertEquals(3, BeagleTuner.candidates(new BeagleTuner(1, 4), 4).size());
+	}
+
+}
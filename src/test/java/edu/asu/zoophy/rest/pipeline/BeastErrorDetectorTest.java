@@ -0,0 +1,34 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+public class BeastErrorDetectorTest {
+
+	@Test
+	public void testDetectsTerminatingError() {
+		BeastErrorDetector detector = new BeastErrorDetector("detector-test", Logger.getLogger("BeastErrorDetectorTest"));
+		detector.handle("1000000\t-12345.6\t-12000.1\t0.52 hours/million states");
+		assertFalse(detector.hasTerminatingError());
+		detector.handle("java.lang.RuntimeException: An error was encounted. Terminating BEAST");
+		assertTrue(detector.hasTerminatingError());
+		assertEquals(1, detector.getErrorCount());
+		List<JobEvent> events = JobTimeline.getEvents("detector-test");
+		assertEquals(1, events.size());
+		assertEquals(JobEventType.ERROR, events.get(0).getType());
+	}
+
+	@Test
+	public void testRecordsOtherErrors() {
+		BeastErrorDetector detector = new BeastErrorDetector("detector-test-oom", Logger.getLogger("BeastErrorDetectorTest"));
+		detector.handle("Exception in thread \"main\" java.lang.OutOfMemoryError: Java heap space");
+		assertFalse(detector.hasTerminatingError());
+		assertEquals(1, detector.getErrorCount());
+		assertTrue(JobTimeline.getEvents("unknown-job").isEmpty());
+	}
+
+}
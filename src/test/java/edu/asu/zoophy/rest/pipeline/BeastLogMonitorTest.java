@@ -0,0 +1,140 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks how BeastLogMonitor splits appended bytes into lines, follows truncated and replaced logs, and stops watching
+ */
+public class BeastLogMonitorTest {
+
+	private final static long NEVER_POLL = 3600000L;
+	private File workDir;
+	private File logFile;
+	private BeastLogMonitor monitor;
+	private List<String> lines;
+	private BeastLogMonitor.LineHandler collector;
+
+	@Before
+	public void setUp() throws Exception {
+		workDir = Files.createTempDirectory("beast-log-monitor").toFile();
+		logFile = new File(workDir, "job.log");
+		monitor = new BeastLogMonitor(NEVER_POLL);
+		lines = new ArrayList<String>();
+		collector = new BeastLogMonitor.LineHandler() {
+			@Override
+			public void handle(String line) {
+				lines.add(line);
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = workDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		workDir.delete();
+	}
+
+	@Test
+	public void testPartialLines() throws Exception {
+		BeastLogMonitor.Subscription subscription = monitor.watch(logFile, true, collector);
+		subscription.drain();
+		append("0\t-1234.5");
+		subscription.drain();
+		assertTrue(lines.isEmpty());
+		append("\t0.1\r\n1000\t-1200.");
+		subscription.drain();
+		assertEquals(Arrays.asList("0\t-1234.5\t0.1"), lines);
+		StringBuilder longLine = new StringBuilder();
+		for (int i = 0; i < 3000; i++) {
+			longLine.append("\t0.").append(i);
+		}
+		append("25"+longLine+"\n");
+		subscription.drain();
+		assertEquals(Arrays.asList("0\t-1234.5\t0.1", "1000\t-1200.25"+longLine), lines);
+	}
+
+	@Test
+	public void testFromEnd() throws Exception {
+		append("earlier run\n");
+		BeastLogMonitor.Subscription subscription = monitor.watch(logFile, true, collector);
+		append("this run\n");
+		subscription.drain();
+		assertEquals(Arrays.asList("this run"), lines);
+		monitor.watch(logFile, false, collector).drain();
+		assertEquals(Arrays.asList("this run", "earlier run", "this run"), lines);
+	}
+
+	@Test
+	public void testTruncation() throws Exception {
+		BeastLogMonitor.Subscription subscription = monitor.watch(logFile, false, collector);
+		append("first\nsecond\npart");
+		subscription.drain();
+		Files.write(logFile.toPath(), "new\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.TRUNCATE_EXISTING);
+		subscription.drain();
+		assertEquals(Arrays.asList("first", "second", "new"), lines);
+	}
+
+	@Test
+	public void testRotation() throws Exception {
+		BeastLogMonitor.Subscription subscription = monitor.watch(logFile, false, collector);
+		append("first\n");
+		subscription.drain();
+		append("last of old\n");
+		assertTrue(logFile.renameTo(new File(workDir, "job.log.1")));
+		subscription.drain();
+		assertEquals(Arrays.asList("first", "last of old"), lines);
+		append("a longer first line of the new log\n");
+		subscription.drain();
+		assertEquals(Arrays.asList("first", "last of old", "a longer first line of the new log"), lines);
+	}
+
+	@Test
+	public void testStop() throws Exception {
+		final List<String> stopped = new ArrayList<String>();
+		final BeastLogMonitor.Subscription[] selfStopping = new BeastLogMonitor.Subscription[1];
+		selfStopping[0] = monitor.watch(logFile, false, new BeastLogMonitor.LineHandler() {
+			@Override
+			public void handle(String line) {
+				stopped.add(line);
+				selfStopping[0].stop();
+			}
+		});
+		BeastLogMonitor.Subscription subscription = monitor.watch(logFile, false, collector);
+		assertEquals(2, monitor.getSubscriptionCount());
+		append("one\ntwo\n");
+		selfStopping[0].drain();
+		subscription.drain();
+		assertEquals(Arrays.asList("one"), stopped);
+		assertTrue(selfStopping[0].isStopped());
+		assertEquals(1, monitor.getSubscriptionCount());
+		subscription.stop();
+		append("three\n");
+		subscription.drain();
+		selfStopping[0].drain();
+		assertEquals(Arrays.asList("one", "two"), lines);
+		assertEquals(Arrays.asList("one"), stopped);
+		assertEquals(0, monitor.getSubscriptionCount());
+	}
+
+	private void append(String text) throws Exception {
+		Files.write(logFile.toPath(), text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+}
@@ -0,0 +1,60 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**
+ * Checks that BeastLogSplicer joins the outputs of an interrupted BEAST run and the run resumed from its state dump
+ */
+public class BeastLogSplicerTest {
+
+	@Test
+	public void testSpliceParameterLog() throws Exception {
+		File before = write("# BEAST v1.8.4\nstate\tposterior\tlikelihood\n0\t-10.5\t-9.0\n1000\t-8.2\t-7.1\n2000\t-7.9\t-6.8\n3000\t-7.");
+		File after = write("# BEAST v1.8.4\nstate\tposterior\tlikelihood\n2000\t-7.9\t-6.8\n3000\t-7.5\t-6.5\n4000\t-7.4\t-6.4\n");
+		assertEquals(2000, BeastLogSplicer.splice(before, after, after));
+		assertEquals("# BEAST v1.8.4\nstate\tposterior\tlikelihood\n0\t-10.5\t-9.0\n1000\t-8.2\t-7.1\n2000\t-7.9\t-6.8\n3000\t-7.5\t-6.5\n4000\t-7.4\t-6.4\n", read(after));
+	}
+
+	@Test
+	public void testSpliceTrees() throws Exception {
+		String header = "#NEXUS\nBegin trees;\n\tTranslate\n\t\t1 A,\n\t\t2 B\n\t\t;\n";
+		File before = write(header+"tree STATE_0 = (1,2);\ntree STATE_1000 = (2,1);\ntree STATE_2000 = (1,");
+		File after = write(header+"tree STATE_1000 = (1,2);\ntree STATE_2000 = (2,1);\nEnd;\n");
+		assertEquals(1000, BeastLogSplicer.splice(before, after, after));
+		assertEquals(header+"tree STATE_0 = (1,2);\ntree STATE_1000 = (1,2);\ntree STATE_2000 = (2,1);\nEnd;\n", read(after));
+	}
+
+	@Test
+	public void testResumedRunWithoutSamples() throws Exception {
+		File before = write("state\tposterior\n0\t-10.5\n1000\t-8.2\n");
+		File after = write("state\tposterior\n");
+		assertEquals(-1, BeastLogSplicer.splice(before, after, before));
+		assertEquals("state\tposterior\n0\t-10.5\n1000\t-8.2\n", read(before));
+	}
+
+	@Test
+	public void testGetState() {
+		assertEquals(1000, BeastLogSplicer.getState("1000\t-8.2"));
+		assertEquals(1000, BeastLogSplicer.getState("tree STATE_1000 [&lnP=-8.2] = (1,2);"));
+		assertEquals(-1, BeastLogSplicer.getState("state\tposterior"));
+		assertEquals(-1, BeastLogSplicer.getState("\t\t1 A,"));
+	}
+
+	private static File write(String content) throws Exception {
+		File file = File.createTempFile("beast-splice", ".log");
+		file.deleteOnExit();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static String read(File file) throws Exception {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,68 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks that the BEAST outputs kept across a resume include the GLM model log, and that its samples stay continuous
+ */
+public class BeastRunnerTest {
+
+	private final static String MODEL_HEADER = "state\tglmCoefficients1\tcoefIndicator1\n";
+
+	@Test
+	public void testResumeKeepsGLMModelLog() throws Exception {
+		List<String> outputs = BeastRunner.getBeastOutputs("job", true);
+		assertTrue(outputs.contains("job_GLMedits_states.model.log"));
+		assertFalse(BeastRunner.getBeastOutputs("job", false).contains("job_GLMedits_states.model.log"));
+		File workDir = Files.createTempDirectory("beast-resume").toFile();
+		try {
+			File modelLog = new File(workDir, "job_GLMedits_states.model.log");
+			write(modelLog, MODEL_HEADER+rows(0, 3000)+"4000\t0.2");
+			File setAside = BeastLogSplicer.setAside(modelLog);
+			assertFalse(modelLog.exists());
+			// interrupted again before the next state dump
+			write(modelLog, MODEL_HEADER+rows(2000, 3000));
+			assertEquals(setAside, BeastLogSplicer.setAside(modelLog));
+			write(modelLog, MODEL_HEADER+rows(3000, 6000));
+			assertEquals(3000, BeastLogSplicer.joinResumed(modelLog));
+			assertEquals(MODEL_HEADER+rows(0, 6000), read(modelLog));
+			assertFalse(setAside.exists());
+		}
+		finally {
+			File[] files = workDir.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			workDir.delete();
+		}
+	}
+
+	/**
+	 * @return model log samples every 1000 states from first to last, which differ by state
+	 */
+	private static String rows(int first, int last) {
+		StringBuilder rows = new StringBuilder();
+		for (int state = first; state <= last; state += 1000) {
+			rows.append(state).append('\t').append(state / 10000.0).append('\t').append(state % 2000 == 0 ? 1 : 0).append('\n');
+		}
+		return rows.toString();
+	}
+
+	private static void write(File file, String content) throws Exception {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String read(File file) throws Exception {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+}
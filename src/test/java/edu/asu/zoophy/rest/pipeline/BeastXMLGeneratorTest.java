@@ -0,0 +1,141 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks BeastXMLGenerator output against beastgen.jar on the same alignment, and compares their latency
+ */
+public class BeastXMLGeneratorTest {
+
+	private final static int TAXA = 500;
+	private final static int SEQUENCE_LENGTH = 1500;
+	private final static String[] LOCATIONS = {"5332921", "6252001", "1814991", "2635167"};
+
+	@Test
+	public void testMatchesBeastGen() throws Exception {
+		File beastGenDir = new File(System.getProperty("user.dir")+"/BeastGen");
+		assumeTrue(new File(beastGenDir, "beastgen.jar").exists());
+		File workDir = Files.createTempDirectory("beast-xml").toFile();
+		try {
+			File fasta = new File(workDir, "generator-aligned.fasta");
+			writeFasta(fasta);
+			File expected = new File(workDir, "beastgen.xml");
+			long start = System.nanoTime();
+			ProcessBuilder builder = new ProcessBuilder("java", "-jar", "beastgen.jar", "-date_order", "4", "-D", "chain_length=1000000,log_every=1000", "beastgen.template", fasta.getAbsolutePath(), expected.getAbsolutePath()).directory(beastGenDir);
+			builder.redirectOutput(Redirect.INHERIT);
+			builder.redirectError(Redirect.INHERIT);
+			assumeTrue(builder.start().waitFor() == 0);
+			long jarMillis = (System.nanoTime() - start) / 1000000;
+			XMLParameters xmlOptions = new XMLParameters();
+			xmlOptions.setChainLength(1000000);
+			xmlOptions.setSubSampleRate(1000);
+			File actual = new File(workDir, "generator.xml");
+			start = System.nanoTime();
+			OutputStream output = new FileOutputStream(actual);
+			try {
+				new BeastXMLGenerator(new File(beastGenDir, "beastgen.template")).generate(fasta, xmlOptions, output);
+			}
+			finally {
+				output.close();
+			}
+			long generatorMillis = (System.nanoTime() - start) / 1000000;
+			System.out.println("BEAST XML for "+TAXA+" taxa x "+SEQUENCE_LENGTH+" sites: beastgen.jar "+jarMillis+" ms, in process "+generatorMillis+" ms");
+			List<String> expectedLines = Files.readAllLines(expected.toPath(), StandardCharsets.UTF_8);
+			List<String> actualLines = Files.readAllLines(actual.toPath(), StandardCharsets.UTF_8);
+			assertEquals(expectedLines.size(), actualLines.size());
+			for (int i = 0; i < expectedLines.size(); i++) {
+				// BeastGen indents the first item of the taxa list differently, otherwise the output is identical
+				assertEquals("line "+(i+1), expectedLines.get(i).trim(), actualLines.get(i).trim());
+			}
+		}
+		finally {
+			for (File file : workDir.listFiles()) {
+				file.delete();
+			}
+			workDir.delete();
+		}
+	}
+
+	@Test
+	public void testTemplateValues() throws Exception {
+		File template = File.createTempFile("beast-template", ".template");
+		File fasta = File.createTempFile("beast-xml", ".fasta");
+		try {
+			PrintWriter writer = new PrintWriter(template);
+			writer.println("<mcmc chainLength=\"${chain_length}\" log=\"${filename_stem}.log\">");
+			writer.println("\t<#list taxa as taxon>");
+			writer.println("\t<taxon id=\"${taxon.id}\" date=\"${taxon.date}\"/>");
+			writer.println("\t</#list>");
+			writer.println("\t<#list alignment.sequences as sequence>");
+			writer.println("\t<sequence taxon=\"${sequence.taxon.id}\">${sequence.data}</sequence>");
+			writer.println("\t</#list>");
+			writer.println("</mcmc>");
+			writer.close();
+			writer = new PrintWriter(fasta);
+			writer.println(">A1_11320_9606_2010_6252001");
+			writer.println("acgt-");
+			writer.println("NACG");
+			writer.println(">A&2_11320_9606_1999.25_5332921");
+			writer.println("ACGTTNACG");
+			writer.close();
+			XMLParameters xmlOptions = new XMLParameters();
+			xmlOptions.setChainLength(5000);
+			xmlOptions.setSubSampleRate(10);
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			new BeastXMLGenerator(template).generate(fasta, xmlOptions, output);
+			String stem = fasta.getName().substring(0, fasta.getName().lastIndexOf('.'));
+			String expected = "<mcmc chainLength=\"5000\" log=\""+stem+".log\">\n"
+					+"\t<taxon id=\"A1_11320_9606_2010_6252001\" date=\"2010.0\"/>\n"
+					+"\t<taxon id=\"A&amp;2_11320_9606_1999.25_5332921\" date=\"1999.25\"/>\n"
+					+"\t<sequence taxon=\"A1_11320_9606_2010_6252001\">ACGT-NACG</sequence>\n"
+					+"\t<sequence taxon=\"A&amp;2_11320_9606_1999.25_5332921\">ACGTTNACG</sequence>\n"
+					+"</mcmc>\n";
+			assertEquals(expected, new String(output.toByteArray(), StandardCharsets.UTF_8));
+		}
+		finally {
+			template.delete();
+			fasta.delete();
+		}
+	}
+
+	@Test
+	public void testDateIsFourthNumber() {
+		assertEquals("1995.63", BeastXMLGenerator.parseDate("KX123456.1_11320_9606_1995.63_6252001"));
+		assertEquals("2010.0", BeastXMLGenerator.parseDate("KX123456_11320_9606_2010_6252001"));
+		assertEquals("6252001.0", BeastXMLGenerator.parseDate("KX123456_11320_human_2010_6252001"));
+		assertNull(BeastXMLGenerator.parseDate("KX123456_virus_host_2010"));
+	}
+
+	private static void writeFasta(File fasta) throws Exception {
+		Random random = new Random(42);
+		final char[] bases = {'A', 'C', 'G', 'T', '-'};
+		PrintWriter writer = new PrintWriter(fasta);
+		for (int i = 0; i < TAXA; i++) {
+			writer.println(">ACC"+i+"_11320_9606_"+(1990 + random.nextInt(25))+"."+random.nextInt(100)+"_"+LOCATIONS[random.nextInt(LOCATIONS.length)]);
+			StringBuilder sequence = new StringBuilder(SEQUENCE_LENGTH);
+			for (int j = 0; j < SEQUENCE_LENGTH; j++) {
+				sequence.append(bases[random.nextInt(bases.length)]);
+				if (j % 60 == 59) {
+					sequence.append('\n');
+				}
+			}
+			writer.println(sequence);
+		}
+		writer.close();
+	}
+
+}
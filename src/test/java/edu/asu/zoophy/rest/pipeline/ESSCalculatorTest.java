@@ -0,0 +1,42 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ESSCalculatorTest {
+
+	@Test
+	public void testIndependentSamples() {
+		Random random = new Random(42);
+		double[] samples = new double[5000];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = random.nextGaussian();
+		}
+		double ess = ESSCalculator.calculate(samples, 0, samples.length);
+		assertTrue(ess > 3500);
+		assertTrue(ess < 6500);
+	}
+
+	@Test
+	public void testCorrelatedSamples() {
+		Random random = new Random(42);
+		double[] samples = new double[5000];
+		for (int i = 1; i < samples.length; i++) {
+			samples[i] = 0.95 * samples[i-1] + random.nextGaussian();
+		}
+		double ess = ESSCalculator.calculate(samples, 500, samples.length);
+		assertTrue(ess > 50);
+		assertTrue(ess < 400);
+	}
+
+	@Test
+	public void testConstantSamples() {
+		double[] samples = new double[100];
+		assertEquals(0.0, ESSCalculator.calculate(samples, 0, samples.length), 0.0);
+		assertEquals(0.0, ESSCalculator.calculate(samples, 0, 1), 0.0);
+	}
+
+}
@@ -0,0 +1,147 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import edu.asu.zoophy.rest.pipeline.glm.Predictor;
+
+/**
+ * Checks which job settings change a JobResultStore fingerprint, and that stored results are copied out for a new job
+ */
+public class JobResultStoreTest {
+
+	private final static long NO_LIMIT = 1024L * 1024L;
+	private final static List<String> ACCESSIONS = Arrays.asList("KX123456", "CY000001", "MF555555");
+
+	@Test
+	public void testFingerprintIgnoresOrder() throws Exception {
+		File workDir = Files.createTempDirectory("job-results").toFile();
+		try {
+			JobResultStore store = newStore(workDir, true);
+			Map<String, List<Predictor>> predictors = new LinkedHashMap<String, List<Predictor>>();
+			predictors.put("arizona", Arrays.asList(predictor("Population", 2010, 6.4), predictor("Temperature", 2010, 22.1)));
+			predictors.put("texas", Arrays.asList(predictor("Population", 2010, 25.1), predictor("Temperature", 2010, 19.9)));
+			Map<String, List<Predictor>> permuted = new LinkedHashMap<String, List<Predictor>>();
+			permuted.put("texas", Arrays.asList(predictor("Temperature", 2010, 19.9), predictor("Population", 2010, 25.1)));
+			permuted.put("arizona", Arrays.asList(predictor("Temperature", 2010, 22.1), predictor("Population", 2010, 6.4)));
+			List<String> accessions = new ArrayList<String>(ACCESSIONS);
+			String fingerprint = store.getFingerprint(accessions, true, predictors, null, null);
+			assertEquals(fingerprint, store.getFingerprint(Arrays.asList("MF555555", "KX123456", "CY000001"), true, permuted, null, null));
+			assertEquals(fingerprint, store.getFingerprint(accessions, true, predictors, XMLParameters.getDefault(), null));
+			assertEquals(store.getFingerprint(accessions, false, null, null, null), store.getFingerprint(accessions, false, new LinkedHashMap<String, List<Predictor>>(), null, null));
+		}
+		finally {
+			delete(workDir);
+		}
+	}
+
+	@Test
+	public void testFingerprintSettings() throws Exception {
+		File workDir = Files.createTempDirectory("job-results").toFile();
+		try {
+			JobResultStore store = newStore(workDir, true);
+			String fingerprint = store.getFingerprint(ACCESSIONS, false, null, null, null);
+			XMLParameters chainLength = options(20000000, 1000, BeastSubstitutionModel.HKY);
+			XMLParameters subSampleRate = options(10000000, 2000, BeastSubstitutionModel.HKY);
+			XMLParameters substitutionModel = options(10000000, 1000, BeastSubstitutionModel.GTR);
+			assertEquals(fingerprint, store.getFingerprint(ACCESSIONS, false, null, options(10000000, 1000, BeastSubstitutionModel.HKY), null));
+			assertFalse(fingerprint.equals(store.getFingerprint(ACCESSIONS, false, null, chainLength, null)));
+			assertFalse(fingerprint.equals(store.getFingerprint(ACCESSIONS, false, null, subSampleRate, null)));
+			assertFalse(fingerprint.equals(store.getFingerprint(ACCESSIONS, false, null, substitutionModel, null)));
+			assertFalse(fingerprint.equals(store.getFingerprint(ACCESSIONS, true, null, null, null)));
+			SubsampleParameters subsampling = new SubsampleParameters();
+			subsampling.setMaxPerGroup(5);
+			String subsampled = store.getFingerprint(ACCESSIONS, false, null, null, subsampling);
+			assertFalse(fingerprint.equals(subsampled));
+			subsampling.setSeed(42L);
+			assertFalse(subsampled.equals(store.getFingerprint(ACCESSIONS, false, null, null, subsampling)));
+			assertFalse(fingerprint.equals(newStore(workDir, false).getFingerprint(ACCESSIONS, false, null, null, null)));
+		}
+		finally {
+			delete(workDir);
+		}
+	}
+
+	@Test
+	public void testRetrieveCopiesForNewJob() throws Exception {
+		File workDir = Files.createTempDirectory("job-results").toFile();
+		try {
+			JobResultStore store = newStore(workDir, true);
+			String fingerprint = store.getFingerprint(ACCESSIONS, true, null, null, null);
+			assertNull(store.retrieve(fingerprint, "second"));
+			File tree = write(new File(workDir, "jobs/first.tree"), "tree");
+			File figure = write(new File(workDir, "jobs/first-glm.png"), "figure");
+			write(new File(workDir, "render/first/map.json"), "render");
+			store.store(fingerprint, "first", tree, figure);
+			assertTrue(store.contains(fingerprint));
+			File[] results = store.retrieve(fingerprint, "second");
+			assertNotNull(results);
+			assertEquals(new File(workDir, "jobs/second.tree"), results[0]);
+			assertEquals(new File(workDir, "jobs/second-figure.png"), results[1]);
+			assertEquals("tree", read(results[0]));
+			assertEquals("figure", read(results[1]));
+			assertEquals("render", read(new File(workDir, "render/second/map.json")));
+			write(results[0], "changed");
+			results = store.retrieve(fingerprint, "third");
+			assertEquals(new File(workDir, "jobs/third.tree"), results[0]);
+			assertEquals("tree", read(results[0]));
+			assertEquals("tree", read(tree));
+			assertEquals(1, store.getStatistics().getEntries());
+			assertEquals(2, store.getStatistics().getHits());
+		}
+		finally {
+			delete(workDir);
+		}
+	}
+
+	private static JobResultStore newStore(File workDir, boolean collapseIdentical) throws Exception {
+		return new JobResultStore(new File(workDir, "store"), new File(workDir, "jobs"), new File(workDir, "render").getPath(), NO_LIMIT, "tools", collapseIdentical);
+	}
+
+	private static Predictor predictor(String name, int year, double value) {
+		Predictor predictor = new Predictor();
+		predictor.setName(name);
+		predictor.setYear(year);
+		predictor.setValue(value);
+		return predictor;
+	}
+
+	private static XMLParameters options(int chainLength, int subSampleRate, BeastSubstitutionModel substitutionModel) {
+		XMLParameters options = new XMLParameters();
+		options.setChainLength(chainLength);
+		options.setSubSampleRate(subSampleRate);
+		options.setSubstitutionModel(substitutionModel);
+		return options;
+	}
+
+	private static File write(File file, String content) throws Exception {
+		Files.createDirectories(file.getParentFile().toPath());
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static String read(File file) throws Exception {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
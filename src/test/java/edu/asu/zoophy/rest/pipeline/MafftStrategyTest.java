@@ -0,0 +1,186 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the MafftStrategy selection table on synthetic FASTA, and times MAFFT with each selection when it is installed.
+ * The timing runs are skipped unless -Dmafft.benchmark=true is set. They check that both runs produce a complete alignment and print the times.
+ */
+public class MafftStrategyTest {
+
+	private final static int[] SIZES = {100, 1000, 10000};
+	private final static int SEQUENCE_LENGTH = 1000;
+	private final static int CORES = 4;
+
+	@Test
+	public void testSelectionTable() {
+		String[] expected = {"auto", "auto", "FFT-NS-2"};
+		for (int i = 0; i < SIZES.length; i++) {
+			MafftStrategy strategy = select(syntheticFasta(SIZES[i], SEQUENCE_LENGTH, new Random(42)));
+			assertEquals(expected[i], strategy.getName());
+		}
+		assertEquals("FFT-NS-1", MafftStrategy.select(20000, SEQUENCE_LENGTH, CORES).getName());
+		assertEquals("PartTree", MafftStrategy.select(100000, SEQUENCE_LENGTH, CORES).getName());
+	}
+
+	@Test
+	public void testLongSequencesUseFasterStrategy() {
+		assertEquals("auto", MafftStrategy.select(1000, 1500, CORES).getName());
+		assertEquals("FFT-NS-2", MafftStrategy.select(1000, 30000, CORES).getName());
+		assertEquals("FFT-NS-1", MafftStrategy.select(5000, 30000, CORES).getName());
+	}
+
+	@Test
+	public void testThreads() {
+		assertFalse(MafftStrategy.select(100, SEQUENCE_LENGTH, CORES).getOptions().contains("--thread"));
+		MafftStrategy threaded = MafftStrategy.select(1000, SEQUENCE_LENGTH, CORES);
+		assertEquals(CORES, threaded.getThreads());
+		List<String> options = threaded.getOptions();
+		assertEquals(String.valueOf(CORES), options.get(options.indexOf("--thread")+1));
+		assertFalse(MafftStrategy.select(1000, SEQUENCE_LENGTH, 1).getOptions().contains("--thread"));
+		assertEquals(1, MafftStrategy.select(100000, SEQUENCE_LENGTH, CORES).getThreads());
+	}
+
+	@Test
+	public void testBenchmark() throws Exception {
+		assumeTrue(Boolean.getBoolean("mafft.benchmark"));
+		assumeTrue(isMafftInstalled());
+		File workDir = Files.createTempDirectory("mafft-strategy").toFile();
+		try {
+			for (int size : SIZES) {
+				String fasta = syntheticFasta(size, SEQUENCE_LENGTH, new Random(42));
+				File raw = new File(workDir, size+"-raw.fasta");
+				Files.write(raw.toPath(), fasta.getBytes("UTF-8"));
+				MafftStrategy selected = select(fasta);
+				File selectedOutput = new File(workDir, size+"-selected.fasta");
+				long selectedMillis = timeMafft(selected.getOptions(), raw, selectedOutput);
+				assertAligned(size, selectedOutput);
+				List<String> auto = new ArrayList<String>();
+				auto.add("--auto");
+				File autoOutput = new File(workDir, size+"-auto.fasta");
+				long autoMillis = timeMafft(auto, raw, autoOutput);
+				assertAligned(size, autoOutput);
+				System.out.println(size+" sequences: "+selected.toString()+" "+selectedMillis+" ms, single-threaded --auto "+autoMillis+" ms");
+			}
+		}
+		finally {
+			for (File file : workDir.listFiles()) {
+				file.delete();
+			}
+			workDir.delete();
+		}
+	}
+
+	/**
+	 * Selects MAFFT options the way SequenceAligner does, from the sequence count and mean length of FASTA
+	 */
+	private static MafftStrategy select(String fasta) {
+		int sequences = 0;
+		long residues = 0;
+		boolean inHeader = false;
+		for (int i = 0; i < fasta.length(); i++) {
+			char c = fasta.charAt(i);
+			if (c == '>') {
+				sequences++;
+				inHeader = true;
+			}
+			else if (c == '\n') {
+				inHeader = false;
+			}
+			else if (!inHeader && !Character.isWhitespace(c)) {
+				residues++;
+			}
+		}
+		return MafftStrategy.select(sequences, sequences == 0 ? 0.0 : (double) residues / sequences, CORES);
+	}
+
+	/**
+	 * Checks that MAFFT output has every input record, all padded to the same aligned length
+	 */
+	private static void assertAligned(int sequences, File alignment) throws Exception {
+		int records = 0;
+		int alignedLength = -1;
+		StringBuilder sequence = new StringBuilder();
+		List<String> lines = new ArrayList<String>(Files.readAllLines(alignment.toPath(), StandardCharsets.UTF_8));
+		lines.add(">");
+		for (String line : lines) {
+			if (line.startsWith(">")) {
+				if (records > 0) {
+					if (alignedLength == -1) {
+						alignedLength = sequence.length();
+					}
+					assertEquals(alignedLength, sequence.length());
+				}
+				sequence.setLength(0);
+				records++;
+			}
+			else {
+				sequence.append(line.trim());
+			}
+		}
+		assertEquals(sequences, records - 1);
+		assertTrue(alignedLength >= SEQUENCE_LENGTH);
+	}
+
+	/**
+	 * Generates related sequences by mutating a shared ancestor, so MAFFT has realistic work to do
+	 */
+	private static String syntheticFasta(int sequences, int length, Random random) {
+		final char[] bases = {'A', 'C', 'G', 'T'};
+		char[] ancestor = new char[length];
+		for (int i = 0; i < length; i++) {
+			ancestor[i] = bases[random.nextInt(bases.length)];
+		}
+		StringBuilder fasta = new StringBuilder(sequences * (length + 32));
+		for (int i = 0; i < sequences; i++) {
+			fasta.append(">ACC").append(i).append("_11320_human_2000.5_6252001\n");
+			for (int j = 0; j < length; j++) {
+				int roll = random.nextInt(100);
+				if (roll == 0) {
+					continue;
+				}
+				fasta.append(roll < 3 ? bases[random.nextInt(bases.length)] : ancestor[j]);
+			}
+			fasta.append('\n');
+		}
+		return fasta.toString();
+	}
+
+	private static long timeMafft(List<String> options, File input, File output) throws Exception {
+		List<String> command = new ArrayList<String>();
+		command.add("mafft");
+		command.addAll(options);
+		command.add(input.getAbsolutePath());
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectOutput(Redirect.to(output));
+		builder.redirectError(Redirect.appendTo(new File(output.getParentFile(), "mafft.log")));
+		long start = System.currentTimeMillis();
+		assertEquals(0, builder.start().waitFor());
+		return System.currentTimeMillis() - start;
+	}
+
+	private static boolean isMafftInstalled() {
+		try {
+			ProcessBuilder builder = new ProcessBuilder("mafft", "--version");
+			builder.redirectErrorStream(true);
+			Process process = builder.start();
+			process.getInputStream().close();
+			return process.waitFor() == 0;
+		}
+		catch (Exception e) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+public class RateMatrixHealthCheckTest {
+
+	private final static String HEADER = "state\tstates.rates1\tstates.rates2\tstates.indicators1\tstates.indicators2\tstates.nonZeroRates";
+
+	@Test
+	public void testStuckMatrixFails() {
+		List<String> failures = new ArrayList<String>();
+		RateMatrixHealthCheck check = newCheck(3, 50, failures);
+		check.handle("# BEAST v1.8.4");
+		check.handle(HEADER);
+		check.handle("0\t1.0\t1.0\t1\t1\t2");
+		check.handle("1000\t1.0\t1.0\t0\t1\t1");
+		check.handle("2000\t1.0\t1.0\t1\t1\t2");
+		assertTrue(failures.isEmpty());
+		check.handle("3000\t1.0\t1.0\t1\t0\t1");
+		assertEquals(1, failures.size());
+		assertTrue(failures.get(0).contains("state 3000"));
+		assertTrue(check.isDone());
+		check.handle("4000\t1.0\t1.0\t1\t0\t1");
+		assertEquals(1, failures.size());
+	}
+
+	@Test
+	public void testMovingMatrixPasses() {
+		List<String> failures = new ArrayList<String>();
+		RateMatrixHealthCheck check = newCheck(2, 4, failures);
+		check.handle(HEADER);
+		check.handle("0\t1.0\t1.0\t1\t1\t2");
+		check.handle("1000\t1.0\t1.0\t1\t1\t2");
+		check.handle("2000\t0.8\t1.0\t1\t1\t2");
+		assertFalse(check.isDone());
+		check.handle("3000\t0.8\t1.0\t1\t1\t2");
+		assertTrue(check.isDone());
+		assertTrue(failures.isEmpty());
+	}
+
+	@Test
+	public void testStallAfterMovingPasses() {
+		List<String> failures = new ArrayList<String>();
+		RateMatrixHealthCheck check = newCheck(3, 50, failures);
+		check.handle(HEADER);
+		check.handle("0\t1.0\t1.0\t1\t1\t2");
+		check.handle("1000\t0.9\t1.0\t1\t1\t2");
+		for (int state = 2000; state <= 10000; state += 1000) {
+			check.handle(state+"\t1.0\t1.0\t1\t1\t2");
+		}
+		assertTrue(failures.isEmpty());
+		assertFalse(check.isDone());
+	}
+
+	@Test
+	public void testInvalidRateFails() {
+		List<String> failures = new ArrayList<String>();
+		RateMatrixHealthCheck check = newCheck(0, 50, failures);
+		check.handle(HEADER);
+		check.handle("0\t1.0\t1.0\t1\t1\t2");
+		check.handle("1000\tNaN\t1.0\t1\t1\t2");
+		assertEquals(1, failures.size());
+		assertTrue(failures.get(0).contains("rate 1"));
+	}
+
+	private static RateMatrixHealthCheck newCheck(int stuckSamples, int checkSamples, final List<String> failures) {
+		return new RateMatrixHealthCheck(stuckSamples, checkSamples, new RateMatrixHealthCheck.FailureHandler() {
+			@Override
+			public void failed(String reason) {
+				failures.add(reason);
+			}
+		}, Logger.getLogger("RateMatrixHealthCheckTest"));
+	}
+
+}
@@ -0,0 +1,79 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.asu.zoophy.rest.genbank.GenBankRecord;
+import edu.asu.zoophy.rest.genbank.Location;
+import edu.asu.zoophy.rest.genbank.Sequence;
+
+/**
+ * Checks that RecordSubsampler caps each location and time bin the same way whatever order the records come in
+ */
+public class RecordSubsamplerTest {
+
+	@Test
+	public void testGroups() {
+		assertEquals("Phoenix 2015.00", RecordSubsampler.getGroup("Phoenix", 2015.2, 12));
+		assertEquals("Phoenix 2015.00", RecordSubsampler.getGroup("Phoenix", 2015.2, 3));
+		assertEquals("Phoenix 2015.25", RecordSubsampler.getGroup("Phoenix", 2015.3, 3));
+		assertEquals("Phoenix 2015.50", RecordSubsampler.getGroup("Phoenix", 2015.9, 6));
+	}
+
+	@Test
+	public void testSubsample() throws Exception {
+		List<GenBankRecord> records = new ArrayList<GenBankRecord>();
+		for (int i = 0; i < 6; i++) {
+			records.add(record("A"+i, "Phoenix", "1"+i+"-Mar-2015"));
+		}
+		records.add(record("B0", "Tucson", "10-Mar-2015"));
+		records.add(record("C0", "Phoenix", "10-Mar-2016"));
+		RecordSubsampler subsampler = new RecordSubsampler(parameters(2, 42L));
+		List<GenBankRecord> kept = subsampler.subsample(records);
+		assertEquals(4, kept.size());
+		assertEquals(4, subsampler.getDroppedAccessions().size());
+		assertEquals(Collections.singletonMap("phoenix 2015.00", 4), subsampler.getDroppedGroups());
+		assertTrue(accessions(kept).contains("B0"));
+		assertTrue(accessions(kept).contains("C0"));
+		List<GenBankRecord> reversed = new ArrayList<GenBankRecord>(records);
+		Collections.reverse(reversed);
+		assertEquals(accessions(kept), accessions(new RecordSubsampler(parameters(2, 42L)).subsample(reversed)));
+	}
+
+	private static SubsampleParameters parameters(int maxPerGroup, long seed) {
+		SubsampleParameters parameters = new SubsampleParameters();
+		parameters.setMaxPerGroup(maxPerGroup);
+		parameters.setBinMonths(12);
+		parameters.setSeed(seed);
+		return parameters;
+	}
+
+	private static GenBankRecord record(String accession, String place, String date) {
+		GenBankRecord record = new GenBankRecord();
+		record.setAccession(accession);
+		Sequence sequence = new Sequence();
+		sequence.setAccession(accession);
+		sequence.setCollectionDate(date);
+		record.setSequence(sequence);
+		Location location = new Location();
+		location.setLocation(place);
+		record.setGeonameLocation(location);
+		return record;
+	}
+
+	private static Set<String> accessions(List<GenBankRecord> records) {
+		Set<String> accessions = new HashSet<String>();
+		for (GenBankRecord record : records) {
+			accessions.add(record.getAccession());
+		}
+		return accessions;
+	}
+
+}
@@ -0,0 +1,74 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.asu.zoophy.rest.genbank.GenBankRecord;
+import edu.asu.zoophy.rest.genbank.Location;
+import edu.asu.zoophy.rest.genbank.Sequence;
+
+/**
+ * Checks that SequenceCollapser keeps one record of each group of identical sequences from the same location and date
+ */
+public class SequenceCollapserTest {
+
+	@Test
+	public void testHash() {
+		assertEquals(SequenceCollapser.hash("acgt", "phoenix", "2015.1945"), SequenceCollapser.hash("ACGT", "phoenix", "2015.1945"));
+		assertTrue(SequenceCollapser.hash("ACGT", "phoenix", "2015.1945") != SequenceCollapser.hash("ACGT", "phoenix", "2015.1973"));
+		assertTrue(SequenceCollapser.hash("ACGT", "phoenix", "2015.1945") != SequenceCollapser.hash("ACGA", "phoenix", "2015.1945"));
+	}
+
+	@Test
+	public void testCollapse() throws Exception {
+		List<GenBankRecord> records = new ArrayList<GenBankRecord>();
+		records.add(record("C3", "ACGTACGT", "Phoenix", "10-Mar-2015"));
+		records.add(record("A1", "acgtacgt", "Phoenix", "10-Mar-2015"));
+		records.add(record("B2", "ACGTACGT", "Phoenix", "10-Mar-2015"));
+		records.add(record("D4", "ACGTACGT", "Tucson", "10-Mar-2015"));
+		records.add(record("E5", "ACGTACGT", "Phoenix", "11-Mar-2015"));
+		records.add(record("F6", "ACGTACGA", "Phoenix", "10-Mar-2015"));
+		records.add(record("G7", "TTTT", "Tucson", "01-Jan-2016"));
+		records.add(record("H8", "TTTT", "Tucson", "01-Jan-2016"));
+		SequenceCollapser collapser = new SequenceCollapser();
+		List<GenBankRecord> kept = collapser.collapse(records);
+		assertEquals(Arrays.asList("A1", "D4", "E5", "F6", "G7"), accessions(kept));
+		assertEquals(Arrays.asList("C3", "B2", "H8"), new ArrayList<String>(collapser.getCollapsedAccessions().keySet()));
+		assertEquals("A1", collapser.getCollapsedAccessions().get("C3"));
+		assertEquals("G7", collapser.getCollapsedAccessions().get("H8"));
+		assertEquals(2, collapser.getCollapsedGroups());
+		Collections.reverse(records);
+		List<String> reversed = accessions(new SequenceCollapser().collapse(records));
+		Collections.reverse(reversed);
+		assertEquals(accessions(kept), reversed);
+	}
+
+	private static GenBankRecord record(String accession, String rawSequence, String place, String date) {
+		GenBankRecord record = new GenBankRecord();
+		record.setAccession(accession);
+		Sequence sequence = new Sequence();
+		sequence.setAccession(accession);
+		sequence.setRawSequence(rawSequence);
+		sequence.setCollectionDate(date);
+		record.setSequence(sequence);
+		Location location = new Location();
+		location.setLocation(place);
+		record.setGeonameLocation(location);
+		return record;
+	}
+
+	private static List<String> accessions(List<GenBankRecord> records) {
+		List<String> accessions = new ArrayList<String>();
+		for (GenBankRecord record : records) {
+			accessions.add(record.getAccession());
+		}
+		return accessions;
+	}
+
+}
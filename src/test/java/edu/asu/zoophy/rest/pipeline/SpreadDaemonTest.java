@@ -0,0 +1,236 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks SpreadDaemon against a stand-in SpreaD3 jar, and compares per-job SpreaD3 latency with and without the warm worker.
+ * The timing runs are skipped unless -Dspread3.benchmark=true is set. They use the jar given by -Dspread3.jar, with the
+ * -Dspread3.benchmark.parse and -Dspread3.benchmark.render arguments, or the stand-in jar when those are not set.
+ */
+public class SpreadDaemonTest {
+
+	private final static int BENCHMARK_JOBS = 5;
+	private static File workDir;
+	private static File fakeSpread;
+
+	@BeforeClass
+	public static void buildFakeSpread() throws Exception {
+		workDir = Files.createTempDirectory("spread-daemon").toFile();
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			return;
+		}
+		File source = new File(workDir, "FakeSpread.java");
+		PrintWriter writer = new PrintWriter(source);
+		writer.println("public class FakeSpread {");
+		writer.println("\tprivate static int runs = 0;");
+		writer.println("\tpublic static void main(String[] args) throws Exception {");
+		writer.println("\t\truns++;");
+		writer.println("\t\tSystem.out.println(\"run \"+runs+\" \"+args[0]);");
+		writer.println("\t\tif (args[0].equals(\"-fail\")) System.exit(3);");
+		writer.println("\t\tif (args[0].equals(\"-throw\")) throw new IllegalStateException(\"bad input\");");
+		writer.println("\t\tif (args[0].equals(\"-sleep\")) Thread.sleep(60000);");
+		writer.println("\t}");
+		writer.println("}");
+		writer.close();
+		assertEquals(0, compiler.run(null, null, null, "-d", workDir.getAbsolutePath(), source.getAbsolutePath()));
+		fakeSpread = new File(workDir, "fake-spread3.jar");
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "FakeSpread");
+		JarOutputStream jar = new JarOutputStream(new FileOutputStream(fakeSpread), manifest);
+		try {
+			jar.putNextEntry(new JarEntry("FakeSpread.class"));
+			jar.write(Files.readAllBytes(new File(workDir, "FakeSpread.class").toPath()));
+			jar.closeEntry();
+		}
+		finally {
+			jar.close();
+		}
+	}
+
+	@AfterClass
+	public static void cleanup() {
+		for (File file : workDir.listFiles()) {
+			file.delete();
+		}
+		workDir.delete();
+	}
+
+	@Test
+	public void testExitCodesAndWarmWorker() throws Exception {
+		assumeNotNull(fakeSpread);
+		SpreadDaemon daemon = new SpreadDaemon(fakeSpread, 100, null);
+		File log = new File(workDir, "exit-codes.log");
+		try {
+			assertEquals(0, daemon.submit(Arrays.asList("-parse", "a"), log).waitFor());
+			assertEquals(3, daemon.submit(Arrays.asList("-fail"), log).waitFor());
+			assertEquals(1, daemon.submit(Arrays.asList("-throw"), log).waitFor());
+			assertEquals(0, daemon.submit(Arrays.asList("-render", "d3"), log).waitFor());
+		}
+		finally {
+			daemon.shutdown();
+		}
+		String output = new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8);
+		assertTrue(output.contains("run 1 -parse"));
+		assertTrue(output.contains("bad input"));
+		// static state survives between requests, so all four ran in the same JVM
+		assertTrue(output.contains("run 4 -render"));
+	}
+
+	@Test
+	public void testWorkerReplacedAfterMaxRequests() throws Exception {
+		assumeNotNull(fakeSpread);
+		SpreadDaemon daemon = new SpreadDaemon(fakeSpread, 2, null);
+		File log = new File(workDir, "max-requests.log");
+		try {
+			for (int i = 0; i < 3; i++) {
+				assertEquals(0, daemon.submit(Arrays.asList("-parse"), log).waitFor());
+			}
+		}
+		finally {
+			daemon.shutdown();
+		}
+		String output = new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8);
+		assertTrue(output.contains("run 2 -parse"));
+		assertFalse(output.contains("run 3 -parse"));
+	}
+
+	@Test
+	public void testStopRunningRequest() throws Exception {
+		assumeNotNull(fakeSpread);
+		SpreadDaemon daemon = new SpreadDaemon(fakeSpread, 100, null);
+		File log = new File(workDir, "stop.log");
+		try {
+			Process sleeping = daemon.submit(Arrays.asList("-sleep"), log);
+			Process queued = daemon.submit(Arrays.asList("-parse"), log);
+			Thread.sleep(2000);
+			queued.destroy();
+			sleeping.destroy();
+			assertEquals(143, sleeping.waitFor());
+			assertEquals(143, queued.waitFor());
+			assertEquals(0, daemon.submit(Arrays.asList("-render"), log).waitFor());
+		}
+		finally {
+			daemon.shutdown();
+		}
+		assertFalse(new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8).contains("-parse"));
+	}
+
+	@Test
+	public void testWorkersRunInParallel() throws Exception {
+		assumeNotNull(fakeSpread);
+		SpreadDaemon daemon = new SpreadDaemon(fakeSpread, 100, null, 2);
+		File log = new File(workDir, "parallel.log");
+		try {
+			Process sleeping = daemon.submit(Arrays.asList("-sleep"), log);
+			long start = System.currentTimeMillis();
+			assertEquals(0, daemon.submit(Arrays.asList("-parse"), log).waitFor());
+			assertEquals(0, daemon.submit(Arrays.asList("-render"), log).waitFor());
+			assertTrue(System.currentTimeMillis() - start < 30000);
+			sleeping.destroy();
+			assertEquals(143, sleeping.waitFor());
+		}
+		finally {
+			daemon.shutdown();
+		}
+	}
+
+	@Test
+	public void testWorkerMeasuredForStage() throws Exception {
+		assumeNotNull(fakeSpread);
+		assumeTrue(new File("/proc/self/stat").exists());
+		SpreadDaemon daemon = new SpreadDaemon(fakeSpread, 100, null);
+		File log = new File(workDir, "metrics.log");
+		StageMonitor monitor = StageMonitor.start();
+		StageMetrics metrics = new StageMetrics("spread");
+		try {
+			assertEquals(0, daemon.submit(Arrays.asList("-parse"), log).waitFor());
+			assertEquals(0, daemon.submit(Arrays.asList("-render"), log).waitFor());
+		}
+		finally {
+			monitor.stop(metrics);
+			daemon.shutdown();
+		}
+		assertEquals(1, metrics.getChildProcesses());
+		assertTrue(metrics.getPeakRssBytes() > 0);
+	}
+
+	@Test
+	public void testBenchmark() throws Exception {
+		assumeTrue(Boolean.getBoolean("spread3.benchmark"));
+		File spread3 = fakeSpread;
+		List<String> parse = Arrays.asList("-parse");
+		List<String> render = Arrays.asList("-render", "d3");
+		if (System.getProperty("spread3.jar") != null) {
+			spread3 = new File(System.getProperty("spread3.jar"));
+			parse = Arrays.asList(System.getProperty("spread3.benchmark.parse").trim().split("\\s+"));
+			render = Arrays.asList(System.getProperty("spread3.benchmark.render").trim().split("\\s+"));
+		}
+		assumeNotNull(spread3);
+		File log = new File(workDir, "benchmark.log");
+		long coldMillis = 0;
+		for (int i = 0; i < BENCHMARK_JOBS; i++) {
+			long start = System.currentTimeMillis();
+			assertEquals(0, runCold(spread3, parse, log));
+			assertEquals(0, runCold(spread3, render, log));
+			coldMillis += System.currentTimeMillis() - start;
+		}
+		SpreadDaemon daemon = new SpreadDaemon(spread3, 100, null);
+		long warmMillis = 0;
+		long firstMillis = 0;
+		try {
+			for (int i = 0; i < BENCHMARK_JOBS + 1; i++) {
+				long start = System.currentTimeMillis();
+				assertEquals(0, daemon.submit(parse, log).waitFor());
+				assertEquals(0, daemon.submit(render, log).waitFor());
+				if (i == 0) {
+					firstMillis = System.currentTimeMillis() - start;
+				}
+				else {
+					warmMillis += System.currentTimeMillis() - start;
+				}
+			}
+		}
+		finally {
+			daemon.shutdown();
+		}
+		System.out.println("SpreaD3 parse + render per job ("+spread3.getName()+"): cold JVMs "+(coldMillis / BENCHMARK_JOBS)+" ms, worker first job "+firstMillis+" ms, warm worker "+(warmMillis / BENCHMARK_JOBS)+" ms");
+	}
+
+	private static int runCold(File spread3, List<String> arguments, File log) throws Exception {
+		List<String> command = new ArrayList<String>();
+		command.add("java");
+		command.add("-jar");
+		command.add(spread3.getAbsolutePath());
+		command.addAll(arguments);
+		ProcessBuilder builder = new ProcessBuilder(command).directory(spread3.getAbsoluteFile().getParentFile());
+		builder.redirectOutput(Redirect.appendTo(log));
+		builder.redirectError(Redirect.appendTo(log));
+		return builder.start().waitFor();
+	}
+
+}
@@ -0,0 +1,218 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Checks that StageGraph overlaps independent stages, finds the critical path, stops on failure, records stage metrics, and resumes from a JobCheckpoint
+ */
+public class StageGraphTest {
+
+	@Test
+	public void testIndependentStagesOverlap() throws Exception {
+		StageGraph graph = new StageGraph("stage-graph-test");
+		graph.addStage("load", new String[] {}, new String[] {"records"}, sleep(100));
+		graph.addStage("slow", new String[] {"records"}, new String[] {"alignment"}, sleep(400));
+		graph.addStage("fast", new String[] {"records"}, new String[] {"coordinates"}, sleep(100));
+		graph.addStage("render", new String[] {"alignment", "coordinates"}, new String[] {}, sleep(100));
+		graph.run();
+		Map<String, StageGraph.StageTiming> timings = new HashMap<String, StageGraph.StageTiming>();
+		for (StageGraph.StageTiming timing : graph.getTimings()) {
+			timings.put(timing.getName(), timing);
+		}
+		assertEquals(4, timings.size());
+		assertTrue(timings.get("load").isCritical());
+		assertTrue(timings.get("slow").isCritical());
+		assertTrue(timings.get("render").isCritical());
+		assertFalse(timings.get("fast").isCritical());
+		assertTrue(timings.get("fast").getSlackMillis() >= 200);
+		assertTrue(timings.get("slow").getSlackMillis() < 50);
+		assertTrue(timings.get("fast").getStartMillis() < timings.get("slow").getEndMillis());
+	}
+
+	@Test
+	public void testFailureStopsDependents() {
+		final boolean[] ran = {false};
+		StageGraph graph = new StageGraph("stage-graph-test");
+		graph.addStage("mafft", new String[] {}, new String[] {"alignment"}, new StageGraph.Stage() {
+			@Override
+			public void run() throws Exception {
+				throw new AlignerException("mafft exited with code: 1", "ERROR Mafft process failed.");
+			}
+		});
+		graph.addStage("beast", new String[] {"alignment"}, new String[] {}, new StageGraph.Stage() {
+			@Override
+			public void run() {
+				ran[0] = true;
+			}
+		});
+		try {
+			graph.run();
+			fail("expected the stage failure");
+		}
+		catch (PipelineException pe) {
+			assertEquals("ERROR Mafft process failed.", pe.getUserMessage());
+		}
+		assertFalse(ran[0]);
+		List<StageGraph.StageTiming> timings = graph.getTimings();
+		assertEquals(1, timings.size());
+		assertEquals("mafft", timings.get(0).getName());
+	}
+
+	@Test
+	public void testStageMetricsRecorded() throws Exception {
+		assumeTrue(new File("/proc/self/stat").exists());
+		StageGraph graph = new StageGraph("stage-metrics-test");
+		graph.addStage("busy", new String[] {}, new String[] {}, new StageGraph.Stage() {
+			@Override
+			public void run() throws Exception {
+				ProcessBuilder builder = new ProcessBuilder("sh", "-c", "i=0; while [ $i -lt 1000000 ]; do i=$((i+1)); done; head -c 1000000 /dev/zero");
+				builder.redirectOutput(Redirect.DISCARD);
+				assertEquals(0, StageMonitor.watch(builder.start()).waitFor());
+			}
+		});
+		graph.run();
+		List<StageMetrics> stages = JobMetrics.getStages("stage-metrics-test");
+		assertEquals(1, stages.size());
+		StageMetrics busy = stages.get(0);
+		assertEquals("busy", busy.getStage());
+		assertFalse(busy.isFailed());
+		assertTrue(busy.isCritical());
+		assertTrue(busy.getChildProcesses() >= 1);
+		// the process runs for more than one sample interval, the CPU time after the last sample is not seen
+		assertTrue(busy.getChildCpuMillis() > 0);
+		assertTrue(busy.getChildCpuMillis() <= busy.getWallMillis() + 100);
+		assertTrue(busy.getPeakRssBytes() > 0);
+		boolean found = false;
+		for (StageHistograms histograms : JobMetrics.getHistograms()) {
+			if (histograms.getStage().equals("busy")) {
+				found = true;
+				assertEquals(1, histograms.getWallMillis().getCount());
+				assertEquals(busy.getWallMillis(), histograms.getWallMillis().getMax());
+			}
+		}
+		assertTrue(found);
+	}
+
+	@Test
+	public void testHistogramBuckets() {
+		MetricHistogram histogram = new MetricHistogram();
+		for (long value : new long[] {0, 1, 2, 3, 4, 1000, 1023, 1024}) {
+			histogram.add(value);
+		}
+		assertEquals(8, histogram.getCount());
+		assertEquals(0, histogram.getMin());
+		assertEquals(1024, histogram.getMax());
+		assertEquals(Long.valueOf(2), histogram.getBuckets().get(1L));
+		assertEquals(Long.valueOf(2), histogram.getBuckets().get(3L));
+		assertEquals(Long.valueOf(2), histogram.getBuckets().get(1023L));
+		assertEquals(Long.valueOf(1), histogram.getBuckets().get(2047L));
+		assertEquals(3, histogram.getP50());
+		assertEquals(1024, histogram.getP95());
+	}
+
+	@Test
+	public void testResumeFromCheckpoint() throws Exception {
+		File directory = Files.createTempDirectory("stage-checkpoint").toFile();
+		final Map<String, Integer> runs = new HashMap<String, Integer>();
+		final boolean[] isFailing = {true};
+		for (int attempt = 0; attempt < 2; attempt++) {
+			JobCheckpoint checkpoint = new JobCheckpoint(directory);
+			StageGraph graph = new StageGraph("stage-checkpoint-test");
+			graph.setCheckpoint(checkpoint);
+			graph.addStage("records", new String[] {}, new String[] {"records"}, count(runs, "records", false));
+			graph.addStage("rawFasta", new String[] {"records"}, new String[] {"rawFasta"}, count(runs, "rawFasta", false));
+			graph.addStage("coordinates", new String[] {"rawFasta"}, new String[] {"coordinates"}, count(runs, "coordinates", true));
+			graph.addStage("mafft", new String[] {"rawFasta"}, new String[] {"alignment"}, new StageGraph.ResumableStage() {
+				@Override
+				public void run() throws Exception {
+					increment(runs, "mafft");
+					Thread.sleep(100);
+					if (isFailing[0]) {
+						throw new AlignerException("mafft was killed", "ERROR Mafft process failed.");
+					}
+				}
+				@Override
+				public void resume() {
+					increment(runs, "mafft resumed");
+				}
+			});
+			try {
+				graph.run();
+				assertEquals(1, attempt);
+			}
+			catch (AlignerException e) {
+				assertEquals(0, attempt);
+				assertTrue(checkpoint.isDone("coordinates"));
+				assertFalse(checkpoint.isDone("mafft"));
+				checkpoint.setValue("chains", "2");
+				isFailing[0] = false;
+			}
+		}
+		// the interrupted mafft stage needs rawFasta's in memory results, so the stages before it run again, but coordinates is resumed
+		assertEquals(Integer.valueOf(2), runs.get("records"));
+		assertEquals(Integer.valueOf(2), runs.get("rawFasta"));
+		assertEquals(Integer.valueOf(1), runs.get("coordinates"));
+		assertEquals(Integer.valueOf(1), runs.get("coordinates resumed"));
+		assertEquals(Integer.valueOf(2), runs.get("mafft"));
+		assertNull(runs.get("mafft resumed"));
+		JobCheckpoint checkpoint = new JobCheckpoint(directory);
+		assertEquals("2", checkpoint.getValue("chains"));
+		assertTrue(checkpoint.isDone("mafft"));
+		checkpoint.clear();
+		assertFalse(directory.exists());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingInput() {
+		StageGraph graph = new StageGraph("stage-graph-test");
+		graph.addStage("beast", new String[] {"alignment"}, new String[] {}, sleep(0));
+	}
+
+	private static StageGraph.Stage count(final Map<String, Integer> runs, final String name, boolean isResumable) {
+		if (isResumable) {
+			return new StageGraph.ResumableStage() {
+				@Override
+				public void run() {
+					increment(runs, name);
+				}
+				@Override
+				public void resume() {
+					increment(runs, name+" resumed");
+				}
+			};
+		}
+		return new StageGraph.Stage() {
+			@Override
+			public void run() {
+				increment(runs, name);
+			}
+		};
+	}
+
+	private static void increment(Map<String, Integer> runs, String name) {
+		synchronized (runs) {
+			Integer count = runs.get(name);
+			runs.put(name, count == null ? 1 : count + 1);
+		}
+	}
+
+	private static StageGraph.Stage sleep(final long millis) {
+		return new StageGraph.Stage() {
+			@Override
+			public void run() throws Exception {
+				Thread.sleep(millis);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,145 @@
+package edu.asu.zoophy.rest.pipeline;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Checks StreamingTraitInserter against DiscreteTraitInserter on a BeastGen generated input, and compares their cost
+ */
+public class StreamingTraitInserterTest {
+
+	private final static int TAXA = 2000;
+	private final static int SEQUENCE_LENGTH = 1500;
+	private final static String[] LOCATIONS = {"5332921", "6252001", "1814991", "2635167", "3017382", "2921044"};
+
+	@Test
+	public void testMatchesDomInserter() throws Exception {
+		File beastGenDir = new File(System.getProperty("user.dir")+"/BeastGen");
+		assumeTrue(new File(beastGenDir, "beastgen.jar").exists());
+		File workDir = Files.createTempDirectory("trait-inserter").toFile();
+		try {
+			final String jobID = "benchmark";
+			File fasta = new File(workDir, jobID+"-aligned.fasta");
+			writeFasta(fasta);
+			File input = new File(workDir, jobID+".xml");
+			ProcessBuilder builder = new ProcessBuilder("java", "-jar", "beastgen.jar", "-date_order", "4", "-D", "chain_length=1000000,log_every=1000", "beastgen.template", fasta.getAbsolutePath(), input.getAbsolutePath()).directory(beastGenDir);
+			builder.redirectOutput(Redirect.INHERIT);
+			builder.redirectError(Redirect.INHERIT);
+			assumeTrue(builder.start().waitFor() == 0);
+			XMLParameters xmlOptions = new XMLParameters();
+			xmlOptions.setChainLength(1000000);
+			xmlOptions.setSubSampleRate(1000);
+			xmlOptions.setSubstitutionModel(BeastSubstitutionModel.HKY);
+			ZooPhyJob job = new ZooPhyJob(jobID, "benchmark", "test@test.com", false, null, xmlOptions);
+			File domOutput = new File(workDir, "dom.xml");
+			File streamOutput = new File(workDir, "stream.xml");
+			Files.copy(input.toPath(), domOutput.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.copy(input.toPath(), streamOutput.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			new DiscreteTraitInserter(job, domOutput.getAbsolutePath()).addLocation();
+			long domMillis = (System.nanoTime() - start) / 1000000;
+			long domAllocated = allocatedBytes() - allocated;
+			allocated = allocatedBytes();
+			start = System.nanoTime();
+			new StreamingTraitInserter(job, streamOutput.getAbsolutePath()).addLocation();
+			long streamMillis = (System.nanoTime() - start) / 1000000;
+			long streamAllocated = allocatedBytes() - allocated;
+			System.out.println("Trait insertion for "+TAXA+" taxa x "+SEQUENCE_LENGTH+" sites ("+(input.length() / 1024)+" KB input)");
+			System.out.println("DOM:       "+domMillis+" ms, "+(domAllocated / (1024 * 1024))+" MB allocated");
+			System.out.println("Streaming: "+streamMillis+" ms, "+(streamAllocated / (1024 * 1024))+" MB allocated");
+			Document expected = parse(domOutput);
+			Document actual = parse(streamOutput);
+			assertTrue(expected.isEqualNode(actual));
+		}
+		finally {
+			for (File file : workDir.listFiles()) {
+				file.delete();
+			}
+			workDir.delete();
+		}
+	}
+
+	@Test(expected = TraitException.class)
+	public void testRejectsUnknownTemplate() throws Exception {
+		File document = File.createTempFile("trait-inserter", ".xml");
+		try {
+			PrintWriter writer = new PrintWriter(document);
+			writer.println("<?xml version=\"1.0\"?>");
+			writer.println("<beast><taxa id=\"taxa\"><taxon id=\"A_1\"/></taxa></beast>");
+			writer.close();
+			ZooPhyJob job = new ZooPhyJob("unknown", "unknown", "test@test.com", false, null, XMLParameters.getDefault());
+			new StreamingTraitInserter(job, document.getAbsolutePath()).addLocation();
+		}
+		finally {
+			document.delete();
+		}
+	}
+
+	private static void writeFasta(File fasta) throws Exception {
+		Random random = new Random(42);
+		final char[] bases = {'A', 'C', 'G', 'T'};
+		PrintWriter writer = new PrintWriter(fasta);
+		for (int i = 0; i < TAXA; i++) {
+			writer.println(">ACC"+i+"_11320_human_"+(1990 + random.nextInt(25))+".5_"+LOCATIONS[random.nextInt(LOCATIONS.length)]);
+			StringBuilder sequence = new StringBuilder(SEQUENCE_LENGTH);
+			for (int j = 0; j < SEQUENCE_LENGTH; j++) {
+				sequence.append(bases[random.nextInt(bases.length)]);
+			}
+			writer.println(sequence);
+		}
+		writer.close();
+	}
+
+	/**
+	 * Parses an XML file without whitespace-only text, which the two inserters indent differently
+	 */
+	private static Document parse(File file) throws Exception {
+		Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+		stripWhitespace(document.getDocumentElement());
+		return document;
+	}
+
+	private static void stripWhitespace(Node node) {
+		NodeList children = node.getChildNodes();
+		for (int i = children.getLength() - 1; i >= 0; i--) {
+			Node child = children.item(i);
+			if (child.getNodeType() == Node.TEXT_NODE) {
+				String text = child.getTextContent().trim();
+				if (text.isEmpty()) {
+					node.removeChild(child);
+				}
+				else {
+					child.setTextContent(text);
+				}
+			}
+			else {
+				stripWhitespace(child);
+			}
+		}
+	}
+
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+}